@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.WireJsonTranscoder;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.github.whiver.nifi.service.ProtobufService;
+import com.google.protobuf.Descriptors;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a stream of varint-delimited AddressBook messages, taken from the test data, to newline-delimited JSON
+ * with dynamic messages and with the streaming transcoder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class AddressBookDecodeBenchmark {
+    @Param({"AddressBook_basic", "AddressBook_several"})
+    private String data;
+
+    @Param({"1000"})
+    private int messageCount;
+
+    @Param({"dynamic", "streaming"})
+    private String engine;
+
+    private Descriptors.Descriptor descriptor;
+    private JSONMapper mapper;
+    private WireJsonTranscoder transcoder;
+    private byte[] stream;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() throws Exception {
+        descriptor = SchemaParser.parseSchema(AddressBookDecodeBenchmark.class.getResource("/schemas/AddressBook.desc").getPath(), false)
+                .getMessageDescriptor("AddressBook");
+        mapper = JSONMapper.getDefault();
+        transcoder = Engines.transcoder(engine, mapper);
+
+        byte[] message = IOUtils.toByteArray(AddressBookDecodeBenchmark.class.getResourceAsStream("/data/" + data + ".data"));
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        for (int i = 0; i < messageCount; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(messages, message.length);
+            messages.write(message);
+        }
+        stream = messages.toByteArray();
+        output = new ByteArrayOutputStream(stream.length * 4);
+    }
+
+    @Benchmark
+    public int decode() throws Exception {
+        output.reset();
+        ProtobufService.decodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, JsonLayout.NDJSON, mapper, transcoder,
+                new ByteArrayInputStream(stream), output);
+        return output.size();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.JsonWireEncoder;
+import com.github.whiver.nifi.service.ProtobufService;
+import com.google.protobuf.Descriptors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of newline-delimited JSON to a stream of varint-delimited messages, as done by ProtobufEncoder for each
+ * flowfile, with each codec engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+    @Param({"SMALL", "LARGE", "NESTED", "REPEATED"})
+    private Payloads.Shape shape;
+
+    @Param({"32", "1024"})
+    private int size;
+
+    @Param({"100"})
+    private int messageCount;
+
+    @Param({"dynamic", "streaming", "generated"})
+    private String engine;
+
+    private Descriptors.Descriptor descriptor;
+    private JSONMapper mapper;
+    private JsonWireEncoder encoder;
+    private byte[] json;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Payloads.createSchemaDirectory();
+        descriptor = Payloads.loadDescriptor(directory);
+        mapper = new JSONMapper(true, false, false, false);
+        encoder = Engines.encoder(engine, mapper);
+
+        // The JSON is the one printed by the decoder
+        byte[] data = Payloads.delimited(descriptor, shape, size, messageCount);
+        ByteArrayOutputStream jsonOutput = new ByteArrayOutputStream();
+        ProtobufService.decodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, JsonLayout.NDJSON, mapper,
+                new ByteArrayInputStream(data), jsonOutput);
+        json = jsonOutput.toByteArray();
+        output = new ByteArrayOutputStream(data.length);
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        output.reset();
+        ProtobufService.encodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, JsonLayout.NDJSON, mapper, encoder,
+                new ByteArrayInputStream(json), output);
+        return output.size();
+    }
+}
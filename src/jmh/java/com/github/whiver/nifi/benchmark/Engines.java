@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.mapper.CodecGenerator;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.JsonWireEncoder;
+import com.github.whiver.nifi.mapper.WireJsonTranscoder;
+
+/**
+ * The codec engines of the processors, named as the values of their protobuf.codecEngine property
+ */
+final class Engines {
+    private Engines() {
+    }
+
+    /**
+     * @return the transcoder used by the given engine, null for dynamic messages
+     */
+    static WireJsonTranscoder transcoder(String engine, JSONMapper mapper) {
+        switch (engine) {
+            case "dynamic":
+                return null;
+            case "streaming":
+                return WireJsonTranscoder.forMapper(mapper);
+            case "generated":
+                return WireJsonTranscoder.forMapper(mapper, generator(mapper));
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * @return the encoder used by the given engine, null for dynamic messages
+     */
+    static JsonWireEncoder encoder(String engine, JSONMapper mapper) {
+        switch (engine) {
+            case "dynamic":
+                return null;
+            case "streaming":
+                return JsonWireEncoder.forMapper(mapper);
+            case "generated":
+                return JsonWireEncoder.forMapper(mapper, generator(mapper));
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    private static CodecGenerator generator(JSONMapper mapper) {
+        if (!CodecGenerator.isCompilerAvailable()) {
+            throw new IllegalStateException("The generated engine can only be benchmarked on a JDK");
+        }
+        return new CodecGenerator(mapper.isPreservingFieldNames(), mapper.isIgnoringUnknownFields());
+    }
+}
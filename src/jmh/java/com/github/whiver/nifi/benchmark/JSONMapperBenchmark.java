@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Printing and parsing of a single message with the JSONMapper, which the dynamic engine does for each message
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class JSONMapperBenchmark {
+    @Param({"SMALL", "LARGE", "NESTED", "REPEATED"})
+    private Payloads.Shape shape;
+
+    @Param({"32", "1024"})
+    private int size;
+
+    @Param({"true", "false"})
+    private boolean compact;
+
+    private Descriptors.Descriptor descriptor;
+    private JSONMapper mapper;
+    private Message message;
+    private String json;
+    private StringBuilder output;
+
+    @Setup
+    public void setUp() throws Exception {
+        descriptor = Payloads.loadDescriptor(Payloads.createSchemaDirectory());
+        mapper = new JSONMapper(compact, false, false, false);
+        message = Payloads.generate(descriptor, shape, size, 0);
+        output = new StringBuilder();
+        mapper.print(message, output);
+        json = output.toString();
+    }
+
+    @Benchmark
+    public int print() throws Exception {
+        output.setLength(0);
+        if (compact) {
+            mapper.printCompact(message, output);
+        } else {
+            mapper.print(message, output);
+        }
+        return output.length();
+    }
+
+    @Benchmark
+    public Message parse() throws Exception {
+        return mapper.parse(new StringReader(json), DynamicMessage.newBuilder(descriptor));
+    }
+}
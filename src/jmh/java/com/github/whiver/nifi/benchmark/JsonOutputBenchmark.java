@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.service.ProtobufService;
+import com.google.protobuf.Descriptors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a single message to JSON by building a String and then its UTF-8 bytes, as the decoder used to do, and by
+ * writing the JSON straight to the output stream, as it does now. Run with the gc profiler to compare the bytes
+ * allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class JsonOutputBenchmark {
+    @Param({"SMALL", "LARGE", "REPEATED"})
+    private Payloads.Shape shape;
+
+    @Param({"32", "1024"})
+    private int size;
+
+    private Descriptors.Descriptor descriptor;
+    private JSONMapper mapper;
+    private byte[] data;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Payloads.createSchemaDirectory();
+        descriptor = Payloads.loadDescriptor(directory);
+        mapper = JSONMapper.getDefault();
+        data = Payloads.generate(descriptor, shape, size, 0).toByteArray();
+        output = new ByteArrayOutputStream(data.length * 4);
+    }
+
+    @Benchmark
+    public int decodeToString() throws Exception {
+        output.reset();
+        String json = ProtobufService.decodeProtobuf(descriptor, new ByteArrayInputStream(data));
+        output.write(json.getBytes(StandardCharsets.UTF_8));
+        return output.size();
+    }
+
+    @Benchmark
+    public int decodeToStream() throws Exception {
+        output.reset();
+        ProtobufService.decodeProtobuf(descriptor, mapper, new ByteArrayInputStream(data), output);
+        return output.size();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.WireJsonTranscoder;
+import com.github.whiver.nifi.service.ProtobufService;
+import com.google.protobuf.Descriptors;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a single large flowfile of varint-delimited messages to newline-delimited JSON with an increasing
+ * number of threads, as done by ProtobufDecoder when its decoding parallelism is set. A parallelism of 1 is the
+ * sequential decoding, the reference of the speedup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class ParallelDecodeBenchmark {
+    @Param({"SMALL", "LARGE"})
+    private Payloads.Shape shape;
+
+    @Param({"1024"})
+    private int size;
+
+    @Param({"20000"})
+    private int messageCount;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    private int parallelism;
+
+    @Param({"65536", "1048576"})
+    private int minChunkSize;
+
+    @Param({"dynamic", "streaming"})
+    private String engine;
+
+    private Descriptors.Descriptor descriptor;
+    private JSONMapper mapper;
+    private WireJsonTranscoder transcoder;
+    private ForkJoinPool pool;
+    private byte[] data;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Payloads.createSchemaDirectory();
+        descriptor = Payloads.loadDescriptor(directory);
+        mapper = new JSONMapper(true, false, false, false);
+        transcoder = Engines.transcoder(engine, mapper);
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        data = Payloads.delimited(descriptor, shape, size, messageCount);
+        output = new ByteArrayOutputStream(data.length * 4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int decode() throws Exception {
+        output.reset();
+        ProtobufService.decodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, JsonLayout.NDJSON, mapper, transcoder,
+                null, pool, minChunkSize, new ByteArrayInputStream(data), output);
+        return output.size();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generator of the messages used by the benchmarks, all of the same recursive message type so that every shape of
+ * payload is converted with the same schema.
+ */
+public final class Payloads {
+    public static final String MESSAGE_TYPE = "benchmark.Payload";
+
+    private static final String SCHEMA = "syntax = \"proto3\";\n" +
+            "\n" +
+            "package benchmark;\n" +
+            "\n" +
+            "message Payload {\n" +
+            "    enum Kind {\n" +
+            "        UNKNOWN = 0;\n" +
+            "        SMALL = 1;\n" +
+            "        LARGE = 2;\n" +
+            "        NESTED = 3;\n" +
+            "        REPEATED = 4;\n" +
+            "    }\n" +
+            "\n" +
+            "    int64 id = 1;\n" +
+            "    string name = 2;\n" +
+            "    double score = 3;\n" +
+            "    bool active = 4;\n" +
+            "    bytes data = 5;\n" +
+            "    repeated int32 values = 6;\n" +
+            "    Kind kind = 7;\n" +
+            "    Payload child = 8;\n" +
+            "    repeated Payload children = 9;\n" +
+            "}\n";
+
+    /**
+     * Nested payloads stay below the recursion limit of the parsers
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The shapes of payload, each stressing a different part of the conversions
+     */
+    public enum Shape {
+        /**
+         * A few scalar fields, where the per-message overhead dominates
+         */
+        SMALL,
+        /**
+         * Long strings, bytes and packed values, where the copies and the escaping dominate
+         */
+        LARGE,
+        /**
+         * A chain of nested messages, where the recursion dominates
+         */
+        NESTED,
+        /**
+         * Many small messages in a repeated field
+         */
+        REPEATED
+    }
+
+    private Payloads() {
+    }
+
+    /**
+     * Write the schema of the payloads to the given directory, both as a .proto file and as a compiled .desc file
+     * @return the .proto file, the .desc file having the same name with the .desc extension
+     */
+    public static File writeSchema(File directory) throws IOException {
+        File protoFile = new File(directory, "Payload.proto");
+        Files.write(protoFile.toPath(), SCHEMA.getBytes(StandardCharsets.UTF_8));
+        try {
+            DynamicSchema schema = SchemaParser.parseSchema(protoFile.getPath(), true, CompilerMode.JAVA, null);
+            Files.write(new File(directory, "Payload.desc").toPath(), schema.toByteArray());
+        } catch (Exception e) {
+            throw new IOException("Unable to compile the benchmark schema", e);
+        }
+        return protoFile;
+    }
+
+    /**
+     * @return a temporary directory holding the schema of the payloads, deleted when the JVM exits
+     */
+    public static File createSchemaDirectory() throws IOException {
+        File directory = Files.createTempDirectory("protobuf-benchmark").toFile();
+        directory.deleteOnExit();
+        writeSchema(directory).deleteOnExit();
+        new File(directory, "Payload.desc").deleteOnExit();
+        return directory;
+    }
+
+    public static Descriptors.Descriptor loadDescriptor(File directory) throws IOException {
+        try {
+            return SchemaParser.parseSchema(new File(directory, "Payload.desc").getPath(), false).getMessageDescriptor(MESSAGE_TYPE);
+        } catch (Exception e) {
+            throw new IOException("Unable to load the benchmark schema", e);
+        }
+    }
+
+    /**
+     * Generate a payload
+     * @param descriptor    Descriptor of the Payload message type
+     * @param shape         Shape of the payload
+     * @param size          Length of the strings and arrays of large payloads, depth of nested payloads and number of
+     *                      children of repeated payloads
+     * @param seed          Seed of the random values, so that the payloads are the same for each run
+     */
+    public static DynamicMessage generate(Descriptors.Descriptor descriptor, Shape shape, int size, long seed) {
+        Random random = new Random(seed);
+        switch (shape) {
+            case SMALL:
+                return small(descriptor, random);
+            case LARGE: {
+                DynamicMessage.Builder builder = small(descriptor, random).toBuilder()
+                        .setField(descriptor.findFieldByName("kind"), descriptor.findEnumTypeByName("Kind").findValueByName("LARGE"));
+                StringBuilder name = new StringBuilder(size);
+                for (int i = 0; i < size; i++) {
+                    // Mostly ASCII, with some characters that must be escaped in JSON
+                    name.append(i % 64 == 63 ? '"' : i % 64 == 31 ? '\u00e9' : (char) ('a' + random.nextInt(26)));
+                }
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                builder.setField(descriptor.findFieldByName("name"), name.toString())
+                        .setField(descriptor.findFieldByName("data"), ByteString.copyFrom(data));
+                for (int i = 0; i < size; i++) {
+                    builder.addRepeatedField(descriptor.findFieldByName("values"), random.nextInt());
+                }
+                return builder.build();
+            }
+            case NESTED: {
+                Message message = small(descriptor, random);
+                for (int depth = Math.min(size, MAX_DEPTH); depth > 0; depth--) {
+                    message = small(descriptor, random).toBuilder()
+                            .setField(descriptor.findFieldByName("kind"), descriptor.findEnumTypeByName("Kind").findValueByName("NESTED"))
+                            .setField(descriptor.findFieldByName("child"), message)
+                            .build();
+                }
+                return (DynamicMessage) message;
+            }
+            case REPEATED: {
+                DynamicMessage.Builder builder = small(descriptor, random).toBuilder()
+                        .setField(descriptor.findFieldByName("kind"), descriptor.findEnumTypeByName("Kind").findValueByName("REPEATED"));
+                for (int i = 0; i < size; i++) {
+                    builder.addRepeatedField(descriptor.findFieldByName("children"), small(descriptor, random));
+                }
+                return builder.build();
+            }
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    private static DynamicMessage small(Descriptors.Descriptor descriptor, Random random) {
+        return DynamicMessage.newBuilder(descriptor)
+                .setField(descriptor.findFieldByName("id"), random.nextLong())
+                .setField(descriptor.findFieldByName("name"), "payload-" + random.nextInt(1000))
+                .setField(descriptor.findFieldByName("score"), random.nextDouble())
+                .setField(descriptor.findFieldByName("active"), random.nextBoolean())
+                .setField(descriptor.findFieldByName("kind"), descriptor.findEnumTypeByName("Kind").findValueByName("SMALL"))
+                .build();
+    }
+
+    /**
+     * @return the given number of payloads, each prefixed with its varint length
+     */
+    public static byte[] delimited(Descriptors.Descriptor descriptor, Shape shape, int size, int count) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            generate(descriptor, shape, size, i).writeDelimitedTo(output);
+        }
+        return output.toByteArray();
+    }
+}
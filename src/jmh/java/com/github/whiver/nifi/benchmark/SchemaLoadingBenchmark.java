@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of a schema without any cache, from a compiled .desc file or from a .proto file compiled by each compiler
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class SchemaLoadingBenchmark {
+    @Param({"desc", "proto-java", "proto-protoc"})
+    private String source;
+
+    private String pathToSchema;
+    private boolean compileSchema;
+    private CompilerMode compilerMode;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Payloads.createSchemaDirectory();
+        compileSchema = !source.equals("desc");
+        pathToSchema = new File(directory, compileSchema ? "Payload.proto" : "Payload.desc").getPath();
+        compilerMode = source.equals("proto-protoc") ? CompilerMode.PROTOC : CompilerMode.JAVA;
+    }
+
+    @Benchmark
+    public DynamicSchema parseSchema() throws Exception {
+        return SchemaParser.parseSchema(pathToSchema, compileSchema, compilerMode, null);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.benchmark;
+
+import com.github.whiver.nifi.processor.ProtobufDecoder;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of small flowfiles each giving its schema in the protobuf.schemaPath attribute, so that the schema is
+ * resolved for each flowfile, with and without the schema cache
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class SchemaPathBenchmark {
+    @Param({"desc", "proto"})
+    private String format;
+
+    @Param({"0", "16"})
+    private int cacheSize;
+
+    @Param({"100"})
+    private int flowfileCount;
+
+    private TestRunner runner;
+    private byte[] data;
+    private Map<String, String> attributes;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Payloads.createSchemaDirectory();
+        Descriptors.Descriptor descriptor = Payloads.loadDescriptor(directory);
+        data = Payloads.generate(descriptor, Payloads.Shape.SMALL, 0, 0).toByteArray();
+
+        attributes = new HashMap<>();
+        attributes.put("protobuf.schemaPath", new File(directory, "Payload." + format).getPath());
+        attributes.put("protobuf.messageType", Payloads.MESSAGE_TYPE);
+
+        runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty("protobuf.compileSchema", String.valueOf(format.equals("proto")));
+        runner.setProperty("protobuf.schemaCacheSize", String.valueOf(cacheSize));
+        runner.setProperty("protobuf.batchSize", String.valueOf(flowfileCount));
+
+        // Schedule the processor once, so that the benchmark only measures the processing of the flowfiles
+        enqueueFlowfiles();
+        runner.run(1, false, true);
+        runner.clearTransferState();
+    }
+
+    @TearDown
+    public void tearDown() {
+        runner.run(0, true, false);
+    }
+
+    private void enqueueFlowfiles() {
+        for (int i = 0; i < flowfileCount; i++) {
+            runner.enqueue(data, attributes);
+        }
+    }
+
+    @Benchmark
+    public int decodeFlowfiles() {
+        enqueueFlowfiles();
+        runner.run(1, false, false);
+        int transferred = runner.getFlowFilesForRelationship("Success").size();
+        runner.clearTransferState();
+        return transferred;
+    }
+}
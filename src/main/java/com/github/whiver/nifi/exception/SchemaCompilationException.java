@@ -31,4 +31,8 @@ public class SchemaCompilationException extends Exception {
     public SchemaCompilationException(String filepath) {
         super("An error occurred while compiling " + filepath);
     }
+
+    public SchemaCompilationException(String filepath, String reason) {
+        super("An error occurred while compiling " + filepath + ": " + reason);
+    }
 }
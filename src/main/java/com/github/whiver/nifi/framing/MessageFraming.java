@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.framing;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The different ways several Protobuf messages can be framed in a single binary stream.
+ */
+public enum MessageFraming {
+    /**
+     * A single message, without any header
+     */
+    NONE("none"),
+
+    /**
+     * Each message is prefixed with its length, encoded as a varint (as written by MessageLite.writeDelimitedTo)
+     */
+    VARINT_DELIMITED("varint"),
+
+    /**
+     * Each message is prefixed with its length, encoded as a 4-byte big-endian integer
+     */
+    FIXED32_BIG_ENDIAN("fixed32"),
+
+    /**
+     * Each message is prefixed with a gRPC frame header: a 1-byte compression flag followed by the message length,
+     * encoded as a 4-byte big-endian integer. Compressed frames are not supported.
+     */
+    GRPC("grpc");
+
+    /**
+     * Maximum length of a single message when none is given: a corrupt header must not make the readers allocate a
+     * buffer of up to 2 GB before they find out that the message is truncated
+     */
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    private final String value;
+
+    MessageFraming(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static MessageFraming fromValue(String value) {
+        for (MessageFraming framing : values()) {
+            if (framing.value.equalsIgnoreCase(value)) {
+                return framing;
+            }
+        }
+        throw new IllegalArgumentException("Unknown message framing: " + value);
+    }
+
+    /**
+     * Read the header of the next message in the stream, rejecting the messages longer than
+     * {@link #DEFAULT_MAX_MESSAGE_LENGTH}.
+     * @param in    The framed stream
+     * @return  The length of the next message, or -1 if the end of the stream has been reached
+     * @throws IOException  Thrown when the header is truncated or invalid
+     */
+    public int readLength(InputStream in) throws IOException {
+        return readLength(in, DEFAULT_MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * Read the header of the next message in the stream, so that no message can make the reader hold more than the
+     * given length in memory.
+     * @param in        The framed stream
+     * @param maxLength Maximum length of a message, such as the smallest of a configured maximum and of the size of the
+     *                  stream
+     * @return  The length of the next message, or -1 if the end of the stream has been reached
+     * @throws IOException  Thrown when the header is truncated or invalid, or when the message is longer than the
+     * maximum length
+     */
+    public int readLength(InputStream in, long maxLength) throws IOException {
+        int length = readHeader(in);
+        if (length > maxLength) {
+            throw new IOException("Invalid message length: " + length + " bytes, larger than the maximum of " +
+                    maxLength + " bytes");
+        }
+        return length;
+    }
+
+    private int readHeader(InputStream in) throws IOException {
+        switch (this) {
+            case VARINT_DELIMITED:
+                return readVarint(in);
+            case FIXED32_BIG_ENDIAN:
+                return readFixed32(in, in.read());
+            case GRPC:
+                int compressed = in.read();
+                if (compressed == -1) {
+                    return -1;
+                } else if (compressed != 0) {
+                    throw new IOException("Compressed gRPC frames are not supported");
+                }
+                return readFixed32(in, requireByte(in));
+            default:
+                throw new UnsupportedOperationException("Messages are not framed");
+        }
+    }
+
+    /**
+     * Write the header of a message of the given length.
+     * @param out       The stream where to write the header
+     * @param length    The length of the message that follows the header
+     * @throws IOException  Thrown when the header cannot be written
+     */
+    public void writeHeader(OutputStream out, int length) throws IOException {
+        switch (this) {
+            case VARINT_DELIMITED:
+                while ((length & ~0x7F) != 0) {
+                    out.write((length & 0x7F) | 0x80);
+                    length >>>= 7;
+                }
+                out.write(length);
+                break;
+            case GRPC:
+                out.write(0);
+                // Fall through, the rest of the header is the big-endian length
+            case FIXED32_BIG_ENDIAN:
+                out.write(length >>> 24);
+                out.write(length >>> 16);
+                out.write(length >>> 8);
+                out.write(length);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Read the body of a framed message, once its header has been read with {@link #readLength(InputStream)}.
+     * @param in        The framed stream
+     * @param buffer    The buffer where to store the message, at least as large as the message
+     * @param length    The length of the message, as given by its header
+     * @throws IOException  Thrown when the message is truncated
+     */
+    public static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        readFully(in, buffer, 0, length);
+    }
+
+    /**
+     * Same as {@link #readFully(InputStream, byte[], int)}, but storing the message at the given offset of the buffer.
+     * @param offset    Position of the first byte of the message in the buffer
+     */
+    public static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, offset + read, length - read);
+            if (count == -1) {
+                throw new EOFException("Truncated message: expected " + length + " bytes, got " + read);
+            }
+            read += count;
+        }
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return -1;
+        }
+
+        int result = first & 0x7F;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Malformed varint message length");
+            }
+            b = requireByte(in);
+            result |= (b & 0x7F) << shift;
+        }
+
+        if (result < 0) {
+            throw new IOException("Invalid message length: " + (result & 0xFFFFFFFFL));
+        }
+        return result;
+    }
+
+    private static int readFixed32(InputStream in, int first) throws IOException {
+        if (first == -1) {
+            return -1;
+        }
+
+        int result = (first << 24) | (requireByte(in) << 16) | (requireByte(in) << 8) | requireByte(in);
+        if (result < 0) {
+            throw new IOException("Invalid message length: " + (result & 0xFFFFFFFFL));
+        }
+        return result;
+    }
+
+    private static int requireByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Truncated message header");
+        }
+        return b;
+    }
+}
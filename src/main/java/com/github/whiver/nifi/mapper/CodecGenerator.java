@@ -0,0 +1,1075 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.CodecGenerationException;
+import com.google.gson.stream.JsonReader;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.WireFormat;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Generates, compiles and loads a {@link MessageCodec} class for each message type of a schema, so that the messages
+ * are converted between the wire format and JSON with code specialized for their fields: the fields are dispatched
+ * with a switch on their number or on their JSON key, and each field is read and written with the methods of its type.
+ *
+ * The codecs are generated for all the message types of a .proto file, and of the files it references, at once. As
+ * the generated code does not depend on the descriptors, the codecs are cached by a fingerprint of the files and
+ * shared by all the generators, so that a schema loaded again, by another processor or after a change of its file, is
+ * only compiled again if its content changed.
+ *
+ * The classes are compiled with the Java compiler of the JDK, so codecs can only be generated when NiFi runs on a JDK.
+ * When they cannot be generated, or for the message types that are not supported ({@link WireJsonTranscoder} and
+ * {@link JsonWireEncoder} support the same types), no codec is returned and the messages must be converted another
+ * way.
+ *
+ * Instances are thread-safe and meant to be shared.
+ */
+public class CodecGenerator {
+    private static final String PACKAGE = "com.github.whiver.nifi.mapper.generated";
+
+    /**
+     * Version of the generated code, part of the fingerprints so that codecs generated differently are never mixed
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Same recursion limit as WireJsonTranscoder and JsonWireEncoder
+     */
+    private static final int MAX_DEPTH = 100;
+
+    /**
+     * Maximum number of compiled schemas kept in memory, shared by all the generators
+     */
+    private static final int MAX_COMPILED_SCHEMAS = 64;
+
+    private static final Map<String, CompiledSchema> COMPILED = new LinkedHashMap<String, CompiledSchema>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledSchema> eldest) {
+            return size() > MAX_COMPILED_SCHEMAS;
+        }
+    };
+
+    private final boolean preservingFieldNames;
+    private final boolean ignoringUnknownFields;
+    private final Map<Descriptors.FileDescriptor, CompiledSchema> byFile = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param preservingFieldNames  true to print the field names of the schema instead of their lowerCamelCase form
+     * @param ignoringUnknownFields true to skip the JSON keys that are not fields of the message type
+     */
+    public CodecGenerator(boolean preservingFieldNames, boolean ignoringUnknownFields) {
+        this.preservingFieldNames = preservingFieldNames;
+        this.ignoringUnknownFields = ignoringUnknownFields;
+    }
+
+    /**
+     * @return true if the Java compiler is available, which is only the case on a JDK
+     */
+    public static boolean isCompilerAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Generate the codecs of all the message types of a schema, so that they are ready when the first message is
+     * converted
+     * @param schema    The schema
+     * @return  The number of message types having a codec
+     * @throws CodecGenerationException Thrown when the codecs cannot be generated or compiled
+     */
+    public int generate(DynamicSchema schema) throws CodecGenerationException {
+        Set<Descriptors.FileDescriptor> files = new LinkedHashSet<>();
+        for (String messageType : schema.getMessageTypes()) {
+            Descriptors.Descriptor descriptor = schema.getMessageDescriptor(messageType);
+            if (descriptor != null) {
+                files.add(descriptor.getFile());
+            }
+        }
+
+        Set<String> messageTypes = new HashSet<>();
+        for (Descriptors.FileDescriptor file : files) {
+            CompiledSchema compiled = getCompiledSchema(file);
+            if (compiled.error != null) {
+                throw compiled.error;
+            }
+            messageTypes.addAll(compiled.codecs.keySet());
+        }
+        return messageTypes.size();
+    }
+
+    /**
+     * @return the codec of the given message type, or null if it cannot be generated
+     */
+    public MessageCodec getCodec(Descriptors.Descriptor descriptor) {
+        return getCompiledSchema(descriptor.getFile()).codecs.get(descriptor.getFullName());
+    }
+
+    private CompiledSchema getCompiledSchema(Descriptors.FileDescriptor file) {
+        CompiledSchema compiled = byFile.get(file);
+        if (compiled == null) {
+            String fingerprint = fingerprint(file);
+
+            // Compilations are rare, so they are simply done one at a time
+            synchronized (COMPILED) {
+                compiled = COMPILED.get(fingerprint);
+                if (compiled == null) {
+                    compiled = compile(file);
+                    COMPILED.put(fingerprint, compiled);
+                }
+            }
+            byFile.put(file, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return a fingerprint of the given file and of all the files it depends on, and of the generation options
+     */
+    private String fingerprint(Descriptors.FileDescriptor file) {
+        Map<String, Descriptors.FileDescriptor> files = new TreeMap<>();
+        collectFiles(file, files);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (Descriptors.FileDescriptor dependency : files.values()) {
+            digest.update(dependency.toProto().toByteArray());
+        }
+        digest.update(new byte[]{VERSION, (byte) (preservingFieldNames ? 1 : 0), (byte) (ignoringUnknownFields ? 1 : 0)});
+
+        StringBuilder fingerprint = new StringBuilder();
+        for (byte b : digest.digest()) {
+            fingerprint.append(String.format("%02x", b));
+        }
+        return fingerprint.toString();
+    }
+
+    private static void collectFiles(Descriptors.FileDescriptor file, Map<String, Descriptors.FileDescriptor> files) {
+        if (files.put(file.getName(), file) == null) {
+            for (Descriptors.FileDescriptor dependency : file.getDependencies()) {
+                collectFiles(dependency, files);
+            }
+        }
+    }
+
+    /**
+     * Generate and compile the codecs of the message types of a file, and of the message types they reference
+     */
+    private CompiledSchema compile(Descriptors.FileDescriptor file) {
+        Map<String, Descriptors.Descriptor> messageTypes = new LinkedHashMap<>();
+        for (Descriptors.Descriptor descriptor : file.getMessageTypes()) {
+            collectMessageTypes(descriptor, messageTypes);
+        }
+
+        // A type is only supported if all the types it references are supported too
+        Set<String> unsupported = new HashSet<>();
+        for (Descriptors.Descriptor descriptor : messageTypes.values()) {
+            if (!isSupported(descriptor)) {
+                unsupported.add(descriptor.getFullName());
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Descriptors.Descriptor descriptor : messageTypes.values()) {
+                if (!unsupported.contains(descriptor.getFullName())) {
+                    for (Descriptors.Descriptor child : getChildren(descriptor)) {
+                        if (unsupported.contains(child.getFullName())) {
+                            unsupported.add(descriptor.getFullName());
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<String, String> classNames = new LinkedHashMap<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (Descriptors.Descriptor descriptor : messageTypes.values()) {
+            if (!unsupported.contains(descriptor.getFullName())) {
+                String className = "Codec" + classNames.size();
+                classNames.put(descriptor.getFullName(), PACKAGE + "." + className);
+                sources.put(PACKAGE + "." + className, generateSource(className, descriptor));
+            }
+        }
+        if (sources.isEmpty()) {
+            return new CompiledSchema(Collections.emptyMap(), null);
+        }
+
+        try {
+            ClassLoader loader = compileSources(sources);
+            Map<String, MessageCodec> codecs = new HashMap<>();
+            for (Map.Entry<String, String> className : classNames.entrySet()) {
+                codecs.put(className.getKey(), (MessageCodec) loader.loadClass(className.getValue()).getDeclaredConstructor().newInstance());
+            }
+            for (Map.Entry<String, MessageCodec> codec : codecs.entrySet()) {
+                List<Descriptors.Descriptor> children = getChildren(messageTypes.get(codec.getKey()));
+                MessageCodec[] childCodecs = new MessageCodec[children.size()];
+                for (int i = 0; i < childCodecs.length; i++) {
+                    childCodecs[i] = codecs.get(children.get(i).getFullName());
+                }
+                codec.getValue().link(childCodecs);
+            }
+            return new CompiledSchema(codecs, null);
+        } catch (CodecGenerationException e) {
+            return new CompiledSchema(Collections.emptyMap(), e);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return new CompiledSchema(Collections.emptyMap(), new CodecGenerationException(e.toString(), e));
+        }
+    }
+
+    private static void collectMessageTypes(Descriptors.Descriptor descriptor, Map<String, Descriptors.Descriptor> messageTypes) {
+        if (messageTypes.put(descriptor.getFullName(), descriptor) != null) {
+            return;
+        }
+        for (Descriptors.Descriptor nestedType : descriptor.getNestedTypes()) {
+            collectMessageTypes(nestedType, messageTypes);
+        }
+        for (Descriptors.Descriptor child : getChildren(descriptor)) {
+            collectMessageTypes(child, messageTypes);
+        }
+    }
+
+    /**
+     * @return false for the well-known types, which have a special JSON representation, and for the message types
+     * having maps, groups or well-known enums
+     */
+    private static boolean isSupported(Descriptors.Descriptor descriptor) {
+        if (JsonValues.hasSpecialRepresentation(descriptor)) {
+            return false;
+        }
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            if (field.isMapField() || field.getType() == Descriptors.FieldDescriptor.Type.GROUP
+                    || (field.getType() == Descriptors.FieldDescriptor.Type.ENUM
+                        && JsonValues.hasSpecialRepresentation(field.getEnumType()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the message types of the message fields, without duplicates, in the order of the field numbers
+     */
+    private static List<Descriptors.Descriptor> getChildren(Descriptors.Descriptor descriptor) {
+        List<Descriptors.Descriptor> children = new ArrayList<>();
+        for (Descriptors.FieldDescriptor field : getSortedFields(descriptor)) {
+            if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE && !children.contains(field.getMessageType())) {
+                children.add(field.getMessageType());
+            }
+        }
+        return children;
+    }
+
+    private static List<Descriptors.FieldDescriptor> getSortedFields(Descriptors.Descriptor descriptor) {
+        List<Descriptors.FieldDescriptor> fields = new ArrayList<>(descriptor.getFields());
+        fields.sort(Comparator.comparingInt(Descriptors.FieldDescriptor::getNumber));
+        return fields;
+    }
+
+    private String generateSource(String className, Descriptors.Descriptor descriptor) {
+        List<Descriptors.FieldDescriptor> fields = getSortedFields(descriptor);
+        List<Descriptors.Descriptor> children = getChildren(descriptor);
+        SourceWriter w = new SourceWriter();
+
+        w.line("package " + PACKAGE + ";");
+        w.line("");
+        for (Class<?> imported : new Class<?>[]{JsonOutput.class, JsonValues.class, MessageCodec.class, WireOutput.class,
+                JsonReader.class, com.google.gson.stream.JsonToken.class, CodedInputStream.class,
+                com.google.protobuf.InvalidProtocolBufferException.class, WireFormat.class, IOException.class, StandardCharsets.class}) {
+            w.line("import " + imported.getName() + ";");
+        }
+        w.line("");
+        w.line("// Codec of " + descriptor.getFullName());
+        w.line("public final class " + className + " extends MessageCodec {");
+
+        StringBuilder fieldNames = new StringBuilder();
+        for (int slot = 0; slot < fields.size(); slot++) {
+            Descriptors.FieldDescriptor field = fields.get(slot);
+            String key = preservingFieldNames ? field.getName() : field.getJsonName();
+            w.line("private static final byte[] K" + slot + " = " + javaString("\"" + key + "\"") + ".getBytes(StandardCharsets.UTF_8);");
+            if (field.getType() == Descriptors.FieldDescriptor.Type.ENUM) {
+                List<Descriptors.EnumValueDescriptor> values = getValuesByNumber(field.getEnumType());
+                for (int i = 0; i < values.size(); i++) {
+                    w.line("private static final byte[] E" + slot + "_" + i + " = " + javaString(values.get(i).getName()) + ".getBytes(StandardCharsets.UTF_8);");
+                }
+            }
+            fieldNames.append(slot > 0 ? ", " : "").append(javaString(field.getFullName()));
+        }
+        w.line("private static final String[] FIELDS = {" + fieldNames + "};");
+        w.line("");
+
+        generateDecode(w, fields, children);
+        w.line("");
+        generateEncode(w, descriptor, fields);
+        for (int slot = 0; slot < fields.size(); slot++) {
+            w.line("");
+            generateFieldEncode(w, fields.get(slot), slot, children);
+        }
+
+        w.line("}");
+        return w.toString();
+    }
+
+    /**
+     * @return the values of an enum that are found by their number, which are the first values declared for each number
+     */
+    private static List<Descriptors.EnumValueDescriptor> getValuesByNumber(Descriptors.EnumDescriptor enumType) {
+        List<Descriptors.EnumValueDescriptor> values = new ArrayList<>();
+        for (Descriptors.EnumValueDescriptor value : enumType.getValues()) {
+            if (enumType.findValueByNumber(value.getNumber()) == value) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private static boolean clearsDefault(Descriptors.FieldDescriptor field) {
+        return field.getFile().getSyntax() == Descriptors.FileDescriptor.Syntax.PROTO3 && !field.isRepeated()
+                && field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE;
+    }
+
+    /**
+     * Generate the decode method, converting a binary to JSON the same way as the writeMessage method of
+     * WireJsonTranscoder
+     */
+    private static void generateDecode(SourceWriter w, List<Descriptors.FieldDescriptor> fields, List<Descriptors.Descriptor> children) {
+        int requiredCount = 0;
+        Set<Integer> oneofs = new TreeSet<>();
+        for (Descriptors.FieldDescriptor field : fields) {
+            if (field.isRequired()) {
+                requiredCount++;
+            }
+            if (field.getContainingOneof() != null) {
+                oneofs.add(field.getContainingOneof().getIndex());
+            }
+        }
+
+        w.line("@Override");
+        w.line("public boolean decode(CodedInputStream in, JsonOutput out, int depth) throws IOException {");
+        w.line("if (depth >= " + MAX_DEPTH + ") {").line("return false;").line("}");
+        w.line("out.beginObject();");
+        w.line("int current = 0;");
+        w.line("boolean repeated = false;");
+        w.line("int elements = 0;");
+        w.line("int required = 0;");
+        for (int oneof : oneofs) {
+            w.line("boolean o" + oneof + " = false;");
+        }
+        w.line("while (true) {");
+        w.line("int tag = in.readTag();");
+        w.line("if (tag == 0) {").line("break;").line("}");
+        w.line("switch (tag >>> 3) {");
+
+        for (int slot = 0; slot < fields.size(); slot++) {
+            Descriptors.FieldDescriptor field = fields.get(slot);
+            int number = field.getNumber();
+            int wireType = field.getLiteType().getWireType();
+
+            w.line("case " + number + ": {");
+            w.line("if (current != " + number + ") {");
+            w.line("if (current > " + number + ") {").line("return false;").line("}");
+            w.line("if (repeated) {").line("out.endArray();").line("}");
+            w.line("out.field(K" + slot + ", current == 0);");
+            w.line("current = " + number + ";");
+            w.line("repeated = " + field.isRepeated() + ";");
+            if (field.isRepeated()) {
+                w.line("out.beginArray();");
+                w.line("elements = 0;");
+            }
+            if (field.isRequired()) {
+                w.line("required++;");
+            }
+            if (field.getContainingOneof() != null) {
+                // Only the last member of a oneof is kept, so another member seen before must not be printed
+                String oneof = "o" + field.getContainingOneof().getIndex();
+                w.line("if (" + oneof + ") {").line("return false;").line("}");
+                w.line(oneof + " = true;");
+            }
+            if (field.isRepeated()) {
+                w.line("}");
+            } else {
+                // A singular field written several times must be merged
+                w.line("} else {").line("return false;").line("}");
+            }
+
+            if (!field.isRepeated()) {
+                w.line("if ((tag & 7) != " + wireType + ") {").line("return false;").line("}");
+                generateDecodeValue(w, field, slot, clearsDefault(field), children);
+            } else if (field.isPackable()) {
+                w.line("if ((tag & 7) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {");
+                w.line("int length = in.readRawVarint32();");
+                w.line("if (length == 0 && elements == 0) {").line("return false;").line("}");
+                w.line("int limit = in.pushLimit(length);");
+                w.line("while (in.getBytesUntilLimit() > 0) {");
+                w.line("if (elements++ > 0) {").line("out.elementSeparator();").line("}");
+                generateDecodeValue(w, field, slot, false, children);
+                w.line("}");
+                w.line("in.popLimit(limit);");
+                w.line("} else {");
+                w.line("if ((tag & 7) != " + wireType + ") {").line("return false;").line("}");
+                w.line("if (elements++ > 0) {").line("out.elementSeparator();").line("}");
+                generateDecodeValue(w, field, slot, false, children);
+                w.line("}");
+            } else {
+                w.line("if ((tag & 7) != " + wireType + ") {").line("return false;").line("}");
+                w.line("if (elements++ > 0) {").line("out.elementSeparator();").line("}");
+                generateDecodeValue(w, field, slot, false, children);
+            }
+            w.line("break;");
+            w.line("}");
+        }
+
+        w.line("default:");
+        w.line("if ((tag & 7) == WireFormat.WIRETYPE_END_GROUP) {").line("return false;").line("}");
+        w.line("in.skipField(tag);");
+        w.line("break;");
+        w.line("}");
+        w.line("}");
+        w.line("if (repeated) {").line("out.endArray();").line("}");
+        w.line("if (required < " + requiredCount + ") {").line("return false;").line("}");
+        w.line("out.endObject(current != 0);");
+        w.line("return true;");
+        w.line("}");
+    }
+
+    /**
+     * Generate the code reading a single value from the wire format and printing it, the same way as the writeValue
+     * method of WireJsonTranscoder
+     */
+    private static void generateDecodeValue(SourceWriter w, Descriptors.FieldDescriptor field, int slot, boolean clearsDefault,
+                                            List<Descriptors.Descriptor> children) {
+        String read;
+        String isDefault;
+        String print;
+        switch (field.getType()) {
+            case INT32:
+            case SINT32:
+            case SFIXED32:
+                read = "int v = " + (field.getType() == Descriptors.FieldDescriptor.Type.INT32 ? "in.readInt32()"
+                        : field.getType() == Descriptors.FieldDescriptor.Type.SINT32 ? "in.readSInt32()" : "in.readSFixed32()") + ";";
+                isDefault = "v == 0";
+                print = "out.writeDecimal(v);";
+                break;
+            case INT64:
+            case SINT64:
+            case SFIXED64:
+                read = "long v = " + (field.getType() == Descriptors.FieldDescriptor.Type.INT64 ? "in.readInt64()"
+                        : field.getType() == Descriptors.FieldDescriptor.Type.SINT64 ? "in.readSInt64()" : "in.readSFixed64()") + ";";
+                isDefault = "v == 0";
+                print = "out.writeQuotedDecimal(v);";
+                break;
+            case UINT32:
+            case FIXED32:
+                read = "int v = " + (field.getType() == Descriptors.FieldDescriptor.Type.UINT32 ? "in.readUInt32()" : "in.readFixed32()") + ";";
+                isDefault = "v == 0";
+                print = "out.writeUnsigned32(v);";
+                break;
+            case UINT64:
+            case FIXED64:
+                read = "long v = " + (field.getType() == Descriptors.FieldDescriptor.Type.UINT64 ? "in.readUInt64()" : "in.readFixed64()") + ";";
+                isDefault = "v == 0";
+                print = "out.writeQuotedUnsigned64(v);";
+                break;
+            case BOOL:
+                read = "boolean v = in.readBool();";
+                isDefault = "!v";
+                print = "out.writeBool(v);";
+                break;
+            case FLOAT:
+                read = "float v = in.readFloat();";
+                isDefault = "Float.floatToIntBits(v) == 0";
+                print = "out.writeFloat(v);";
+                break;
+            case DOUBLE:
+                read = "double v = in.readDouble();";
+                isDefault = "Double.doubleToLongBits(v) == 0";
+                print = "out.writeDouble(v);";
+                break;
+            case STRING: {
+                boolean requiresUtf8 = field.getFile().getSyntax() == Descriptors.FileDescriptor.Syntax.PROTO3;
+                w.line("{");
+                w.line("byte[] v = in.readByteArray();");
+                if (clearsDefault) {
+                    w.line("if (v.length == 0) {").line("return false;").line("}");
+                }
+                w.line("if (!out.writeString(v, " + requiresUtf8 + ")) {").line("return false;").line("}");
+                w.line("}");
+                return;
+            }
+            case BYTES:
+                read = "byte[] v = in.readByteArray();";
+                isDefault = "v.length == 0";
+                print = "out.writeBytes(v);";
+                break;
+            case ENUM: {
+                // Unknown values are kept as unknown fields, or printed as numbers in proto3
+                List<Descriptors.EnumValueDescriptor> values = getValuesByNumber(field.getEnumType());
+                w.line("{");
+                w.line("byte[] name;");
+                w.line("switch (in.readEnum()) {");
+                for (int i = 0; i < values.size(); i++) {
+                    if (!clearsDefault || values.get(i) != field.getDefaultValue()) {
+                        w.line("case " + values.get(i).getNumber() + ":");
+                        w.line("name = E" + slot + "_" + i + ";");
+                        w.line("break;");
+                    }
+                }
+                w.line("default:");
+                w.line("name = null;");
+                w.line("}");
+                w.line("if (name == null) {").line("return false;").line("}");
+                w.line("out.writeQuoted(name);");
+                w.line("}");
+                return;
+            }
+            case MESSAGE:
+                w.line("{");
+                w.line("int length = in.readRawVarint32();");
+                w.line("int limit = in.pushLimit(length);");
+                w.line("if (!children[" + children.indexOf(field.getMessageType()) + "].decode(in, out, depth + 1)) {").line("return false;").line("}");
+                w.line("in.checkLastTagWas(0);");
+                w.line("in.popLimit(limit);");
+                w.line("}");
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+        }
+
+        w.line("{");
+        w.line(read);
+        if (clearsDefault) {
+            w.line("if (" + isDefault + ") {").line("return false;").line("}");
+        }
+        w.line(print);
+        w.line("}");
+    }
+
+    /**
+     * Generate the encode method, converting JSON to a binary the same way as the readMessage method of
+     * JsonWireEncoder, with local variables holding the range of each field in the output
+     */
+    private void generateEncode(SourceWriter w, Descriptors.Descriptor descriptor, List<Descriptors.FieldDescriptor> fields) {
+        // As JsonFormat, both names are accepted whatever the printing options, and the last field wins on conflicts
+        Map<String, Integer> slotsByName = new LinkedHashMap<>();
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            slotsByName.put(field.getName(), fields.indexOf(field));
+            slotsByName.put(field.getJsonName(), fields.indexOf(field));
+        }
+
+        w.line("@Override");
+        w.line("public void encode(JsonReader json, WireOutput out, int depth) throws IOException {");
+        w.line("if (depth >= " + MAX_DEPTH + ") {").line("throw new InvalidProtocolBufferException(\"Hit recursion limit.\");").line("}");
+        w.line("if (json.peek() != JsonToken.BEGIN_OBJECT) {")
+                .line("throw new InvalidProtocolBufferException(\"Expect message object but got: \" + json.peek());").line("}");
+        w.line("int contentStart = out.size();");
+        for (int slot = 0; slot < fields.size(); slot++) {
+            w.line("int s" + slot + " = -1;");
+            w.line("int e" + slot + " = 0;");
+            w.line("String k" + slot + " = null;");
+        }
+        for (int oneof = 0; oneof < descriptor.getOneofs().size(); oneof++) {
+            w.line("int o" + oneof + " = -1;");
+        }
+
+        w.line("json.beginObject();");
+        w.line("while (json.hasNext()) {");
+        w.line("String key = json.nextName();");
+        w.line("int start = out.size();");
+        w.line("switch (key) {");
+        for (int slot = 0; slot < fields.size(); slot++) {
+            Descriptors.FieldDescriptor field = fields.get(slot);
+            boolean hasLabel = false;
+            for (Map.Entry<String, Integer> name : slotsByName.entrySet()) {
+                if (name.getValue() == slot) {
+                    w.line("case " + javaString(name.getKey()) + ":");
+                    hasLabel = true;
+                }
+            }
+            if (!hasLabel) {
+                continue;
+            }
+
+            String oneof = field.getContainingOneof() == null ? null : "o" + field.getContainingOneof().getIndex();
+            w.line("{");
+            w.line("if (key.equals(k" + slot + ")) {");
+            // As in a JSON tree, only the last value of a key is kept
+            w.line("s" + slot + " = -1;");
+            if (oneof != null) {
+                w.line("if (" + oneof + " == " + slot + ") {").line(oneof + " = -1;").line("}");
+            }
+            w.line("} else if (s" + slot + " >= 0) {");
+            w.line("throw new InvalidProtocolBufferException(" + javaString("Field " + field.getFullName() + " has already been set.") + ");");
+            w.line("}");
+            w.line("k" + slot + " = key;");
+            if (oneof != null) {
+                w.line("if (" + oneof + " >= 0) {");
+                w.line("throw new InvalidProtocolBufferException(" + javaString("Cannot set field " + field.getFullName() + " because another field ")
+                        + " + FIELDS[" + oneof + "] + " + javaString(" belonging to the same oneof has already been set ") + ");");
+                w.line("}");
+            }
+            w.line("if (f" + slot + "(json, out, depth)) {");
+            w.line("s" + slot + " = start;");
+            w.line("e" + slot + " = out.size();");
+            if (oneof != null) {
+                w.line(oneof + " = " + slot + ";");
+            }
+            w.line("} else {").line("out.truncate(start);").line("}");
+            w.line("break;");
+            w.line("}");
+        }
+        w.line("default:");
+        if (ignoringUnknownFields) {
+            w.line("json.skipValue();");
+            w.line("break;");
+        } else {
+            w.line("throw new InvalidProtocolBufferException(\"Cannot find field: \" + key + " + javaString(" in message " + descriptor.getFullName()) + ");");
+        }
+        w.line("}");
+        w.line("}");
+        w.line("json.endObject();");
+
+        boolean hasRequired = false;
+        for (Descriptors.FieldDescriptor field : fields) {
+            hasRequired |= field.isRequired();
+        }
+        if (hasRequired) {
+            w.line("StringBuilder missing = new StringBuilder();");
+            for (int slot = 0; slot < fields.size(); slot++) {
+                if (fields.get(slot).isRequired()) {
+                    w.line("if (s" + slot + " < 0) {")
+                            .line("missing.append(missing.length() > 0 ? \", \" : \"\").append(" + javaString(fields.get(slot).getName()) + ");")
+                            .line("}");
+                }
+            }
+            w.line("if (missing.length() > 0) {")
+                    .line("throw new InvalidProtocolBufferException(\"Message missing required fields: \" + missing);").line("}");
+        }
+
+        // Move the fields only if they have not been written in order, or if a value has been overwritten in between
+        w.line("boolean ordered = true;");
+        w.line("int position = contentStart;");
+        for (int slot = 0; slot < fields.size(); slot++) {
+            w.line("if (s" + slot + " >= 0) {");
+            w.line("ordered &= s" + slot + " == position;");
+            w.line("position = e" + slot + ";");
+            w.line("}");
+        }
+        w.line("if (!ordered || position != out.size()) {");
+        w.line("out.startReordering();");
+        for (int slot = 0; slot < fields.size(); slot++) {
+            w.line("if (s" + slot + " >= 0) {").line("out.keep(s" + slot + ", e" + slot + ");").line("}");
+        }
+        w.line("out.finishReordering(contentStart);");
+        w.line("}");
+        w.line("}");
+    }
+
+    /**
+     * Generate the method reading the JSON value of a field and writing it, returning false if the field is not set
+     * by the value, the same way as the writeSingularField and writeRepeatedField methods of JsonWireEncoder
+     */
+    private static void generateFieldEncode(SourceWriter w, Descriptors.FieldDescriptor field, int slot, List<Descriptors.Descriptor> children) {
+        // The tags of the large field numbers do not fit in a signed int
+        String tag = (((long) field.getNumber() << 3) | field.getLiteType().getWireType()) + "L";
+        boolean message = field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE;
+        String child = message ? "children[" + children.indexOf(field.getMessageType()) + "]" : null;
+
+        w.line("private boolean f" + slot + "(JsonReader json, WireOutput out, int depth) throws IOException {");
+        if (!field.isRepeated()) {
+            w.line("if (json.peek() == JsonToken.NULL) {").line("json.nextNull();").line("return false;").line("}");
+            if (message) {
+                w.line("out.writeVarint(" + tag + ");");
+                w.line("int contentStart = out.reserveLength();");
+                w.line(child + ".encode(json, out, depth + 1);");
+                w.line("out.writeLength(contentStart);");
+            } else {
+                w.line("String text = JsonValues.readScalar(json);");
+                String isDefault = generateParse(w, field);
+                if (clearsDefault(field) && field.getContainingOneof() == null) {
+                    w.line("if (" + isDefault + ") {").line("return false;").line("}");
+                }
+                w.line("out.writeVarint(" + tag + ");");
+                w.line(getWrite(field));
+            }
+            w.line("return true;");
+            w.line("}");
+            return;
+        }
+
+        boolean packed = field.isPacked();
+        w.line("JsonToken token = json.peek();");
+        w.line("if (token == JsonToken.NULL) {").line("json.nextNull();").line("return false;").line("}");
+        w.line("if (token != JsonToken.BEGIN_ARRAY) {")
+                .line("throw new InvalidProtocolBufferException(\"Expect an array but found: \" + token);").line("}");
+        if (packed) {
+            w.line("out.writeVarint(" + (((long) field.getNumber() << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED) + "L);");
+            w.line("int contentStart = out.reserveLength();");
+        }
+        w.line("int count = 0;");
+        w.line("json.beginArray();");
+        w.line("while (json.hasNext()) {");
+        w.line("if (json.peek() == JsonToken.NULL) {")
+                .line("throw new InvalidProtocolBufferException(" + javaString("Repeated field elements cannot be null in field: " + field.getFullName()) + ");")
+                .line("}");
+        if (message) {
+            w.line("out.writeVarint(" + tag + ");");
+            w.line("int elementStart = out.reserveLength();");
+            w.line(child + ".encode(json, out, depth + 1);");
+            w.line("out.writeLength(elementStart);");
+        } else {
+            w.line("String text = JsonValues.readScalar(json);");
+            generateParse(w, field);
+            if (!packed) {
+                w.line("out.writeVarint(" + tag + ");");
+            }
+            w.line(getWrite(field));
+        }
+        w.line("count++;");
+        w.line("}");
+        w.line("json.endArray();");
+        // An empty array does not set the field
+        w.line("if (count == 0) {").line("return false;").line("}");
+        if (packed) {
+            w.line("out.writeLength(contentStart);");
+        }
+        w.line("return true;");
+        w.line("}");
+    }
+
+    /**
+     * Generate the code parsing the JSON value held by the text variable into the v variable, the same way as the
+     * writeValue method of JsonWireEncoder
+     * @return the expression checking whether the value is the default value of the field
+     */
+    private static String generateParse(SourceWriter w, Descriptors.FieldDescriptor field) {
+        switch (field.getType()) {
+            case INT32:
+            case SINT32:
+            case SFIXED32:
+                w.line("int v = JsonValues.parseInt32(text);");
+                return "v == 0";
+            case UINT32:
+            case FIXED32:
+                w.line("int v = JsonValues.parseUint32(text);");
+                return "v == 0";
+            case INT64:
+            case SINT64:
+            case SFIXED64:
+                w.line("long v = JsonValues.parseInt64(text);");
+                return "v == 0";
+            case UINT64:
+            case FIXED64:
+                w.line("long v = JsonValues.parseUint64(text);");
+                return "v == 0";
+            case BOOL:
+                w.line("boolean v = JsonValues.parseBool(text);");
+                return "!v";
+            case FLOAT:
+                w.line("float v = JsonValues.parseFloat(text);");
+                return "Float.floatToIntBits(v) == 0";
+            case DOUBLE:
+                w.line("double v = JsonValues.parseDouble(text);");
+                return "Double.doubleToLongBits(v) == 0";
+            case STRING:
+                w.line("String v = text;");
+                return "v.isEmpty()";
+            case BYTES:
+                w.line("byte[] v = JsonValues.parseBytes(text);");
+                return "v.length == 0";
+            case ENUM: {
+                // An alias of the default value is a distinct value for DynamicMessage, which does not clear the field
+                Descriptors.EnumDescriptor enumType = field.getEnumType();
+                Descriptors.EnumValueDescriptor defaultValue = enumType.getValues().get(0);
+                String enumName = javaString(enumType.getFullName());
+                w.line("int v;");
+                w.line("boolean isDefault;");
+                w.line("switch (text) {");
+                for (Descriptors.EnumValueDescriptor value : enumType.getValues()) {
+                    w.line("case " + javaString(value.getName()) + ":");
+                    w.line("v = " + value.getNumber() + ";");
+                    w.line("isDefault = " + (value == defaultValue) + ";");
+                    w.line("break;");
+                }
+                w.line("default:");
+                w.line("v = JsonValues.parseEnumNumber(text, " + enumName + ");");
+                if (field.getFile().getSyntax() != Descriptors.FileDescriptor.Syntax.PROTO3) {
+                    // Unknown numbers are only accepted in proto3
+                    w.line("switch (v) {");
+                    for (Descriptors.EnumValueDescriptor value : getValuesByNumber(enumType)) {
+                        w.line("case " + value.getNumber() + ":");
+                    }
+                    w.line("break;");
+                    w.line("default:");
+                    w.line("throw JsonValues.invalidEnumValue(text, " + enumName + ");");
+                    w.line("}");
+                }
+                w.line("isDefault = v == " + defaultValue.getNumber() + ";");
+                w.line("break;");
+                w.line("}");
+                return "isDefault";
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+        }
+    }
+
+    private static String getWrite(Descriptors.FieldDescriptor field) {
+        switch (field.getType()) {
+            case INT32:
+            case INT64:
+            case UINT64:
+            case ENUM:
+                return "out.writeVarint(v);";
+            case UINT32:
+                return "out.writeVarint(v & 0xFFFFFFFFL);";
+            case SINT32:
+                return "out.writeSInt32(v);";
+            case SINT64:
+                return "out.writeSInt64(v);";
+            case FIXED32:
+            case SFIXED32:
+                return "out.writeFixed32(v);";
+            case FIXED64:
+            case SFIXED64:
+                return "out.writeFixed64(v);";
+            case BOOL:
+                return "out.writeVarint(v ? 1 : 0);";
+            case FLOAT:
+                return "out.writeFixed32(Float.floatToRawIntBits(v));";
+            case DOUBLE:
+                return "out.writeFixed64(Double.doubleToRawLongBits(v));";
+            case STRING:
+                return "out.writeString(v);";
+            case BYTES:
+                return "out.writeBytes(v);";
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+        }
+    }
+
+    /**
+     * @return the given string as a Java string literal
+     */
+    private static String javaString(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20) {
+                // Unicode escapes are translated before the literals are parsed, so line breaks cannot use them
+                literal.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7E) {
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * Compile the given sources in memory
+     * @param sources   Sources of the classes, by fully qualified class name
+     * @return  A class loader holding the compiled classes
+     */
+    private static ClassLoader compileSources(Map<String, String> sources) throws CodecGenerationException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new CodecGenerationException("no Java compiler is available, NiFi must run on a JDK");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<JavaFileObject> units = new ArrayList<>();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            units.add(new SourceFile(source.getKey(), source.getValue()));
+        }
+        List<String> options = Arrays.asList("-classpath", getClassPath(), "-proc:none", "-g:none", "-nowarn");
+
+        try (MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))) {
+            if (!compiler.getTask(null, fileManager, diagnostics, options, null, units).call()) {
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        throw new CodecGenerationException("compilation failed: " + diagnostic.getMessage(Locale.ROOT));
+                    }
+                }
+                throw new CodecGenerationException("compilation failed");
+            }
+            return new GeneratedClassLoader(MessageCodec.class.getClassLoader(), fileManager.classes);
+        } catch (IOException e) {
+            throw new CodecGenerationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the class path of the libraries used by the generated code, found from the classes loaded by NiFi, which
+     * are usually not on the class path of the JVM
+     */
+    private static String getClassPath() throws CodecGenerationException {
+        Set<String> entries = new LinkedHashSet<>();
+        for (Class<?> used : new Class<?>[]{MessageCodec.class, CodedInputStream.class, JsonReader.class}) {
+            CodeSource codeSource = used.getProtectionDomain().getCodeSource();
+            if (codeSource == null || codeSource.getLocation() == null) {
+                throw new CodecGenerationException("the location of " + used.getName() + " is unknown");
+            }
+            URL location = codeSource.getLocation();
+            try {
+                entries.add(Paths.get(location.toURI()).toString());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                throw new CodecGenerationException("the location of " + used.getName() + " is not a file: " + location, e);
+            }
+        }
+        return String.join(java.io.File.pathSeparator, entries);
+    }
+
+    /**
+     * The codecs compiled for a schema, or the reason why they cannot be generated
+     */
+    private static final class CompiledSchema {
+        private final Map<String, MessageCodec> codecs;
+        private final CodecGenerationException error;
+
+        CompiledSchema(Map<String, MessageCodec> codecs, CodecGenerationException error) {
+            this.codecs = codecs;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Writes Java code, indented according to the braces ending and starting the lines
+     */
+    private static final class SourceWriter {
+        private final StringBuilder source = new StringBuilder();
+        private int indent;
+
+        SourceWriter line(String code) {
+            if (code.startsWith("}")) {
+                indent--;
+            }
+            for (int i = 0; i < indent && !code.isEmpty(); i++) {
+                source.append("    ");
+            }
+            source.append(code).append('\n');
+            if (code.endsWith("{")) {
+                indent++;
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static final class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Keeps the compiled classes in memory
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ClassFile> classes = new HashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            ClassFile file = new ClassFile(className);
+            classes.put(className, file);
+            return file;
+        }
+    }
+
+    /**
+     * Loads the compiled classes, delegating to the class loader of the processor for all the other classes
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private final Map<String, ClassFile> classes;
+
+        GeneratedClassLoader(ClassLoader parent, Map<String, ClassFile> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ClassFile file = classes.get(name);
+            if (file == null) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] bytes = file.bytes.toByteArray();
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
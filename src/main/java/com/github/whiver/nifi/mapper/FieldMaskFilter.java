@@ -0,0 +1,239 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.exception.InvalidFieldMaskException;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Projects binary messages on a field mask, that is a list of dotted field paths such as "name" or "phones.number",
+ * before they are decoded. The fields that are not selected are skipped at the wire level, without being parsed, so
+ * that decoding and printing the projected message only costs as much as the selected fields.
+ *
+ * A path selects a field with all its content, or, when it continues with the name of a sub-field, only this sub-field
+ * of a message field. Paths going through a repeated message field apply to each of its elements. Fields are named
+ * either as in the schema or with their lowerCamelCase JSON name. Map fields can only be selected as a whole.
+ *
+ * The mask is resolved once per message type, and instances are thread-safe and meant to be shared.
+ */
+public class FieldMaskFilter {
+    private final List<String> paths;
+    private final Map<Descriptors.Descriptor, Projection> projections = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private FieldMaskFilter(List<String> paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * @param paths Comma-separated list of dotted field paths
+     * @return  The filter selecting the given paths
+     * @throws IllegalArgumentException Thrown when the list does not contain any path, or contains an empty field name
+     */
+    public static FieldMaskFilter parse(String paths) {
+        List<String> parsed = new ArrayList<>();
+        for (String path : paths.split(",")) {
+            path = path.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            for (String segment : path.split("\\.", -1)) {
+                if (segment.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid field mask path '" + path + "': empty field name");
+                }
+            }
+            parsed.add(path);
+        }
+
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("The field mask does not contain any path");
+        }
+        return new FieldMaskFilter(Collections.unmodifiableList(parsed));
+    }
+
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @param descriptor    Descriptor of the message type to project
+     * @return  The projection of the given message type on this mask
+     * @throws InvalidFieldMaskException    Thrown when a path does not match the fields of the message type
+     */
+    public Projection forType(Descriptors.Descriptor descriptor) throws InvalidFieldMaskException {
+        Projection projection = projections.get(descriptor);
+        if (projection == null) {
+            projection = new Projection(resolve(descriptor).build());
+            projections.put(descriptor, projection);
+        }
+        return projection;
+    }
+
+    private NodeBuilder resolve(Descriptors.Descriptor descriptor) throws InvalidFieldMaskException {
+        NodeBuilder root = new NodeBuilder();
+
+        for (String path : paths) {
+            String[] segments = path.split("\\.");
+            Descriptors.Descriptor type = descriptor;
+            NodeBuilder node = root;
+
+            for (int i = 0; i < segments.length; i++) {
+                Descriptors.FieldDescriptor field = findField(type, segments[i]);
+                if (field == null) {
+                    throw new InvalidFieldMaskException(path, descriptor.getFullName(),
+                            "no field '" + segments[i] + "' in " + type.getFullName());
+                }
+
+                node = node.children.computeIfAbsent(field.getNumber(), number -> new NodeBuilder());
+                if (i == segments.length - 1) {
+                    node.whole = true;
+                    break;
+                }
+
+                if (field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                    throw new InvalidFieldMaskException(path, descriptor.getFullName(),
+                            "field '" + field.getName() + "' is not a message");
+                }
+                if (field.isMapField()) {
+                    throw new InvalidFieldMaskException(path, descriptor.getFullName(),
+                            "map field '" + field.getName() + "' can only be selected as a whole");
+                }
+                type = field.getMessageType();
+            }
+        }
+
+        return root;
+    }
+
+    private static Descriptors.FieldDescriptor findField(Descriptors.Descriptor type, String name) {
+        Descriptors.FieldDescriptor field = type.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        for (Descriptors.FieldDescriptor candidate : type.getFields()) {
+            if (candidate.getJsonName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * The mask resolved for a message type
+     */
+    public static final class Projection {
+        private final Node root;
+
+        private Projection(Node root) {
+            this.root = root;
+        }
+
+        /**
+         * Write the selected fields of a binary message to the given buffer. As fields are only removed, the
+         * projected message is never larger than the original one.
+         * @param data      Buffer holding the binary message
+         * @param length    Length of the message, starting at the beginning of the buffer
+         * @param output    Buffer where to write the projected message, at least as large as the message
+         * @return  The length of the projected message
+         * @throws IOException  Thrown when the binary message is malformed
+         */
+        public int filter(byte[] data, int length, byte[] output) throws IOException {
+            CodedOutputStream out = CodedOutputStream.newInstance(output, 0, length);
+            filter(CodedInputStream.newInstance(data, 0, length), root, out);
+            return out.getTotalBytesWritten();
+        }
+
+        private static void filter(CodedInputStream input, Node node, CodedOutputStream output) throws IOException {
+            while (true) {
+                int tag = input.readTag();
+                if (tag == 0) {
+                    return;
+                }
+
+                int index = Arrays.binarySearch(node.numbers, WireFormat.getTagFieldNumber(tag));
+                if (index < 0) {
+                    if (!input.skipField(tag)) {
+                        return;
+                    }
+                } else if (node.children[index] == null || WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    if (!input.skipField(tag, output)) {
+                        return;
+                    }
+                } else {
+                    // Only the selected sub-fields are kept, which requires to know their length before writing them
+                    int length = input.readRawVarint32();
+                    int previousLimit = input.pushLimit(length);
+                    byte[] nested = new byte[length];
+                    CodedOutputStream nestedOutput = CodedOutputStream.newInstance(nested);
+                    filter(input, node.children[index], nestedOutput);
+                    input.popLimit(previousLimit);
+
+                    output.writeUInt32NoTag(tag);
+                    output.writeUInt32NoTag(nestedOutput.getTotalBytesWritten());
+                    output.writeRawBytes(nested, 0, nestedOutput.getTotalBytesWritten());
+                }
+            }
+        }
+    }
+
+    /**
+     * The selected fields of a message type, sorted by number. A null child means that the whole field is selected.
+     */
+    private static final class Node {
+        private final int[] numbers;
+        private final Node[] children;
+
+        private Node(int[] numbers, Node[] children) {
+            this.numbers = numbers;
+            this.children = children;
+        }
+    }
+
+    private static final class NodeBuilder {
+        private final SortedMap<Integer, NodeBuilder> children = new TreeMap<>();
+        private boolean whole;
+
+        private Node build() {
+            int[] numbers = new int[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Integer, NodeBuilder> child : children.entrySet()) {
+                numbers[i] = child.getKey();
+                // A field selected as a whole takes precedence over the paths selecting some of its sub-fields
+                nodes[i] = child.getValue().whole ? null : child.getValue().build();
+                i++;
+            }
+            return new Node(numbers, nodes);
+        }
+    }
+}
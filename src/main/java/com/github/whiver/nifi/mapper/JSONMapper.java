@@ -34,7 +34,108 @@ import com.google.protobuf.util.JsonFormat;
 import java.io.IOException;
 import java.io.Reader;
 
+/**
+ * Converts Protocol Buffers Messages from and to JSON.
+ *
+ * An instance holds a JSON printer and parser configured once for a given set of options. Since they are immutable, an
+ * instance can be shared between threads and reused for any number of messages.
+ */
 public class JSONMapper {
+    /**
+     * The mapper used by the static methods, with the default options of JsonFormat
+     */
+    private static final JSONMapper DEFAULT = new JSONMapper(false, false, false, false);
+
+    private final boolean compact;
+    private final boolean preservingFieldNames;
+    private final boolean includingDefaultValues;
+    private final boolean ignoringUnknownFields;
+
+    private final JsonFormat.Printer printer;
+    private final JsonFormat.Printer compactPrinter;
+    private final JsonFormat.Parser parser;
+
+    /**
+     * @param compact                   true to print the JSON on a single line, without any insignificant whitespace
+     * @param preservingFieldNames      true to use the field names of the schema instead of their lowerCamelCase form
+     * @param includingDefaultValues    true to print the fields set to their default value, which are omitted otherwise
+     * @param ignoringUnknownFields     true to ignore the JSON fields that do not exist in the schema when parsing,
+     *                                  instead of failing
+     */
+    public JSONMapper(boolean compact, boolean preservingFieldNames, boolean includingDefaultValues, boolean ignoringUnknownFields) {
+        this.compact = compact;
+        this.preservingFieldNames = preservingFieldNames;
+        this.includingDefaultValues = includingDefaultValues;
+        this.ignoringUnknownFields = ignoringUnknownFields;
+
+        JsonFormat.Printer printer = JsonFormat.printer();
+        if (preservingFieldNames) {
+            printer = printer.preservingProtoFieldNames();
+        }
+        if (includingDefaultValues) {
+            printer = printer.includingDefaultValueFields();
+        }
+        this.compactPrinter = printer.omittingInsignificantWhitespace();
+        this.printer = compact ? this.compactPrinter : printer;
+
+        JsonFormat.Parser parser = JsonFormat.parser();
+        this.parser = ignoringUnknownFields ? parser.ignoringUnknownFields() : parser;
+    }
+
+    /**
+     * Format a Protocol Buffers Message to JSON, appending it directly to the given output instead of building a String
+     * @param data      The Message to be formatted
+     * @param output    Where to append the JSON representation of the data
+     * @throws InvalidProtocolBufferException   Thrown in case of invalid Message data
+     * @throws IOException  Thrown when the JSON cannot be appended to the output
+     */
+    public void print(Message data, Appendable output) throws IOException {
+        printer.appendTo(data, output);
+    }
+
+    /**
+     * Same as {@link #print(Message, Appendable)}, but always prints the JSON on a single line, whatever the compact
+     * option of this mapper.
+     */
+    public void printCompact(Message data, Appendable output) throws IOException {
+        compactPrinter.appendTo(data, output);
+    }
+
+    /**
+     * Extract data from JSON and use them to construct a Protocol Buffers Message.
+     * @param jsonReader    A reader providing the JSON data to parse
+     * @param builder       A Message builder to use to construct the resulting Message
+     * @return  the constructed Message
+     * @throws IOException  Thrown in case of invalid JSON data
+     */
+    public Message parse(Reader jsonReader, Message.Builder builder) throws IOException {
+        parser.merge(jsonReader, builder);
+        return builder.build();
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public boolean isPreservingFieldNames() {
+        return preservingFieldNames;
+    }
+
+    public boolean isIncludingDefaultValues() {
+        return includingDefaultValues;
+    }
+
+    public boolean isIgnoringUnknownFields() {
+        return ignoringUnknownFields;
+    }
+
+    /**
+     * @return the mapper using the default options of JsonFormat
+     */
+    public static JSONMapper getDefault() {
+        return DEFAULT;
+    }
+
     /**
      * Format a Protocol Buffers Message to a JSON string
      * @param data  The Message to be formatted
@@ -42,8 +143,34 @@ public class JSONMapper {
      * @throws InvalidProtocolBufferException   Thrown in case of invalid Message data
      */
     public static String toJSON(Message data) throws InvalidProtocolBufferException {
-        JsonFormat.Printer printer = JsonFormat.printer();
-        return printer.print(data);
+        return toJSON(data, false);
+    }
+
+    /**
+     * Format a Protocol Buffers Message to a JSON string
+     * @param data      The Message to be formatted
+     * @param compact   true to print the JSON on a single line, without any insignificant whitespace
+     * @return  A JSON String representing the data
+     * @throws InvalidProtocolBufferException   Thrown in case of invalid Message data
+     */
+    public static String toJSON(Message data, boolean compact) throws InvalidProtocolBufferException {
+        return compact ? DEFAULT.compactPrinter.print(data) : DEFAULT.printer.print(data);
+    }
+
+    /**
+     * Format a Protocol Buffers Message to JSON, appending it directly to the given output instead of building a String
+     * @param data      The Message to be formatted
+     * @param compact   true to print the JSON on a single line, without any insignificant whitespace
+     * @param output    Where to append the JSON representation of the data
+     * @throws InvalidProtocolBufferException   Thrown in case of invalid Message data
+     * @throws IOException  Thrown when the JSON cannot be appended to the output
+     */
+    public static void writeJSON(Message data, boolean compact, Appendable output) throws IOException {
+        if (compact) {
+            DEFAULT.printCompact(data, output);
+        } else {
+            DEFAULT.print(data, output);
+        }
     }
 
     /**
@@ -54,8 +181,6 @@ public class JSONMapper {
      * @throws InvalidProtocolBufferException   Thrown in case of invalid Message data
      */
     public static Message fromJSON(Reader jsonReader, Message.Builder builder) throws IOException {
-        JsonFormat.Parser parser = JsonFormat.parser();
-        parser.merge(jsonReader, builder);
-        return builder.build();
+        return DEFAULT.parse(jsonReader, builder);
     }
 }
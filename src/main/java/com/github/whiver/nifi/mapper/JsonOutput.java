@@ -0,0 +1,386 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A growable buffer of UTF-8 JSON, printing the values and indenting the lines the same way as JsonFormat does.
+ *
+ * Used by {@link WireJsonTranscoder} and by the codecs generated by {@link CodecGenerator}. Instances are not
+ * thread-safe.
+ */
+public final class JsonOutput {
+    private static final byte[] INDENT = {' ', ' '};
+    private static final char LINE_SEPARATOR = (char) 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+
+    /**
+     * Escape sequences of the ASCII characters, null for the characters written as is
+     */
+    private static final byte[][] ESCAPES = new byte[128][];
+
+    /**
+     * false when the strings cannot be escaped exactly as JsonFormat does
+     */
+    private static final boolean STRING_ESCAPING_SUPPORTED;
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = String.format("\\u%04x", c).getBytes(StandardCharsets.US_ASCII);
+        }
+        ESCAPES['"'] = "\\\"".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\\'] = "\\\\".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\t'] = "\\t".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\b'] = "\\b".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\n'] = "\\n".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\r'] = "\\r".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\f'] = "\\f".getBytes(StandardCharsets.US_ASCII);
+
+        // Depending on its version, Gson may also escape the HTML characters
+        boolean supported = probeStringEscaping();
+        if (!supported) {
+            for (char c : new char[]{'<', '>', '&', '=', '\''}) {
+                ESCAPES[c] = String.format("\\u%04x", (int) c).getBytes(StandardCharsets.US_ASCII);
+            }
+            supported = probeStringEscaping();
+        }
+        STRING_ESCAPING_SUPPORTED = supported;
+    }
+
+    private byte[] buffer = new byte[256];
+    private int size;
+    private boolean pretty;
+    private int indent;
+    private boolean atStartOfLine;
+
+    /**
+     * @return false if the strings cannot be escaped exactly as JsonFormat does, in which case no JSON must be
+     * printed with this class
+     */
+    public static boolean isStringEscapingSupported() {
+        return STRING_ESCAPING_SUPPORTED;
+    }
+
+    /**
+     * Empty the buffer
+     * @param compact   true to print the JSON on a single line, without any insignificant whitespace
+     */
+    public void reset(boolean compact) {
+        size = 0;
+        pretty = !compact;
+        indent = 0;
+        atStartOfLine = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the size of the underlying buffer, which is never shrunk
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(buffer, 0, size);
+    }
+
+    public void beginObject() {
+        write('{');
+        newLine();
+        indent++;
+    }
+
+    /**
+     * @param printedField  true if at least a field has been printed in the object
+     */
+    public void endObject(boolean printedField) {
+        if (printedField) {
+            newLine();
+        }
+        indent--;
+        write('}');
+    }
+
+    /**
+     * Print the key of a field
+     * @param key   UTF-8 bytes of the quoted key
+     * @param first true for the first field of the object, which is not preceded by a comma
+     */
+    public void field(byte[] key, boolean first) {
+        if (!first) {
+            write(',');
+            newLine();
+        }
+        write(key);
+        write(':');
+        space();
+    }
+
+    public void beginArray() {
+        write('[');
+    }
+
+    public void endArray() {
+        write(']');
+    }
+
+    public void elementSeparator() {
+        write(',');
+        space();
+    }
+
+    public void writeDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+
+        startLine();
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    /**
+     * Print a 64-bit integer, which is quoted in JSON
+     */
+    public void writeQuotedDecimal(long value) {
+        write('"');
+        writeDecimal(value);
+        write('"');
+    }
+
+    public void writeUnsigned32(int value) {
+        writeDecimal(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Print an unsigned 64-bit integer, which is quoted in JSON
+     */
+    public void writeQuotedUnsigned64(long value) {
+        write('"');
+        if (value >= 0) {
+            writeDecimal(value);
+        } else {
+            writeAscii(Long.toUnsignedString(value));
+        }
+        write('"');
+    }
+
+    public void writeBool(boolean value) {
+        writeAscii(value ? "true" : "false");
+    }
+
+    public void writeFloat(float value) {
+        if (Float.isNaN(value)) {
+            writeAscii("\"NaN\"");
+        } else if (Float.isInfinite(value)) {
+            writeAscii(value > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+        } else {
+            writeAscii(Float.toString(value));
+        }
+    }
+
+    public void writeDouble(double value) {
+        if (Double.isNaN(value)) {
+            writeAscii("\"NaN\"");
+        } else if (Double.isInfinite(value)) {
+            writeAscii(value > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    /**
+     * Print a bytes field, encoded in base64
+     */
+    public void writeBytes(byte[] value) {
+        write('"');
+        write(Base64.getEncoder().encode(value));
+        write('"');
+    }
+
+    /**
+     * Print a string that does not need to be escaped, such as the name of an enum value
+     * @param value UTF-8 bytes of the string
+     */
+    public void writeQuoted(byte[] value) {
+        write('"');
+        write(value);
+        write('"');
+    }
+
+    /**
+     * Print a string field as a quoted JSON string, escaped the same way as Gson does
+     * @param value         UTF-8 bytes of the string, as read from the wire format
+     * @param requiresUtf8  true if the string must be valid UTF-8, as in proto3
+     * @return false if the string is not valid UTF-8 while it must be, in which case the output must be dropped
+     */
+    public boolean writeString(byte[] value, boolean requiresUtf8) {
+        write('"');
+
+        boolean plain = true;
+        for (byte b : value) {
+            if (b < 0 || ESCAPES[b] != null) {
+                plain = false;
+                break;
+            }
+        }
+
+        if (plain) {
+            // Plain ASCII, the UTF-8 bytes of the wire format are the JSON bytes
+            write(value);
+        } else {
+            if (requiresUtf8 && !ByteString.copyFrom(value).isValidUtf8()) {
+                return false;
+            }
+
+            String string = new String(value, StandardCharsets.UTF_8);
+            StringBuilder escaped = new StringBuilder(string.length() + 16);
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (c < 128 && ESCAPES[c] != null) {
+                    escaped.append(new String(ESCAPES[c], StandardCharsets.US_ASCII));
+                } else if (c == LINE_SEPARATOR) {
+                    escaped.append("\\u2028");
+                } else if (c == PARAGRAPH_SEPARATOR) {
+                    escaped.append("\\u2029");
+                } else {
+                    escaped.append(c);
+                }
+            }
+            write(escaped.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        write('"');
+        return true;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + additional, buffer.length * 2));
+        }
+    }
+
+    private void startLine() {
+        if (atStartOfLine) {
+            atStartOfLine = false;
+            ensureCapacity(indent * INDENT.length);
+            for (int i = 0; i < indent; i++) {
+                buffer[size++] = INDENT[0];
+                buffer[size++] = INDENT[1];
+            }
+        }
+    }
+
+    private void newLine() {
+        if (pretty) {
+            ensureCapacity(1);
+            buffer[size++] = '\n';
+            atStartOfLine = true;
+        }
+    }
+
+    private void space() {
+        if (pretty) {
+            write(' ');
+        }
+    }
+
+    private void write(char c) {
+        startLine();
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void write(byte[] bytes) {
+        startLine();
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeAscii(String value) {
+        startLine();
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Check that the strings are escaped the same way as JsonFormat does, by printing a string containing all the
+     * characters that may be escaped
+     */
+    private static boolean probeStringEscaping() {
+        StringBuilder probe = new StringBuilder();
+        for (char c = 0; c < 128; c++) {
+            probe.append(c);
+        }
+        probe.append((char) 0xE9).append(LINE_SEPARATOR).append(PARAGRAPH_SEPARATOR).appendCodePoint(0x1F600);
+
+        try {
+            String expected = JsonFormat.printer().omittingInsignificantWhitespace()
+                    .print(DescriptorProtos.FileDescriptorProto.newBuilder().setName(probe.toString()).build());
+            JsonOutput out = new JsonOutput();
+            out.reset(true);
+            out.writeAscii("{\"name\":");
+            if (!out.writeString(probe.toString().getBytes(StandardCharsets.UTF_8), true)) {
+                return false;
+            }
+            out.write('}');
+            return expected.equals(new String(out.buffer, 0, out.size, StandardCharsets.UTF_8));
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            return false;
+        }
+    }
+}
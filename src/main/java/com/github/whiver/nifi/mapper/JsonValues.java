@@ -0,0 +1,260 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Parsing of the JSON values of the scalar fields, following the same rules as JsonFormat: all the values are read as
+ * strings whatever their JSON type, the integers may be written with an exponent or a fractional part, and the
+ * floating point values may be written as "NaN", "Infinity" or "-Infinity".
+ *
+ * Used by {@link JsonWireEncoder} and by the codecs generated by {@link CodecGenerator}.
+ */
+public final class JsonValues {
+    /**
+     * Tolerance of JsonFormat on the range of the floating point values, which may be printed with a precision loss
+     */
+    private static final double EPSILON = 1e-6;
+    private static final BigDecimal MORE_THAN_ONE = new BigDecimal(String.valueOf(1.0 + EPSILON));
+    private static final BigDecimal MAX_DOUBLE = new BigDecimal(String.valueOf(Double.MAX_VALUE)).multiply(MORE_THAN_ONE);
+    private static final BigDecimal MIN_DOUBLE = new BigDecimal(String.valueOf(-Double.MAX_VALUE)).multiply(MORE_THAN_ONE);
+    private static final BigInteger MAX_UINT32 = BigInteger.valueOf(0xFFFFFFFFL);
+    private static final BigInteger MAX_UINT64 = new BigInteger("FFFFFFFFFFFFFFFF", 16);
+
+    /**
+     * The well-known types printed by JsonFormat as something else than an object of their fields
+     */
+    private static final Set<String> SPECIAL_TYPES = new HashSet<>(Arrays.asList(
+            "google.protobuf.Any", "google.protobuf.Duration", "google.protobuf.FieldMask", "google.protobuf.Timestamp",
+            "google.protobuf.Struct", "google.protobuf.Value", "google.protobuf.ListValue", "google.protobuf.NullValue",
+            "google.protobuf.BoolValue", "google.protobuf.BytesValue", "google.protobuf.DoubleValue",
+            "google.protobuf.FloatValue", "google.protobuf.Int32Value", "google.protobuf.Int64Value",
+            "google.protobuf.StringValue", "google.protobuf.UInt32Value", "google.protobuf.UInt64Value"));
+
+    private JsonValues() {
+    }
+
+    /**
+     * @return true if the given message type has a special JSON representation, such as Timestamp or Struct
+     */
+    public static boolean hasSpecialRepresentation(Descriptors.Descriptor descriptor) {
+        return SPECIAL_TYPES.contains(descriptor.getFullName());
+    }
+
+    /**
+     * @return true if the given enum has a special JSON representation, which is only the case of NullValue
+     */
+    public static boolean hasSpecialRepresentation(Descriptors.EnumDescriptor enumType) {
+        return SPECIAL_TYPES.contains(enumType.getFullName());
+    }
+
+    /**
+     * Read a scalar value as a string, as JsonFormat reads all the values whatever their JSON type
+     */
+    public static String readScalar(JsonReader json) throws IOException {
+        JsonToken token = json.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return json.nextString();
+            case BOOLEAN:
+                return json.nextBoolean() ? "true" : "false";
+            default:
+                throw new InvalidProtocolBufferException("Expect a primitive value but got: " + token);
+        }
+    }
+
+    public static int parseInt32(String text) throws InvalidProtocolBufferException {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            // Fall through, the value may be written with an exponent or a fractional part
+        }
+        try {
+            return new BigDecimal(text).intValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new InvalidProtocolBufferException("Not an int32 value: " + text);
+        }
+    }
+
+    public static long parseInt64(String text) throws InvalidProtocolBufferException {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            // Fall through, the value may be written with an exponent or a fractional part
+        }
+        try {
+            return new BigDecimal(text).longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new InvalidProtocolBufferException("Not an int64 value: " + text);
+        }
+    }
+
+    public static int parseUint32(String text) throws InvalidProtocolBufferException {
+        BigInteger value;
+        try {
+            long result = Long.parseLong(text);
+            value = BigInteger.valueOf(result);
+        } catch (NumberFormatException e) {
+            try {
+                value = new BigDecimal(text).toBigIntegerExact();
+            } catch (ArithmeticException | NumberFormatException e2) {
+                throw new InvalidProtocolBufferException("Not an uint32 value: " + text);
+            }
+        }
+        if (value.signum() < 0 || value.compareTo(MAX_UINT32) > 0) {
+            throw new InvalidProtocolBufferException("Out of range uint32 value: " + text);
+        }
+        return value.intValue();
+    }
+
+    public static long parseUint64(String text) throws InvalidProtocolBufferException {
+        try {
+            long result = Long.parseLong(text);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through, the value may be larger than a signed long
+        }
+
+        BigInteger value;
+        try {
+            value = new BigDecimal(text).toBigIntegerExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw new InvalidProtocolBufferException("Not an uint64 value: " + text);
+        }
+        if (value.signum() < 0 || value.compareTo(MAX_UINT64) > 0) {
+            throw new InvalidProtocolBufferException("Out of range uint64 value: " + text);
+        }
+        return value.longValue();
+    }
+
+    public static boolean parseBool(String text) throws InvalidProtocolBufferException {
+        if (text.equals("true")) {
+            return true;
+        }
+        if (text.equals("false")) {
+            return false;
+        }
+        throw new InvalidProtocolBufferException("Invalid bool value: " + text);
+    }
+
+    public static float parseFloat(String text) throws InvalidProtocolBufferException {
+        switch (text) {
+            case "NaN":
+                return Float.NaN;
+            case "Infinity":
+                return Float.POSITIVE_INFINITY;
+            case "-Infinity":
+                return Float.NEGATIVE_INFINITY;
+            default:
+                break;
+        }
+        try {
+            // Parsed as a double, so that the out of range values are rejected instead of being rounded to infinity
+            double value = Double.parseDouble(text);
+            if (value > Float.MAX_VALUE * (1.0 + EPSILON) || value < -Float.MAX_VALUE * (1.0 + EPSILON)) {
+                throw new InvalidProtocolBufferException("Out of range float value: " + text);
+            }
+            return (float) value;
+        } catch (NumberFormatException e) {
+            throw new InvalidProtocolBufferException("Not a float value: " + text);
+        }
+    }
+
+    public static double parseDouble(String text) throws InvalidProtocolBufferException {
+        switch (text) {
+            case "NaN":
+                return Double.NaN;
+            case "Infinity":
+                return Double.POSITIVE_INFINITY;
+            case "-Infinity":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                break;
+        }
+        try {
+            BigDecimal value = new BigDecimal(text);
+            if (value.compareTo(MAX_DOUBLE) > 0 || value.compareTo(MIN_DOUBLE) < 0) {
+                throw new InvalidProtocolBufferException("Out of range double value: " + text);
+            }
+            return value.doubleValue();
+        } catch (NumberFormatException e) {
+            throw new InvalidProtocolBufferException("Not a double value: " + text);
+        }
+    }
+
+    /**
+     * Decode base64, with or without padding, falling back to the URL-safe alphabet as JsonFormat does
+     */
+    public static byte[] parseBytes(String text) throws InvalidProtocolBufferException {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '=') {
+            end--;
+        }
+        String unpadded = text.substring(0, end);
+        try {
+            return Base64.getDecoder().decode(unpadded);
+        } catch (IllegalArgumentException e) {
+            try {
+                return Base64.getUrlDecoder().decode(unpadded);
+            } catch (IllegalArgumentException e2) {
+                throw new InvalidProtocolBufferException("Not a bytes value: " + text);
+            }
+        }
+    }
+
+    /**
+     * Parse an enum value given as a number rather than as a name
+     * @param text          The JSON value
+     * @param enumTypeName  Full name of the enum type, for the error message
+     */
+    public static int parseEnumNumber(String text, String enumTypeName) throws InvalidProtocolBufferException {
+        try {
+            return parseInt32(text);
+        } catch (InvalidProtocolBufferException e) {
+            throw invalidEnumValue(text, enumTypeName);
+        }
+    }
+
+    public static InvalidProtocolBufferException invalidEnumValue(String text, String enumTypeName) {
+        return new InvalidProtocolBufferException("Invalid enum value: " + text + " for enum type: " + enumTypeName);
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts JSON to Protocol Buffers binaries while reading the JSON tokens, without building any JSON tree nor any
+ * DynamicMessage, producing exactly the same binaries as {@link JSONMapper}.
+ *
+ * For each message type, a plan is compiled once: a map dispatching each JSON key, that is the lowerCamelCase or the
+ * original name of a field, to its handler, holding the tag of the field. As the fields must be written ordered by
+ * their number whatever the order of the JSON keys, the bytes of each field are recorded as a range of the output
+ * buffer, and moved in place only when the keys were not already in order. The length of a nested message is written
+ * once its content is known, in the byte reserved before it, shifting the content when the length needs more bytes.
+ *
+ * The JSON values are parsed with the same rules as JsonFormat, so that the JSON accepted by one is accepted by the
+ * other. The message types containing maps, groups or well-known types are never encoded, and must be converted with
+ * the JSONMapper instead.
+ *
+ * Instances are thread-safe and meant to be shared.
+ */
+public class JsonWireEncoder {
+    /**
+     * Same recursion limit as JsonFormat
+     */
+    private static final int MAX_DEPTH = 100;
+
+    /**
+     * Scratch buffers are dropped after a message larger than this size, so that a single large message does not keep
+     * memory allocated for each thread
+     */
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private final boolean ignoringUnknownFields;
+    private final CodecGenerator generator;
+    private final Map<Descriptors.Descriptor, Plan> plans = new ConcurrentHashMap<>();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * @param ignoringUnknownFields true to skip the JSON keys that are not fields of the message type, instead of
+     *                              rejecting the JSON
+     */
+    public JsonWireEncoder(boolean ignoringUnknownFields) {
+        this(ignoringUnknownFields, null);
+    }
+
+    /**
+     * @param ignoringUnknownFields true to skip the JSON keys that are not fields of the message type, instead of
+     *                              rejecting the JSON
+     * @param generator             Generator of the codecs used instead of the compiled plans when available, may be
+     *                              null
+     */
+    public JsonWireEncoder(boolean ignoringUnknownFields, CodecGenerator generator) {
+        this.ignoringUnknownFields = ignoringUnknownFields;
+        this.generator = generator;
+    }
+
+    /**
+     * @return an encoder accepting the same JSON as the given mapper
+     */
+    public static JsonWireEncoder forMapper(JSONMapper mapper) {
+        return forMapper(mapper, null);
+    }
+
+    /**
+     * @param generator Generator of the codecs, which must have been created with the options of the mapper, may be
+     *                  null
+     * @return an encoder accepting the same JSON as the given mapper
+     */
+    public static JsonWireEncoder forMapper(JSONMapper mapper, CodecGenerator generator) {
+        return new JsonWireEncoder(mapper.isIgnoringUnknownFields(), generator);
+    }
+
+    /**
+     * @return true if the JSON of the given message type can be encoded, false if it must always be converted with
+     * the JSONMapper
+     */
+    public boolean supports(Descriptors.Descriptor descriptor) {
+        return getPlan(descriptor).supported;
+    }
+
+    /**
+     * Read a single JSON object and write it as a binary message
+     * @param descriptor    Descriptor of the message type, which must be supported
+     * @param json          Reader positioned before the JSON object, which is left right after it
+     * @param framing       Framing of the message, whose header is written before the binary
+     * @param output        Where to write the binary
+     * @throws InvalidProtocolBufferException   Thrown when the JSON is not a valid message of the given type, in which
+     * case nothing has been written
+     * @throws IOException  Thrown when the JSON cannot be read or the binary cannot be written
+     */
+    public void encode(Descriptors.Descriptor descriptor, JsonReader json, MessageFraming framing, OutputStream output) throws IOException {
+        Plan plan = getPlan(descriptor);
+        if (!plan.supported) {
+            throw new IllegalArgumentException("Message type " + descriptor.getFullName() + " cannot be encoded from JSON tokens");
+        }
+
+        Scratch buffers = scratch.get();
+        WireOutput out = buffers.output;
+        out.truncate(0);
+        boolean lenient = json.isLenient();
+        try {
+            // The JSON parser of JsonFormat always reads the values in lenient mode
+            json.setLenient(true);
+            if (plan.codec != null) {
+                plan.codec.encode(json, out, 0);
+            } else {
+                readMessage(plan, json, buffers, 0);
+            }
+            framing.writeHeader(output, out.size());
+            out.writeTo(output);
+        } finally {
+            json.setLenient(lenient);
+            if (out.capacity() > MAX_RETAINED_BUFFER) {
+                scratch.remove();
+            }
+        }
+    }
+
+    private Plan getPlan(Descriptors.Descriptor descriptor) {
+        Plan plan = plans.get(descriptor);
+        if (plan == null) {
+            synchronized (plans) {
+                plan = plans.get(descriptor);
+                if (plan == null) {
+                    Map<Descriptors.Descriptor, Plan> compiled = new HashMap<>();
+                    plan = compile(descriptor, compiled);
+
+                    // A type is only supported if all the types it references are supported too
+                    boolean changed = true;
+                    while (changed) {
+                        changed = false;
+                        for (Plan compiledPlan : compiled.values()) {
+                            if (compiledPlan.supported && compiledPlan.referencesUnsupportedType()) {
+                                compiledPlan.supported = false;
+                                changed = true;
+                            }
+                        }
+                    }
+                    if (generator != null) {
+                        for (Map.Entry<Descriptors.Descriptor, Plan> compiledPlan : compiled.entrySet()) {
+                            if (compiledPlan.getValue().supported) {
+                                compiledPlan.getValue().codec = generator.getCodec(compiledPlan.getKey());
+                            }
+                        }
+                    }
+                    plans.putAll(compiled);
+                }
+            }
+        }
+        return plan;
+    }
+
+    private Plan compile(Descriptors.Descriptor descriptor, Map<Descriptors.Descriptor, Plan> compiled) {
+        Plan plan = plans.get(descriptor);
+        if (plan == null) {
+            plan = compiled.get(descriptor);
+        }
+        if (plan != null) {
+            return plan;
+        }
+
+        plan = new Plan(descriptor);
+        compiled.put(descriptor, plan);
+
+        // Well-known types have a special JSON representation
+        if (JsonValues.hasSpecialRepresentation(descriptor)) {
+            plan.supported = false;
+            return plan;
+        }
+
+        // The fields are written in the order of their numbers, as DynamicMessage does
+        List<Descriptors.FieldDescriptor> fields = new ArrayList<>(descriptor.getFields());
+        fields.sort(Comparator.comparingInt(Descriptors.FieldDescriptor::getNumber));
+
+        plan.handlers = new FieldHandler[fields.size()];
+        for (int slot = 0; slot < fields.size(); slot++) {
+            Descriptors.FieldDescriptor field = fields.get(slot);
+            if (field.isMapField() || field.getType() == Descriptors.FieldDescriptor.Type.GROUP
+                    || (field.getType() == Descriptors.FieldDescriptor.Type.ENUM
+                        && JsonValues.hasSpecialRepresentation(field.getEnumType()))) {
+                plan.supported = false;
+            }
+
+            Plan child = field.getType() == Descriptors.FieldDescriptor.Type.MESSAGE ? compile(field.getMessageType(), compiled) : null;
+            FieldHandler handler = new FieldHandler(field, slot, child);
+            plan.handlers[slot] = handler;
+        }
+
+        // As JsonFormat, both names are accepted whatever the printing options, and the last field wins on conflicts
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            FieldHandler handler = plan.handlers[fields.indexOf(field)];
+            plan.byName.put(field.getName(), handler);
+            plan.byName.put(field.getJsonName(), handler);
+        }
+        return plan;
+    }
+
+    /**
+     * Read a JSON object and write its fields, the same way as the mergeMessage method of JsonFormat followed by the
+     * writeTo method of DynamicMessage
+     */
+    private void readMessage(Plan plan, JsonReader json, Scratch buffers, int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new InvalidProtocolBufferException("Hit recursion limit.");
+        }
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new InvalidProtocolBufferException("Expect message object but got: " + json.peek());
+        }
+
+        WireOutput out = buffers.output;
+        Frame frame = buffers.getFrame(depth, plan);
+        int contentStart = out.size();
+        json.beginObject();
+
+        while (json.hasNext()) {
+            String key = json.nextName();
+            FieldHandler handler = plan.byName.get(key);
+            if (handler == null) {
+                if (ignoringUnknownFields) {
+                    json.skipValue();
+                    continue;
+                }
+                throw new InvalidProtocolBufferException("Cannot find field: " + key + " in message " + plan.fullName);
+            }
+
+            int slot = handler.slot;
+            if (key.equals(frame.keys[slot])) {
+                // As in a JSON tree, only the last value of a key is kept
+                frame.clear(handler);
+            } else if (frame.starts[slot] >= 0) {
+                throw new InvalidProtocolBufferException("Field " + handler.field.getFullName() + " has already been set.");
+            }
+            frame.keys[slot] = key;
+
+            if (handler.oneof >= 0 && frame.oneofs[handler.oneof] >= 0) {
+                Descriptors.FieldDescriptor other = plan.handlers[frame.oneofs[handler.oneof]].field;
+                throw new InvalidProtocolBufferException("Cannot set field " + handler.field.getFullName() + " because another field "
+                        + other.getFullName() + " belonging to the same oneof has already been set ");
+            }
+
+            int start = out.size();
+            boolean set = handler.repeated ? writeRepeatedField(handler, json, buffers, depth) : writeSingularField(handler, json, buffers, depth);
+            if (set) {
+                frame.starts[slot] = start;
+                frame.ends[slot] = out.size();
+                if (handler.oneof >= 0) {
+                    frame.oneofs[handler.oneof] = slot;
+                }
+            } else {
+                out.truncate(start);
+            }
+        }
+        json.endObject();
+
+        // Check whether the fields have been written in order, without any value overwritten in between
+        boolean ordered = true;
+        int position = contentStart;
+        List<String> missing = null;
+        for (FieldHandler handler : plan.handlers) {
+            int start = frame.starts[handler.slot];
+            if (start < 0) {
+                if (handler.required) {
+                    if (missing == null) {
+                        missing = new ArrayList<>();
+                    }
+                    missing.add(handler.field.getName());
+                }
+                continue;
+            }
+            ordered &= start == position;
+            position = frame.ends[handler.slot];
+        }
+        if (missing != null) {
+            throw new InvalidProtocolBufferException("Message missing required fields: " + String.join(", ", missing));
+        }
+        if (!ordered || position != out.size()) {
+            // Move the fields so that they are ordered by field number and contiguous
+            out.startReordering();
+            for (FieldHandler handler : plan.handlers) {
+                if (frame.starts[handler.slot] >= 0) {
+                    out.keep(frame.starts[handler.slot], frame.ends[handler.slot]);
+                }
+            }
+            out.finishReordering(contentStart);
+        }
+    }
+
+    /**
+     * @return false if the field is not set by the JSON value, in which case the bytes written must be dropped
+     */
+    private boolean writeSingularField(FieldHandler handler, JsonReader json, Scratch buffers, int depth) throws IOException {
+        WireOutput out = buffers.output;
+        if (json.peek() == JsonToken.NULL) {
+            // null is the same as the field not being set
+            json.nextNull();
+            return false;
+        }
+
+        if (handler.child != null) {
+            out.writeVarint(handler.tag);
+            int contentStart = out.reserveLength();
+            readMessage(handler.child, json, buffers, depth + 1);
+            out.writeLength(contentStart);
+            return true;
+        }
+        return writeValue(handler, JsonValues.readScalar(json), out, true);
+    }
+
+    /**
+     * @return false if the field is not set by the JSON value, in which case the bytes written must be dropped
+     */
+    private boolean writeRepeatedField(FieldHandler handler, JsonReader json, Scratch buffers, int depth) throws IOException {
+        WireOutput out = buffers.output;
+        JsonToken token = json.peek();
+        if (token == JsonToken.NULL) {
+            json.nextNull();
+            return false;
+        }
+        if (token != JsonToken.BEGIN_ARRAY) {
+            throw new InvalidProtocolBufferException("Expect an array but found: " + token);
+        }
+
+        int contentStart = -1;
+        if (handler.packed) {
+            out.writeVarint(handler.packedTag);
+            contentStart = out.reserveLength();
+        }
+
+        int count = 0;
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() == JsonToken.NULL) {
+                throw new InvalidProtocolBufferException("Repeated field elements cannot be null in field: " + handler.field.getFullName());
+            }
+
+            if (handler.child != null) {
+                out.writeVarint(handler.tag);
+                int elementStart = out.reserveLength();
+                readMessage(handler.child, json, buffers, depth + 1);
+                out.writeLength(elementStart);
+            } else {
+                writeValue(handler, JsonValues.readScalar(json), out, !handler.packed);
+            }
+            count++;
+        }
+        json.endArray();
+
+        if (count == 0) {
+            // An empty array does not set the field
+            return false;
+        }
+        if (handler.packed) {
+            out.writeLength(contentStart);
+        }
+        return true;
+    }
+
+    /**
+     * Write a single scalar value, parsed the same way as the parseFieldValue method of JsonFormat
+     * @param tagged    true to write the tag of the field before the value, false for the elements of packed fields
+     * @return false if the value is the default value of a proto3 singular field, which clears the field
+     */
+    private static boolean writeValue(FieldHandler handler, String text, WireOutput out, boolean tagged) throws InvalidProtocolBufferException {
+        switch (handler.type) {
+            case INT32:
+            case SINT32:
+            case SFIXED32: {
+                int value = JsonValues.parseInt32(text);
+                if (tagged && !writeTag(handler, value == 0, out)) {
+                    return false;
+                }
+                if (handler.type == Descriptors.FieldDescriptor.Type.INT32) {
+                    out.writeVarint(value);
+                } else if (handler.type == Descriptors.FieldDescriptor.Type.SINT32) {
+                    out.writeSInt32(value);
+                } else {
+                    out.writeFixed32(value);
+                }
+                return true;
+            }
+            case UINT32:
+            case FIXED32: {
+                int value = JsonValues.parseUint32(text);
+                if (tagged && !writeTag(handler, value == 0, out)) {
+                    return false;
+                }
+                if (handler.type == Descriptors.FieldDescriptor.Type.UINT32) {
+                    out.writeVarint(value & 0xFFFFFFFFL);
+                } else {
+                    out.writeFixed32(value);
+                }
+                return true;
+            }
+            case INT64:
+            case SINT64:
+            case SFIXED64: {
+                long value = JsonValues.parseInt64(text);
+                if (tagged && !writeTag(handler, value == 0, out)) {
+                    return false;
+                }
+                if (handler.type == Descriptors.FieldDescriptor.Type.INT64) {
+                    out.writeVarint(value);
+                } else if (handler.type == Descriptors.FieldDescriptor.Type.SINT64) {
+                    out.writeSInt64(value);
+                } else {
+                    out.writeFixed64(value);
+                }
+                return true;
+            }
+            case UINT64:
+            case FIXED64: {
+                long value = JsonValues.parseUint64(text);
+                if (tagged && !writeTag(handler, value == 0, out)) {
+                    return false;
+                }
+                if (handler.type == Descriptors.FieldDescriptor.Type.UINT64) {
+                    out.writeVarint(value);
+                } else {
+                    out.writeFixed64(value);
+                }
+                return true;
+            }
+            case BOOL: {
+                boolean value = JsonValues.parseBool(text);
+                if (tagged && !writeTag(handler, !value, out)) {
+                    return false;
+                }
+                out.writeVarint(value ? 1 : 0);
+                return true;
+            }
+            case FLOAT: {
+                float value = JsonValues.parseFloat(text);
+                if (tagged && !writeTag(handler, Float.floatToIntBits(value) == 0, out)) {
+                    return false;
+                }
+                out.writeFixed32(Float.floatToRawIntBits(value));
+                return true;
+            }
+            case DOUBLE: {
+                double value = JsonValues.parseDouble(text);
+                if (tagged && !writeTag(handler, Double.doubleToLongBits(value) == 0, out)) {
+                    return false;
+                }
+                out.writeFixed64(Double.doubleToRawLongBits(value));
+                return true;
+            }
+            case STRING: {
+                if (tagged && !writeTag(handler, text.isEmpty(), out)) {
+                    return false;
+                }
+                out.writeString(text);
+                return true;
+            }
+            case BYTES: {
+                byte[] value = JsonValues.parseBytes(text);
+                if (tagged && !writeTag(handler, value.length == 0, out)) {
+                    return false;
+                }
+                out.writeBytes(value);
+                return true;
+            }
+            case ENUM: {
+                // An alias of the default value is a distinct value for DynamicMessage, which does not clear the field
+                Descriptors.EnumValueDescriptor value = handler.enumType.findValueByName(text);
+                int number;
+                if (value != null) {
+                    number = value.getNumber();
+                } else {
+                    number = parseEnumNumber(handler, text);
+                    value = handler.enumType.findValueByNumber(number);
+                }
+                if (tagged && !writeTag(handler, value == handler.field.getDefaultValue(), out)) {
+                    return false;
+                }
+                out.writeVarint(number);
+                return true;
+            }
+            default:
+                throw new InvalidProtocolBufferException("Unsupported field type: " + handler.type);
+        }
+    }
+
+    /**
+     * Write the tag of a singular field, unless its value is the default value of a proto3 field
+     * @return false if the field is cleared
+     */
+    private static boolean writeTag(FieldHandler handler, boolean isDefault, WireOutput out) {
+        if (isDefault && handler.clearsDefault) {
+            return false;
+        }
+        out.writeVarint(handler.tag);
+        return true;
+    }
+
+    /**
+     * @return the number of an enum value given as a number, which may be unknown in proto3
+     */
+    private static int parseEnumNumber(FieldHandler handler, String text) throws InvalidProtocolBufferException {
+        int number = JsonValues.parseEnumNumber(text, handler.enumType.getFullName());
+        if (!handler.openEnum && handler.enumType.findValueByNumber(number) == null) {
+            throw JsonValues.invalidEnumValue(text, handler.enumType.getFullName());
+        }
+        return number;
+    }
+
+    /**
+     * The compiled plan of a message type
+     */
+    private static final class Plan {
+        private final String fullName;
+        private final int oneofCount;
+        private FieldHandler[] handlers = new FieldHandler[0];
+        private final Map<String, FieldHandler> byName = new HashMap<>();
+        private volatile boolean supported = true;
+        private MessageCodec codec;
+
+        Plan(Descriptors.Descriptor descriptor) {
+            this.fullName = descriptor.getFullName();
+            this.oneofCount = descriptor.getOneofs().size();
+        }
+
+        boolean referencesUnsupportedType() {
+            for (FieldHandler handler : handlers) {
+                if (handler.child != null && !handler.child.supported) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * How to parse a field from JSON and write it to the wire format
+     */
+    private static final class FieldHandler {
+        private final Descriptors.FieldDescriptor field;
+        private final Descriptors.FieldDescriptor.Type type;
+        /**
+         * Index of the field in the plan, ordered by field number
+         */
+        private final int slot;
+        private final long tag;
+        private final long packedTag;
+        private final boolean repeated;
+        private final boolean packed;
+        private final boolean required;
+        /**
+         * true for the proto3 singular scalar fields outside of a oneof, for which a default value clears the field
+         */
+        private final boolean clearsDefault;
+        private final int oneof;
+        private final Plan child;
+        private final Descriptors.EnumDescriptor enumType;
+        /**
+         * true if unknown enum numbers are accepted, as in proto3
+         */
+        private final boolean openEnum;
+
+        FieldHandler(Descriptors.FieldDescriptor field, int slot, Plan child) {
+            boolean proto3 = field.getFile().getSyntax() == Descriptors.FileDescriptor.Syntax.PROTO3;
+            this.field = field;
+            this.type = field.getType();
+            this.slot = slot;
+            this.tag = ((long) field.getNumber() << 3) | field.getLiteType().getWireType();
+            this.packedTag = ((long) field.getNumber() << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+            this.repeated = field.isRepeated();
+            this.packed = field.isPacked();
+            this.required = field.isRequired();
+            this.clearsDefault = proto3 && !repeated && field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE
+                    && field.getContainingOneof() == null;
+            this.oneof = field.getContainingOneof() == null ? -1 : field.getContainingOneof().getIndex();
+            this.child = child;
+            this.enumType = type == Descriptors.FieldDescriptor.Type.ENUM ? field.getEnumType() : null;
+            this.openEnum = proto3;
+        }
+    }
+
+    /**
+     * The fields set in a message being read: the range of the output buffer holding the bytes of each field, the JSON
+     * key it has been read from, and the field set in each oneof. Frames are reused for each depth.
+     */
+    private static final class Frame {
+        private int[] starts = new int[0];
+        private int[] ends = new int[0];
+        private String[] keys = new String[0];
+        private int[] oneofs = new int[0];
+
+        void reset(Plan plan) {
+            int fieldCount = plan.handlers.length;
+            if (starts.length < fieldCount) {
+                starts = new int[fieldCount];
+                ends = new int[fieldCount];
+                keys = new String[fieldCount];
+            }
+            if (oneofs.length < plan.oneofCount) {
+                oneofs = new int[plan.oneofCount];
+            }
+            Arrays.fill(starts, 0, fieldCount, -1);
+            Arrays.fill(keys, 0, fieldCount, null);
+            Arrays.fill(oneofs, 0, plan.oneofCount, -1);
+        }
+
+        /**
+         * Forget the value of a field, whose bytes are left unused in the output buffer
+         */
+        void clear(FieldHandler handler) {
+            starts[handler.slot] = -1;
+            if (handler.oneof >= 0 && oneofs[handler.oneof] == handler.slot) {
+                oneofs[handler.oneof] = -1;
+            }
+        }
+    }
+
+    /**
+     * The buffers of a thread: the binary output and the frames of the messages being read
+     */
+    private static final class Scratch {
+        private final WireOutput output = new WireOutput();
+        private final List<Frame> frames = new ArrayList<>();
+
+        Frame getFrame(int depth, Plan plan) {
+            while (frames.size() <= depth) {
+                frames.add(new Frame());
+            }
+            Frame frame = frames.get(depth);
+            frame.reset(plan);
+            return frame;
+        }
+    }
+}
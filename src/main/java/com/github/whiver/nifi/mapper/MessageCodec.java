@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.google.gson.stream.JsonReader;
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+
+/**
+ * Base class of the codecs generated by {@link CodecGenerator}, converting the messages of a single message type
+ * between the wire format and JSON with code specialized for its fields.
+ *
+ * The codecs behave exactly as {@link WireJsonTranscoder} and {@link JsonWireEncoder} do: they are only generated for
+ * the message types those support, and produce the same output. Instances are thread-safe.
+ */
+public abstract class MessageCodec {
+    /**
+     * Codecs of the message types of the message fields, set once all the codecs of a schema are loaded
+     */
+    protected MessageCodec[] children;
+
+    /**
+     * Convert a binary message to JSON, the same way as {@link WireJsonTranscoder} does
+     * @param in    The binary message
+     * @param out   Where to print the JSON
+     * @param depth Depth of the message, 0 for the top-level message
+     * @return false if the message must be converted with the JSONMapper instead, in which case the output must be
+     * dropped
+     * @throws IOException  Thrown when the binary is invalid
+     */
+    public abstract boolean decode(CodedInputStream in, JsonOutput out, int depth) throws IOException;
+
+    /**
+     * Read a JSON object and write it as a binary message, the same way as {@link JsonWireEncoder} does
+     * @param json  Reader positioned before the JSON object
+     * @param out   Where to write the binary message, without any length prefix
+     * @param depth Depth of the message, 0 for the top-level message
+     * @throws IOException  Thrown when the JSON cannot be read or is not a valid message of this type
+     */
+    public abstract void encode(JsonReader json, WireOutput out, int depth) throws IOException;
+
+    void link(MessageCodec[] children) {
+        this.children = children;
+    }
+}
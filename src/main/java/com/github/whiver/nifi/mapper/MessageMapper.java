@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import org.apache.nifi.serialization.record.Record;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps NiFi Records to Protocol Buffers Messages, the reverse of {@link RecordMapper}.
+ *
+ * For each message type, a plan giving the record field read for each message field is computed once and then cached.
+ * A message field is read from the record field of the same name, or of the same JSON name (lowerCamelCase). Record
+ * fields that do not exist in the message type are ignored, as well as null values.
+ */
+public class MessageMapper {
+    private final Map<Descriptors.Descriptor, FieldPlan[]> plans = new ConcurrentHashMap<>();
+
+    /**
+     * Convert the given record to a message.
+     * @param record        The record to convert
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @return  The message built from the record values
+     * @throws IOException  Thrown when a record value cannot be converted to the type of its message field
+     */
+    public Message toMessage(Record record, Descriptors.Descriptor descriptor) throws IOException {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(descriptor);
+
+        for (FieldPlan plan : getPlan(descriptor)) {
+            Object value = plan.getValue(record);
+            if (value == null) {
+                continue;
+            }
+
+            if (plan.field.isMapField()) {
+                for (Map.Entry<?, ?> entry : asMap(plan.field, value).entrySet()) {
+                    if (entry.getValue() != null) {
+                        builder.addRepeatedField(plan.field, toMapEntry(plan.field.getMessageType(), entry.getKey(), entry.getValue()));
+                    }
+                }
+            } else if (plan.field.isRepeated()) {
+                for (Object element : asArray(plan.field, value)) {
+                    if (element != null) {
+                        builder.addRepeatedField(plan.field, toFieldValue(plan.field, element));
+                    }
+                }
+            } else {
+                Object fieldValue = toFieldValue(plan.field, value);
+                // Proto3 scalar fields set to their default value are not written, as with generated code
+                if (!plan.skipDefaultValue || !fieldValue.equals(plan.field.getDefaultValue())) {
+                    builder.setField(plan.field, fieldValue);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
+    private FieldPlan[] getPlan(Descriptors.Descriptor descriptor) {
+        FieldPlan[] plan = plans.get(descriptor);
+        if (plan == null) {
+            List<Descriptors.FieldDescriptor> fields = descriptor.getFields();
+            plan = new FieldPlan[fields.size()];
+            for (int i = 0; i < plan.length; i++) {
+                plan[i] = new FieldPlan(fields.get(i));
+            }
+            plans.put(descriptor, plan);
+        }
+        return plan;
+    }
+
+    private Message toMapEntry(Descriptors.Descriptor entryType, Object key, Object value) throws IOException {
+        Descriptors.FieldDescriptor keyField = entryType.findFieldByName("key");
+        Descriptors.FieldDescriptor valueField = entryType.findFieldByName("value");
+
+        return DynamicMessage.newBuilder(entryType)
+                .setField(keyField, toFieldValue(keyField, key))
+                .setField(valueField, toFieldValue(valueField, value))
+                .build();
+    }
+
+    private Object toFieldValue(Descriptors.FieldDescriptor field, Object value) throws IOException {
+        try {
+            switch (field.getType()) {
+                case INT32:
+                case SINT32:
+                case SFIXED32:
+                    return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+                case UINT32:
+                case FIXED32:
+                    return value instanceof Number ? (int) ((Number) value).longValue() : Integer.parseUnsignedInt(value.toString());
+                case INT64:
+                case SINT64:
+                case SFIXED64:
+                    return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+                case UINT64:
+                case FIXED64:
+                    return value instanceof Number ? ((Number) value).longValue() : new BigInteger(value.toString()).longValue();
+                case FLOAT:
+                    return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString());
+                case DOUBLE:
+                    return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+                case BOOL:
+                    return value instanceof Boolean ? value : Boolean.parseBoolean(value.toString());
+                case STRING:
+                    return value.toString();
+                case BYTES:
+                    return toByteString(value);
+                case ENUM:
+                    Descriptors.EnumValueDescriptor enumValue = value instanceof Number
+                            ? field.getEnumType().findValueByNumber(((Number) value).intValue())
+                            : field.getEnumType().findValueByName(value.toString());
+                    if (enumValue == null) {
+                        throw new IOException("Unknown value " + value + " for enum " + field.getEnumType().getFullName());
+                    }
+                    return enumValue;
+                case MESSAGE:
+                case GROUP:
+                    if (!(value instanceof Record)) {
+                        throw new IOException("Expected a record for field " + field.getFullName() + ", got " + value.getClass().getSimpleName());
+                    }
+                    return toMessage((Record) value, field.getMessageType());
+                default:
+                    throw new IOException("Unsupported type " + field.getType() + " for field " + field.getFullName());
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid value " + value + " for field " + field.getFullName(), e);
+        }
+    }
+
+    private static ByteString toByteString(Object value) throws IOException {
+        if (value instanceof byte[]) {
+            return ByteString.copyFrom((byte[]) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            byte[] bytes = new byte[array.length];
+            for (int i = 0; i < array.length; i++) {
+                bytes[i] = ((Number) array[i]).byteValue();
+            }
+            return ByteString.copyFrom(bytes);
+        } else if (value instanceof String) {
+            return ByteString.copyFrom((String) value, StandardCharsets.UTF_8);
+        }
+        throw new IOException("Unable to convert " + value.getClass().getSimpleName() + " to bytes");
+    }
+
+    private static Object[] asArray(Descriptors.FieldDescriptor field, Object value) throws IOException {
+        if (value instanceof Object[]) {
+            return (Object[]) value;
+        } else if (value instanceof List) {
+            return ((List<?>) value).toArray();
+        }
+        throw new IOException("Expected an array for repeated field " + field.getFullName() + ", got " + value.getClass().getSimpleName());
+    }
+
+    private static Map<?, ?> asMap(Descriptors.FieldDescriptor field, Object value) throws IOException {
+        if (value instanceof Map) {
+            return (Map<?, ?>) value;
+        } else if (value instanceof Record) {
+            Record record = (Record) value;
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (String fieldName : record.getSchema().getFieldNames()) {
+                map.put(fieldName, record.getValue(fieldName));
+            }
+            return map;
+        }
+        throw new IOException("Expected a map for map field " + field.getFullName() + ", got " + value.getClass().getSimpleName());
+    }
+
+    /**
+     * The way to read the value of a message field from a record
+     */
+    private static final class FieldPlan {
+        private final Descriptors.FieldDescriptor field;
+        private final String name;
+        private final String jsonName;
+        private final boolean skipDefaultValue;
+
+        FieldPlan(Descriptors.FieldDescriptor field) {
+            this.field = field;
+            this.name = field.getName();
+            this.jsonName = field.getJsonName().equals(name) ? null : field.getJsonName();
+            this.skipDefaultValue = field.getFile().getSyntax() == Descriptors.FileDescriptor.Syntax.PROTO3
+                    && !field.isRepeated() && field.getContainingOneof() == null
+                    && field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE;
+        }
+
+        Object getValue(Record record) {
+            Object value = record.getValue(name);
+            if (value == null && jsonName != null) {
+                value = record.getValue(jsonName);
+            }
+            return value;
+        }
+    }
+}
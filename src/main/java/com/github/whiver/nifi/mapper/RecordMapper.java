@@ -0,0 +1,209 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.SchemaIdentifier;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps Protocol Buffers Messages to NiFi Records.
+ *
+ * The record schema of a message type is derived from its descriptor only once and then cached, so an instance should
+ * be kept as long as the schema it is used with.
+ *
+ * Types are mapped as follows: 32-bit integers to int, 64-bit integers and uint32 to long, uint64 to bigint, enums to
+ * their name as a string, bytes to an array of bytes, messages to records, repeated fields to arrays and map fields to
+ * maps.
+ */
+public class RecordMapper {
+    private final Map<Descriptors.Descriptor, RecordSchema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * Get the record schema of the given message type.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @return  The record schema, with one field per field of the message type
+     */
+    public RecordSchema getRecordSchema(Descriptors.Descriptor descriptor) {
+        RecordSchema schema = schemas.get(descriptor);
+        if (schema == null) {
+            schema = buildRecordSchema(descriptor, new HashMap<>());
+        }
+        return schema;
+    }
+
+    /**
+     * Convert the given message to a record.
+     * @param message   The message to convert
+     * @return  A record of the schema given by {@link #getRecordSchema(Descriptors.Descriptor)}
+     */
+    public Record toRecord(Message message) {
+        Descriptors.Descriptor descriptor = message.getDescriptorForType();
+        RecordSchema schema = getRecordSchema(descriptor);
+        Map<String, Object> values = new LinkedHashMap<>();
+
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            if (field.isRepeated()) {
+                values.put(field.getName(), toRepeatedValue(field, (List<?>) message.getField(field)));
+            } else if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE && !message.hasField(field)) {
+                values.put(field.getName(), null);
+            } else if (field.getContainingOneof() != null && !message.hasField(field)) {
+                // Only the field set in a oneof has a value
+                values.put(field.getName(), null);
+            } else {
+                values.put(field.getName(), toValue(field, message.getField(field)));
+            }
+        }
+
+        return new MapRecord(schema, values);
+    }
+
+    /**
+     * Build the record schema of the given message type, and the ones of all the message types it references.
+     * Recursive message types are supported, since a schema is registered before its fields are built.
+     */
+    private RecordSchema buildRecordSchema(Descriptors.Descriptor descriptor, Map<Descriptors.Descriptor, RecordSchema> building) {
+        RecordSchema schema = schemas.get(descriptor);
+        if (schema == null) {
+            schema = building.get(descriptor);
+        }
+        if (schema != null) {
+            return schema;
+        }
+
+        SimpleRecordSchema recordSchema = new SimpleRecordSchema(SchemaIdentifier.EMPTY);
+        building.put(descriptor, recordSchema);
+
+        List<RecordField> fields = new ArrayList<>();
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            fields.add(new RecordField(field.getName(), getDataType(field, building)));
+        }
+        recordSchema.setFields(fields);
+
+        RecordSchema existing = schemas.putIfAbsent(descriptor, recordSchema);
+        return existing == null ? recordSchema : existing;
+    }
+
+    private DataType getDataType(Descriptors.FieldDescriptor field, Map<Descriptors.Descriptor, RecordSchema> building) {
+        if (field.isMapField()) {
+            Descriptors.FieldDescriptor valueField = field.getMessageType().findFieldByName("value");
+            return RecordFieldType.MAP.getMapDataType(getSingleDataType(valueField, building));
+        } else if (field.isRepeated()) {
+            return RecordFieldType.ARRAY.getArrayDataType(getSingleDataType(field, building));
+        }
+        return getSingleDataType(field, building);
+    }
+
+    private DataType getSingleDataType(Descriptors.FieldDescriptor field, Map<Descriptors.Descriptor, RecordSchema> building) {
+        switch (field.getType()) {
+            case INT32:
+            case SINT32:
+            case SFIXED32:
+                return RecordFieldType.INT.getDataType();
+            case INT64:
+            case SINT64:
+            case SFIXED64:
+            case UINT32:
+            case FIXED32:
+                return RecordFieldType.LONG.getDataType();
+            case UINT64:
+            case FIXED64:
+                return RecordFieldType.BIGINT.getDataType();
+            case FLOAT:
+                return RecordFieldType.FLOAT.getDataType();
+            case DOUBLE:
+                return RecordFieldType.DOUBLE.getDataType();
+            case BOOL:
+                return RecordFieldType.BOOLEAN.getDataType();
+            case BYTES:
+                return RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType());
+            case MESSAGE:
+            case GROUP:
+                return RecordFieldType.RECORD.getRecordDataType(buildRecordSchema(field.getMessageType(), building));
+            case STRING:
+            case ENUM:
+            default:
+                return RecordFieldType.STRING.getDataType();
+        }
+    }
+
+    private Object toRepeatedValue(Descriptors.FieldDescriptor field, List<?> values) {
+        if (field.isMapField()) {
+            Descriptors.FieldDescriptor keyField = field.getMessageType().findFieldByName("key");
+            Descriptors.FieldDescriptor valueField = field.getMessageType().findFieldByName("value");
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Object entry : values) {
+                Message entryMessage = (Message) entry;
+                map.put(String.valueOf(toValue(keyField, entryMessage.getField(keyField))), toValue(valueField, entryMessage.getField(valueField)));
+            }
+            return map;
+        }
+
+        Object[] array = new Object[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = toValue(field, values.get(i));
+        }
+        return array;
+    }
+
+    private Object toValue(Descriptors.FieldDescriptor field, Object value) {
+        switch (field.getType()) {
+            case UINT32:
+            case FIXED32:
+                return Integer.toUnsignedLong((Integer) value);
+            case UINT64:
+            case FIXED64:
+                return new BigInteger(Long.toUnsignedString((Long) value));
+            case BYTES:
+                byte[] bytes = ((ByteString) value).toByteArray();
+                Object[] array = new Object[bytes.length];
+                for (int i = 0; i < bytes.length; i++) {
+                    array[i] = bytes[i];
+                }
+                return array;
+            case ENUM:
+                return ((Descriptors.EnumValueDescriptor) value).getName();
+            case MESSAGE:
+            case GROUP:
+                return toRecord((Message) value);
+            default:
+                return value;
+        }
+    }
+}
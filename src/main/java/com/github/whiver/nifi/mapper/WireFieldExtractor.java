@@ -0,0 +1,398 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.exception.InvalidFieldPathException;
+import com.google.gson.JsonParser;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads the values of some fields of binary messages of a given type as strings, in a single pass over the wire format
+ * and without decoding the other fields. Once all the referenced fields of a message have been seen, the rest of the
+ * message is not read at all, unless some of them are repeated.
+ *
+ * Values are formatted as in the JSON representation of the messages: enums by name, 64-bit integers as numbers, bytes
+ * in base64 and messages as compact JSON, except the well-known types represented by a JSON string, such as
+ * timestamps, which are written without quotes. The values of a repeated field, or of a field inside a repeated
+ * message, are joined with commas. As with the getters of the Protobuf messages, a missing scalar field has its
+ * default value, whereas a missing message field or an empty repeated field has no value at all.
+ *
+ * Compiled extractors do not keep any reference to the descriptors, and are thread-safe.
+ */
+public final class WireFieldExtractor {
+    static final char SEPARATOR = ',';
+
+    private final Scope root;
+    private final int pathCount;
+
+    private WireFieldExtractor(Scope root, int pathCount) {
+        this.root = root;
+        this.pathCount = pathCount;
+    }
+
+    /**
+     * @param descriptor    Descriptor of the message type the fields are read from
+     * @param paths         Dotted paths of the fields to read, named as in the schema or in lowerCamelCase
+     * @return  The extractor reading the given fields from messages of the given type
+     * @throws InvalidFieldPathException    Thrown when a path does not match the fields of the message type
+     */
+    public static WireFieldExtractor compile(Descriptors.Descriptor descriptor, List<String> paths) throws InvalidFieldPathException {
+        ScopeBuilder root = new ScopeBuilder();
+
+        for (int slot = 0; slot < paths.size(); slot++) {
+            String path = paths.get(slot);
+            String[] segments = path.split("\\.", -1);
+            Descriptors.Descriptor type = descriptor;
+            ScopeBuilder scope = root;
+            int[] numbers = new int[segments.length];
+
+            for (int i = 0; i < segments.length; i++) {
+                Descriptors.FieldDescriptor field = findField(type, segments[i]);
+                if (field == null) {
+                    throw new InvalidFieldPathException(path, descriptor.getFullName(),
+                            "no field '" + segments[i] + "' in " + type.getFullName());
+                }
+                numbers[i] = field.getNumber();
+
+                FieldBuilder builder = scope.fields.computeIfAbsent(field.getNumber(), number -> new FieldBuilder(field));
+                if (i == segments.length - 1) {
+                    builder.slots.add(slot);
+                    if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                        builder.messagePath = numbers;
+                    }
+                    break;
+                }
+
+                if (field.isMapField()) {
+                    throw new InvalidFieldPathException(path, descriptor.getFullName(),
+                            "map field '" + field.getName() + "' can only be read as a whole");
+                }
+                if (field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                    throw new InvalidFieldPathException(path, descriptor.getFullName(),
+                            "field '" + field.getName() + "' is not a message");
+                }
+                if (builder.child == null) {
+                    builder.child = new ScopeBuilder();
+                }
+                scope = builder.child;
+                type = field.getMessageType();
+            }
+        }
+
+        return new WireFieldExtractor(root.build(), paths.size());
+    }
+
+    private static Descriptors.FieldDescriptor findField(Descriptors.Descriptor type, String name) {
+        Descriptors.FieldDescriptor field = type.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        for (Descriptors.FieldDescriptor candidate : type.getFields()) {
+            if (candidate.getJsonName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the fields of a single message
+     * @param descriptor    Descriptor of the message type, the same as the one the extractor was compiled for
+     * @param input         The binary message, read until its end or the limit of the stream
+     * @return  The value of each path, in the order they were compiled, or null for the paths without any value
+     * @throws IOException  Thrown when the message is malformed or cannot be read
+     */
+    public String[] extract(Descriptors.Descriptor descriptor, CodedInputStream input) throws IOException {
+        StringBuilder[] values = new StringBuilder[pathCount];
+        scan(descriptor, input, root, values, false);
+
+        String[] result = new String[pathCount];
+        for (int i = 0; i < pathCount; i++) {
+            result[i] = values[i] == null ? null : values[i].toString();
+        }
+        return result;
+    }
+
+    private static void scan(Descriptors.Descriptor descriptor, CodedInputStream input, Scope scope, StringBuilder[] values, boolean limited) throws IOException {
+        boolean[] seen = new boolean[scope.fields.length];
+        int remaining = scope.singular ? scope.fields.length : -1;
+
+        while (remaining != 0) {
+            int tag = input.readTag();
+            if (tag == 0) {
+                break;
+            }
+
+            int index = Arrays.binarySearch(scope.numbers, WireFormat.getTagFieldNumber(tag));
+            if (index < 0) {
+                if (!input.skipField(tag)) {
+                    break;
+                }
+                continue;
+            }
+
+            if (!seen[index]) {
+                seen[index] = true;
+                if (remaining > 0) {
+                    remaining--;
+                }
+            }
+            read(descriptor, input, tag, scope.fields[index], values);
+        }
+
+        if (remaining == 0 && limited) {
+            // All the referenced fields have been read, there is no need to go through the rest of the message
+            input.skipRawBytes(input.getBytesUntilLimit());
+        }
+
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i]) {
+                applyDefaults(scope.fields[i], values);
+            }
+        }
+    }
+
+    private static void read(Descriptors.Descriptor descriptor, CodedInputStream input, int tag, Field field, StringBuilder[] values) throws IOException {
+        int wireType = WireFormat.getTagWireType(tag);
+
+        if (field.type == WireFormat.FieldType.MESSAGE) {
+            if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                input.skipField(tag);
+            } else if (field.messagePath == null) {
+                int limit = input.pushLimit(input.readRawVarint32());
+                scan(descriptor, input, field.child, values, true);
+                input.popLimit(limit);
+            } else {
+                // The whole message is needed for its own value, the sub-fields are read again from its bytes
+                byte[] message = input.readByteArray();
+                append(values, field.slots, formatMessage(descriptor, field.messagePath, message));
+                if (field.child != null) {
+                    scan(descriptor, CodedInputStream.newInstance(message), field.child, values, false);
+                }
+            }
+        } else if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED && field.type.isPackable()) {
+            int limit = input.pushLimit(input.readRawVarint32());
+            while (input.getBytesUntilLimit() > 0) {
+                append(values, field.slots, readValue(input, field));
+            }
+            input.popLimit(limit);
+        } else if (wireType == field.type.getWireType()) {
+            append(values, field.slots, readValue(input, field));
+        } else {
+            input.skipField(tag);
+        }
+    }
+
+    private static String readValue(CodedInputStream input, Field field) throws IOException {
+        switch (field.type) {
+            case INT32: return Integer.toString(input.readInt32());
+            case INT64: return Long.toString(input.readInt64());
+            case UINT32: return Long.toString(input.readUInt32() & 0xFFFFFFFFL);
+            case UINT64: return Long.toUnsignedString(input.readUInt64());
+            case SINT32: return Integer.toString(input.readSInt32());
+            case SINT64: return Long.toString(input.readSInt64());
+            case FIXED32: return Long.toString(input.readFixed32() & 0xFFFFFFFFL);
+            case FIXED64: return Long.toUnsignedString(input.readFixed64());
+            case SFIXED32: return Integer.toString(input.readSFixed32());
+            case SFIXED64: return Long.toString(input.readSFixed64());
+            case FLOAT: return Float.toString(input.readFloat());
+            case DOUBLE: return Double.toString(input.readDouble());
+            case BOOL: return Boolean.toString(input.readBool());
+            case STRING: return input.readStringRequireUtf8();
+            case BYTES: return Base64.getEncoder().encodeToString(input.readByteArray());
+            case ENUM:
+                int number = input.readEnum();
+                String name = field.enumNames.get(number);
+                return name != null ? name : Integer.toString(number);
+            default:
+                throw new IllegalStateException("Unexpected field type " + field.type);
+        }
+    }
+
+    private static String formatMessage(Descriptors.Descriptor descriptor, int[] messagePath, byte[] message) throws IOException {
+        Descriptors.Descriptor type = descriptor;
+        for (int number : messagePath) {
+            type = type.findFieldByNumber(number).getMessageType();
+        }
+
+        StringBuilder json = new StringBuilder();
+        JSONMapper.getDefault().printCompact(DynamicMessage.parseFrom(type, message), json);
+        if (json.length() > 0 && json.charAt(0) == '"') {
+            // Well-known types such as timestamps are represented by a single JSON string
+            return new JsonParser().parse(json.toString()).getAsString();
+        }
+        return json.toString();
+    }
+
+    private static void append(StringBuilder[] values, int[] slots, String value) {
+        for (int slot : slots) {
+            if (values[slot] == null) {
+                values[slot] = new StringBuilder(value);
+            } else {
+                values[slot].append(SEPARATOR).append(value);
+            }
+        }
+    }
+
+    /**
+     * Give their default value to the fields missing from a message, unless they are repeated or messages
+     */
+    private static void applyDefaults(Field field, StringBuilder[] values) {
+        if (field.repeated) {
+            return;
+        }
+        if (field.child != null) {
+            for (Field child : field.child.fields) {
+                applyDefaults(child, values);
+            }
+        }
+        if (field.defaultValue != null) {
+            append(values, field.slots, field.defaultValue);
+        }
+    }
+
+
+    /**
+     * The referenced fields of a message type, sorted by number
+     */
+    private static final class Scope {
+        private final int[] numbers;
+        private final Field[] fields;
+
+        /**
+         * true if none of the referenced fields is repeated, so that the scan can stop once they have all been seen
+         */
+        private final boolean singular;
+
+        Scope(int[] numbers, Field[] fields, boolean singular) {
+            this.numbers = numbers;
+            this.fields = fields;
+            this.singular = singular;
+        }
+    }
+
+    private static final class Field {
+        private final WireFormat.FieldType type;
+        private final boolean repeated;
+        private final Scope child;
+        private final int[] slots;
+        private final int[] messagePath;
+        private final Map<Integer, String> enumNames;
+        private final String defaultValue;
+
+        Field(WireFormat.FieldType type, boolean repeated, Scope child, int[] slots, int[] messagePath,
+              Map<Integer, String> enumNames, String defaultValue) {
+            this.type = type;
+            this.repeated = repeated;
+            this.child = child;
+            this.slots = slots;
+            this.messagePath = messagePath;
+            this.enumNames = enumNames;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    private static final class ScopeBuilder {
+        private final SortedMap<Integer, FieldBuilder> fields = new TreeMap<>();
+
+        Scope build() {
+            int[] numbers = new int[fields.size()];
+            Field[] built = new Field[fields.size()];
+            boolean singular = true;
+            int i = 0;
+            for (Map.Entry<Integer, FieldBuilder> field : fields.entrySet()) {
+                numbers[i] = field.getKey();
+                built[i] = field.getValue().build();
+                singular &= !built[i].repeated;
+                i++;
+            }
+            return new Scope(numbers, built, singular);
+        }
+    }
+
+    private static final class FieldBuilder {
+        private final Descriptors.FieldDescriptor descriptor;
+        private final List<Integer> slots = new ArrayList<>();
+        private ScopeBuilder child;
+        private int[] messagePath;
+
+        FieldBuilder(Descriptors.FieldDescriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        Field build() {
+            int[] slotArray = new int[slots.size()];
+            for (int i = 0; i < slotArray.length; i++) {
+                slotArray[i] = slots.get(i);
+            }
+
+            Map<Integer, String> enumNames = Collections.emptyMap();
+            if (descriptor.getType() == Descriptors.FieldDescriptor.Type.ENUM) {
+                enumNames = new HashMap<>();
+                for (Descriptors.EnumValueDescriptor value : descriptor.getEnumType().getValues()) {
+                    enumNames.putIfAbsent(value.getNumber(), value.getName());
+                }
+            }
+
+            return new Field(descriptor.getLiteralType(), descriptor.isRepeated(), child == null ? null : child.build(),
+                    slotArray, messagePath, enumNames, slots.isEmpty() ? null : formatDefault(descriptor));
+        }
+
+        /**
+         * @return the default value of a scalar field formatted as the values read from the wire, or null for the
+         * repeated and message fields
+         */
+        private static String formatDefault(Descriptors.FieldDescriptor field) {
+            if (field.isRepeated() || field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                return null;
+            }
+
+            Object value = field.getDefaultValue();
+            switch (field.getType()) {
+                case UINT32:
+                case FIXED32:
+                    return Long.toString(((Integer) value) & 0xFFFFFFFFL);
+                case UINT64:
+                case FIXED64:
+                    return Long.toUnsignedString((Long) value);
+                case ENUM:
+                    return ((Descriptors.EnumValueDescriptor) value).getName();
+                case BYTES:
+                    return Base64.getEncoder().encodeToString(((ByteString) value).toByteArray());
+                default:
+                    return value.toString();
+            }
+        }
+    }
+}
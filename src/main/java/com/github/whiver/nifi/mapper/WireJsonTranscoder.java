@@ -0,0 +1,548 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts Protocol Buffers binaries to JSON in a single pass over the wire format, without building any
+ * DynamicMessage, producing exactly the same output as {@link JSONMapper}.
+ *
+ * For each message type, a plan is compiled once: a table dispatching each field number to its handler, holding the
+ * UTF-8 bytes of the JSON key of the field. Only the binaries whose JSON output can be written in a single pass are
+ * transcoded, that is binaries where the fields are written once and in order, as all the Protobuf libraries do. For
+ * any other binary (fields out of order or repeated, several members of the same oneof, unknown enum values, default
+ * values written in proto3, missing required fields, invalid data...), {@link #transcode} writes nothing and returns false, and the caller must use the
+ * JSONMapper instead. The message types containing maps, groups or well-known types are never transcoded, as well as
+ * any type when default values must be printed.
+ *
+ * Instances are thread-safe and meant to be shared.
+ */
+public class WireJsonTranscoder {
+    /**
+     * Same recursion limit as CodedInputStream, so that the deeply nested binaries fail the same way
+     */
+    private static final int MAX_DEPTH = 100;
+
+    /**
+     * Field numbers up to this value are dispatched with an array, larger ones with a map
+     */
+    private static final int MAX_TABLE_SIZE = 1024;
+
+    /**
+     * The members of the oneofs seen in a message are tracked with the bits of a long
+     */
+    private static final int MAX_ONEOFS = 64;
+
+    /**
+     * Scratch buffers are dropped after a message larger than this size, so that a single large message does not keep
+     * memory allocated for each thread
+     */
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private final boolean preservingFieldNames;
+    private final CodecGenerator generator;
+    private final Map<Descriptors.Descriptor, Plan> plans = new ConcurrentHashMap<>();
+    private final ThreadLocal<JsonOutput> scratch = ThreadLocal.withInitial(JsonOutput::new);
+
+    /**
+     * @param preservingFieldNames  true to use the field names of the schema instead of their lowerCamelCase form
+     */
+    public WireJsonTranscoder(boolean preservingFieldNames) {
+        this(preservingFieldNames, null);
+    }
+
+    /**
+     * @param preservingFieldNames  true to use the field names of the schema instead of their lowerCamelCase form
+     * @param generator             Generator of the codecs used instead of the compiled plans when available, may be
+     *                              null
+     */
+    public WireJsonTranscoder(boolean preservingFieldNames, CodecGenerator generator) {
+        this.preservingFieldNames = preservingFieldNames;
+        this.generator = generator;
+    }
+
+    /**
+     * @return a transcoder producing the same JSON as the given mapper, or null if the options of the mapper are not
+     * supported
+     */
+    public static WireJsonTranscoder forMapper(JSONMapper mapper) {
+        return forMapper(mapper, null);
+    }
+
+    /**
+     * @param generator Generator of the codecs, which must have been created with the options of the mapper, may be
+     *                  null
+     * @return a transcoder producing the same JSON as the given mapper, or null if the options of the mapper are not
+     * supported
+     */
+    public static WireJsonTranscoder forMapper(JSONMapper mapper, CodecGenerator generator) {
+        if (mapper.isIncludingDefaultValues() || !JsonOutput.isStringEscapingSupported()) {
+            return null;
+        }
+        return new WireJsonTranscoder(mapper.isPreservingFieldNames(), generator);
+    }
+
+    /**
+     * @return true if the binaries of the given message type can be transcoded, false if they must always be converted
+     * with the JSONMapper
+     */
+    public boolean supports(Descriptors.Descriptor descriptor) {
+        return JsonOutput.isStringEscapingSupported() && getPlan(descriptor).supported;
+    }
+
+    /**
+     * Convert a single binary message to JSON
+     * @param descriptor    Descriptor of the message type
+     * @param data          Buffer holding the binary message
+     * @param length        Length of the message, starting at the beginning of the buffer
+     * @param compact       true to print the JSON on a single line, without any insignificant whitespace
+     * @param output        Where to write the JSON, encoded in UTF-8
+     * @return  true if the message has been written, false if it must be converted with the JSONMapper instead, in
+     * which case nothing has been written
+     * @throws IOException  Thrown when the JSON cannot be written to the output
+     */
+    public boolean transcode(Descriptors.Descriptor descriptor, byte[] data, int length, boolean compact, OutputStream output) throws IOException {
+        Plan plan = getPlan(descriptor);
+        if (!JsonOutput.isStringEscapingSupported() || !plan.supported) {
+            return false;
+        }
+
+        JsonOutput out = scratch.get();
+        out.reset(compact);
+        try {
+            CodedInputStream in = CodedInputStream.newInstance(data, 0, length);
+            if (plan.codec != null ? !plan.codec.decode(in, out, 0) : !writeMessage(plan, in, out, 0)) {
+                return false;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Invalid binary, the JSONMapper reports the error
+            return false;
+        } finally {
+            if (out.capacity() > MAX_RETAINED_BUFFER) {
+                scratch.remove();
+            }
+        }
+
+        out.writeTo(output);
+        return true;
+    }
+
+    private Plan getPlan(Descriptors.Descriptor descriptor) {
+        Plan plan = plans.get(descriptor);
+        if (plan == null) {
+            synchronized (plans) {
+                plan = plans.get(descriptor);
+                if (plan == null) {
+                    Map<Descriptors.Descriptor, Plan> compiled = new HashMap<>();
+                    plan = compile(descriptor, compiled);
+
+                    // A type is only supported if all the types it references are supported too
+                    boolean changed = true;
+                    while (changed) {
+                        changed = false;
+                        for (Plan compiledPlan : compiled.values()) {
+                            if (compiledPlan.supported && compiledPlan.referencesUnsupportedType()) {
+                                compiledPlan.supported = false;
+                                changed = true;
+                            }
+                        }
+                    }
+                    if (generator != null) {
+                        for (Map.Entry<Descriptors.Descriptor, Plan> compiledPlan : compiled.entrySet()) {
+                            if (compiledPlan.getValue().supported) {
+                                compiledPlan.getValue().codec = generator.getCodec(compiledPlan.getKey());
+                            }
+                        }
+                    }
+                    plans.putAll(compiled);
+                }
+            }
+        }
+        return plan;
+    }
+
+    private Plan compile(Descriptors.Descriptor descriptor, Map<Descriptors.Descriptor, Plan> compiled) {
+        Plan plan = plans.get(descriptor);
+        if (plan == null) {
+            plan = compiled.get(descriptor);
+        }
+        if (plan != null) {
+            return plan;
+        }
+
+        plan = new Plan();
+        compiled.put(descriptor, plan);
+
+        // Well-known types have a special JSON representation
+        if (JsonValues.hasSpecialRepresentation(descriptor) || descriptor.getOneofs().size() > MAX_ONEOFS) {
+            plan.supported = false;
+            return plan;
+        }
+
+        List<FieldHandler> handlers = new ArrayList<>();
+        int maxNumber = 0;
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            if (field.isMapField() || field.getType() == Descriptors.FieldDescriptor.Type.GROUP
+                    || (field.getType() == Descriptors.FieldDescriptor.Type.ENUM
+                        && JsonValues.hasSpecialRepresentation(field.getEnumType()))) {
+                plan.supported = false;
+            }
+
+            String name = preservingFieldNames ? field.getName() : field.getJsonName();
+            Plan child = field.getType() == Descriptors.FieldDescriptor.Type.MESSAGE ? compile(field.getMessageType(), compiled) : null;
+            handlers.add(new FieldHandler(field, ("\"" + name + "\"").getBytes(StandardCharsets.UTF_8), child));
+            maxNumber = Math.max(maxNumber, field.getNumber());
+            if (field.isRequired()) {
+                plan.requiredCount++;
+            }
+        }
+
+        if (maxNumber <= MAX_TABLE_SIZE) {
+            plan.table = new FieldHandler[maxNumber + 1];
+            for (FieldHandler handler : handlers) {
+                plan.table[handler.number] = handler;
+            }
+        } else {
+            plan.map = new HashMap<>();
+            for (FieldHandler handler : handlers) {
+                plan.map.put(handler.number, handler);
+            }
+        }
+        plan.handlers = handlers;
+        return plan;
+    }
+
+    /**
+     * Write a message, the same way as the printMessage method of JsonFormat
+     * @return false if the message must be converted with the JSONMapper
+     */
+    private static boolean writeMessage(Plan plan, CodedInputStream in, JsonOutput out, int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            return false;
+        }
+
+        out.beginObject();
+
+        FieldHandler current = null;
+        long oneofs = 0;
+        boolean printedField = false;
+        int elementCount = 0;
+        int requiredCount = 0;
+
+        while (true) {
+            int tag = in.readTag();
+            if (tag == 0) {
+                break;
+            }
+
+            int number = WireFormat.getTagFieldNumber(tag);
+            int wireType = WireFormat.getTagWireType(tag);
+            FieldHandler handler = plan.get(number);
+            if (handler == null) {
+                // Unknown fields are not printed
+                if (wireType == WireFormat.WIRETYPE_END_GROUP) {
+                    return false;
+                }
+                in.skipField(tag);
+                continue;
+            }
+
+            if (handler != current) {
+                if (current != null && handler.number < current.number) {
+                    return false;
+                }
+                if (current != null && current.repeated) {
+                    out.endArray();
+                }
+
+                out.field(handler.key, !printedField);
+                printedField = true;
+
+                if (handler.repeated) {
+                    out.beginArray();
+                    elementCount = 0;
+                }
+                if (handler.required) {
+                    requiredCount++;
+                }
+                if (handler.oneofMask != 0) {
+                    // Only the last member of a oneof is kept, so another member seen before must not be printed
+                    if ((oneofs & handler.oneofMask) != 0) {
+                        return false;
+                    }
+                    oneofs |= handler.oneofMask;
+                }
+                current = handler;
+            } else if (!handler.repeated) {
+                // A singular field written several times must be merged
+                return false;
+            }
+
+            if (!handler.repeated) {
+                if (wireType != handler.wireType || !writeValue(handler, in, out, depth)) {
+                    return false;
+                }
+            } else if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED && handler.packable) {
+                int length = in.readRawVarint32();
+                if (length == 0 && elementCount == 0) {
+                    // An empty packed field does not set the field
+                    return false;
+                }
+                int limit = in.pushLimit(length);
+                while (in.getBytesUntilLimit() > 0) {
+                    if (elementCount++ > 0) {
+                        out.elementSeparator();
+                    }
+                    if (!writeValue(handler, in, out, depth)) {
+                        return false;
+                    }
+                }
+                in.popLimit(limit);
+            } else {
+                if (wireType != handler.wireType) {
+                    return false;
+                }
+                if (elementCount++ > 0) {
+                    out.elementSeparator();
+                }
+                if (!writeValue(handler, in, out, depth)) {
+                    return false;
+                }
+            }
+        }
+
+        if (current != null && current.repeated) {
+            out.endArray();
+        }
+        if (requiredCount < plan.requiredCount) {
+            // The message is not initialized, the JSONMapper reports the error
+            return false;
+        }
+
+        out.endObject(printedField);
+        return true;
+    }
+
+    /**
+     * Write a single value, the same way as the printSingleFieldValue method of JsonFormat
+     * @return false if the message must be converted with the JSONMapper
+     */
+    private static boolean writeValue(FieldHandler handler, CodedInputStream in, JsonOutput out, int depth) throws IOException {
+        switch (handler.type) {
+            case INT32:
+            case SINT32:
+            case SFIXED32: {
+                int value = handler.type == Descriptors.FieldDescriptor.Type.INT32 ? in.readInt32()
+                        : handler.type == Descriptors.FieldDescriptor.Type.SINT32 ? in.readSInt32() : in.readSFixed32();
+                if (value == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeDecimal(value);
+                return true;
+            }
+            case INT64:
+            case SINT64:
+            case SFIXED64: {
+                long value = handler.type == Descriptors.FieldDescriptor.Type.INT64 ? in.readInt64()
+                        : handler.type == Descriptors.FieldDescriptor.Type.SINT64 ? in.readSInt64() : in.readSFixed64();
+                if (value == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeQuotedDecimal(value);
+                return true;
+            }
+            case UINT32:
+            case FIXED32: {
+                int value = handler.type == Descriptors.FieldDescriptor.Type.UINT32 ? in.readUInt32() : in.readFixed32();
+                if (value == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeUnsigned32(value);
+                return true;
+            }
+            case UINT64:
+            case FIXED64: {
+                long value = handler.type == Descriptors.FieldDescriptor.Type.UINT64 ? in.readUInt64() : in.readFixed64();
+                if (value == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeQuotedUnsigned64(value);
+                return true;
+            }
+            case BOOL: {
+                boolean value = in.readBool();
+                if (!value && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeBool(value);
+                return true;
+            }
+            case FLOAT: {
+                float value = in.readFloat();
+                if (Float.floatToIntBits(value) == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeFloat(value);
+                return true;
+            }
+            case DOUBLE: {
+                double value = in.readDouble();
+                if (Double.doubleToLongBits(value) == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeDouble(value);
+                return true;
+            }
+            case STRING: {
+                byte[] value = in.readByteArray();
+                if (value.length == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                return out.writeString(value, handler.requiresUtf8);
+            }
+            case BYTES: {
+                byte[] value = in.readByteArray();
+                if (value.length == 0 && handler.clearsDefault) {
+                    return false;
+                }
+                out.writeBytes(value);
+                return true;
+            }
+            case ENUM: {
+                int number = in.readEnum();
+                Descriptors.EnumValueDescriptor value = handler.enumType.findValueByNumber(number);
+                if (value == null || (handler.clearsDefault && value == handler.field.getDefaultValue())) {
+                    // Unknown values are kept as unknown fields, or printed as numbers in proto3
+                    return false;
+                }
+                out.writeQuoted(handler.enumNames.get(value));
+                return true;
+            }
+            case MESSAGE: {
+                int length = in.readRawVarint32();
+                int limit = in.pushLimit(length);
+                if (!writeMessage(handler.child, in, out, depth + 1)) {
+                    return false;
+                }
+                in.checkLastTagWas(0);
+                in.popLimit(limit);
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The compiled plan of a message type
+     */
+    private static final class Plan {
+        private List<FieldHandler> handlers = Collections.emptyList();
+        private FieldHandler[] table;
+        private Map<Integer, FieldHandler> map;
+        private int requiredCount;
+        private volatile boolean supported = true;
+        private MessageCodec codec;
+
+        FieldHandler get(int number) {
+            if (table != null) {
+                return number < table.length ? table[number] : null;
+            }
+            return map == null ? null : map.get(number);
+        }
+
+        boolean referencesUnsupportedType() {
+            for (FieldHandler handler : handlers) {
+                if (handler.child != null && !handler.child.supported) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * How to read a field from the wire format and print it as JSON
+     */
+    private static final class FieldHandler {
+        private final Descriptors.FieldDescriptor field;
+        private final Descriptors.FieldDescriptor.Type type;
+        private final int number;
+        private final int wireType;
+        private final boolean repeated;
+        private final boolean packable;
+        private final boolean required;
+        private final boolean requiresUtf8;
+        /**
+         * true for the proto3 singular scalar fields, for which a default value on the wire clears the field
+         */
+        private final boolean clearsDefault;
+        /**
+         * Bit of the oneof containing the field, or 0
+         */
+        private final long oneofMask;
+        private final byte[] key;
+        private final Plan child;
+        private final Descriptors.EnumDescriptor enumType;
+        private final Map<Descriptors.EnumValueDescriptor, byte[]> enumNames;
+
+        FieldHandler(Descriptors.FieldDescriptor field, byte[] key, Plan child) {
+            this.field = field;
+            this.type = field.getType();
+            this.number = field.getNumber();
+            this.wireType = field.getLiteType().getWireType();
+            this.repeated = field.isRepeated();
+            this.packable = field.isPackable();
+            this.required = field.isRequired();
+            this.requiresUtf8 = field.getFile().getSyntax() == Descriptors.FileDescriptor.Syntax.PROTO3;
+            this.clearsDefault = requiresUtf8 && !repeated && field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE;
+            this.oneofMask = field.getContainingOneof() == null ? 0 : 1L << field.getContainingOneof().getIndex();
+            this.key = key;
+            this.child = child;
+
+            if (type == Descriptors.FieldDescriptor.Type.ENUM) {
+                this.enumType = field.getEnumType();
+                this.enumNames = new HashMap<>();
+                for (Descriptors.EnumValueDescriptor value : enumType.getValues()) {
+                    enumNames.put(value, value.getName().getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                this.enumType = null;
+                this.enumNames = null;
+            }
+        }
+    }
+}
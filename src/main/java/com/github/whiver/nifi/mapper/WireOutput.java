@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of Protocol Buffers binary data, where the length of a nested message is written once its content
+ * is known, and where the fields of a message can be reordered once written.
+ *
+ * Used by {@link JsonWireEncoder} and by the codecs generated by {@link CodecGenerator}. Instances are not thread-safe.
+ */
+public final class WireOutput {
+    private byte[] buffer = new byte[256];
+    private byte[] temp = new byte[0];
+    private int size;
+    private int tempSize;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drop the bytes written after the given position
+     */
+    public void truncate(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the size of the largest underlying buffer, which is never shrunk
+     */
+    public int capacity() {
+        return Math.max(buffer.length, temp.length);
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(buffer, 0, size);
+    }
+
+    public void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Write a signed 32-bit integer with the ZigZag encoding of the sint32 fields
+     */
+    public void writeSInt32(int value) {
+        writeVarint(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Write a signed 64-bit integer with the ZigZag encoding of the sint64 fields
+     */
+    public void writeSInt64(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public void writeFixed32(int value) {
+        ensureCapacity(4);
+        for (int i = 0; i < 4; i++) {
+            buffer[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    public void writeFixed64(long value) {
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            buffer[size++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Write a length-delimited value
+     */
+    public void writeBytes(byte[] value) {
+        writeVarint(value.length);
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buffer, size, value.length);
+        size += value.length;
+    }
+
+    /**
+     * Write a string encoded in UTF-8, where unpaired surrogates are replaced the same way as CodedOutputStream does
+     */
+    public void writeString(String value) {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reserve a byte for the length of the content written next, which is enough for contents up to 127 bytes
+     * @return the position of the content
+     */
+    public int reserveLength() {
+        ensureCapacity(1);
+        size++;
+        return size;
+    }
+
+    /**
+     * Write the length of the content written since {@link #reserveLength()}, shifting the content if the length
+     * does not fit in the reserved byte
+     * @param contentStart  Position returned by {@link #reserveLength()}
+     */
+    public void writeLength(int contentStart) {
+        int length = size - contentStart;
+        int extra = 0;
+        for (int remaining = length >>> 7; remaining != 0; remaining >>>= 7) {
+            extra++;
+        }
+        if (extra > 0) {
+            ensureCapacity(extra);
+            System.arraycopy(buffer, contentStart, buffer, contentStart + extra, length);
+            size += extra;
+        }
+
+        int position = contentStart - 1;
+        while ((length & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        buffer[position] = (byte) length;
+    }
+
+    /**
+     * Start moving the fields of a message so that they are ordered by field number and contiguous: the fields are
+     * kept in order with {@link #keep(int, int)}, then moved with {@link #finishReordering(int)}
+     */
+    public void startReordering() {
+        tempSize = 0;
+    }
+
+    /**
+     * Keep the bytes of a field, after the fields already kept
+     * @param start Position of the first byte of the field
+     * @param end   Position after the last byte of the field
+     */
+    public void keep(int start, int end) {
+        int length = end - start;
+        if (tempSize + length > temp.length) {
+            temp = Arrays.copyOf(temp, Math.max(tempSize + length, temp.length * 2));
+        }
+        System.arraycopy(buffer, start, temp, tempSize, length);
+        tempSize += length;
+    }
+
+    /**
+     * Replace the content of the message with the fields kept, dropping all the other bytes
+     * @param contentStart  Position of the content of the message
+     */
+    public void finishReordering(int contentStart) {
+        System.arraycopy(temp, 0, buffer, contentStart, tempSize);
+        size = contentStart + tempSize;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(size + additional, buffer.length * 2));
+        }
+    }
+}
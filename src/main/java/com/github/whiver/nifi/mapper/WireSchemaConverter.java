@@ -0,0 +1,549 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.exception.InvalidFieldMappingException;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Converts binary messages from a message type to another one, such as a newer version of the same message, directly
+ * at the wire level, without decoding them.
+ *
+ * Fields are matched either by number or by name, unless they are explicitly renamed to a field of the target type or
+ * dropped. Renamed and dropped fields are given as dotted paths in the source type, such as "customer.city". Source
+ * fields without a matching target field are dropped. Matched fields must be wire-compatible: integers and enums of the
+ * same encoding, strings and bytes, or messages themselves convertible.
+ *
+ * Fields written with the same number are copied as raw byte ranges, consecutive ones at once, and a message whose
+ * fields are all copied is copied as a whole. Only renumbered fields get a new tag, and only messages containing
+ * converted fields are rewritten. Unknown fields are copied as is when matching by number, and dropped when matching
+ * by name.
+ *
+ * The mapping is resolved once per message type, and instances are thread-safe and meant to be shared.
+ */
+public class WireSchemaConverter {
+    /**
+     * How the fields of the source and target message types are matched
+     */
+    public enum FieldMatching {
+        NUMBER("number"),
+        NAME("name");
+
+        private final String value;
+
+        FieldMatching(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public static FieldMatching fromValue(String value) {
+            for (FieldMatching matching : values()) {
+                if (matching.value.equalsIgnoreCase(value)) {
+                    return matching;
+                }
+            }
+            throw new IllegalArgumentException("Unknown field matching: " + value);
+        }
+    }
+
+    private final FieldMatching matching;
+    private final Map<String, String> renames;
+    private final Set<String> drops;
+    private final Map<Descriptors.Descriptor, Conversion> conversions = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private WireSchemaConverter(FieldMatching matching, Map<String, String> renames, Set<String> drops) {
+        this.matching = matching;
+        this.renames = renames;
+        this.drops = drops;
+    }
+
+    /**
+     * @param matching  How the fields are matched when they are not renamed
+     * @param renames   Comma-separated list of source=target pairs, the source being a dotted path in the source type and
+     *                  the target the name of a field of the matching target type, or null
+     * @param drops     Comma-separated list of dotted paths of source fields to drop, or null
+     * @return  The converter applying the given rules
+     * @throws IllegalArgumentException Thrown when a rule contains an empty field name
+     */
+    public static WireSchemaConverter parse(FieldMatching matching, String renames, String drops) {
+        Map<String, String> parsedRenames = new HashMap<>();
+        for (String rename : split(renames)) {
+            int equals = rename.indexOf('=');
+            if (equals == -1) {
+                throw new IllegalArgumentException("Invalid field rename '" + rename + "': expected source=target");
+            }
+            String source = checkPath(rename.substring(0, equals).trim());
+            String target = rename.substring(equals + 1).trim();
+            if (target.isEmpty() || target.contains(".")) {
+                throw new IllegalArgumentException("Invalid field rename '" + rename + "': the target must be a field name");
+            }
+            parsedRenames.put(source, target);
+        }
+
+        Set<String> parsedDrops = new HashSet<>();
+        for (String drop : split(drops)) {
+            parsedDrops.add(checkPath(drop));
+        }
+
+        return new WireSchemaConverter(matching, Collections.unmodifiableMap(parsedRenames), Collections.unmodifiableSet(parsedDrops));
+    }
+
+    private static List<String> split(String rules) {
+        List<String> parsed = new ArrayList<>();
+        if (rules != null) {
+            for (String rule : rules.split(",")) {
+                if (!rule.trim().isEmpty()) {
+                    parsed.add(rule.trim());
+                }
+            }
+        }
+        return parsed;
+    }
+
+    private static String checkPath(String path) {
+        for (String segment : path.split("\\.", -1)) {
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Invalid field path '" + path + "': empty field name");
+            }
+        }
+        return path;
+    }
+
+    public FieldMatching getMatching() {
+        return matching;
+    }
+
+    /**
+     * @param source    Descriptor of the message type of the binaries to convert
+     * @param target    Descriptor of the message type to convert them to
+     * @return  The conversion of the source type to the target type
+     * @throws InvalidFieldMappingException Thrown when a rule does not match the source type, or when a field cannot be
+     * converted to its matching target field
+     */
+    public Conversion forTypes(Descriptors.Descriptor source, Descriptors.Descriptor target) throws InvalidFieldMappingException {
+        Conversion conversion = conversions.get(source);
+        if (conversion == null || !conversion.targetType.equals(target.getFullName())) {
+            checkRules(source, target);
+            conversion = new Conversion(target.getFullName(), compile(source, target, source, target, "", new HashMap<>()));
+            conversions.put(source, conversion);
+        }
+        return conversion;
+    }
+
+    private void checkRules(Descriptors.Descriptor source, Descriptors.Descriptor target) throws InvalidFieldMappingException {
+        Set<String> paths = new HashSet<>(renames.keySet());
+        paths.addAll(drops);
+        for (String path : paths) {
+            Descriptors.Descriptor type = source;
+            String[] segments = path.split("\\.");
+            for (int i = 0; i < segments.length; i++) {
+                Descriptors.FieldDescriptor field = findField(type, segments[i]);
+                if (field == null) {
+                    throw new InvalidFieldMappingException(path, source.getFullName(), target.getFullName(),
+                            "no field '" + segments[i] + "' in " + type.getFullName());
+                }
+                if (i < segments.length - 1) {
+                    if (field.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                        throw new InvalidFieldMappingException(path, source.getFullName(), target.getFullName(),
+                                "field '" + field.getName() + "' is not a message");
+                    }
+                    type = field.getMessageType();
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve the mapping of a source message type reached at the given path. Mappings of message types without any
+     * rule below their path only depend on the two types, so they are shared, which also ends the recursion of
+     * recursive types.
+     */
+    private Node compile(Descriptors.Descriptor rootSource, Descriptors.Descriptor rootTarget,
+                         Descriptors.Descriptor source, Descriptors.Descriptor target, String path,
+                         Map<String, Node> shared) throws InvalidFieldMappingException {
+        String key = source.getFullName() + '\0' + target.getFullName();
+        boolean hasRules = hasRules(path);
+        if (!hasRules && shared.containsKey(key)) {
+            return shared.get(key);
+        }
+
+        Node node = new Node();
+        if (!hasRules) {
+            shared.put(key, node);
+        }
+
+        Map<Integer, Action> actions = new HashMap<>();
+        Map<Integer, String> mappedTargets = new HashMap<>();
+        boolean identity = matching == FieldMatching.NUMBER;
+
+        for (Descriptors.FieldDescriptor field : source.getFields()) {
+            String fieldPath = path.isEmpty() ? field.getName() : path + "." + field.getName();
+            Descriptors.FieldDescriptor targetField = targetField(rootSource, rootTarget, field, fieldPath, target);
+            if (targetField == null) {
+                actions.put(field.getNumber(), Action.DROP);
+                identity = false;
+                continue;
+            }
+
+            String previous = mappedTargets.put(targetField.getNumber(), field.getName());
+            if (previous != null) {
+                throw new InvalidFieldMappingException(fieldPath, rootSource.getFullName(), rootTarget.getFullName(),
+                        "field '" + targetField.getName() + "' of " + target.getFullName() + " is already mapped to '" +
+                                previous + "'");
+            }
+            String incompatibility = incompatibility(field, targetField);
+            if (incompatibility != null) {
+                throw new InvalidFieldMappingException(fieldPath, rootSource.getFullName(), rootTarget.getFullName(), incompatibility);
+            }
+
+            boolean renumbered = targetField.getNumber() != field.getNumber();
+            Action action;
+            if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+                Node nested = compile(rootSource, rootTarget, field.getMessageType(), targetField.getMessageType(), fieldPath, shared);
+                boolean copied = nested.complete && nested.identity;
+                if (field.getType() == Descriptors.FieldDescriptor.Type.GROUP && (renumbered || !copied)) {
+                    throw new InvalidFieldMappingException(fieldPath, rootSource.getFullName(), rootTarget.getFullName(),
+                            "groups can only be copied as is");
+                }
+                action = copied ? (renumbered ? Action.renumber(targetField.getNumber()) : Action.COPY)
+                        : Action.convert(targetField.getNumber(), nested);
+            } else {
+                action = renumbered ? Action.renumber(targetField.getNumber()) : Action.COPY;
+            }
+            actions.put(field.getNumber(), action);
+            identity &= action == Action.COPY;
+        }
+
+        node.setActions(actions, matching == FieldMatching.NUMBER ? Action.COPY : Action.DROP, identity);
+        return node;
+    }
+
+    private boolean hasRules(String path) {
+        if (path.isEmpty()) {
+            return !renames.isEmpty() || !drops.isEmpty();
+        }
+        String prefix = path + ".";
+        for (String rule : renames.keySet()) {
+            if (rule.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String rule : drops) {
+            if (rule.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the target field the given source field is converted to, or null if it is dropped
+     */
+    private Descriptors.FieldDescriptor targetField(Descriptors.Descriptor rootSource, Descriptors.Descriptor rootTarget,
+                                                    Descriptors.FieldDescriptor field, String path,
+                                                    Descriptors.Descriptor target) throws InvalidFieldMappingException {
+        if (drops.contains(path)) {
+            return null;
+        }
+
+        String rename = renames.get(path);
+        if (rename != null) {
+            Descriptors.FieldDescriptor targetField = findField(target, rename);
+            if (targetField == null) {
+                throw new InvalidFieldMappingException(path, rootSource.getFullName(), rootTarget.getFullName(),
+                        "no field '" + rename + "' in " + target.getFullName());
+            }
+            return targetField;
+        }
+
+        return matching == FieldMatching.NUMBER ? target.findFieldByNumber(field.getNumber())
+                : target.findFieldByName(field.getName());
+    }
+
+    /**
+     * @return why the values of the source field cannot be read as values of the target field, or null if they can
+     */
+    private static String incompatibility(Descriptors.FieldDescriptor field, Descriptors.FieldDescriptor targetField) {
+        if (field.isRepeated() != targetField.isRepeated()) {
+            return "field '" + targetField.getName() + "' is " + (targetField.isRepeated() ? "" : "not ") + "repeated";
+        }
+        if (field.isMapField() != targetField.isMapField()) {
+            return "field '" + targetField.getName() + "' is " + (targetField.isMapField() ? "" : "not ") + "a map";
+        }
+        if (encoding(field.getType()) != encoding(targetField.getType())) {
+            return "type " + field.getType().name().toLowerCase() + " cannot be converted to type " +
+                    targetField.getType().name().toLowerCase() + " of field '" + targetField.getName() + "'";
+        }
+        return null;
+    }
+
+    /**
+     * Field types are compatible when their values are encoded the same way: types of the same encoding can be read
+     * as each other, as long as the values are in range
+     */
+    private static int encoding(Descriptors.FieldDescriptor.Type type) {
+        switch (type) {
+            case INT32:
+            case INT64:
+            case UINT32:
+            case UINT64:
+            case BOOL:
+            case ENUM:
+                return 0;
+            case SINT32:
+            case SINT64:
+                return 1;
+            case FIXED32:
+            case SFIXED32:
+                return 2;
+            case FIXED64:
+            case SFIXED64:
+                return 3;
+            case FLOAT:
+                return 4;
+            case DOUBLE:
+                return 5;
+            case STRING:
+            case BYTES:
+                return 6;
+            case MESSAGE:
+                return 7;
+            default:
+                return 8;
+        }
+    }
+
+    private static Descriptors.FieldDescriptor findField(Descriptors.Descriptor type, String name) {
+        Descriptors.FieldDescriptor field = type.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        for (Descriptors.FieldDescriptor candidate : type.getFields()) {
+            if (candidate.getJsonName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * The conversion of a source message type to a target message type
+     */
+    public static final class Conversion {
+        private final String targetType;
+        private final Node root;
+
+        private Conversion(String targetType, Node root) {
+            this.targetType = targetType;
+            this.root = root;
+        }
+
+        /**
+         * @return true if the binaries are the same in both message types, and are copied as is
+         */
+        public boolean isIdentity() {
+            return root.identity;
+        }
+
+        /**
+         * Convert a binary message of the source type to the target type.
+         * @param data      The binary message
+         * @param offset    Position of the message in the data
+         * @param length    Length of the message
+         * @param output    The stream where to write the converted message
+         * @throws IOException  Thrown when the message is malformed
+         */
+        public void convert(byte[] data, int offset, int length, OutputStream output) throws IOException {
+            root.convert(data, offset, length, output);
+        }
+    }
+
+    /**
+     * What is done with the values of a source field
+     */
+    private static final class Action {
+        private static final int COPY_KIND = 0;
+        private static final int DROP_KIND = 1;
+        private static final int RENUMBER_KIND = 2;
+        private static final int CONVERT_KIND = 3;
+
+        private static final Action COPY = new Action(COPY_KIND, 0, null);
+        private static final Action DROP = new Action(DROP_KIND, 0, null);
+
+        private final int kind;
+        private final int targetNumber;
+        private final Node nested;
+
+        private Action(int kind, int targetNumber, Node nested) {
+            this.kind = kind;
+            this.targetNumber = targetNumber;
+            this.nested = nested;
+        }
+
+        static Action renumber(int targetNumber) {
+            return new Action(RENUMBER_KIND, targetNumber, null);
+        }
+
+        static Action convert(int targetNumber, Node nested) {
+            return new Action(CONVERT_KIND, targetNumber, nested);
+        }
+    }
+
+    /**
+     * The mapping of the fields of a message type, by field number
+     */
+    private static final class Node {
+        /**
+         * Largest field number looked up in an array, larger ones are looked up in a map
+         */
+        private static final int MAX_INDEXED_NUMBER = 1024;
+
+        private Action[] indexed;
+        private Map<Integer, Action> others;
+        private Action unknown;
+        private boolean identity;
+
+        /**
+         * False while the fields of the node are being resolved, when a recursive type refers to itself
+         */
+        private volatile boolean complete;
+
+        void setActions(Map<Integer, Action> actions, Action unknown, boolean identity) {
+            int maxNumber = 0;
+            for (int number : actions.keySet()) {
+                if (number <= MAX_INDEXED_NUMBER) {
+                    maxNumber = Math.max(maxNumber, number);
+                }
+            }
+
+            this.indexed = new Action[maxNumber + 1];
+            this.others = new HashMap<>();
+            for (Map.Entry<Integer, Action> action : actions.entrySet()) {
+                if (action.getKey() <= MAX_INDEXED_NUMBER) {
+                    indexed[action.getKey()] = action.getValue();
+                } else {
+                    others.put(action.getKey(), action.getValue());
+                }
+            }
+            this.unknown = unknown;
+            this.identity = identity;
+            this.complete = true;
+        }
+
+        private Action action(int number) {
+            Action action = number < indexed.length ? indexed[number] : others.get(number);
+            return action == null ? unknown : action;
+        }
+
+        void convert(byte[] data, int offset, int length, OutputStream output) throws IOException {
+            if (identity) {
+                output.write(data, offset, length);
+                return;
+            }
+
+            CodedInputStream input = CodedInputStream.newInstance(data, offset, length);
+            // Start of the fields copied as is and not written yet, or -1
+            int copyStart = -1;
+
+            while (true) {
+                int fieldStart = offset + input.getTotalBytesRead();
+                int tag = input.readTag();
+                if (tag == 0) {
+                    break;
+                }
+
+                Action action = action(WireFormat.getTagFieldNumber(tag));
+                if (action.kind == Action.COPY_KIND) {
+                    if (copyStart == -1) {
+                        copyStart = fieldStart;
+                    }
+                    input.skipField(tag);
+                    continue;
+                }
+
+                if (copyStart != -1) {
+                    output.write(data, copyStart, fieldStart - copyStart);
+                    copyStart = -1;
+                }
+
+                int wireType = WireFormat.getTagWireType(tag);
+                switch (action.kind) {
+                    case Action.RENUMBER_KIND: {
+                        writeVarint(output, WireFormat.makeTag(action.targetNumber, wireType));
+                        int valueStart = offset + input.getTotalBytesRead();
+                        input.skipField(tag);
+                        output.write(data, valueStart, offset + input.getTotalBytesRead() - valueStart);
+                        break;
+                    }
+                    case Action.CONVERT_KIND: {
+                        if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                            throw new InvalidProtocolBufferException("Message field " + WireFormat.getTagFieldNumber(tag) +
+                                    " has an invalid wire type " + wireType);
+                        }
+                        int nestedLength = input.readRawVarint32();
+                        int nestedStart = offset + input.getTotalBytesRead();
+                        input.skipRawBytes(nestedLength);
+
+                        ByteArrayOutputStream nested = new ByteArrayOutputStream(nestedLength);
+                        action.nested.convert(data, nestedStart, nestedLength, nested);
+                        writeVarint(output, WireFormat.makeTag(action.targetNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED));
+                        writeVarint(output, nested.size());
+                        nested.writeTo(output);
+                        break;
+                    }
+                    default:
+                        input.skipField(tag);
+                        break;
+                }
+            }
+
+            if (copyStart != -1) {
+                output.write(data, copyStart, offset + length - copyStart);
+            }
+        }
+
+        private static void writeVarint(OutputStream output, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                output.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.write(value);
+        }
+    }
+}
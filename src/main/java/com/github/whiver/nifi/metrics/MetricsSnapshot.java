@@ -0,0 +1,180 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An immutable copy of the {@link ProcessorMetrics} of a processor
+ */
+public final class MetricsSnapshot {
+    private final Histogram.Snapshot schemaResolution;
+    private final Histogram.Snapshot conversion;
+    private final Histogram.Snapshot messagesPerFlowfile;
+    private final Map<String, Histogram.Snapshot> allocatedBytes;
+    private final Map<String, Long> routedFlowfiles;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long messages;
+    private final long cacheHits;
+    private final long cacheMisses;
+
+    MetricsSnapshot(ProcessorMetrics metrics, long cacheHits, long cacheMisses) {
+        this.schemaResolution = metrics.getSchemaResolution().snapshot();
+        this.conversion = metrics.getConversion().snapshot();
+        this.messagesPerFlowfile = metrics.getMessagesPerFlowfile().snapshot();
+
+        Map<String, Histogram.Snapshot> allocatedBytes = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : metrics.getAllocatedBytes().entrySet()) {
+            allocatedBytes.put(histogram.getKey(), histogram.getValue().snapshot());
+        }
+        this.allocatedBytes = Collections.unmodifiableMap(allocatedBytes);
+
+        Map<String, Long> routedFlowfiles = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> routed : metrics.getRoutedFlowfiles().entrySet()) {
+            routedFlowfiles.put(routed.getKey(), routed.getValue().sum());
+        }
+        this.routedFlowfiles = Collections.unmodifiableMap(routedFlowfiles);
+
+        this.bytesIn = metrics.getBytesIn();
+        this.bytesOut = metrics.getBytesOut();
+        this.messages = metrics.getMessages();
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+    }
+
+    /**
+     * @return the time spent resolving the schema and the descriptor of each flowfile, in nanoseconds
+     */
+    public Histogram.Snapshot getSchemaResolution() {
+        return schemaResolution;
+    }
+
+    /**
+     * @return the time spent converting each flowfile, in nanoseconds
+     */
+    public Histogram.Snapshot getConversion() {
+        return conversion;
+    }
+
+    /**
+     * @return the number of messages of each converted flowfile
+     */
+    public Histogram.Snapshot getMessagesPerFlowfile() {
+        return messagesPerFlowfile;
+    }
+
+    /**
+     * @return the bytes allocated to convert the sampled flowfiles, by message type
+     */
+    public Map<String, Histogram.Snapshot> getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the number of flowfiles routed to each relationship, by relationship name
+     */
+    public Map<String, Long> getRoutedFlowfiles() {
+        return routedFlowfiles;
+    }
+
+    /**
+     * @return the number of flowfiles routed to the given relationship
+     */
+    public long getRoutedFlowfiles(String relationship) {
+        Long count = routedFlowfiles.get(relationship);
+        return count == null ? 0 : count;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return the ratio of the schemas found in the schema cache, or NaN if the cache has never been used
+     */
+    public double getCacheHitRatio() {
+        long lookups = cacheHits + cacheMisses;
+        return lookups == 0 ? Double.NaN : (double) cacheHits / lookups;
+    }
+
+    /**
+     * @return all the metrics as a flat map of numbers, for example to be exported to a monitoring system
+     */
+    public Map<String, Number> toMap() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        putHistogram(values, "schemaResolutionNanos", schemaResolution);
+        putHistogram(values, "conversionNanos", conversion);
+        putHistogram(values, "messagesPerFlowfile", messagesPerFlowfile);
+        for (Map.Entry<String, Histogram.Snapshot> histogram : allocatedBytes.entrySet()) {
+            putHistogram(values, "allocatedBytes." + histogram.getKey(), histogram.getValue());
+        }
+        for (Map.Entry<String, Long> routed : routedFlowfiles.entrySet()) {
+            values.put("routedFlowfiles." + routed.getKey(), routed.getValue());
+        }
+        values.put("bytesIn", bytesIn);
+        values.put("bytesOut", bytesOut);
+        values.put("messages", messages);
+        values.put("cacheHits", cacheHits);
+        values.put("cacheMisses", cacheMisses);
+        values.put("cacheHitRatio", getCacheHitRatio());
+        return values;
+    }
+
+    private static void putHistogram(Map<String, Number> values, String name, Histogram.Snapshot histogram) {
+        values.put(name + ".count", histogram.getCount());
+        values.put(name + ".mean", histogram.getMean());
+        values.put(name + ".p50", histogram.getPercentile(50));
+        values.put(name + ".p99", histogram.getPercentile(99));
+        values.put(name + ".max", histogram.getMax());
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
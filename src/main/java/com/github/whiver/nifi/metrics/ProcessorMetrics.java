@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the hot path of a processor, recorded by all its concurrent tasks: the time spent resolving the
+ * schemas and converting the flowfiles, the bytes and messages processed, the flowfiles routed to each relationship, and
+ * optionally the bytes allocated to convert a flowfile, by message type.
+ *
+ * The counters are cumulated since the creation of the metrics or their last reset, and read with {@link #snapshot}.
+ */
+public class ProcessorMetrics {
+    private final Histogram schemaResolution = new Histogram();
+    private final Histogram conversion = new Histogram();
+    private final Histogram messagesPerFlowfile = new Histogram();
+    private final Map<String, Histogram> allocatedBytes = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> routedFlowfiles = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final AtomicLong sampledFlowfiles = new AtomicLong();
+
+    /**
+     * Record the time spent resolving the schema and the descriptor of a flowfile
+     */
+    public void recordSchemaResolution(long nanos) {
+        schemaResolution.record(nanos);
+    }
+
+    /**
+     * Record the time spent converting a flowfile, including the reading of its content and the writing of the result
+     */
+    public void recordConversion(long nanos) {
+        conversion.record(nanos);
+    }
+
+    /**
+     * Record the number of messages of a converted flowfile
+     */
+    public void recordMessages(long messageCount) {
+        messagesPerFlowfile.record(messageCount);
+        messages.add(messageCount);
+    }
+
+    /**
+     * Record the bytes allocated by the current thread to convert a flowfile of the given message type
+     */
+    public void recordAllocatedBytes(String messageType, long bytes) {
+        allocatedBytes.computeIfAbsent(messageType, t -> new Histogram()).record(bytes);
+    }
+
+    /**
+     * Record the totals of a batch of flowfiles
+     * @param routedFlowfiles   Number of flowfiles routed to each relationship, by relationship name
+     * @param bytesIn           Size of the flowfiles received
+     * @param bytesOut          Size of the content written
+     */
+    public void recordBatch(Map<String, Integer> routedFlowfiles, long bytesIn, long bytesOut) {
+        for (Map.Entry<String, Integer> routed : routedFlowfiles.entrySet()) {
+            this.routedFlowfiles.computeIfAbsent(routed.getKey(), r -> new LongAdder()).add(routed.getValue());
+        }
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+    }
+
+    /**
+     * @param interval  Number of flowfiles between two samples, 0 to never sample
+     * @return true if the allocations of the next flowfile must be measured
+     */
+    public boolean sampleAllocations(int interval) {
+        return interval > 0 && AllocationSampler.isSupported() && sampledFlowfiles.incrementAndGet() % interval == 0;
+    }
+
+    /**
+     * @param cacheHits     Number of schemas found in the schema cache
+     * @param cacheMisses   Number of schemas loaded because they were not in the schema cache
+     * @return a copy of the current metrics
+     */
+    public MetricsSnapshot snapshot(long cacheHits, long cacheMisses) {
+        return new MetricsSnapshot(this, cacheHits, cacheMisses);
+    }
+
+    /**
+     * Reset all the metrics
+     */
+    public void reset() {
+        schemaResolution.reset();
+        conversion.reset();
+        messagesPerFlowfile.reset();
+        allocatedBytes.clear();
+        routedFlowfiles.clear();
+        bytesIn.reset();
+        bytesOut.reset();
+        messages.reset();
+    }
+
+    Histogram getSchemaResolution() {
+        return schemaResolution;
+    }
+
+    Histogram getConversion() {
+        return conversion;
+    }
+
+    Histogram getMessagesPerFlowfile() {
+        return messagesPerFlowfile;
+    }
+
+    Map<String, Histogram> getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    Map<String, LongAdder> getRoutedFlowfiles() {
+        return routedFlowfiles;
+    }
+
+    long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    long getMessages() {
+        return messages.sum();
+    }
+}
@@ -26,27 +26,52 @@
 
 package com.github.whiver.nifi.parser;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 
 /**
- * A convenience class to store the .desc file generated by protoc, ensuring to delete it at the end.
+ * A convenience class to store the .desc file generated by protoc, ensuring to delete it at the end, unless it is
+ * owned by a {@link DescriptorCache}.
  */
 public class CompiledSchema implements AutoCloseable {
     private File schemaFile;
+    private boolean temporary;
+    private byte[] content;
 
     public CompiledSchema(File schemaFile) {
+        this(schemaFile, true);
+    }
+
+    /**
+     * @param schemaFile    The compiled .desc file
+     * @param temporary     true if the file must be deleted when closing this object
+     */
+    public CompiledSchema(File schemaFile, boolean temporary) {
         this.schemaFile = schemaFile;
+        this.temporary = temporary;
+    }
+
+    /**
+     * @param content   The content of a compiled .desc file already read, for instance from a {@link DescriptorCache}
+     */
+    public CompiledSchema(byte[] content) {
+        this.content = content;
     }
 
     public InputStream read() throws FileNotFoundException {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
         return new FileInputStream(schemaFile);
     }
 
     @Override
     public void close() throws Exception {
-        schemaFile.delete();
+        if (temporary) {
+            schemaFile.delete();
+        }
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent, content-addressed cache of compiled .desc files, shared by every processor pointing to the same
+ * directory and surviving NiFi restarts.
+ *
+ * Compiled descriptors are stored under a key computed from the content of the .proto file, the content of all its
+ * transitive imports and the version of the compiler, so that a schema is never compiled twice. When the total size
+ * of the cache exceeds its limit, the least recently used descriptors are deleted.
+ */
+public class DescriptorCache {
+    private static final String EXTENSION = ".desc";
+    private static final Pattern IMPORT_PATTERN = Pattern.compile("^\\s*import\\s+(?:public\\s+|weak\\s+)?\"([^\"]+)\"\\s*;", Pattern.MULTILINE);
+    private static final Pattern LINE_COMMENT_PATTERN = Pattern.compile("//[^\\n]*");
+    private static final Pattern BLOCK_COMMENT_PATTERN = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory The directory where to store the compiled descriptors, created if missing
+     * @param maxSize   Maximum total size of the stored descriptors, in bytes
+     */
+    public DescriptorCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Compute the cache key of a .proto file, hashing its content along with the content of all its transitive imports
+     * (resolved relatively to the directory of the file, as protoc does) and the compiler version.
+     * @param protoFile         The .proto file to compile
+     * @param compilerVersion   A string identifying the compiler and its version
+     * @return  An hexadecimal key identifying the compiled descriptor
+     * @throws IOException  Thrown when the .proto file or one of its imports cannot be read
+     */
+    public String computeKey(File protoFile, String compilerVersion) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+
+        digest.update(compilerVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+
+        File includeDirectory = protoFile.getAbsoluteFile().getParentFile();
+        Set<String> visited = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(protoFile.getName());
+
+        while (!toVisit.isEmpty()) {
+            String importPath = toVisit.poll();
+            if (!visited.add(importPath)) {
+                continue;
+            }
+
+            digest.update(importPath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+
+            File importFile = new File(includeDirectory, importPath);
+            if (!importFile.isFile()) {
+                // Imports not found next to the schema are provided by the compiler itself (google/protobuf/*.proto),
+                // so they are already identified by the compiler version
+                continue;
+            }
+
+            byte[] content = Files.readAllBytes(importFile.toPath());
+            digest.update(content);
+            digest.update((byte) 0);
+
+            for (String dependency : findImports(new String(content, StandardCharsets.UTF_8))) {
+                toVisit.add(dependency);
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Look for a compiled descriptor in the cache, marking it as recently used.
+     * @param key   Key of the descriptor, as given by {@link #computeKey(File, String)}
+     * @return  The compiled descriptor file, or null if it is not in the cache
+     */
+    public File get(String key) {
+        File cached = new File(directory, key + EXTENSION);
+        if (!cached.isFile()) {
+            return null;
+        }
+
+        cached.setLastModified(System.currentTimeMillis());
+        return cached;
+    }
+
+    /**
+     * Read a compiled descriptor from the cache, marking it as recently used. Since the descriptors may be evicted at
+     * any time by another processor sharing the directory, a descriptor deleted before it is read is a cache miss.
+     * @param key   Key of the descriptor, as given by {@link #computeKey(File, String)}
+     * @return  The content of the compiled descriptor, or null if it is not in the cache
+     * @throws IOException  Thrown when the descriptor exists but cannot be read
+     */
+    public byte[] read(String key) throws IOException {
+        File cached = new File(directory, key + EXTENSION);
+        cached.setLastModified(System.currentTimeMillis());
+
+        try {
+            return Files.readAllBytes(cached.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Store a compiled descriptor in the cache, then remove the least recently used descriptors if the cache is full.
+     * The given file is left untouched, and should be read instead of the returned one, which may be evicted as soon
+     * as another descriptor is stored.
+     * @param key                   Key of the descriptor, as given by {@link #computeKey(File, String)}
+     * @param compiledDescriptor    The compiled descriptor to store
+     * @return  The cached descriptor file
+     * @throws IOException  Thrown when the descriptor cannot be written in the cache directory
+     */
+    public File put(String key, File compiledDescriptor) throws IOException {
+        Files.createDirectories(directory.toPath());
+
+        File cached = new File(directory, key + EXTENSION);
+        File temporary = File.createTempFile(key, ".tmp", directory);
+
+        try {
+            Files.copy(compiledDescriptor.toPath(), temporary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temporary.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+
+        cleanUp(cached);
+        return cached;
+    }
+
+    /**
+     * Delete the least recently used descriptors until the total size of the cache fits in its limit.
+     * @param keep  A descriptor that must not be deleted
+     */
+    private void cleanUp(File keep) {
+        File[] files = directory.listFiles((File dir, String name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+
+            long size = file.length();
+            if (file.delete()) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    static List<String> findImports(String protoContent) {
+        String uncommented = LINE_COMMENT_PATTERN.matcher(BLOCK_COMMENT_PATTERN.matcher(protoContent).replaceAll(""))
+                .replaceAll("");
+
+        List<String> imports = new ArrayList<>();
+        Matcher matcher = IMPORT_PATTERN.matcher(uncommented);
+        while (matcher.find()) {
+            imports.add(matcher.group(1));
+        }
+        return imports;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.google.protobuf.AnyProto;
+import com.google.protobuf.ApiProto;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.DurationProto;
+import com.google.protobuf.EmptyProto;
+import com.google.protobuf.FieldMaskProto;
+import com.google.protobuf.SourceContextProto;
+import com.google.protobuf.StructProto;
+import com.google.protobuf.TimestampProto;
+import com.google.protobuf.TypeProto;
+import com.google.protobuf.WrappersProto;
+import com.google.protobuf.DescriptorProtos.*;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type;
+import com.google.protobuf.Descriptors.FileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * A pure Java .proto compiler, producing the same descriptor set as protoc --include_imports without forking any
+ * process.
+ *
+ * Imports are resolved relatively to the directory of the compiled file, as protoc is called with this directory as
+ * include path. The well-known types (google/protobuf/*.proto) are taken from the Protobuf runtime when they are not
+ * found on the disk. Options that do not affect the data (custom options, most of the file options...) are ignored.
+ */
+public final class JavaProtoCompiler {
+    private static final Map<String, FileDescriptor> BUILTIN_FILES = new HashMap<>();
+
+    static {
+        FileDescriptor[] builtinFiles = {
+                AnyProto.getDescriptor(), ApiProto.getDescriptor(), DescriptorProtos.getDescriptor(),
+                DurationProto.getDescriptor(), EmptyProto.getDescriptor(), FieldMaskProto.getDescriptor(),
+                SourceContextProto.getDescriptor(), StructProto.getDescriptor(), TimestampProto.getDescriptor(),
+                TypeProto.getDescriptor(), WrappersProto.getDescriptor()
+        };
+        for (FileDescriptor builtinFile : builtinFiles) {
+            BUILTIN_FILES.put(builtinFile.getName(), builtinFile);
+        }
+    }
+
+    private enum SymbolKind {
+        PACKAGE, MESSAGE, ENUM
+    }
+
+    private final File includeDirectory;
+
+    /**
+     * The compiled files, in dependency order
+     */
+    private final Map<String, FileDescriptorProto> files = new LinkedHashMap<>();
+    private final Set<String> filesInProgress = new HashSet<>();
+    private final Map<String, SymbolKind> symbols = new HashMap<>();
+
+    private JavaProtoCompiler(File includeDirectory) {
+        this.includeDirectory = includeDirectory;
+    }
+
+    /**
+     * Compile a .proto file along with all its imports.
+     * @param protoFile The .proto file to compile
+     * @return  The descriptors of the file and of all its transitive imports, dependencies first
+     * @throws IOException  Thrown when the file or one of its imports cannot be read
+     * @throws SchemaCompilationException   Thrown when the file or one of its imports is invalid
+     */
+    public static FileDescriptorSet compile(File protoFile) throws IOException, SchemaCompilationException {
+        File absoluteFile = protoFile.getAbsoluteFile();
+        JavaProtoCompiler compiler = new JavaProtoCompiler(absoluteFile.getParentFile());
+        compiler.load(absoluteFile.getName());
+
+        return FileDescriptorSet.newBuilder().addAllFile(compiler.files.values()).build();
+    }
+
+    private void load(String name) throws IOException, SchemaCompilationException {
+        if (files.containsKey(name)) {
+            return;
+        }
+        if (!filesInProgress.add(name)) {
+            throw new SchemaCompilationException(name, "import cycle detected");
+        }
+
+        File file = new File(includeDirectory, name);
+        FileDescriptorProto compiledFile;
+
+        if (file.isFile()) {
+            FileDescriptorProto parsedFile = ProtoParser.parse(name, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            for (String dependency : parsedFile.getDependencyList()) {
+                load(dependency);
+            }
+
+            registerSymbols(parsedFile);
+            compiledFile = link(parsedFile);
+        } else if (BUILTIN_FILES.containsKey(name)) {
+            FileDescriptor builtinFile = BUILTIN_FILES.get(name);
+            for (FileDescriptor dependency : builtinFile.getDependencies()) {
+                load(dependency.getName());
+            }
+
+            compiledFile = builtinFile.toProto();
+            registerSymbols(compiledFile);
+        } else {
+            throw new SchemaCompilationException(name, "file not found in " + includeDirectory.getAbsolutePath());
+        }
+
+        filesInProgress.remove(name);
+        files.put(name, compiledFile);
+    }
+
+    private void registerSymbols(FileDescriptorProto file) {
+        String packageName = file.getPackage();
+
+        if (!packageName.isEmpty()) {
+            int dot = packageName.indexOf('.');
+            while (dot >= 0) {
+                registerSymbol(packageName.substring(0, dot), SymbolKind.PACKAGE);
+                dot = packageName.indexOf('.', dot + 1);
+            }
+            registerSymbol(packageName, SymbolKind.PACKAGE);
+        }
+
+        for (DescriptorProto message : file.getMessageTypeList()) {
+            registerMessage(qualify(packageName, message.getName()), message);
+        }
+        for (EnumDescriptorProto enumType : file.getEnumTypeList()) {
+            registerSymbol(qualify(packageName, enumType.getName()), SymbolKind.ENUM);
+        }
+    }
+
+    private void registerMessage(String fullName, DescriptorProto message) {
+        registerSymbol(fullName, SymbolKind.MESSAGE);
+
+        for (DescriptorProto nestedType : message.getNestedTypeList()) {
+            registerMessage(fullName + "." + nestedType.getName(), nestedType);
+        }
+        for (EnumDescriptorProto enumType : message.getEnumTypeList()) {
+            registerSymbol(fullName + "." + enumType.getName(), SymbolKind.ENUM);
+        }
+    }
+
+    private void registerSymbol(String fullName, SymbolKind kind) {
+        // Packages may be shared by several files, but a type definition always wins
+        if (kind != SymbolKind.PACKAGE || !symbols.containsKey(fullName)) {
+            symbols.put(fullName, kind);
+        }
+    }
+
+    /**
+     * Resolve all the type references of a parsed file to fully qualified names, setting the field types at the same
+     * time.
+     */
+    private FileDescriptorProto link(FileDescriptorProto file) throws SchemaCompilationException {
+        FileDescriptorProto.Builder linkedFile = file.toBuilder();
+        String packageName = file.getPackage();
+
+        for (DescriptorProto.Builder message : linkedFile.getMessageTypeBuilderList()) {
+            linkMessage(file.getName(), message, qualify(packageName, message.getName()));
+        }
+        for (FieldDescriptorProto.Builder extension : linkedFile.getExtensionBuilderList()) {
+            linkField(file.getName(), extension, packageName);
+        }
+        for (ServiceDescriptorProto.Builder service : linkedFile.getServiceBuilderList()) {
+            String scope = qualify(packageName, service.getName());
+            for (MethodDescriptorProto.Builder method : service.getMethodBuilderList()) {
+                method.setInputType("." + resolveMessage(file.getName(), method.getInputType(), scope));
+                method.setOutputType("." + resolveMessage(file.getName(), method.getOutputType(), scope));
+            }
+        }
+
+        return linkedFile.build();
+    }
+
+    private void linkMessage(String fileName, DescriptorProto.Builder message, String fullName) throws SchemaCompilationException {
+        for (FieldDescriptorProto.Builder field : message.getFieldBuilderList()) {
+            linkField(fileName, field, fullName);
+        }
+        for (FieldDescriptorProto.Builder extension : message.getExtensionBuilderList()) {
+            linkField(fileName, extension, fullName);
+        }
+        for (DescriptorProto.Builder nestedType : message.getNestedTypeBuilderList()) {
+            linkMessage(fileName, nestedType, fullName + "." + nestedType.getName());
+        }
+    }
+
+    private void linkField(String fileName, FieldDescriptorProto.Builder field, String scope) throws SchemaCompilationException {
+        if (field.hasTypeName()) {
+            String fullName = resolve(field.getTypeName(), scope);
+            if (fullName == null) {
+                throw new SchemaCompilationException(fileName, "\"" + field.getTypeName() + "\" is not defined (field " + scope + "." + field.getName() + ")");
+            }
+
+            if (!field.hasType()) {
+                field.setType(symbols.get(fullName) == SymbolKind.ENUM ? Type.TYPE_ENUM : Type.TYPE_MESSAGE);
+            }
+            field.setTypeName("." + fullName);
+        }
+
+        if (field.hasExtendee()) {
+            field.setExtendee("." + resolveMessage(fileName, field.getExtendee(), scope));
+        }
+    }
+
+    private String resolveMessage(String fileName, String name, String scope) throws SchemaCompilationException {
+        String fullName = resolve(name, scope);
+        if (fullName == null || symbols.get(fullName) != SymbolKind.MESSAGE) {
+            throw new SchemaCompilationException(fileName, "\"" + name + "\" is not a message type");
+        }
+        return fullName;
+    }
+
+    /**
+     * Resolve a type name following the scoping rules of protoc: the name is looked up in the given scope first, then
+     * in each enclosing scope up to the root one.
+     * @return  The fully qualified name of the type, without leading dot, or null if it is not defined
+     */
+    private String resolve(String name, String scope) {
+        if (name.startsWith(".")) {
+            String fullName = name.substring(1);
+            return isType(fullName) ? fullName : null;
+        }
+
+        int dot = name.indexOf('.');
+        String firstPart = dot < 0 ? name : name.substring(0, dot);
+        String currentScope = scope;
+
+        while (true) {
+            if (symbols.containsKey(qualify(currentScope, firstPart))) {
+                String candidate = qualify(currentScope, name);
+                if (isType(candidate)) {
+                    return candidate;
+                }
+            }
+
+            if (currentScope.isEmpty()) {
+                return null;
+            }
+            int lastDot = currentScope.lastIndexOf('.');
+            currentScope = lastDot < 0 ? "" : currentScope.substring(0, lastDot);
+        }
+    }
+
+    private boolean isType(String fullName) {
+        SymbolKind kind = symbols.get(fullName);
+        return kind == SymbolKind.MESSAGE || kind == SymbolKind.ENUM;
+    }
+
+    private static String qualify(String scope, String name) {
+        return scope.isEmpty() ? name : scope + "." + name;
+    }
+}
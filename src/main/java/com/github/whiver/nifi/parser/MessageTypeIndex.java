@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.AmbiguousMessageTypeException;
+import com.github.whiver.nifi.exception.UnknownMessageTypeException;
+import com.google.protobuf.Descriptors;
+
+import java.util.*;
+
+/**
+ * An index of all the message types of a schema, nested types included, built once when the schema is loaded.
+ *
+ * A message type can be looked up by its fully qualified name (with or without the leading dot) or by any shorter
+ * suffix of it, such as its simple name or Outer.Inner for a nested type. A suffix shared by several message types is
+ * ambiguous and is never resolved to one of them.
+ */
+public class MessageTypeIndex {
+    /**
+     * Maximum number of unknown message types remembered, so that their lookup does not create a new exception
+     */
+    static final int MAX_UNKNOWN_TYPES = 1000;
+
+    private final DynamicSchema schema;
+    private final Map<String, Descriptors.Descriptor> descriptors = new HashMap<>();
+    private final Map<String, AmbiguousMessageTypeException> ambiguousTypes = new HashMap<>();
+    private final Set<String> fullNames = new TreeSet<>();
+    private final Map<String, UnknownMessageTypeException> unknownTypes = new LinkedHashMap<String, UnknownMessageTypeException>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UnknownMessageTypeException> eldest) {
+            return size() > MAX_UNKNOWN_TYPES;
+        }
+    };
+
+    /**
+     * @param schema    The schema to index
+     */
+    public MessageTypeIndex(DynamicSchema schema) {
+        this.schema = schema;
+
+        Map<String, Descriptors.Descriptor> byFullName = new HashMap<>();
+        for (String messageType : schema.getMessageTypes()) {
+            Descriptors.Descriptor descriptor = schema.getMessageDescriptor(messageType);
+            if (descriptor != null) {
+                addMessageType(descriptor, byFullName);
+            }
+        }
+
+        Map<String, List<Descriptors.Descriptor>> bySuffix = new HashMap<>();
+        for (Descriptors.Descriptor descriptor : byFullName.values()) {
+            String fullName = descriptor.getFullName();
+            for (int dot = fullName.indexOf('.'); dot != -1; dot = fullName.indexOf('.', dot + 1)) {
+                bySuffix.computeIfAbsent(fullName.substring(dot + 1), s -> new ArrayList<>()).add(descriptor);
+            }
+        }
+
+        // Fully qualified names always take precedence over the suffixes of other types
+        descriptors.putAll(byFullName);
+        for (Map.Entry<String, List<Descriptors.Descriptor>> suffix : bySuffix.entrySet()) {
+            if (byFullName.containsKey(suffix.getKey())) {
+                continue;
+            }
+
+            List<Descriptors.Descriptor> candidates = suffix.getValue();
+            if (candidates.size() == 1) {
+                descriptors.put(suffix.getKey(), candidates.get(0));
+            } else {
+                Set<String> candidateNames = new TreeSet<>();
+                for (Descriptors.Descriptor candidate : candidates) {
+                    candidateNames.add(candidate.getFullName());
+                }
+                ambiguousTypes.put(suffix.getKey(), new AmbiguousMessageTypeException(suffix.getKey(), candidateNames));
+            }
+        }
+        fullNames.addAll(byFullName.keySet());
+    }
+
+    private static void addMessageType(Descriptors.Descriptor descriptor, Map<String, Descriptors.Descriptor> byFullName) {
+        if (byFullName.put(descriptor.getFullName(), descriptor) != null) {
+            // Already indexed with its nested types
+            return;
+        }
+
+        for (Descriptors.Descriptor nestedType : descriptor.getNestedTypes()) {
+            addMessageType(nestedType, byFullName);
+        }
+    }
+
+    /**
+     * Get the descriptor of the given message type.
+     * @param messageType   The fully qualified name of the message type, or any unambiguous suffix of it
+     * @return  The descriptor of the message type
+     * @throws UnknownMessageTypeException  Thrown when the schema does not contain the message type
+     * @throws AmbiguousMessageTypeException    Thrown when several message types match the given name
+     */
+    public Descriptors.Descriptor getDescriptor(String messageType) throws UnknownMessageTypeException, AmbiguousMessageTypeException {
+        String name = messageType.startsWith(".") ? messageType.substring(1) : messageType;
+
+        Descriptors.Descriptor descriptor = descriptors.get(name);
+        if (descriptor != null) {
+            return descriptor;
+        }
+
+        AmbiguousMessageTypeException ambiguous = ambiguousTypes.get(name);
+        if (ambiguous != null) {
+            throw ambiguous;
+        }
+
+        UnknownMessageTypeException unknown;
+        synchronized (unknownTypes) {
+            unknown = unknownTypes.get(messageType);
+            if (unknown == null) {
+                unknown = new UnknownMessageTypeException(messageType);
+                unknownTypes.put(messageType, unknown);
+            }
+        }
+        throw unknown;
+    }
+
+    /**
+     * @return the indexed schema
+     */
+    public DynamicSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the fully qualified names of all the message types of the schema, nested types included
+     */
+    public Set<String> getMessageTypes() {
+        return Collections.unmodifiableSet(fullNames);
+    }
+}
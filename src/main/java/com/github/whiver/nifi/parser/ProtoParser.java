@@ -0,0 +1,840 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.github.whiver.nifi.parser.ProtoTokenizer.TokenType;
+import com.google.protobuf.DescriptorProtos.*;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Label;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parse the content of a single .proto file into a FileDescriptorProto. Type references are left as written in the
+ * file, they are resolved afterwards by the {@link JavaProtoCompiler}.
+ */
+final class ProtoParser {
+    /**
+     * Upper bound of the "max" keyword in extension and reserved ranges, which are exclusive
+     */
+    private static final int MAX_FIELD_NUMBER_EXCLUSIVE = 536870912;
+
+    private static final Map<String, Type> SCALAR_TYPES = new HashMap<>();
+
+    static {
+        SCALAR_TYPES.put("double", Type.TYPE_DOUBLE);
+        SCALAR_TYPES.put("float", Type.TYPE_FLOAT);
+        SCALAR_TYPES.put("int64", Type.TYPE_INT64);
+        SCALAR_TYPES.put("uint64", Type.TYPE_UINT64);
+        SCALAR_TYPES.put("int32", Type.TYPE_INT32);
+        SCALAR_TYPES.put("fixed64", Type.TYPE_FIXED64);
+        SCALAR_TYPES.put("fixed32", Type.TYPE_FIXED32);
+        SCALAR_TYPES.put("bool", Type.TYPE_BOOL);
+        SCALAR_TYPES.put("string", Type.TYPE_STRING);
+        SCALAR_TYPES.put("bytes", Type.TYPE_BYTES);
+        SCALAR_TYPES.put("uint32", Type.TYPE_UINT32);
+        SCALAR_TYPES.put("sfixed32", Type.TYPE_SFIXED32);
+        SCALAR_TYPES.put("sfixed64", Type.TYPE_SFIXED64);
+        SCALAR_TYPES.put("sint32", Type.TYPE_SINT32);
+        SCALAR_TYPES.put("sint64", Type.TYPE_SINT64);
+    }
+
+    private final ProtoTokenizer tokens;
+    private boolean proto3;
+
+    private ProtoParser(ProtoTokenizer tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * @param fileName  Name of the file, relative to the include directory
+     * @param content   Content of the .proto file
+     * @return  The descriptor of the file, with unresolved type references
+     * @throws SchemaCompilationException   Thrown in case of syntax error
+     */
+    static FileDescriptorProto parse(String fileName, String content) throws SchemaCompilationException {
+        return new ProtoParser(new ProtoTokenizer(fileName, content)).parseFile(fileName);
+    }
+
+    private FileDescriptorProto parseFile(String fileName) throws SchemaCompilationException {
+        FileDescriptorProto.Builder file = FileDescriptorProto.newBuilder().setName(fileName);
+
+        if (tokens.tryConsume("syntax")) {
+            tokens.consume("=");
+            String syntax = new String(tokens.consumeString(), StandardCharsets.UTF_8);
+            tokens.consume(";");
+
+            if ("proto3".equals(syntax)) {
+                proto3 = true;
+                file.setSyntax(syntax);
+            } else if (!"proto2".equals(syntax)) {
+                throw tokens.error("unsupported syntax \"" + syntax + "\"");
+            }
+        }
+
+        while (!tokens.atEnd()) {
+            if (tokens.tryConsume(";")) {
+                continue;
+            }
+
+            if (tokens.tryConsume("import")) {
+                parseImport(file);
+            } else if (tokens.tryConsume("package")) {
+                file.setPackage(parseFullIdentifier());
+                tokens.consume(";");
+            } else if (tokens.tryConsume("option")) {
+                parseFileOption(file);
+            } else if (tokens.tryConsume("message")) {
+                file.addMessageType(parseMessage());
+            } else if (tokens.tryConsume("enum")) {
+                file.addEnumType(parseEnum());
+            } else if (tokens.tryConsume("service")) {
+                file.addService(parseService());
+            } else if (tokens.tryConsume("extend")) {
+                parseExtend(null, file);
+            } else {
+                throw tokens.error("expected top-level statement");
+            }
+        }
+
+        return file.build();
+    }
+
+    private void parseImport(FileDescriptorProto.Builder file) throws SchemaCompilationException {
+        boolean isPublic = tokens.tryConsume("public");
+        boolean isWeak = !isPublic && tokens.tryConsume("weak");
+        String dependency = new String(tokens.consumeString(), StandardCharsets.UTF_8);
+        tokens.consume(";");
+
+        if (isPublic) {
+            file.addPublicDependency(file.getDependencyCount());
+        } else if (isWeak) {
+            file.addWeakDependency(file.getDependencyCount());
+        }
+        file.addDependency(dependency);
+    }
+
+    private void parseFileOption(FileDescriptorProto.Builder file) throws SchemaCompilationException {
+        String name = parseOptionName();
+        tokens.consume("=");
+        OptionValue value = parseOptionValue();
+        tokens.consume(";");
+
+        FileOptions.Builder options = file.getOptionsBuilder();
+        switch (name) {
+            case "java_package":
+                options.setJavaPackage(value.asString());
+                break;
+            case "java_outer_classname":
+                options.setJavaOuterClassname(value.asString());
+                break;
+            case "java_multiple_files":
+                options.setJavaMultipleFiles(value.asBoolean());
+                break;
+            case "go_package":
+                options.setGoPackage(value.asString());
+                break;
+            case "csharp_namespace":
+                options.setCsharpNamespace(value.asString());
+                break;
+            case "objc_class_prefix":
+                options.setObjcClassPrefix(value.asString());
+                break;
+            case "optimize_for":
+                options.setOptimizeFor(FileOptions.OptimizeMode.valueOf(value.text));
+                break;
+            default:
+                // Other options have no effect on the data, so they are ignored
+        }
+
+        if (!options.build().equals(FileOptions.getDefaultInstance())) {
+            file.setOptions(options);
+        } else {
+            file.clearOptions();
+        }
+    }
+
+    private DescriptorProto parseMessage() throws SchemaCompilationException {
+        DescriptorProto.Builder message = DescriptorProto.newBuilder().setName(tokens.consumeIdentifier());
+        parseMessageBody(message);
+        return message.build();
+    }
+
+    private void parseMessageBody(DescriptorProto.Builder message) throws SchemaCompilationException {
+        tokens.consume("{");
+
+        while (!tokens.tryConsume("}")) {
+            if (tokens.atEnd()) {
+                throw tokens.error("expected \"}\"");
+            }
+            if (tokens.tryConsume(";")) {
+                continue;
+            }
+
+            if (tokens.tryConsume("message")) {
+                message.addNestedType(parseMessage());
+            } else if (tokens.tryConsume("enum")) {
+                message.addEnumType(parseEnum());
+            } else if (tokens.tryConsume("extend")) {
+                parseExtend(message, null);
+            } else if (tokens.tryConsume("extensions")) {
+                parseExtensions(message);
+            } else if (tokens.tryConsume("reserved")) {
+                parseReserved(message);
+            } else if (tokens.tryConsume("option")) {
+                parseMessageOption(message);
+            } else if (tokens.tryConsume("oneof")) {
+                parseOneof(message);
+            } else {
+                message.addField(parseField(message, -1));
+            }
+        }
+    }
+
+    private void parseMessageOption(DescriptorProto.Builder message) throws SchemaCompilationException {
+        String name = parseOptionName();
+        tokens.consume("=");
+        OptionValue value = parseOptionValue();
+        tokens.consume(";");
+
+        if ("deprecated".equals(name)) {
+            message.getOptionsBuilder().setDeprecated(value.asBoolean());
+        } else if ("message_set_wire_format".equals(name)) {
+            message.getOptionsBuilder().setMessageSetWireFormat(value.asBoolean());
+        }
+    }
+
+    private void parseOneof(DescriptorProto.Builder message) throws SchemaCompilationException {
+        int oneofIndex = message.getOneofDeclCount();
+        message.addOneofDecl(OneofDescriptorProto.newBuilder().setName(tokens.consumeIdentifier()));
+        tokens.consume("{");
+
+        while (!tokens.tryConsume("}")) {
+            if (tokens.atEnd()) {
+                throw tokens.error("expected \"}\"");
+            }
+            if (tokens.tryConsume(";")) {
+                continue;
+            }
+
+            if (tokens.tryConsume("option")) {
+                parseOptionName();
+                tokens.consume("=");
+                parseOptionValue();
+                tokens.consume(";");
+            } else {
+                message.addField(parseField(message, oneofIndex));
+            }
+        }
+    }
+
+    /**
+     * Parse a field definition, including map fields and groups.
+     * @param message       The message containing the field, where map entries and groups types are added
+     * @param oneofIndex    Index of the oneof containing the field, or -1
+     */
+    private FieldDescriptorProto parseField(DescriptorProto.Builder message, int oneofIndex) throws SchemaCompilationException {
+        FieldDescriptorProto.Builder field = FieldDescriptorProto.newBuilder();
+
+        Label label = Label.LABEL_OPTIONAL;
+        if (tokens.tryConsume("required")) {
+            label = Label.LABEL_REQUIRED;
+        } else if (tokens.tryConsume("repeated")) {
+            label = Label.LABEL_REPEATED;
+        } else {
+            tokens.tryConsume("optional");
+        }
+        field.setLabel(label);
+
+        if (oneofIndex >= 0) {
+            field.setOneofIndex(oneofIndex);
+        }
+
+        String typeName = parseTypeName();
+
+        if ("map".equals(typeName) && tokens.is("<")) {
+            return parseMapField(message, field);
+        }
+        if ("group".equals(typeName) && tokens.type() == TokenType.IDENTIFIER) {
+            return parseGroup(message, field);
+        }
+
+        Type scalarType = SCALAR_TYPES.get(typeName);
+        if (scalarType != null) {
+            field.setType(scalarType);
+        } else {
+            field.setTypeName(typeName);
+        }
+
+        field.setName(tokens.consumeIdentifier());
+        field.setJsonName(toJsonName(field.getName()));
+        tokens.consume("=");
+        field.setNumber(parseInteger());
+        parseFieldOptions(field);
+        tokens.consume(";");
+
+        return field.build();
+    }
+
+    private FieldDescriptorProto parseMapField(DescriptorProto.Builder message, FieldDescriptorProto.Builder field) throws SchemaCompilationException {
+        tokens.consume("<");
+        String keyType = parseTypeName();
+        tokens.consume(",");
+        String valueType = parseTypeName();
+        tokens.consume(">");
+
+        field.setName(tokens.consumeIdentifier());
+        field.setJsonName(toJsonName(field.getName()));
+        tokens.consume("=");
+        field.setNumber(parseInteger());
+        parseFieldOptions(field);
+        tokens.consume(";");
+
+        // A map field is a repeated field of a synthesized nested "entry" message, as generated by protoc
+        String entryName = toMapEntryName(field.getName());
+        DescriptorProto.Builder entry = DescriptorProto.newBuilder()
+                .setName(entryName)
+                .setOptions(MessageOptions.newBuilder().setMapEntry(true));
+        entry.addField(mapEntryField("key", 1, keyType));
+        entry.addField(mapEntryField("value", 2, valueType));
+        message.addNestedType(entry);
+
+        return field.setLabel(Label.LABEL_REPEATED).setTypeName(entryName).build();
+    }
+
+    private static FieldDescriptorProto mapEntryField(String name, int number, String typeName) {
+        FieldDescriptorProto.Builder field = FieldDescriptorProto.newBuilder()
+                .setName(name)
+                .setNumber(number)
+                .setLabel(Label.LABEL_OPTIONAL)
+                .setJsonName(name);
+
+        Type scalarType = SCALAR_TYPES.get(typeName);
+        if (scalarType != null) {
+            field.setType(scalarType);
+        } else {
+            field.setTypeName(typeName);
+        }
+        return field.build();
+    }
+
+    private FieldDescriptorProto parseGroup(DescriptorProto.Builder message, FieldDescriptorProto.Builder field) throws SchemaCompilationException {
+        String groupName = tokens.consumeIdentifier();
+        tokens.consume("=");
+        int number = parseInteger();
+
+        field.setName(groupName.toLowerCase())
+                .setJsonName(toJsonName(groupName.toLowerCase()))
+                .setNumber(number)
+                .setType(Type.TYPE_GROUP)
+                .setTypeName(groupName);
+        parseFieldOptions(field);
+
+        DescriptorProto.Builder group = DescriptorProto.newBuilder().setName(groupName);
+        parseMessageBody(group);
+        message.addNestedType(group);
+
+        return field.build();
+    }
+
+    private void parseFieldOptions(FieldDescriptorProto.Builder field) throws SchemaCompilationException {
+        if (!tokens.tryConsume("[")) {
+            return;
+        }
+
+        do {
+            String name = parseOptionName();
+            tokens.consume("=");
+            OptionValue value = parseOptionValue();
+
+            switch (name) {
+                case "default":
+                    field.setDefaultValue(toDefaultValue(field, value));
+                    break;
+                case "json_name":
+                    field.setJsonName(value.asString());
+                    break;
+                case "packed":
+                    field.getOptionsBuilder().setPacked(value.asBoolean());
+                    break;
+                case "deprecated":
+                    field.getOptionsBuilder().setDeprecated(value.asBoolean());
+                    break;
+                case "lazy":
+                    field.getOptionsBuilder().setLazy(value.asBoolean());
+                    break;
+                default:
+                    // Other options have no effect on the data, so they are ignored
+            }
+        } while (tokens.tryConsume(","));
+
+        tokens.consume("]");
+    }
+
+    private void parseExtensions(DescriptorProto.Builder message) throws SchemaCompilationException {
+        do {
+            int start = parseInteger();
+            int end = start + 1;
+            if (tokens.tryConsume("to")) {
+                end = tokens.tryConsume("max") ? MAX_FIELD_NUMBER_EXCLUSIVE : parseInteger() + 1;
+            }
+            message.addExtensionRange(DescriptorProto.ExtensionRange.newBuilder().setStart(start).setEnd(end));
+        } while (tokens.tryConsume(","));
+
+        skipOptionsList();
+        tokens.consume(";");
+    }
+
+    private void parseReserved(DescriptorProto.Builder message) throws SchemaCompilationException {
+        do {
+            if (tokens.type() == TokenType.STRING) {
+                message.addReservedName(new String(tokens.consumeString(), StandardCharsets.UTF_8));
+            } else {
+                int start = parseInteger();
+                int end = start + 1;
+                if (tokens.tryConsume("to")) {
+                    end = tokens.tryConsume("max") ? MAX_FIELD_NUMBER_EXCLUSIVE : parseInteger() + 1;
+                }
+                message.addReservedRange(DescriptorProto.ReservedRange.newBuilder().setStart(start).setEnd(end));
+            }
+        } while (tokens.tryConsume(","));
+
+        tokens.consume(";");
+    }
+
+    private void parseExtend(DescriptorProto.Builder message, FileDescriptorProto.Builder file) throws SchemaCompilationException {
+        String extendee = parseTypeName();
+        tokens.consume("{");
+
+        // Groups declared in an extension are added to the enclosing message, or to a throwaway message at file level
+        DescriptorProto.Builder scope = message != null ? message : DescriptorProto.newBuilder();
+
+        while (!tokens.tryConsume("}")) {
+            if (tokens.atEnd()) {
+                throw tokens.error("expected \"}\"");
+            }
+            if (tokens.tryConsume(";")) {
+                continue;
+            }
+
+            FieldDescriptorProto extension = parseField(scope, -1).toBuilder().setExtendee(extendee).build();
+            if (message != null) {
+                message.addExtension(extension);
+            } else {
+                file.addExtension(extension);
+            }
+        }
+
+        if (message == null) {
+            for (DescriptorProto group : scope.getNestedTypeList()) {
+                file.addMessageType(group);
+            }
+        }
+    }
+
+    private EnumDescriptorProto parseEnum() throws SchemaCompilationException {
+        EnumDescriptorProto.Builder enumType = EnumDescriptorProto.newBuilder().setName(tokens.consumeIdentifier());
+        tokens.consume("{");
+
+        while (!tokens.tryConsume("}")) {
+            if (tokens.atEnd()) {
+                throw tokens.error("expected \"}\"");
+            }
+            if (tokens.tryConsume(";")) {
+                continue;
+            }
+
+            if (tokens.tryConsume("option")) {
+                String name = parseOptionName();
+                tokens.consume("=");
+                OptionValue value = parseOptionValue();
+                tokens.consume(";");
+
+                if ("allow_alias".equals(name)) {
+                    enumType.getOptionsBuilder().setAllowAlias(value.asBoolean());
+                } else if ("deprecated".equals(name)) {
+                    enumType.getOptionsBuilder().setDeprecated(value.asBoolean());
+                }
+            } else if (tokens.tryConsume("reserved")) {
+                parseEnumReserved(enumType);
+            } else {
+                EnumValueDescriptorProto.Builder value = EnumValueDescriptorProto.newBuilder().setName(tokens.consumeIdentifier());
+                tokens.consume("=");
+                value.setNumber(parseInteger());
+
+                if (tokens.tryConsume("[")) {
+                    do {
+                        String name = parseOptionName();
+                        tokens.consume("=");
+                        OptionValue optionValue = parseOptionValue();
+                        if ("deprecated".equals(name)) {
+                            value.getOptionsBuilder().setDeprecated(optionValue.asBoolean());
+                        }
+                    } while (tokens.tryConsume(","));
+                    tokens.consume("]");
+                }
+
+                tokens.consume(";");
+                enumType.addValue(value);
+            }
+        }
+
+        return enumType.build();
+    }
+
+    /**
+     * Unlike the reserved ranges of messages, the reserved ranges of enums are inclusive, and "max" is the largest
+     * enum value
+     */
+    private void parseEnumReserved(EnumDescriptorProto.Builder enumType) throws SchemaCompilationException {
+        do {
+            if (tokens.type() == TokenType.STRING) {
+                enumType.addReservedName(new String(tokens.consumeString(), StandardCharsets.UTF_8));
+            } else {
+                int start = parseInteger();
+                int end = start;
+                if (tokens.tryConsume("to")) {
+                    end = tokens.tryConsume("max") ? Integer.MAX_VALUE : parseInteger();
+                }
+                enumType.addReservedRange(EnumDescriptorProto.EnumReservedRange.newBuilder().setStart(start).setEnd(end));
+            }
+        } while (tokens.tryConsume(","));
+
+        tokens.consume(";");
+    }
+
+    private ServiceDescriptorProto parseService() throws SchemaCompilationException {
+        ServiceDescriptorProto.Builder service = ServiceDescriptorProto.newBuilder().setName(tokens.consumeIdentifier());
+        tokens.consume("{");
+
+        while (!tokens.tryConsume("}")) {
+            if (tokens.atEnd()) {
+                throw tokens.error("expected \"}\"");
+            }
+            if (tokens.tryConsume(";")) {
+                continue;
+            }
+
+            if (tokens.tryConsume("option")) {
+                String name = parseOptionName();
+                tokens.consume("=");
+                OptionValue value = parseOptionValue();
+                tokens.consume(";");
+
+                if ("deprecated".equals(name)) {
+                    service.getOptionsBuilder().setDeprecated(value.asBoolean());
+                }
+                continue;
+            }
+
+            tokens.consume("rpc");
+            MethodDescriptorProto.Builder method = MethodDescriptorProto.newBuilder().setName(tokens.consumeIdentifier());
+
+            tokens.consume("(");
+            if (tokens.tryConsume("stream")) {
+                method.setClientStreaming(true);
+            }
+            method.setInputType(parseTypeName());
+            tokens.consume(")");
+
+            tokens.consume("returns");
+            tokens.consume("(");
+            if (tokens.tryConsume("stream")) {
+                method.setServerStreaming(true);
+            }
+            method.setOutputType(parseTypeName());
+            tokens.consume(")");
+
+            if (tokens.tryConsume("{")) {
+                while (!tokens.tryConsume("}")) {
+                    if (tokens.tryConsume(";")) {
+                        continue;
+                    }
+
+                    tokens.consume("option");
+                    String name = parseOptionName();
+                    tokens.consume("=");
+                    OptionValue value = parseOptionValue();
+                    tokens.consume(";");
+
+                    if ("deprecated".equals(name)) {
+                        method.getOptionsBuilder().setDeprecated(value.asBoolean());
+                    }
+                }
+            } else {
+                tokens.consume(";");
+            }
+
+            service.addMethod(method);
+        }
+
+        return service.build();
+    }
+
+    /**
+     * Parse a type name, which may be fully qualified (starting with a dot).
+     */
+    private String parseTypeName() throws SchemaCompilationException {
+        StringBuilder name = new StringBuilder();
+        if (tokens.tryConsume(".")) {
+            name.append('.');
+        }
+        name.append(parseFullIdentifier());
+        return name.toString();
+    }
+
+    private String parseFullIdentifier() throws SchemaCompilationException {
+        StringBuilder identifier = new StringBuilder(tokens.consumeIdentifier());
+        while (tokens.tryConsume(".")) {
+            identifier.append('.').append(tokens.consumeIdentifier());
+        }
+        return identifier.toString();
+    }
+
+    /**
+     * Parse an option name, custom options being returned with their parentheses.
+     */
+    private String parseOptionName() throws SchemaCompilationException {
+        StringBuilder name = new StringBuilder();
+        do {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            if (tokens.tryConsume("(")) {
+                name.append('(').append(parseTypeName()).append(')');
+                tokens.consume(")");
+            } else {
+                name.append(tokens.consumeIdentifier());
+            }
+        } while (tokens.tryConsume("."));
+        return name.toString();
+    }
+
+    private OptionValue parseOptionValue() throws SchemaCompilationException {
+        if (tokens.tryConsume("{")) {
+            // Aggregate values are only used by custom options, which are ignored
+            skipBlock();
+            return new OptionValue(TokenType.SYMBOL, "{}", null);
+        }
+
+        String sign = "";
+        if (tokens.tryConsume("-")) {
+            sign = "-";
+        } else {
+            tokens.tryConsume("+");
+        }
+
+        TokenType type = tokens.type();
+        switch (type) {
+            case STRING:
+                return new OptionValue(type, null, tokens.consumeString());
+            case INTEGER:
+            case FLOAT:
+            case IDENTIFIER:
+                return new OptionValue(type, sign + tokens.consumeAny(), null);
+            default:
+                throw tokens.error("expected option value");
+        }
+    }
+
+    private void skipOptionsList() throws SchemaCompilationException {
+        if (tokens.tryConsume("[")) {
+            int depth = 1;
+            while (depth > 0) {
+                if (tokens.is("[")) {
+                    depth++;
+                } else if (tokens.is("]")) {
+                    depth--;
+                }
+                tokens.consumeAny();
+            }
+        }
+    }
+
+    /**
+     * Skip tokens until the closing brace of a block whose opening brace has already been consumed.
+     */
+    private void skipBlock() throws SchemaCompilationException {
+        int depth = 1;
+        while (depth > 0) {
+            if (tokens.is("{")) {
+                depth++;
+            } else if (tokens.is("}")) {
+                depth--;
+            }
+            tokens.consumeAny();
+        }
+    }
+
+    private int parseInteger() throws SchemaCompilationException {
+        boolean negative = tokens.tryConsume("-");
+        if (tokens.type() != TokenType.INTEGER) {
+            throw tokens.error("expected integer");
+        }
+        BigInteger value = parseIntegerLiteral(tokens.consumeAny());
+        return (negative ? value.negate() : value).intValue();
+    }
+
+    private static BigInteger parseIntegerLiteral(String literal) {
+        String digits = literal;
+        boolean negative = digits.startsWith("-");
+        if (negative) {
+            digits = digits.substring(1);
+        }
+
+        BigInteger value;
+        if (digits.startsWith("0x") || digits.startsWith("0X")) {
+            value = new BigInteger(digits.substring(2), 16);
+        } else if (digits.length() > 1 && digits.startsWith("0")) {
+            value = new BigInteger(digits.substring(1), 8);
+        } else {
+            value = new BigInteger(digits);
+        }
+        return negative ? value.negate() : value;
+    }
+
+    /**
+     * Format a default value the way protoc stores it in descriptors.
+     */
+    private String toDefaultValue(FieldDescriptorProto.Builder field, OptionValue value) throws SchemaCompilationException {
+        if (!field.hasType()) {
+            // Enum default values are given by name
+            return value.text;
+        }
+
+        switch (field.getType()) {
+            case TYPE_STRING:
+                return value.asString();
+            case TYPE_BYTES:
+                return escapeBytes(value.bytes);
+            case TYPE_BOOL:
+                return String.valueOf(value.asBoolean());
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+                return value.text.toLowerCase();
+            default:
+                if (value.type != TokenType.INTEGER) {
+                    throw tokens.error("invalid default value for field " + field.getName());
+                }
+                return parseIntegerLiteral(value.text).toString();
+        }
+    }
+
+    /**
+     * Escape bytes as protoc does for the default values of bytes fields (C-style escaping).
+     */
+    private static String escapeBytes(byte[] bytes) {
+        StringBuilder escaped = new StringBuilder();
+        for (byte b : bytes) {
+            switch (b) {
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                case '\t': escaped.append("\\t"); break;
+                case '"': escaped.append("\\\""); break;
+                case '\'': escaped.append("\\'"); break;
+                case '\\': escaped.append("\\\\"); break;
+                default:
+                    if (b >= 0x20 && b < 0x7f) {
+                        escaped.append((char) b);
+                    } else {
+                        escaped.append(String.format("\\%03o", b & 0xff));
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Compute the default JSON name of a field, as protoc does.
+     */
+    static String toJsonName(String fieldName) {
+        StringBuilder jsonName = new StringBuilder(fieldName.length());
+        boolean capitalizeNext = false;
+        for (char c : fieldName.toCharArray()) {
+            if (c == '_') {
+                capitalizeNext = true;
+            } else if (capitalizeNext) {
+                jsonName.append(Character.toUpperCase(c));
+                capitalizeNext = false;
+            } else {
+                jsonName.append(c);
+            }
+        }
+        return jsonName.toString();
+    }
+
+    /**
+     * Compute the name of the message synthesized for a map field, as protoc does.
+     */
+    private static String toMapEntryName(String fieldName) {
+        StringBuilder entryName = new StringBuilder(fieldName.length() + 5);
+        boolean capitalizeNext = true;
+        for (char c : fieldName.toCharArray()) {
+            if (c == '_') {
+                capitalizeNext = true;
+            } else if (capitalizeNext) {
+                entryName.append(c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c);
+                capitalizeNext = false;
+            } else {
+                entryName.append(c);
+            }
+        }
+        return entryName.append("Entry").toString();
+    }
+
+    private final class OptionValue {
+        private final TokenType type;
+        private final String text;
+        private final byte[] bytes;
+
+        OptionValue(TokenType type, String text, byte[] bytes) {
+            this.type = type;
+            this.text = text;
+            this.bytes = bytes;
+        }
+
+        String asString() throws SchemaCompilationException {
+            if (bytes == null) {
+                throw tokens.error("expected string option value");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        boolean asBoolean() throws SchemaCompilationException {
+            if ("true".equals(text)) {
+                return true;
+            } else if ("false".equals(text)) {
+                return false;
+            }
+            throw tokens.error("expected boolean option value");
+        }
+    }
+}
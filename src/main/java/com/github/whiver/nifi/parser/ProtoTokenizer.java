@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Split the content of a .proto file into tokens, skipping whitespaces and comments.
+ */
+final class ProtoTokenizer {
+    enum TokenType {
+        IDENTIFIER, INTEGER, FLOAT, STRING, SYMBOL, END
+    }
+
+    private final String fileName;
+    private final String source;
+    private int position;
+    private int line = 1;
+
+    private TokenType type;
+    private String text;
+    private byte[] stringValue;
+    private int tokenLine;
+
+    ProtoTokenizer(String fileName, String source) throws SchemaCompilationException {
+        this.fileName = fileName;
+        this.source = source;
+        next();
+    }
+
+    TokenType type() {
+        return type;
+    }
+
+    String text() {
+        return text;
+    }
+
+    boolean atEnd() {
+        return type == TokenType.END;
+    }
+
+    /**
+     * @return true if the current token is exactly the given symbol or identifier
+     */
+    boolean is(String expected) {
+        return (type == TokenType.SYMBOL || type == TokenType.IDENTIFIER) && text.equals(expected);
+    }
+
+    boolean tryConsume(String expected) throws SchemaCompilationException {
+        if (is(expected)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    void consume(String expected) throws SchemaCompilationException {
+        if (!tryConsume(expected)) {
+            throw error("expected \"" + expected + "\"");
+        }
+    }
+
+    String consumeIdentifier() throws SchemaCompilationException {
+        if (type != TokenType.IDENTIFIER) {
+            throw error("expected identifier");
+        }
+        String identifier = text;
+        next();
+        return identifier;
+    }
+
+    /**
+     * Consume a string literal, concatenating adjacent literals as protoc does.
+     * @return the raw bytes of the unescaped literal
+     */
+    byte[] consumeString() throws SchemaCompilationException {
+        if (type != TokenType.STRING) {
+            throw error("expected string");
+        }
+
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        while (type == TokenType.STRING) {
+            value.write(stringValue, 0, stringValue.length);
+            next();
+        }
+        return value.toByteArray();
+    }
+
+    /**
+     * Consume a token of any kind, returning its text.
+     */
+    String consumeAny() throws SchemaCompilationException {
+        if (type == TokenType.END) {
+            throw error("unexpected end of file");
+        }
+        String consumed = text;
+        next();
+        return consumed;
+    }
+
+    SchemaCompilationException error(String message) {
+        String found = type == TokenType.END ? "end of file" : "\"" + text + "\"";
+        return new SchemaCompilationException(fileName, "line " + tokenLine + ": " + message + ", found " + found);
+    }
+
+    private void next() throws SchemaCompilationException {
+        skipWhitespacesAndComments();
+        tokenLine = line;
+        stringValue = null;
+
+        if (position >= source.length()) {
+            type = TokenType.END;
+            text = "";
+            return;
+        }
+
+        int start = position;
+        char c = source.charAt(position);
+
+        if (Character.isLetter(c) || c == '_') {
+            while (position < source.length() && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_')) {
+                position++;
+            }
+            type = TokenType.IDENTIFIER;
+        } else if (Character.isDigit(c) || (c == '.' && position + 1 < source.length() && Character.isDigit(source.charAt(position + 1)))) {
+            type = readNumber();
+        } else if (c == '"' || c == '\'') {
+            stringValue = readString(c);
+            type = TokenType.STRING;
+        } else {
+            position++;
+            type = TokenType.SYMBOL;
+        }
+
+        text = source.substring(start, position);
+    }
+
+    private TokenType readNumber() {
+        if (source.charAt(position) == '0' && position + 1 < source.length()
+                && (source.charAt(position + 1) == 'x' || source.charAt(position + 1) == 'X')) {
+            position += 2;
+            while (position < source.length() && Character.digit(source.charAt(position), 16) >= 0) {
+                position++;
+            }
+            return TokenType.INTEGER;
+        }
+
+        boolean isFloat = false;
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (Character.isDigit(c)) {
+                position++;
+            } else if (c == '.') {
+                isFloat = true;
+                position++;
+            } else if (c == 'e' || c == 'E') {
+                isFloat = true;
+                position++;
+                if (position < source.length() && (source.charAt(position) == '+' || source.charAt(position) == '-')) {
+                    position++;
+                }
+            } else {
+                break;
+            }
+        }
+
+        // Float literals may end with an "f" suffix
+        if (position < source.length() && (source.charAt(position) == 'f' || source.charAt(position) == 'F')) {
+            isFloat = true;
+            position++;
+        }
+
+        return isFloat ? TokenType.FLOAT : TokenType.INTEGER;
+    }
+
+    private byte[] readString(char delimiter) throws SchemaCompilationException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        position++;
+
+        while (true) {
+            if (position >= source.length() || source.charAt(position) == '\n') {
+                tokenLine = line;
+                throw new SchemaCompilationException(fileName, "line " + line + ": unterminated string literal");
+            }
+
+            char c = source.charAt(position++);
+            if (c == delimiter) {
+                return value.toByteArray();
+            }
+
+            if (c != '\\') {
+                int codePointEnd = position;
+                if (Character.isHighSurrogate(c) && position < source.length()) {
+                    codePointEnd++;
+                }
+                byte[] encoded = source.substring(position - 1, codePointEnd).getBytes(StandardCharsets.UTF_8);
+                value.write(encoded, 0, encoded.length);
+                position = codePointEnd;
+                continue;
+            }
+
+            if (position >= source.length()) {
+                throw new SchemaCompilationException(fileName, "line " + line + ": unterminated string literal");
+            }
+
+            char escaped = source.charAt(position++);
+            switch (escaped) {
+                case 'a': value.write(0x07); break;
+                case 'b': value.write('\b'); break;
+                case 'f': value.write('\f'); break;
+                case 'n': value.write('\n'); break;
+                case 'r': value.write('\r'); break;
+                case 't': value.write('\t'); break;
+                case 'v': value.write(0x0b); break;
+                case 'x':
+                case 'X':
+                    value.write(readDigits(16, 2));
+                    break;
+                case 'u':
+                    writeCodePoint(value, readDigits(16, 4));
+                    break;
+                case 'U':
+                    writeCodePoint(value, readDigits(16, 8));
+                    break;
+                default:
+                    if (escaped >= '0' && escaped <= '7') {
+                        position--;
+                        value.write(readDigits(8, 3));
+                    } else {
+                        // \\, \', \" and \? stand for themselves
+                        value.write(escaped);
+                    }
+            }
+        }
+    }
+
+    private int readDigits(int radix, int maxDigits) throws SchemaCompilationException {
+        int result = 0;
+        int count = 0;
+        while (count < maxDigits && position < source.length() && Character.digit(source.charAt(position), radix) >= 0) {
+            result = result * radix + Character.digit(source.charAt(position), radix);
+            position++;
+            count++;
+        }
+        if (count == 0) {
+            throw new SchemaCompilationException(fileName, "line " + line + ": invalid escape sequence");
+        }
+        return result;
+    }
+
+    private static void writeCodePoint(ByteArrayOutputStream value, int codePoint) {
+        byte[] encoded = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+        value.write(encoded, 0, encoded.length);
+    }
+
+    private void skipWhitespacesAndComments() {
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (c == '\n') {
+                line++;
+                position++;
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else if (source.startsWith("//", position)) {
+                while (position < source.length() && source.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (source.startsWith("/*", position)) {
+                int end = source.indexOf("*/", position + 2);
+                end = end < 0 ? source.length() : end + 2;
+                for (int i = position; i < end; i++) {
+                    if (source.charAt(i) == '\n') {
+                        line++;
+                    }
+                }
+                position = end;
+            } else {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.github.whiver.nifi.exception.SchemaLoadingException;
+import com.google.protobuf.Descriptors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size-bounded LRU cache of parsed schemas, used to avoid parsing (and compiling) the same schema
+ * file again for every flowfile giving its own protobuf.schemaPath.
+ *
+ * Each schema is stored with its {@link MessageTypeIndex}, so that message types are looked up in constant time.
+ *
+ * Entries are keyed by the schema path, the last modification time and size of the file and the compile flag, so that
+ * a schema file overwritten on the disk is never served from a stale entry.
+ *
+ * A schema missing from the cache is loaded by a single thread, the other threads looking it up in the meantime
+ * waiting for its result, so that a burst of flowfiles never compiles the same schema several times at once.
+ */
+public class SchemaCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final CompilerMode compilerMode;
+    private final DescriptorCache descriptorCache;
+    private final Map<Key, Entry> entries;
+    private final ConcurrentMap<Key, FutureTask<MessageTypeIndex>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries    Maximum number of schemas kept in memory, 0 disables the cache
+     * @param ttl           Maximum time a schema is kept after being loaded, 0 to keep it until evicted
+     * @param unit          Unit of the ttl parameter
+     */
+    public SchemaCache(final int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, null);
+    }
+
+    /**
+     * @param maxEntries        Maximum number of schemas kept in memory, 0 disables the cache
+     * @param ttl               Maximum time a schema is kept after being loaded, 0 to keep it until evicted
+     * @param unit              Unit of the ttl parameter
+     * @param descriptorCache   On-disk cache of compiled descriptors used when a schema must be compiled, may be null
+     */
+    public SchemaCache(final int maxEntries, long ttl, TimeUnit unit, DescriptorCache descriptorCache) {
+        this(maxEntries, ttl, unit, CompilerMode.PROTOC, descriptorCache);
+    }
+
+    /**
+     * @param maxEntries        Maximum number of schemas kept in memory, 0 disables the cache
+     * @param ttl               Maximum time a schema is kept after being loaded, 0 to keep it until evicted
+     * @param unit              Unit of the ttl parameter
+     * @param compilerMode      Compiler used when a schema must be compiled
+     * @param descriptorCache   On-disk cache of compiled descriptors used when a schema must be compiled, may be null
+     */
+    public SchemaCache(final int maxEntries, long ttl, TimeUnit unit, CompilerMode compilerMode, DescriptorCache descriptorCache) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.compilerMode = compilerMode;
+        this.descriptorCache = descriptorCache;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the schema stored at the given path, parsing it only if it is not already cached.
+     * @param pathToSchema  Path to the schema file on disk
+     * @param compileSchema true if the given schema is still in raw .proto format
+     * @return  The parsed schema
+     * @see SchemaParser#parseSchema(String, boolean, CompilerMode, DescriptorCache)
+     */
+    public DynamicSchema get(String pathToSchema, boolean compileSchema) throws Descriptors.DescriptorValidationException, SchemaLoadingException, InterruptedException, SchemaCompilationException, IOException {
+        return getIndex(pathToSchema, compileSchema).getSchema();
+    }
+
+    /**
+     * Get the message type index of the schema stored at the given path, parsing and indexing the schema only if it is
+     * not already cached.
+     * @param pathToSchema  Path to the schema file on disk
+     * @param compileSchema true if the given schema is still in raw .proto format
+     * @return  The index of the parsed schema
+     * @see SchemaParser#parseSchema(String, boolean, CompilerMode, DescriptorCache)
+     */
+    public MessageTypeIndex getIndex(String pathToSchema, boolean compileSchema) throws Descriptors.DescriptorValidationException, SchemaLoadingException, InterruptedException, SchemaCompilationException, IOException {
+        if (maxEntries <= 0) {
+            misses.incrementAndGet();
+            return new MessageTypeIndex(SchemaParser.parseSchema(pathToSchema, compileSchema, compilerMode, descriptorCache));
+        }
+
+        File schemaFile = new File(pathToSchema);
+        Key key = new Key(pathToSchema, schemaFile.lastModified(), schemaFile.length(), compileSchema);
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (ttlNanos <= 0 || now - entry.loadTime < ttlNanos) {
+                    hits.incrementAndGet();
+                    return entry.index;
+                }
+
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+
+        // The schema is parsed outside of the lock so that a slow compilation does not block other lookups, but only
+        // once: the threads looking it up while it is parsed wait for it, and count as hits
+        FutureTask<MessageTypeIndex> load = new FutureTask<>(() ->
+                new MessageTypeIndex(SchemaParser.parseSchema(pathToSchema, compileSchema, compilerMode, descriptorCache)));
+        FutureTask<MessageTypeIndex> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            hits.incrementAndGet();
+            return awaitLoad(running);
+        }
+
+        misses.incrementAndGet();
+        try {
+            load.run();
+            MessageTypeIndex index = awaitLoad(load);
+            synchronized (entries) {
+                entries.put(key, new Entry(index, now));
+            }
+            return index;
+        } finally {
+            // A failed load is not cached, the next lookup tries again
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * @return the schema index loaded by the given task, rethrowing the exception of the loading if it failed
+     */
+    private static MessageTypeIndex awaitLoad(FutureTask<MessageTypeIndex> load) throws Descriptors.DescriptorValidationException, SchemaLoadingException, InterruptedException, SchemaCompilationException, IOException {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Descriptors.DescriptorValidationException) {
+                throw (Descriptors.DescriptorValidationException) cause;
+            } else if (cause instanceof SchemaLoadingException) {
+                throw (SchemaLoadingException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof SchemaCompilationException) {
+                throw (SchemaCompilationException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Remove all the cached schemas. Counters are not reset.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtl(TimeUnit unit) {
+        return unit.convert(ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public CompilerMode getCompilerMode() {
+        return compilerMode;
+    }
+
+    public DescriptorCache getDescriptorCache() {
+        return descriptorCache;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+
+    private static final class Key {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final boolean compileSchema;
+
+        Key(String path, long lastModified, long size, boolean compileSchema) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.compileSchema = compileSchema;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return lastModified == other.lastModified && size == other.size
+                    && compileSchema == other.compileSchema && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + (compileSchema ? 1 : 0);
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        private final MessageTypeIndex index;
+        private final long loadTime;
+
+        Entry(MessageTypeIndex index, long loadTime) {
+            this.index = index;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -37,25 +37,84 @@ import java.io.FileInputStream;
 import java.io.IOException;
 
 public class SchemaParser {
+    /**
+     * Version of protoc run by protoc-jar, which must be kept in sync with the protoc-jar dependency version. It is part
+     * of the descriptor cache keys, so that upgrading the compiler invalidates the cached descriptors.
+     */
+    static final String PROTOC_VERSION = "protoc-3.5.0";
+
     static CompiledSchema compileProto(String schemaPath) throws IOException, InterruptedException, SchemaCompilationException {
+        return compileProto(schemaPath, null);
+    }
+
+    static CompiledSchema compileProto(String schemaPath, DescriptorCache descriptorCache) throws IOException, InterruptedException, SchemaCompilationException {
+        File inFile = new File(schemaPath);
+
+        // Reuse the descriptor compiled by a previous run if any
+        String cacheKey = null;
+        if (descriptorCache != null) {
+            cacheKey = descriptorCache.computeKey(inFile, PROTOC_VERSION);
+            byte[] cachedDescriptor = descriptorCache.read(cacheKey);
+            if (cachedDescriptor != null) {
+                return new CompiledSchema(cachedDescriptor);
+            }
+        }
+
         // Get a temp file path to write the compiled output
         File outFile = File.createTempFile("protobuf-desc-tempfile", ".desc");
-        File inFile = new File(schemaPath);
 
         String[] args = {"--include_imports", "-I", inFile.getParentFile().getAbsolutePath(), "-o", outFile.getAbsolutePath(), inFile.getAbsolutePath()};
         if (Protoc.runProtoc(args) != 0) {
+            outFile.delete();
             throw new SchemaCompilationException(schemaPath);
         }
 
+        if (descriptorCache != null) {
+            // The compiled file is read rather than its cached copy, which other processors may already have evicted
+            try {
+                descriptorCache.put(cacheKey, outFile);
+            } catch (IOException e) {
+                outFile.delete();
+                throw e;
+            }
+        }
+
         return new CompiledSchema(outFile);
     }
 
     public static DynamicSchema parseSchema(String pathToSchema, boolean compileSchema) throws Descriptors.DescriptorValidationException, SchemaLoadingException, InterruptedException, SchemaCompilationException, IOException {
+        return parseSchema(pathToSchema, compileSchema, null);
+    }
+
+    /**
+     * Parse the given schema file, compiling it first with protoc if needed.
+     * @param pathToSchema      Path to the schema file on disk
+     * @param compileSchema     true if the given schema is still in raw .proto format
+     * @param descriptorCache   The cache where to look for and store compiled descriptors, or null to always compile
+     * @return  The parsed schema
+     */
+    public static DynamicSchema parseSchema(String pathToSchema, boolean compileSchema, DescriptorCache descriptorCache) throws Descriptors.DescriptorValidationException, SchemaLoadingException, InterruptedException, SchemaCompilationException, IOException {
+        return parseSchema(pathToSchema, compileSchema, CompilerMode.PROTOC, descriptorCache);
+    }
+
+    /**
+     * Parse the given schema file, compiling it first if needed.
+     * @param pathToSchema      Path to the schema file on disk
+     * @param compileSchema     true if the given schema is still in raw .proto format
+     * @param compilerMode      The compiler to use if the schema must be compiled
+     * @param descriptorCache   The cache where to look for and store descriptors compiled by protoc, or null to always
+     *                          compile
+     * @return  The parsed schema
+     */
+    public static DynamicSchema parseSchema(String pathToSchema, boolean compileSchema, CompilerMode compilerMode, DescriptorCache descriptorCache) throws Descriptors.DescriptorValidationException, SchemaLoadingException, InterruptedException, SchemaCompilationException, IOException {
         DynamicSchema schema = null;
 
         try {
-            if (compileSchema) {
-                try (CompiledSchema compiledSchema = SchemaParser.compileProto(pathToSchema)) {
+            if (compileSchema && compilerMode == CompilerMode.JAVA) {
+                // The in-JVM compiler is fast enough not to need the descriptor cache
+                schema = DynamicSchema.parseFrom(JavaProtoCompiler.compile(new File(pathToSchema)).toByteArray());
+            } else if (compileSchema) {
+                try (CompiledSchema compiledSchema = SchemaParser.compileProto(pathToSchema, descriptorCache)) {
                     schema = DynamicSchema.parseFrom(compiledSchema.read());
                 } catch (IOException | InterruptedException | SchemaCompilationException e) {
                     // Compilation exceptions prevent us from continuing, so we rethrow the exception
@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches schema files on the disk and notifies the registered listeners when one of them changes, so that the schema
+ * can be parsed again without restarting the processors using it.
+ *
+ * A single instance, and a single background thread, is shared by all the processors of the JVM. Each directory is
+ * watched once whatever the number of files watched in it, and a listener is only called when the size or the last
+ * modification time of its file actually changed, since the file system usually reports several events for a single
+ * write. The thread stops when no file is watched anymore.
+ */
+public final class SchemaWatcher {
+    private static final SchemaWatcher INSTANCE = new SchemaWatcher();
+
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+    private final Map<Path, WatchedFile> files = new HashMap<>();
+    private WatchService watchService;
+
+    private SchemaWatcher() {
+    }
+
+    public static SchemaWatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start watching the given schema file
+     * @param pathToSchema  Path to the schema file on disk
+     * @param listener      Called from the watcher thread each time the file changes
+     * @return  The registration of the listener, to close to stop watching the file
+     * @throws IOException  Thrown when the directory of the file cannot be watched
+     */
+    public synchronized Registration watch(String pathToSchema, Runnable listener) throws IOException {
+        Path file = new File(pathToSchema).getAbsoluteFile().toPath().normalize();
+        Path directory = file.getParent();
+
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(new Watcher(watchService), "Protobuf schema watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        if (!directories.containsKey(directory)) {
+            directories.put(directory, directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY));
+        }
+
+        files.computeIfAbsent(file, WatchedFile::new).listeners.add(listener);
+        return new Registration(file, listener);
+    }
+
+    /**
+     * @return the number of files currently watched
+     */
+    public synchronized int getWatchedFileCount() {
+        return files.size();
+    }
+
+    private synchronized void unwatch(Path file, Runnable listener) {
+        WatchedFile watchedFile = files.get(file);
+        if (watchedFile == null || !watchedFile.listeners.remove(listener) || !watchedFile.listeners.isEmpty()) {
+            return;
+        }
+
+        files.remove(file);
+        Path directory = file.getParent();
+        if (files.keySet().stream().noneMatch(f -> f.getParent().equals(directory))) {
+            WatchKey key = directories.remove(directory);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+
+        if (files.isEmpty()) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // The watcher thread stops anyway, and a new service is created for the next watched file
+            }
+            watchService = null;
+        }
+    }
+
+    /**
+     * @return the listeners to call for the files of the given directory that actually changed
+     */
+    private synchronized List<Runnable> getListeners(Path directory, Collection<Path> changedFiles, boolean overflow) {
+        List<Runnable> listeners = new ArrayList<>();
+        for (WatchedFile watchedFile : files.values()) {
+            if (!watchedFile.path.getParent().equals(directory)) {
+                continue;
+            }
+            if ((overflow || changedFiles.contains(watchedFile.path)) && watchedFile.updateState()) {
+                listeners.addAll(watchedFile.listeners);
+            }
+        }
+        return listeners;
+    }
+
+    private synchronized void forget(Path directory, WatchKey key) {
+        directories.remove(directory, key);
+    }
+
+    /**
+     * The registration of a listener on a schema file
+     */
+    public final class Registration implements AutoCloseable {
+        private final Path file;
+        private final Runnable listener;
+
+        private Registration(Path file, Runnable listener) {
+            this.file = file;
+            this.listener = listener;
+        }
+
+        /**
+         * Stop calling the listener when the file changes
+         */
+        @Override
+        public void close() {
+            unwatch(file, listener);
+        }
+    }
+
+    private static final class WatchedFile {
+        private final Path path;
+        private final List<Runnable> listeners = new ArrayList<>();
+        private long lastModified;
+        private long size;
+
+        WatchedFile(Path path) {
+            this.path = path;
+            updateState();
+        }
+
+        /**
+         * @return true if the file changed since the last call
+         */
+        boolean updateState() {
+            File file = path.toFile();
+            long lastModified = file.lastModified();
+            long size = file.length();
+            boolean changed = lastModified != this.lastModified || size != this.size;
+            this.lastModified = lastModified;
+            this.size = size;
+            return changed;
+        }
+    }
+
+    private final class Watcher implements Runnable {
+        private final WatchService watchService;
+
+        Watcher(WatchService watchService) {
+            this.watchService = watchService;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                }
+
+                Path directory = (Path) key.watchable();
+                Set<Path> changedFiles = new HashSet<>();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                    } else {
+                        changedFiles.add(directory.resolve((Path) event.context()));
+                    }
+                }
+
+                // Listeners are called outside of the lock, so that a slow reload never blocks the registrations
+                for (Runnable listener : getListeners(directory, changedFiles, overflow)) {
+                    try {
+                        listener.run();
+                    } catch (RuntimeException e) {
+                        // Listeners report their own errors, a failing one must not stop the others from being called
+                    }
+                }
+
+                if (!key.reset()) {
+                    forget(directory, key);
+                }
+            }
+        }
+    }
+}
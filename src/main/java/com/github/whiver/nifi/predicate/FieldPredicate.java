@@ -0,0 +1,371 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.predicate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A predicate on the fields of a Protobuf message, made of one or more conditions joined with "&amp;&amp;":
+ * <ul>
+ *     <li>comparisons of a field with a literal: {@code id >= 10}, {@code name == "John"}, {@code type != HOME} ;</li>
+ *     <li>sets of literals: {@code type in (HOME, WORK)} ;</li>
+ *     <li>presence of a field: {@code has(email)}, {@code !has(email)}.</li>
+ * </ul>
+ * Fields are given as dotted paths, such as {@code phones.number}. Strings are quoted with double or single quotes,
+ * enum values are given by name or by number, and booleans as {@code true} or {@code false}.
+ *
+ * A predicate is only parsed here. It is checked against the fields of a message type when it is compiled into a
+ * {@link WireMatcher}.
+ */
+public final class FieldPredicate {
+    public enum Operator {
+        EQUAL("=="), NOT_EQUAL("!="), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">="),
+        IN("in"), HAS("has"), NOT_HAS("!has");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        private static Operator fromSymbol(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A literal value, kept as written until the type of the field it is compared to is known
+     */
+    public static final class Literal {
+        private final String text;
+        private final boolean quoted;
+
+        private Literal(String text, boolean quoted) {
+            this.text = text;
+            this.quoted = quoted;
+        }
+
+        /**
+         * @return the text of the literal, without its quotes and escapes if it is a string
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return true if the literal is a quoted string
+         */
+        public boolean isQuoted() {
+            return quoted;
+        }
+    }
+
+    public static final class Condition {
+        private final String path;
+        private final Operator operator;
+        private final List<Literal> literals;
+
+        private Condition(String path, Operator operator, List<Literal> literals) {
+            this.path = path;
+            this.operator = operator;
+            this.literals = Collections.unmodifiableList(literals);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return the literals the field is compared to: one for comparisons, several for sets and none for presence
+         */
+        public List<Literal> getLiterals() {
+            return literals;
+        }
+    }
+
+    private final String expression;
+    private final List<Condition> conditions;
+
+    private FieldPredicate(String expression, List<Condition> conditions) {
+        this.expression = expression;
+        this.conditions = Collections.unmodifiableList(conditions);
+    }
+
+    /**
+     * @param expression    The predicate to parse
+     * @return  The parsed predicate
+     * @throws IllegalArgumentException Thrown when the predicate is malformed
+     */
+    public static FieldPredicate parse(String expression) {
+        Tokenizer tokens = new Tokenizer(expression);
+        List<Condition> conditions = new ArrayList<>();
+
+        do {
+            conditions.add(parseCondition(tokens));
+        } while (tokens.tryConsume("&&"));
+
+        if (tokens.type != TokenType.END) {
+            throw tokens.error("expected && or the end of the predicate");
+        }
+        return new FieldPredicate(expression, conditions);
+    }
+
+    private static Condition parseCondition(Tokenizer tokens) {
+        if (tokens.tryConsume("!")) {
+            if (!tokens.is(TokenType.IDENTIFIER, "has")) {
+                throw tokens.error("expected has after !");
+            }
+            tokens.next();
+            return new Condition(parsePresence(tokens), Operator.NOT_HAS, new ArrayList<>());
+        }
+        if (tokens.is(TokenType.IDENTIFIER, "has") && tokens.peekSymbol("(")) {
+            tokens.next();
+            return new Condition(parsePresence(tokens), Operator.HAS, new ArrayList<>());
+        }
+
+        String path = parsePath(tokens);
+        List<Literal> literals = new ArrayList<>();
+        if (tokens.is(TokenType.IDENTIFIER, "in")) {
+            tokens.next();
+            tokens.expect("(");
+            do {
+                literals.add(parseLiteral(tokens));
+            } while (tokens.tryConsume(","));
+            tokens.expect(")");
+            return new Condition(path, Operator.IN, literals);
+        }
+
+        Operator operator = tokens.type == TokenType.SYMBOL ? Operator.fromSymbol(tokens.text) : null;
+        if (operator == null || operator == Operator.NOT_HAS) {
+            throw tokens.error("expected a comparison operator or in");
+        }
+        tokens.next();
+        literals.add(parseLiteral(tokens));
+        return new Condition(path, operator, literals);
+    }
+
+    private static String parsePresence(Tokenizer tokens) {
+        tokens.expect("(");
+        String path = parsePath(tokens);
+        tokens.expect(")");
+        return path;
+    }
+
+    private static String parsePath(Tokenizer tokens) {
+        if (tokens.type != TokenType.IDENTIFIER) {
+            throw tokens.error("expected a field path");
+        }
+        String path = tokens.text;
+        for (String segment : path.split("\\.", -1)) {
+            if (segment.isEmpty()) {
+                throw tokens.error("empty field name in " + path);
+            }
+        }
+        tokens.next();
+        return path;
+    }
+
+    private static Literal parseLiteral(Tokenizer tokens) {
+        Literal literal;
+        switch (tokens.type) {
+            case STRING:
+                literal = new Literal(tokens.text, true);
+                break;
+            case NUMBER:
+                literal = new Literal(tokens.text, false);
+                break;
+            case IDENTIFIER:
+                if (tokens.text.indexOf('.') != -1) {
+                    throw tokens.error("expected a literal");
+                }
+                literal = new Literal(tokens.text, false);
+                break;
+            default:
+                throw tokens.error("expected a literal");
+        }
+        tokens.next();
+        return literal;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+
+    private enum TokenType {
+        IDENTIFIER, NUMBER, STRING, SYMBOL, END
+    }
+
+    /**
+     * Split a predicate into tokens, skipping whitespaces
+     */
+    private static final class Tokenizer {
+        private final String source;
+        private int position;
+        private int tokenStart;
+        private TokenType type;
+        private String text;
+
+        Tokenizer(String source) {
+            this.source = source;
+            next();
+        }
+
+        boolean is(TokenType expectedType, String expected) {
+            return type == expectedType && text.equals(expected);
+        }
+
+        boolean tryConsume(String symbol) {
+            if (is(TokenType.SYMBOL, symbol)) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String symbol) {
+            if (!tryConsume(symbol)) {
+                throw error("expected " + symbol);
+            }
+        }
+
+        /**
+         * @return true if the token following the current one is the given symbol
+         */
+        boolean peekSymbol(String symbol) {
+            int next = position;
+            while (next < source.length() && Character.isWhitespace(source.charAt(next))) {
+                next++;
+            }
+            return source.startsWith(symbol, next);
+        }
+
+        IllegalArgumentException error(String reason) {
+            String found = type == TokenType.END ? "the end of the predicate" : "'" + text + "'";
+            return new IllegalArgumentException("Invalid predicate at position " + (tokenStart + 1) + ": " + reason +
+                    ", found " + found);
+        }
+
+        void next() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+            tokenStart = position;
+            if (position >= source.length()) {
+                type = TokenType.END;
+                text = "";
+                return;
+            }
+
+            char c = source.charAt(position);
+            if (Character.isLetter(c) || c == '_') {
+                while (position < source.length() && (Character.isLetterOrDigit(source.charAt(position))
+                        || source.charAt(position) == '_' || source.charAt(position) == '.')) {
+                    position++;
+                }
+                type = TokenType.IDENTIFIER;
+                text = source.substring(tokenStart, position);
+            } else if (Character.isDigit(c) || ((c == '-' || c == '+') && position + 1 < source.length()
+                    && (Character.isDigit(source.charAt(position + 1)) || source.charAt(position + 1) == '.'))
+                    || (c == '.' && position + 1 < source.length() && Character.isDigit(source.charAt(position + 1)))) {
+                position++;
+                while (position < source.length() && (Character.isLetterOrDigit(source.charAt(position))
+                        || source.charAt(position) == '.' || ((source.charAt(position) == '-' || source.charAt(position) == '+')
+                        && (source.charAt(position - 1) == 'e' || source.charAt(position - 1) == 'E')))) {
+                    position++;
+                }
+                type = TokenType.NUMBER;
+                text = source.substring(tokenStart, position);
+            } else if (c == '"' || c == '\'') {
+                type = TokenType.STRING;
+                text = readString(c);
+            } else {
+                type = TokenType.SYMBOL;
+                String twoChars = source.substring(position, Math.min(position + 2, source.length()));
+                if (twoChars.equals("==") || twoChars.equals("!=") || twoChars.equals("<=") || twoChars.equals(">=")
+                        || twoChars.equals("&&")) {
+                    text = twoChars;
+                    position += 2;
+                } else if ("<>!(),".indexOf(c) != -1) {
+                    text = String.valueOf(c);
+                    position++;
+                } else {
+                    text = String.valueOf(c);
+                    throw error("unexpected character");
+                }
+            }
+        }
+
+        private String readString(char quote) {
+            StringBuilder value = new StringBuilder();
+            position++;
+            while (position < source.length()) {
+                char c = source.charAt(position++);
+                if (c == quote) {
+                    return value.toString();
+                }
+                if (c == '\\' && position < source.length()) {
+                    char escaped = source.charAt(position++);
+                    switch (escaped) {
+                        case 'n': value.append('\n'); break;
+                        case 't': value.append('\t'); break;
+                        case 'r': value.append('\r'); break;
+                        default: value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            text = source.substring(tokenStart);
+            throw error("unterminated string");
+        }
+    }
+}
@@ -0,0 +1,634 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.predicate;
+
+import com.github.whiver.nifi.exception.InvalidPredicateException;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Evaluates a list of {@link FieldPredicate} on binary messages of a given type, without decoding them: the wire format
+ * is scanned once, only the values of the fields referenced by the predicates are read, and the other fields are
+ * skipped.
+ *
+ * Each condition of a predicate is evaluated on its own. A condition on a repeated field, or on a field inside a
+ * repeated message, holds when it holds for at least one element. As with the getters of the Protobuf messages, a field
+ * missing from the wire has its default value, so {@code count == 0} holds when count is not set, whereas presence
+ * conditions only hold when the field is actually on the wire. A singular field appearing several times on the wire
+ * has its last value, and the occurrences of a singular message are merged, so the values of the singular fields are
+ * only tested once their whole message has been read.
+ *
+ * Compiled matchers do not keep any reference to the descriptors, and are thread-safe.
+ */
+public final class WireMatcher {
+    private final Scope root;
+    private final int conditionCount;
+    private final int slotCount;
+    private final int[][] predicateConditions;
+    private final boolean[][] negatedConditions;
+
+    private WireMatcher(Scope root, int conditionCount, int slotCount, int[][] predicateConditions, boolean[][] negatedConditions) {
+        this.root = root;
+        this.conditionCount = conditionCount;
+        this.slotCount = slotCount;
+        this.predicateConditions = predicateConditions;
+        this.negatedConditions = negatedConditions;
+    }
+
+    /**
+     * @param descriptor    Descriptor of the message type the predicates are evaluated on
+     * @param predicates    The predicates to evaluate
+     * @return  The matcher evaluating the given predicates on messages of the given type
+     * @throws InvalidPredicateException    Thrown when a predicate does not match the fields of the message type
+     */
+    public static WireMatcher compile(Descriptors.Descriptor descriptor, List<FieldPredicate> predicates) throws InvalidPredicateException {
+        ScopeBuilder root = new ScopeBuilder();
+        int[][] predicateConditions = new int[predicates.size()][];
+        boolean[][] negatedConditions = new boolean[predicates.size()][];
+        int conditionCount = 0;
+
+        for (int p = 0; p < predicates.size(); p++) {
+            FieldPredicate predicate = predicates.get(p);
+            List<FieldPredicate.Condition> conditions = predicate.getConditions();
+            predicateConditions[p] = new int[conditions.size()];
+            negatedConditions[p] = new boolean[conditions.size()];
+
+            for (int c = 0; c < conditions.size(); c++) {
+                FieldPredicate.Condition condition = conditions.get(c);
+                int index = conditionCount++;
+                predicateConditions[p][c] = index;
+                negatedConditions[p][c] = condition.getOperator() == FieldPredicate.Operator.NOT_HAS;
+
+                FieldBuilder field = resolve(root, descriptor, predicate, condition.getPath());
+                if (condition.getOperator() == FieldPredicate.Operator.HAS || condition.getOperator() == FieldPredicate.Operator.NOT_HAS) {
+                    field.presence.add(index);
+                } else {
+                    field.checks.add(compileCheck(descriptor, predicate, field.descriptor, condition, index));
+                }
+            }
+        }
+
+        int[] slotCount = new int[1];
+        return new WireMatcher(root.build(slotCount), conditionCount, slotCount[0], predicateConditions, negatedConditions);
+    }
+
+    /**
+     * Follow a field path from the root message type, adding the fields it goes through to the scopes
+     */
+    private static FieldBuilder resolve(ScopeBuilder root, Descriptors.Descriptor descriptor, FieldPredicate predicate, String path) throws InvalidPredicateException {
+        String[] segments = path.split("\\.");
+        Descriptors.Descriptor type = descriptor;
+        ScopeBuilder scope = root;
+        FieldBuilder field = null;
+
+        for (int i = 0; i < segments.length; i++) {
+            Descriptors.FieldDescriptor fieldDescriptor = findField(type, segments[i]);
+            if (fieldDescriptor == null) {
+                throw new InvalidPredicateException(predicate.getExpression(), descriptor.getFullName(),
+                        "no field '" + segments[i] + "' in " + type.getFullName());
+            }
+
+            field = scope.fields.computeIfAbsent(fieldDescriptor.getNumber(), number -> new FieldBuilder(fieldDescriptor));
+            if (i == segments.length - 1) {
+                break;
+            }
+
+            if (fieldDescriptor.getJavaType() != Descriptors.FieldDescriptor.JavaType.MESSAGE || fieldDescriptor.isMapField()) {
+                throw new InvalidPredicateException(predicate.getExpression(), descriptor.getFullName(),
+                        "field '" + fieldDescriptor.getName() + "' is not a message");
+            }
+            if (field.child == null) {
+                field.child = new ScopeBuilder();
+            }
+            scope = field.child;
+            type = fieldDescriptor.getMessageType();
+        }
+
+        return field;
+    }
+
+    private static Descriptors.FieldDescriptor findField(Descriptors.Descriptor type, String name) {
+        Descriptors.FieldDescriptor field = type.findFieldByName(name);
+        if (field != null) {
+            return field;
+        }
+        for (Descriptors.FieldDescriptor candidate : type.getFields()) {
+            if (candidate.getJsonName().equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static Check compileCheck(Descriptors.Descriptor descriptor, FieldPredicate predicate, Descriptors.FieldDescriptor field,
+                                      FieldPredicate.Condition condition, int index) throws InvalidPredicateException {
+        FieldPredicate.Operator operator = condition.getOperator();
+        List<FieldPredicate.Literal> literals = condition.getLiterals();
+        ValueType valueType = ValueType.of(field.getType());
+        boolean ordered = operator != FieldPredicate.Operator.EQUAL && operator != FieldPredicate.Operator.NOT_EQUAL
+                && operator != FieldPredicate.Operator.IN;
+
+        if (valueType == null) {
+            throw new InvalidPredicateException(predicate.getExpression(), descriptor.getFullName(),
+                    "field '" + field.getName() + "' can only be tested with has()");
+        }
+        if (ordered && (field.getType() == Descriptors.FieldDescriptor.Type.BOOL || field.getType() == Descriptors.FieldDescriptor.Type.ENUM)) {
+            throw new InvalidPredicateException(predicate.getExpression(), descriptor.getFullName(),
+                    "field '" + field.getName() + "' can only be compared with ==, != and in");
+        }
+
+        long[] longs = new long[literals.size()];
+        double[] doubles = new double[literals.size()];
+        String[] strings = new String[literals.size()];
+        try {
+            for (int i = 0; i < literals.size(); i++) {
+                FieldPredicate.Literal literal = literals.get(i);
+                if (literal.isQuoted() != (valueType == ValueType.STRING)) {
+                    throw new InvalidPredicateException(predicate.getExpression(), descriptor.getFullName(),
+                            "field '" + field.getName() + "' cannot be compared to " + literal.getText());
+                }
+
+                switch (field.getType()) {
+                    case BOOL:
+                        if (!literal.getText().equals("true") && !literal.getText().equals("false")) {
+                            throw new NumberFormatException();
+                        }
+                        longs[i] = literal.getText().equals("true") ? 1 : 0;
+                        break;
+                    case ENUM:
+                        Descriptors.EnumValueDescriptor value = field.getEnumType().findValueByName(literal.getText());
+                        longs[i] = value != null ? value.getNumber() : Integer.parseInt(literal.getText());
+                        break;
+                    case UINT32:
+                    case FIXED32:
+                        longs[i] = Long.parseLong(literal.getText());
+                        if (longs[i] < 0 || longs[i] > 0xFFFFFFFFL) {
+                            throw new NumberFormatException();
+                        }
+                        break;
+                    case UINT64:
+                    case FIXED64:
+                        longs[i] = Long.parseUnsignedLong(literal.getText());
+                        break;
+                    case INT32:
+                    case SINT32:
+                    case SFIXED32:
+                        longs[i] = Integer.parseInt(literal.getText());
+                        break;
+                    case FLOAT:
+                    case DOUBLE:
+                        doubles[i] = Double.parseDouble(literal.getText());
+                        break;
+                    case STRING:
+                        strings[i] = literal.getText();
+                        break;
+                    default:
+                        longs[i] = Long.parseLong(literal.getText());
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidPredicateException(predicate.getExpression(), descriptor.getFullName(),
+                    "invalid value for the " + field.getType().name().toLowerCase() + " field '" + field.getName() + "'");
+        }
+
+        Check check = new Check(index, operator, valueType, longs, doubles, strings);
+        check.defaultMatches = !field.isRepeated() && testDefault(check, field);
+        return check;
+    }
+
+    private static boolean testDefault(Check check, Descriptors.FieldDescriptor field) {
+        Object value = field.getDefaultValue();
+        switch (field.getType()) {
+            case FLOAT:
+            case DOUBLE:
+                return check.test(((Number) value).doubleValue());
+            case STRING:
+                return check.test((String) value);
+            case BOOL:
+                return check.test((Boolean) value ? 1 : 0);
+            case ENUM:
+                return check.test(((Descriptors.EnumValueDescriptor) value).getNumber());
+            case UINT32:
+            case FIXED32:
+                // Unsigned 32-bit integers are stored in an int
+                return check.test(((Integer) value) & 0xFFFFFFFFL);
+            default:
+                return check.test(((Number) value).longValue());
+        }
+    }
+
+    /**
+     * Evaluate the predicates on a single message
+     * @param input The binary message, read until its end or the limit of the stream
+     * @return  Whether each predicate holds, in the order they were compiled
+     * @throws IOException  Thrown when the message is malformed or cannot be read
+     */
+    public boolean[] match(CodedInputStream input) throws IOException {
+        Scan scan = new Scan(conditionCount, slotCount);
+        scan(input, root, scan);
+        evaluate(root, scan);
+
+        boolean[] result = new boolean[predicateConditions.length];
+        for (int p = 0; p < predicateConditions.length; p++) {
+            result[p] = true;
+            for (int c = 0; c < predicateConditions[p].length && result[p]; c++) {
+                result[p] = scan.conditions[predicateConditions[p][c]] != negatedConditions[p][c];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of predicates evaluated by this matcher
+     */
+    public int getPredicateCount() {
+        return predicateConditions.length;
+    }
+
+    private static void scan(CodedInputStream input, Scope scope, Scan scan) throws IOException {
+        while (true) {
+            int tag = input.readTag();
+            if (tag == 0) {
+                break;
+            }
+
+            int index = Arrays.binarySearch(scope.numbers, WireFormat.getTagFieldNumber(tag));
+            if (index < 0) {
+                if (!input.skipField(tag)) {
+                    break;
+                }
+                continue;
+            }
+            read(input, tag, scope.fields[index], scan);
+        }
+    }
+
+    private static void read(CodedInputStream input, int tag, Field field, Scan scan) throws IOException {
+        for (int condition : field.presence) {
+            scan.conditions[condition] = true;
+        }
+
+        int wireType = WireFormat.getTagWireType(tag);
+        if (field.child != null && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+            int limit = input.pushLimit(input.readRawVarint32());
+            scan(input, field.child, scan);
+            input.popLimit(limit);
+            if (field.repeated) {
+                // Each element is a message of its own, whereas the occurrences of a singular message are merged
+                evaluate(field.child, scan);
+            }
+        } else if (field.checks.length == 0) {
+            input.skipField(tag);
+        } else if (field.repeated && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED && field.type.isPackable()) {
+            int limit = input.pushLimit(input.readRawVarint32());
+            while (input.getBytesUntilLimit() > 0) {
+                readValue(input, field, scan);
+            }
+            input.popLimit(limit);
+        } else if (wireType == field.type.getWireType()) {
+            readValue(input, field, scan);
+        } else {
+            input.skipField(tag);
+        }
+    }
+
+    /**
+     * Test the value of a repeated field, or keep the value of a singular field until its message has been read
+     */
+    private static void readValue(CodedInputStream input, Field field, Scan scan) throws IOException {
+        switch (field.valueType) {
+            case FLOATING:
+                double doubleValue = field.type == WireFormat.FieldType.FLOAT ? input.readFloat() : input.readDouble();
+                if (field.repeated) {
+                    test(field, doubleValue, scan);
+                } else {
+                    scan.doubles[field.slot] = doubleValue;
+                    scan.set[field.slot] = true;
+                }
+                break;
+            case STRING:
+                String stringValue = input.readStringRequireUtf8();
+                if (field.repeated) {
+                    test(field, stringValue, scan);
+                } else {
+                    scan.strings[field.slot] = stringValue;
+                    scan.set[field.slot] = true;
+                }
+                break;
+            default:
+                long longValue = readLong(input, field.type);
+                if (field.repeated) {
+                    test(field, longValue, scan);
+                } else {
+                    scan.longs[field.slot] = longValue;
+                    scan.set[field.slot] = true;
+                }
+        }
+    }
+
+    private static void test(Field field, double value, Scan scan) {
+        for (Check check : field.checks) {
+            if (check.test(value)) {
+                scan.conditions[check.condition] = true;
+            }
+        }
+    }
+
+    private static void test(Field field, String value, Scan scan) {
+        for (Check check : field.checks) {
+            if (check.test(value)) {
+                scan.conditions[check.condition] = true;
+            }
+        }
+    }
+
+    private static void test(Field field, long value, Scan scan) {
+        for (Check check : field.checks) {
+            if (check.test(value)) {
+                scan.conditions[check.condition] = true;
+            }
+        }
+    }
+
+    private static long readLong(CodedInputStream input, WireFormat.FieldType type) throws IOException {
+        switch (type) {
+            case INT32: return input.readInt32();
+            case INT64: return input.readInt64();
+            case UINT32: return input.readUInt32() & 0xFFFFFFFFL;
+            case UINT64: return input.readUInt64();
+            case SINT32: return input.readSInt32();
+            case SINT64: return input.readSInt64();
+            case FIXED32: return input.readFixed32() & 0xFFFFFFFFL;
+            case FIXED64: return input.readFixed64();
+            case SFIXED32: return input.readSFixed32();
+            case SFIXED64: return input.readSFixed64();
+            case BOOL: return input.readBool() ? 1 : 0;
+            case ENUM: return input.readEnum();
+            default: throw new IllegalStateException("Unexpected integral type " + type);
+        }
+    }
+
+    /**
+     * Evaluate the conditions on the singular fields of a message once it has been read, including the fields of its
+     * singular messages. A field missing from the wire has its default value. The values are cleared, so that the next
+     * element of a repeated message starts from an empty one.
+     */
+    private static void evaluate(Scope scope, Scan scan) {
+        for (Field field : scope.fields) {
+            if (field.repeated) {
+                continue;
+            }
+            if (field.child != null) {
+                evaluate(field.child, scan);
+            }
+            if (field.slot < 0) {
+                continue;
+            }
+
+            if (!scan.set[field.slot]) {
+                for (Check check : field.checks) {
+                    if (check.defaultMatches) {
+                        scan.conditions[check.condition] = true;
+                    }
+                }
+                continue;
+            }
+
+            scan.set[field.slot] = false;
+            switch (field.valueType) {
+                case FLOATING:
+                    test(field, scan.doubles[field.slot], scan);
+                    break;
+                case STRING:
+                    test(field, scan.strings[field.slot], scan);
+                    scan.strings[field.slot] = null;
+                    break;
+                default:
+                    test(field, scan.longs[field.slot], scan);
+            }
+        }
+    }
+
+    private enum ValueType {
+        INTEGER, UNSIGNED, FLOATING, STRING;
+
+        /**
+         * @return how the values of the given field type are compared, or null if they cannot be compared
+         */
+        static ValueType of(Descriptors.FieldDescriptor.Type type) {
+            switch (type) {
+                case UINT64:
+                case FIXED64:
+                    return UNSIGNED;
+                case FLOAT:
+                case DOUBLE:
+                    return FLOATING;
+                case STRING:
+                    return STRING;
+                case BYTES:
+                case MESSAGE:
+                case GROUP:
+                    return null;
+                default:
+                    return INTEGER;
+            }
+        }
+    }
+
+    /**
+     * A condition comparing the values of a field to literals
+     */
+    private static final class Check {
+        private final int condition;
+        private final FieldPredicate.Operator operator;
+        private final ValueType valueType;
+        private final long[] longs;
+        private final double[] doubles;
+        private final String[] strings;
+        private boolean defaultMatches;
+
+        Check(int condition, FieldPredicate.Operator operator, ValueType valueType, long[] longs, double[] doubles, String[] strings) {
+            this.condition = condition;
+            this.operator = operator;
+            this.valueType = valueType;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.strings = strings;
+        }
+
+        boolean test(long value) {
+            if (operator == FieldPredicate.Operator.IN) {
+                for (long literal : longs) {
+                    if (value == literal) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return accept(valueType == ValueType.UNSIGNED ? Long.compareUnsigned(value, longs[0]) : Long.compare(value, longs[0]));
+        }
+
+        boolean test(double value) {
+            if (operator == FieldPredicate.Operator.IN) {
+                for (double literal : doubles) {
+                    if (value == literal) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (Double.isNaN(value) || Double.isNaN(doubles[0])) {
+                return operator == FieldPredicate.Operator.NOT_EQUAL;
+            }
+            return accept(value < doubles[0] ? -1 : value > doubles[0] ? 1 : 0);
+        }
+
+        boolean test(String value) {
+            if (operator == FieldPredicate.Operator.IN) {
+                for (String literal : strings) {
+                    if (value.equals(literal)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return accept(value.compareTo(strings[0]));
+        }
+
+        private boolean accept(int comparison) {
+            switch (operator) {
+                case EQUAL: return comparison == 0;
+                case NOT_EQUAL: return comparison != 0;
+                case LESS: return comparison < 0;
+                case LESS_OR_EQUAL: return comparison <= 0;
+                case GREATER: return comparison > 0;
+                case GREATER_OR_EQUAL: return comparison >= 0;
+                default: throw new IllegalStateException("Unexpected operator " + operator);
+            }
+        }
+    }
+
+    /**
+     * The conditions holding so far for a message, and the last values of its singular fields, by slot
+     */
+    private static final class Scan {
+        private final boolean[] conditions;
+        private final boolean[] set;
+        private final long[] longs;
+        private final double[] doubles;
+        private final String[] strings;
+
+        Scan(int conditionCount, int slotCount) {
+            this.conditions = new boolean[conditionCount];
+            this.set = new boolean[slotCount];
+            this.longs = new long[slotCount];
+            this.doubles = new double[slotCount];
+            this.strings = new String[slotCount];
+        }
+    }
+
+    /**
+     * The referenced fields of a message type, sorted by number
+     */
+    private static final class Scope {
+        private final int[] numbers;
+        private final Field[] fields;
+
+        Scope(int[] numbers, Field[] fields) {
+            this.numbers = numbers;
+            this.fields = fields;
+        }
+    }
+
+    private static final class Field {
+        private final WireFormat.FieldType type;
+        private final ValueType valueType;
+        private final boolean repeated;
+        private final Scope child;
+        private final Check[] checks;
+        private final int[] presence;
+
+        /**
+         * Index of the last value of the field in a scan, or -1 if the field is repeated or has no checks
+         */
+        private final int slot;
+
+        Field(WireFormat.FieldType type, ValueType valueType, boolean repeated, Scope child, Check[] checks, int[] presence, int slot) {
+            this.type = type;
+            this.valueType = valueType;
+            this.repeated = repeated;
+            this.child = child;
+            this.checks = checks;
+            this.presence = presence;
+            this.slot = slot;
+        }
+    }
+
+    private static final class ScopeBuilder {
+        private final SortedMap<Integer, FieldBuilder> fields = new TreeMap<>();
+
+        /**
+         * @param slotCount Number of slots allocated so far, incremented for each singular field with checks
+         */
+        Scope build(int[] slotCount) {
+            int[] numbers = new int[fields.size()];
+            Field[] built = new Field[fields.size()];
+            int i = 0;
+            for (Map.Entry<Integer, FieldBuilder> field : fields.entrySet()) {
+                numbers[i] = field.getKey();
+                built[i] = field.getValue().build(slotCount);
+                i++;
+            }
+            return new Scope(numbers, built);
+        }
+    }
+
+    private static final class FieldBuilder {
+        private final Descriptors.FieldDescriptor descriptor;
+        private final List<Check> checks = new ArrayList<>();
+        private final List<Integer> presence = new ArrayList<>();
+        private ScopeBuilder child;
+
+        FieldBuilder(Descriptors.FieldDescriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        Field build(int[] slotCount) {
+            int[] presenceConditions = new int[presence.size()];
+            for (int i = 0; i < presenceConditions.length; i++) {
+                presenceConditions[i] = presence.get(i);
+            }
+            int slot = !descriptor.isRepeated() && !checks.isEmpty() ? slotCount[0]++ : -1;
+            return new Field(descriptor.getLiteralType(), ValueType.of(descriptor.getType()), descriptor.isRepeated(),
+                    child == null ? null : child.build(slotCount), checks.toArray(new Check[0]), presenceConditions, slot);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.exception.AmbiguousMessageTypeException;
+import com.github.whiver.nifi.exception.InvalidFieldMappingException;
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.github.whiver.nifi.exception.SchemaLoadingException;
+import com.github.whiver.nifi.exception.UnknownMessageTypeException;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.WireSchemaConverter;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.MessageTypeIndex;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+@SideEffectFree
+@Tags({"Protobuf", "convert", "schema", "migration", "Google Protocol Buffer"})
+@CapabilityDescription("Convert Google Protocol Buffer messages to another message type, such as a newer version of " +
+        "the same message, directly at the wire level. Fields are matched by number or by name, can be renamed or " +
+        "dropped, and the fields that do not change are copied as is, without decoding the messages.")
+@WritesAttributes({
+        @WritesAttribute(attribute = ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, description = "Full name of the target " +
+                "message type"),
+        @WritesAttribute(attribute = "protobuf.schemaPath", description = "Path of the target schema, when it is set")
+})
+public class ConvertProtobufSchema extends ProtobufProcessor {
+    private static final String FIELD_PATH = "\\s*[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*\\s*";
+    private static final String RENAME = FIELD_PATH + "=\\s*[A-Za-z_][A-Za-z0-9_]*\\s*";
+
+    static final PropertyDescriptor TARGET_SCHEMA = new PropertyDescriptor.Builder()
+            .name("protobuf.targetSchemaPath")
+            .displayName("Target schema path")
+            .required(false)
+            .description("Path to the Protocol Buffers schema containing the target message type, compiled like the " +
+                    "source schema according to protobuf.compileSchema. If not set, the target message type is looked up " +
+                    "in the schema of the source message type.")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.createURLorFileValidator())
+            .build();
+
+    static final PropertyDescriptor TARGET_MESSAGE_TYPE = new PropertyDescriptor.Builder()
+            .name("protobuf.targetMessageType")
+            .displayName("Target message type")
+            .required(true)
+            .description("Message type the messages are converted to, given by its fully qualified name or by any " +
+                    "unambiguous suffix of it.")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    static final AllowableValue NUMBER_MATCHING = new AllowableValue(WireSchemaConverter.FieldMatching.NUMBER.getValue(),
+            "By number", "A field is converted to the target field of the same number. Unknown fields are kept.");
+
+    static final AllowableValue NAME_MATCHING = new AllowableValue(WireSchemaConverter.FieldMatching.NAME.getValue(),
+            "By name", "A field is converted to the target field of the same name, renumbering it if needed. Unknown " +
+                    "fields are dropped.");
+
+    static final PropertyDescriptor FIELD_MATCHING = new PropertyDescriptor.Builder()
+            .name("protobuf.fieldMatching")
+            .displayName("Field matching")
+            .required(true)
+            .defaultValue(NUMBER_MATCHING.getValue())
+            .allowableValues(NUMBER_MATCHING, NAME_MATCHING)
+            .description("How the fields of the source message type are matched with the fields of the target message " +
+                    "type, when they are not renamed. Source fields without a matching target field are dropped.")
+            .build();
+
+    static final PropertyDescriptor FIELD_RENAMES = new PropertyDescriptor.Builder()
+            .name("protobuf.fieldRenames")
+            .displayName("Field renames")
+            .required(false)
+            .description("Comma-separated list of source=target pairs, converting the source field at the dotted path " +
+                    "source, such as customer.city, to the field named target in the matching target message, such as " +
+                    "town.")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile(RENAME + "(," + RENAME + ")*")))
+            .build();
+
+    static final PropertyDescriptor DROPPED_FIELDS = new PropertyDescriptor.Builder()
+            .name("protobuf.droppedFields")
+            .displayName("Dropped fields")
+            .required(false)
+            .description("Comma-separated list of the dotted paths of the source fields that are not converted, even " +
+                    "if the target message type has a matching field.")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile(FIELD_PATH + "(," + FIELD_PATH + ")*")))
+            .build();
+
+    private List<PropertyDescriptor> properties;
+
+    /**
+     * The target message type and field mapping, set up when the processor is scheduled
+     */
+    private volatile Target target;
+
+    @Override
+    public void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
+        properties.removeAll(CONVERSION_PROPERTIES);
+        int index = properties.indexOf(FRAMING);
+        properties.add(index++, TARGET_SCHEMA);
+        properties.add(index++, TARGET_MESSAGE_TYPE);
+        properties.add(index++, FIELD_MATCHING);
+        properties.add(index++, FIELD_RENAMES);
+        properties.add(index, DROPPED_FIELDS);
+        this.properties = Collections.unmodifiableList(properties);
+    }
+
+    @OnScheduled
+    public void setUpTarget(ProcessContext context) {
+        WireSchemaConverter converter = WireSchemaConverter.parse(
+                WireSchemaConverter.FieldMatching.fromValue(context.getProperty(FIELD_MATCHING).getValue()),
+                context.getProperty(FIELD_RENAMES).getValue(), context.getProperty(DROPPED_FIELDS).getValue());
+        String targetType = context.getProperty(TARGET_MESSAGE_TYPE).getValue().trim();
+        String targetPath = context.getProperty(TARGET_SCHEMA).getValue();
+
+        MessageTypeIndex targetSchema = null;
+        if (targetPath != null && !targetPath.isEmpty()) {
+            try {
+                targetSchema = new MessageTypeIndex(SchemaParser.parseSchema(targetPath,
+                        context.getProperty(COMPILE_SCHEMA).asBoolean(),
+                        CompilerMode.fromValue(context.getProperty(SCHEMA_COMPILER).getValue()), null));
+            } catch (Descriptors.DescriptorValidationException e) {
+                getLogger().error("Invalid target schema file: " + e.getMessage(), e);
+            } catch (IOException e) {
+                getLogger().error("Unable to read file: " + e.getMessage(), e);
+            } catch (SchemaLoadingException | SchemaCompilationException e) {
+                getLogger().error(e.getMessage(), e);
+            } catch (InterruptedException e) {
+                getLogger().error("Unable to compile schema: " + e.getMessage(), e);
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            targetPath = null;
+        }
+
+        this.target = new Target(targetPath, targetSchema, targetType, converter);
+    }
+
+    @Override
+    protected void processFlowFile(ProcessContext processContext, ProcessSession session, FlowFile flowfile,
+                                   Descriptors.Descriptor descriptor, Batch batch) {
+        final Target target = this.target;
+        if (target.path != null && target.schema == null) {
+            getLogger().error("The target schema " + target.path + " cannot be loaded, unable to convert " + flowfile);
+            batch.transfer(flowfile, INVALID_SCHEMA);
+            return;
+        }
+
+        final Descriptors.Descriptor targetDescriptor;
+        final WireSchemaConverter.Conversion conversion;
+        try {
+            targetDescriptor = target.resolve(batch.getCurrentSchema());
+            conversion = target.converter.forTypes(descriptor, targetDescriptor);
+        } catch (UnknownMessageTypeException | AmbiguousMessageTypeException | InvalidFieldMappingException e) {
+            getLogger().error(e.getMessage());
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        final MessageFraming framing = batch.getState().getFraming();
+        final long maxLength = batch.getState().getMaxMessageLength(flowfile);
+        final AtomicLong messageCount = new AtomicLong();
+
+        // Errors are thrown out of the callback so that the partially written content is discarded and the original
+        // flowfile is routed to error
+        FlowFile outputFlowfile;
+        try {
+            outputFlowfile = session.write(flowfile, (InputStream in, OutputStream out) -> {
+                try {
+                    messageCount.set(convert(conversion, framing, flowfile.getSize(), maxLength, in, new BufferedOutputStream(out)));
+                } catch (IOException e) {
+                    throw new ProcessException("Unable to convert message: " + e.getMessage(), e);
+                }
+            });
+        } catch (ProcessException e) {
+            getLogger().error(e.getMessage(), e);
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(MESSAGE_TYPE_ATTRIBUTE, targetDescriptor.getFullName());
+        if (target.path != null) {
+            // The schema given by name would take precedence over the target one
+            outputFlowfile = session.removeAllAttributes(outputFlowfile,
+                    new HashSet<>(Arrays.asList(SCHEMA_NAME_ATTRIBUTE, SCHEMA_VERSION_ATTRIBUTE)));
+            attributes.put(PROTOBUF_SCHEMA.getName(), target.path);
+        }
+
+        batch.countMessages(messageCount.get());
+        batch.countBytesWritten(outputFlowfile);
+        batch.transfer(session.putAllAttributes(outputFlowfile, attributes), SUCCESS);
+    }
+
+    /**
+     * Convert all the messages of a flowfile, one at a time
+     * @return  The number of converted messages
+     */
+    private static long convert(WireSchemaConverter.Conversion conversion, MessageFraming framing, long size,
+                                long maxLength, InputStream in, OutputStream out) throws IOException {
+        if (framing == MessageFraming.NONE) {
+            // The size of the single message is known, so it is read at once and converted straight to the output
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The message of " + size + " bytes is too large to be converted");
+            }
+            byte[] message = new byte[(int) size];
+            MessageFraming.readFully(in, message, message.length);
+            conversion.convert(message, 0, message.length, out);
+            out.flush();
+            return 1;
+        }
+
+        // The converted messages are buffered, since their size is written before them
+        ByteArrayOutputStream converted = new ByteArrayOutputStream();
+        byte[] buffer = new byte[0];
+        long count = 0;
+        while (true) {
+            int length = framing.readLength(in, maxLength);
+            if (length == -1) {
+                break;
+            }
+            if (buffer.length < length) {
+                buffer = new byte[(int) Math.max(length, Math.min(maxLength, buffer.length * 2L))];
+            }
+            MessageFraming.readFully(in, buffer, length);
+
+            converted.reset();
+            conversion.convert(buffer, 0, length, converted);
+            framing.writeHeader(out, converted.size());
+            converted.writeTo(out);
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * The target message type and the field mapping
+     */
+    private static final class Target {
+        private final String path;
+        private final MessageTypeIndex schema;
+        private final String messageType;
+        private final WireSchemaConverter converter;
+
+        Target(String path, MessageTypeIndex schema, String messageType, WireSchemaConverter converter) {
+            this.path = path;
+            this.schema = schema;
+            this.messageType = messageType;
+            this.converter = converter;
+        }
+
+        /**
+         * @return the descriptor of the target message type, from the target schema or else from the schema of the
+         * source message type, looked up by the same rules as the source message type
+         */
+        Descriptors.Descriptor resolve(MessageTypeIndex sourceSchema) throws UnknownMessageTypeException, AmbiguousMessageTypeException {
+            return (schema != null ? schema : sourceSchema).getDescriptor(messageType);
+        }
+    }
+}
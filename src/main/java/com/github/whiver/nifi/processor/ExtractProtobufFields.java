@@ -0,0 +1,202 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.exception.InvalidFieldPathException;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.WireFieldExtractor;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+@SideEffectFree
+@Tags({"Protobuf", "extract", "attributes", "Google Protocol Buffer"})
+@CapabilityDescription("Extract the values of some fields of Google Protocol Buffer messages into flowfile attributes, " +
+        "reading them directly from the binary data without decoding the messages. The content of the flowfiles is " +
+        "left untouched.")
+@DynamicProperty(name = "Attribute name", value = "Path of a field",
+        description = "Sets the attribute to the value of the field at the given dotted path, such as tenant.id. The " +
+                "values of a repeated field are joined with commas.")
+public class ExtractProtobufFields extends ProtobufProcessor {
+    private static final Pattern FIELD_PATH = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+
+    private List<PropertyDescriptor> properties;
+
+    /**
+     * The attributes and field paths of the dynamic properties, read when the processor is scheduled
+     */
+    private volatile Extraction extraction;
+
+    @Override
+    public void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
+        properties.removeAll(CONVERSION_PROPERTIES);
+        this.properties = Collections.unmodifiableList(properties);
+    }
+
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(final String propertyDescriptorName) {
+        return new PropertyDescriptor.Builder()
+                .name(propertyDescriptorName)
+                .description("Path of the field written to the " + propertyDescriptorName + " attribute")
+                .required(false)
+                .dynamic(true)
+                .expressionLanguageSupported(false)
+                .addValidator(StandardValidators.createRegexMatchingValidator(FIELD_PATH))
+                .build();
+    }
+
+    @OnScheduled
+    public void setUpExtraction(ProcessContext context) {
+        List<String> attributes = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
+            if (property.getKey().isDynamic() && property.getValue() != null) {
+                attributes.add(property.getKey().getName());
+                paths.add(property.getValue().trim());
+            }
+        }
+        this.extraction = new Extraction(attributes, paths);
+    }
+
+    @Override
+    protected void processFlowFile(ProcessContext processContext, ProcessSession session, FlowFile flowfile,
+                                   Descriptors.Descriptor descriptor, Batch batch) {
+        final Extraction extraction = this.extraction;
+        final WireFieldExtractor extractor;
+        try {
+            extractor = extraction.getExtractor(descriptor);
+        } catch (InvalidFieldPathException e) {
+            getLogger().error(e.getMessage());
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        final MessageFraming framing = batch.getState().getFraming();
+        final long maxLength = batch.getState().getMaxMessageLength(flowfile);
+        final AtomicReference<String[]> values = new AtomicReference<>();
+        final AtomicLong messageCount = new AtomicLong();
+
+        try {
+            session.read(flowfile, (InputStream in) -> {
+                try {
+                    CodedInputStream input = readFirstMessage(framing, maxLength, in);
+                    if (input != null) {
+                        values.set(extractor.extract(descriptor, input));
+                        messageCount.set(1);
+                    }
+                } catch (IOException e) {
+                    throw new ProcessException("Unable to read message: " + e.getMessage(), e);
+                }
+            });
+        } catch (ProcessException e) {
+            getLogger().error(e.getMessage(), e);
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        Map<String, String> attributes = new HashMap<>();
+        if (values.get() != null) {
+            for (int i = 0; i < extraction.attributes.size(); i++) {
+                if (values.get()[i] != null) {
+                    attributes.put(extraction.attributes.get(i), values.get()[i]);
+                }
+            }
+        }
+
+        batch.countMessages(messageCount.get());
+        batch.transfer(attributes.isEmpty() ? flowfile : session.putAllAttributes(flowfile, attributes), SUCCESS);
+    }
+
+    /**
+     * Only the first message of a flowfile is read, so that the rest of its content is never loaded
+     * @return  The first message of the flowfile, or null if it does not contain any
+     */
+    private static CodedInputStream readFirstMessage(MessageFraming framing, long maxLength, InputStream in) throws IOException {
+        if (framing == MessageFraming.NONE) {
+            CodedInputStream input = CodedInputStream.newInstance(in);
+            input.setSizeLimit(Integer.MAX_VALUE);
+            return input;
+        }
+
+        int length = framing.readLength(in, maxLength);
+        if (length == -1) {
+            return null;
+        }
+        byte[] message = new byte[length];
+        MessageFraming.readFully(in, message, length);
+        return CodedInputStream.newInstance(message);
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * The attributes and field paths of the dynamic properties, and the extractors compiled from them for each message
+     * type
+     */
+    private static final class Extraction {
+        private final List<String> attributes;
+        private final List<String> paths;
+        private final Map<Descriptors.Descriptor, WireFieldExtractor> extractors = Collections.synchronizedMap(new WeakHashMap<>());
+
+        Extraction(List<String> attributes, List<String> paths) {
+            this.attributes = attributes;
+            this.paths = paths;
+        }
+
+        WireFieldExtractor getExtractor(Descriptors.Descriptor descriptor) throws InvalidFieldPathException {
+            WireFieldExtractor extractor = extractors.get(descriptor);
+            if (extractor == null) {
+                extractor = WireFieldExtractor.compile(descriptor, paths);
+                extractors.put(descriptor, extractor);
+            }
+            return extractor;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.AbstractSessionFactoryProcessor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.stream.io.StreamUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@SideEffectFree
+@TriggerWhenEmpty
+@Tags({"Protobuf", "merge", "Google Protocol Buffer"})
+@CapabilityDescription("Merge flowfiles containing a single Google Protocol Buffer message each into flowfiles " +
+        "containing a stream of framed messages. Flowfiles are grouped by schema and message type, and their content " +
+        "is copied as is, without decoding the messages.")
+@ReadsAttributes({
+        @ReadsAttribute(attribute = ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, description = "Type of the message of " +
+                "the flowfile, only flowfiles of the same type are merged together"),
+        @ReadsAttribute(attribute = "protobuf.schemaPath", description = "Path of the schema of the message, only " +
+                "flowfiles with the same schema are merged together"),
+        @ReadsAttribute(attribute = ProtobufProcessor.SCHEMA_NAME_ATTRIBUTE, description = "Name of the schema of the " +
+                "message in the schema registry, used instead of its path when set"),
+        @ReadsAttribute(attribute = ProtobufProcessor.SCHEMA_VERSION_ATTRIBUTE, description = "Version of the schema " +
+                "of the message in the schema registry")
+})
+@WritesAttributes({
+        @WritesAttribute(attribute = ProtobufProcessor.MESSAGE_COUNT_ATTRIBUTE, description = "Number of messages in " +
+                "the merged flowfile"),
+        @WritesAttribute(attribute = MergeProtobuf.FRAMING_ATTRIBUTE, description = "Framing of the messages in the " +
+                "merged flowfile")
+})
+public class MergeProtobuf extends AbstractSessionFactoryProcessor {
+    static final String FRAMING_ATTRIBUTE = "protobuf.framing";
+    static final String MESSAGES_COUNTER = "Messages merged";
+
+    /**
+     * Attributes copied from the merged flowfiles to the resulting one, as they are the same for the whole group
+     */
+    private static final List<String> GROUP_ATTRIBUTES = Collections.unmodifiableList(Arrays.asList(
+            ProtobufProcessor.PROTOBUF_SCHEMA.getName(), ProtobufProcessor.SCHEMA_NAME_ATTRIBUTE,
+            ProtobufProcessor.SCHEMA_VERSION_ATTRIBUTE, ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE));
+
+    private List<PropertyDescriptor> properties;
+    private Set<Relationship> relationships;
+
+    /**
+     * The bins waiting for more flowfiles, by group, kept across triggers. Guarded by itself.
+     */
+    private final Map<String, Bin> bins = new LinkedHashMap<>();
+
+    private volatile Thresholds thresholds;
+
+
+    /*          PROPERTIES          */
+
+    static final PropertyDescriptor FRAMING = new PropertyDescriptor.Builder()
+            .name("protobuf.framing")
+            .displayName("Message framing")
+            .required(true)
+            .defaultValue(ProtobufProcessor.VARINT_FRAMING.getValue())
+            .allowableValues(ProtobufProcessor.VARINT_FRAMING, ProtobufProcessor.FIXED32_FRAMING, ProtobufProcessor.GRPC_FRAMING)
+            .description("How the messages are framed in the merged flowfiles.")
+            .build();
+
+    static final PropertyDescriptor MIN_MESSAGES = new PropertyDescriptor.Builder()
+            .name("protobuf.merge.minMessages")
+            .displayName("Minimum number of messages")
+            .required(true)
+            .defaultValue("1")
+            .description("Minimum number of messages in a merged flowfile. Until it is reached, the flowfiles are held " +
+                    "back, unless they have been waiting for longer than the maximum age.")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor MAX_MESSAGES = new PropertyDescriptor.Builder()
+            .name("protobuf.merge.maxMessages")
+            .displayName("Maximum number of messages")
+            .required(true)
+            .defaultValue("1000")
+            .description("Maximum number of messages in a merged flowfile.")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor MIN_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.merge.minSize")
+            .displayName("Minimum size")
+            .required(true)
+            .defaultValue("0 B")
+            .description("Minimum size of the messages of a merged flowfile, headers excluded. Until it is reached, the " +
+                    "flowfiles are held back, unless they have been waiting for longer than the maximum age.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.merge.maxSize")
+            .displayName("Maximum size")
+            .required(false)
+            .description("Maximum size of the messages of a merged flowfile, headers excluded. A message larger than " +
+                    "this size is put in a flowfile of its own. If not set, the size of the merged flowfiles is not bounded.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor MAX_AGE = new PropertyDescriptor.Builder()
+            .name("protobuf.merge.maxAge")
+            .displayName("Maximum age")
+            .required(false)
+            .description("Maximum time the flowfiles of a group are held back waiting for the minimum thresholds to be " +
+                    "reached, after which they are merged anyway. If not set, they wait for as long as needed.")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+
+    /*          RELATIONSHIPS           */
+
+    static final Relationship MERGED = new Relationship.Builder()
+            .name("merged")
+            .description("The merged flowfiles")
+            .build();
+
+    static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("original")
+            .description("The flowfiles that have been merged")
+            .build();
+
+
+    @Override
+    public void init(final ProcessorInitializationContext context) {
+        List<PropertyDescriptor> properties = new ArrayList<>();
+        properties.add(FRAMING);
+        properties.add(MIN_MESSAGES);
+        properties.add(MAX_MESSAGES);
+        properties.add(MIN_SIZE);
+        properties.add(MAX_SIZE);
+        properties.add(MAX_AGE);
+        this.properties = Collections.unmodifiableList(properties);
+
+        Set<Relationship> relationships = new HashSet<>();
+        relationships.add(MERGED);
+        relationships.add(ORIGINAL);
+        relationships.add(ProtobufProcessor.ERROR);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext context) {
+        List<ValidationResult> results = new ArrayList<>();
+        if (context.getProperty(MIN_MESSAGES).asInteger() > context.getProperty(MAX_MESSAGES).asInteger()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(MIN_MESSAGES.getDisplayName())
+                    .valid(false)
+                    .explanation("the minimum number of messages cannot be greater than the maximum")
+                    .build());
+        }
+        if (context.getProperty(MAX_SIZE).isSet() && context.getProperty(MIN_SIZE).asDataSize(DataUnit.B)
+                > context.getProperty(MAX_SIZE).asDataSize(DataUnit.B)) {
+            results.add(new ValidationResult.Builder()
+                    .subject(MIN_SIZE.getDisplayName())
+                    .valid(false)
+                    .explanation("the minimum size cannot be greater than the maximum")
+                    .build());
+        }
+        return results;
+    }
+
+    @OnScheduled
+    public void setUpThresholds(ProcessContext context) {
+        this.thresholds = new Thresholds(
+                MessageFraming.fromValue(context.getProperty(FRAMING).getValue()),
+                context.getProperty(MIN_MESSAGES).asInteger(),
+                context.getProperty(MAX_MESSAGES).asInteger(),
+                context.getProperty(MIN_SIZE).asDataSize(DataUnit.B).longValue(),
+                context.getProperty(MAX_SIZE).isSet() ? context.getProperty(MAX_SIZE).asDataSize(DataUnit.B).longValue() : 0,
+                context.getProperty(MAX_AGE).isSet() ? context.getProperty(MAX_AGE).asTimePeriod(TimeUnit.NANOSECONDS) : 0);
+    }
+
+    /**
+     * Put back in the queue the flowfiles of the bins that have not been merged
+     */
+    @OnStopped
+    public void discardBins() {
+        synchronized (bins) {
+            for (Bin bin : bins.values()) {
+                bin.session.rollback();
+            }
+            bins.clear();
+        }
+    }
+
+    /**
+     * The flowfiles of the queue are added to the bin of their group, which is kept across triggers in a session of its
+     * own, like MergeContent does. A bin is merged as soon as it is full, or once it reaches the minimum thresholds or
+     * has been waiting for too long.
+     */
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+        final Thresholds thresholds = this.thresholds;
+        final ProcessSession session = sessionFactory.createSession();
+        final List<FlowFile> flowfiles = session.get(Math.max(thresholds.maxMessages, 10000));
+        final long now = System.nanoTime();
+
+        List<Bin> ready = new ArrayList<>();
+        synchronized (bins) {
+            Map<Bin, List<FlowFile>> binned = new LinkedHashMap<>();
+            for (FlowFile flowfile : flowfiles) {
+                if (flowfile.getAttribute(ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE) == null) {
+                    getLogger().error("Unable to find the message type in " + ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE +
+                            ", unable to merge " + flowfile);
+                    session.transfer(flowfile, ProtobufProcessor.ERROR);
+                    continue;
+                }
+                if (flowfile.getSize() > Integer.MAX_VALUE) {
+                    getLogger().error("Unable to merge " + flowfile + ": a message cannot be larger than 2 GB");
+                    session.transfer(flowfile, ProtobufProcessor.ERROR);
+                    continue;
+                }
+
+                String group = groupOf(flowfile);
+                Bin bin = bins.get(group);
+                if (bin != null && !bin.accepts(flowfile, thresholds)) {
+                    ready.add(bin);
+                    bin = null;
+                }
+                if (bin == null) {
+                    bin = new Bin(sessionFactory.createSession(), now);
+                    bins.put(group, bin);
+                }
+                bin.add(flowfile);
+                binned.computeIfAbsent(bin, b -> new ArrayList<>()).add(flowfile);
+                if (bin.isFull(thresholds)) {
+                    ready.add(bin);
+                    bins.remove(group);
+                }
+            }
+            // The bins own their flowfiles from now on
+            for (Map.Entry<Bin, List<FlowFile>> added : binned.entrySet()) {
+                session.migrate(added.getKey().session, added.getValue());
+            }
+
+            for (Iterator<Bin> it = bins.values().iterator(); it.hasNext(); ) {
+                Bin bin = it.next();
+                if (bin.isComplete(thresholds, now)) {
+                    ready.add(bin);
+                    it.remove();
+                }
+            }
+        }
+        session.commit();
+
+        for (Bin bin : ready) {
+            try {
+                merge(bin.session, bin.flowfiles, thresholds.framing);
+            } catch (ProcessException e) {
+                getLogger().error("Unable to merge " + bin.flowfiles + ": " + e.getMessage(), e);
+                bin.session.rollback(true);
+                continue;
+            }
+            bin.session.commit();
+        }
+
+        if (flowfiles.isEmpty() && ready.isEmpty()) {
+            // Nothing to do but to wait for the bins to age, give the other flowfiles some time to arrive
+            context.yield();
+        }
+    }
+
+    /**
+     * Flowfiles are merged only with the flowfiles of the same schema and message type
+     */
+    private static String groupOf(FlowFile flowfile) {
+        StringBuilder group = new StringBuilder();
+        for (String attribute : GROUP_ATTRIBUTES) {
+            String value = flowfile.getAttribute(attribute);
+            group.append(value == null ? "" : value).append('\0');
+        }
+        return group.toString();
+    }
+
+    private void merge(ProcessSession session, List<FlowFile> bin, MessageFraming framing) {
+        FlowFile merged = session.create(bin);
+        merged = session.write(merged, (OutputStream out) -> {
+            for (FlowFile flowfile : bin) {
+                framing.writeHeader(out, (int) flowfile.getSize());
+                session.read(flowfile, (InputStream in) -> StreamUtils.copy(in, out));
+            }
+        });
+
+        Map<String, String> attributes = new HashMap<>();
+        for (String attribute : GROUP_ATTRIBUTES) {
+            String value = bin.get(0).getAttribute(attribute);
+            if (value != null) {
+                attributes.put(attribute, value);
+            }
+        }
+        attributes.put(ProtobufProcessor.MESSAGE_COUNT_ATTRIBUTE, String.valueOf(bin.size()));
+        attributes.put(FRAMING_ATTRIBUTE, framing.getValue());
+        merged = session.putAllAttributes(merged, attributes);
+
+        session.transfer(merged, MERGED);
+        session.transfer(bin, ORIGINAL);
+        session.adjustCounter(MESSAGES_COUNTER, bin.size(), false);
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Flowfiles of the same group waiting to be merged, owned by a session of their own until they are
+     */
+    private static final class Bin {
+        private final ProcessSession session;
+        private final long createdNanos;
+        private final List<FlowFile> flowfiles = new ArrayList<>();
+        private long size;
+
+        Bin(ProcessSession session, long createdNanos) {
+            this.session = session;
+            this.createdNanos = createdNanos;
+        }
+
+        /**
+         * A message larger than the maximum size still goes in a bin of its own
+         */
+        boolean accepts(FlowFile flowfile, Thresholds thresholds) {
+            return flowfiles.isEmpty() || (flowfiles.size() < thresholds.maxMessages
+                    && (thresholds.maxSize == 0 || size + flowfile.getSize() <= thresholds.maxSize));
+        }
+
+        void add(FlowFile flowfile) {
+            flowfiles.add(flowfile);
+            size += flowfile.getSize();
+        }
+
+        boolean isFull(Thresholds thresholds) {
+            return flowfiles.size() >= thresholds.maxMessages || (thresholds.maxSize > 0 && size >= thresholds.maxSize);
+        }
+
+        boolean isComplete(Thresholds thresholds, long now) {
+            return (flowfiles.size() >= thresholds.minMessages && size >= thresholds.minSize)
+                    || (thresholds.maxAgeNanos > 0 && now - createdNanos >= thresholds.maxAgeNanos);
+        }
+    }
+
+    /**
+     * The thresholds of the bins, read when the processor is scheduled
+     */
+    private static final class Thresholds {
+        private final MessageFraming framing;
+        private final int minMessages;
+        private final int maxMessages;
+        private final long minSize;
+        private final long maxSize;
+        private final long maxAgeNanos;
+
+        Thresholds(MessageFraming framing, int minMessages, int maxMessages, long minSize, long maxSize, long maxAgeNanos) {
+            this.framing = framing;
+            this.minMessages = minMessages;
+            this.maxMessages = maxMessages;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.maxAgeNanos = maxAgeNanos;
+        }
+    }
+}
@@ -26,81 +26,193 @@
 
 package com.github.whiver.nifi.processor;
 
+import com.github.whiver.nifi.exception.InvalidFieldMaskException;
 import com.github.whiver.nifi.exception.MessageDecodingException;
-import com.github.whiver.nifi.exception.SchemaCompilationException;
-import com.github.whiver.nifi.exception.SchemaLoadingException;
-import com.github.whiver.nifi.exception.UnknownMessageTypeException;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.FieldMaskFilter;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.WireJsonTranscoder;
 import com.github.whiver.nifi.service.ProtobufService;
-import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.nifi.annotation.behavior.SideEffectFree;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
-import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 @SideEffectFree
 @Tags({"Protobuf", "decoder", "Google Protocol Buffer"})
 @CapabilityDescription("Decode incoming data encoded using a Google Protocol Buffer Schema.")
 public class ProtobufDecoder extends ProtobufProcessor {
+    static final String JSON_BYTES_COUNTER = "JSON bytes written";
+    static final String JSON_MESSAGES_COUNTER = "JSON messages written";
+
+    private static final String FIELD_PATH = "\\s*[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*\\s*";
+
+    static final PropertyDescriptor FIELD_MASK = new PropertyDescriptor.Builder()
+            .name("protobuf.fieldMask")
+            .displayName("Field mask")
+            .required(false)
+            .description("Comma-separated list of the fields to decode, given as dotted paths such as name or " +
+                    "phones.number. The other fields are skipped without being parsed, and are written as if they " +
+                    "were not set, which makes decoding faster and the JSON smaller when only a few fields are needed. " +
+                    "Paths going through a repeated field apply to each of its elements. If not set, all the fields are " +
+                    "decoded.")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile(FIELD_PATH + "(," + FIELD_PATH + ")*")))
+            .build();
+
+    static final PropertyDescriptor DECODING_PARALLELISM = new PropertyDescriptor.Builder()
+            .name("protobuf.decodingParallelism")
+            .displayName("Decoding parallelism")
+            .required(true)
+            .defaultValue("1")
+            .description("Number of threads decoding the framed messages of a single flowfile. The messages are read " +
+                    "by windows, cut in chunks decoded in parallel, and written back in their original order. The " +
+                    "threads are shared by all the concurrent tasks of the processor. With 1, the messages are decoded " +
+                    "on the thread of the task.")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor MIN_CHUNK_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.minChunkSize")
+            .displayName("Minimum chunk size")
+            .required(true)
+            .defaultValue("1 MB")
+            .description("Minimum size of the messages decoded by a single thread when the decoding parallelism is " +
+                    "greater than 1. Smaller chunks balance the load better, larger ones reduce the overhead of the " +
+                    "threads. A window of messages holds 4 chunks per thread.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    private List<PropertyDescriptor> properties;
+
+    @Override
+    public void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
+        properties.add(FIELD_MASK);
+        properties.add(DECODING_PARALLELISM);
+        properties.add(MIN_CHUNK_SIZE);
+        this.properties = Collections.unmodifiableList(properties);
+    }
 
     @Override
-    public void onTrigger(ProcessContext processContext, ProcessSession session) throws ProcessException {
-        final AtomicReference<Relationship> error = new AtomicReference<>();
-
-        final FlowFile flowfile = session.get();
-
-        String protobufSchema = flowfile.getAttribute(PROTOBUF_SCHEMA.getName());
-        boolean compileSchema = processContext.getProperty(COMPILE_SCHEMA.getName()).asBoolean();
-        String messageType = flowfile.getAttribute("protobuf.messageType");
-
-        if (protobufSchema == null && this.schema == null) {
-            getLogger().error("No schema path given, please fill in the " + PROTOBUF_SCHEMA.getName() +
-                    " property, either at processor or flowfile level..");
-            session.transfer(flowfile, INVALID_SCHEMA);
-        } else if (messageType == null) {
-            getLogger().error("Unable to find the message type in protobuf.messageType, unable to decode data.");
-            session.transfer(flowfile, ERROR);
-        } else {
-
-            // Write the results back out ot flow file
-            FlowFile outputFlowfile = session.write(flowfile, (InputStream in, OutputStream out) -> {
+    protected Object setUpSettings(ProcessContext context) {
+        FieldMaskFilter fieldMask = context.getProperty(FIELD_MASK).isSet()
+                ? FieldMaskFilter.parse(context.getProperty(FIELD_MASK).getValue()) : null;
+        int parallelism = context.getProperty(DECODING_PARALLELISM).asInteger();
+        return new DecodingSettings(fieldMask, parallelism > 1 ? new ForkJoinPool(parallelism) : null,
+                context.getProperty(MIN_CHUNK_SIZE).asDataSize(DataUnit.B).intValue());
+    }
+
+    @OnStopped
+    public void shutDownDecodingPool() {
+        State state = getState();
+        if (state != null) {
+            ForkJoinPool decodingPool = ((DecodingSettings) state.getSettings()).decodingPool;
+            if (decodingPool != null) {
+                decodingPool.shutdown();
+            }
+        }
+    }
+
+    @Override
+    protected void processFlowFile(ProcessContext processContext, ProcessSession session, FlowFile flowfile,
+                                   Descriptors.Descriptor descriptor, Batch batch) {
+        final DecodingSettings settings = (DecodingSettings) batch.getState().getSettings();
+        final FieldMaskFilter.Projection projection;
+        try {
+            projection = settings.fieldMask == null ? null : settings.fieldMask.forType(descriptor);
+        } catch (InvalidFieldMaskException e) {
+            getLogger().error(e.getMessage());
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        final MessageFraming framing = batch.getState().getFraming();
+        final long maxLength = batch.getState().getMaxMessageLength(flowfile);
+        final JsonLayout layout = batch.getState().getJsonLayout();
+        final JSONMapper mapper = batch.getState().getJsonMapper();
+        final WireJsonTranscoder transcoder = batch.getState().getTranscoder();
+        final ForkJoinPool decodingPool = settings.decodingPool;
+        final int minChunkSize = settings.minChunkSize;
+        final AtomicLong messageCount = new AtomicLong();
+        final AtomicLong jsonBytes = new AtomicLong();
+
+        // Write the results back out ot flow file. Errors are thrown out of the callback so that the partially written
+        // content is discarded and the original flowfile is routed to error.
+        final FlowFile outputFlowfile;
+        try {
+            outputFlowfile = session.write(flowfile, (InputStream in, OutputStream out) -> {
                 try {
-                    if (protobufSchema == null) {
-                        out.write(ProtobufService.decodeProtobuf(this.schema, messageType, in).getBytes());
-                    } else {
-                        out.write(ProtobufService.decodeProtobuf(protobufSchema, compileSchema, messageType, in).getBytes());
-                    }
-                } catch (DescriptorValidationException e) {
-                    getLogger().error("Invalid schema file: " + e.getMessage(), e);
-                    error.set(INVALID_SCHEMA);
-                } catch (SchemaLoadingException | SchemaCompilationException e) {
-                    getLogger().error(e.getMessage(), e);
-                    error.set(INVALID_SCHEMA);
-                } catch (UnknownMessageTypeException | MessageDecodingException e) {
-                    getLogger().error(e.getMessage());
-                    error.set(ERROR);
+                    ByteCountingOutputStream countingOut = new ByteCountingOutputStream(out);
+                    messageCount.set(ProtobufService.decodeProtobuf(descriptor, framing, layout, mapper, transcoder, projection, decodingPool, minChunkSize, maxLength, in, countingOut));
+                    jsonBytes.set(countingOut.getBytesWritten());
+                } catch (MessageDecodingException e) {
+                    throw new ProcessException(e.getMessage(), e);
                 } catch (InvalidProtocolBufferException e) {
-                    getLogger().error("Unable to encode message into JSON: " + e.getMessage(), e);
-                    error.set(ERROR);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    throw new ProcessException("Unable to encode message into JSON: " + e.getMessage(), e);
                 }
             });
+        } catch (ProcessException e) {
+            getLogger().error(e.getMessage(), e);
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
 
-            if (error.get() != null) {
-                session.transfer(flowfile, error.get());
-            } else {
-                session.transfer(outputFlowfile, SUCCESS);
-            }
+        // Dividing the bytes by the messages gives the average JSON size, to compare the JSON properties
+        session.adjustCounter(JSON_BYTES_COUNTER, jsonBytes.get(), false);
+        session.adjustCounter(JSON_MESSAGES_COUNTER, messageCount.get(), false);
+        batch.countMessages(messageCount.get());
+        batch.countBytesWritten(outputFlowfile);
+        batch.transfer(outputFlowfile, SUCCESS);
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * The decoding properties of a schedule, kept in the state of the processor
+     */
+    private static final class DecodingSettings {
+        /**
+         * Field mask of the FIELD_MASK property, or null to decode all the fields
+         */
+        private final FieldMaskFilter fieldMask;
+
+        /**
+         * Pool decoding the chunks of the framed flowfiles, or null to decode them on the thread of the task
+         */
+        private final ForkJoinPool decodingPool;
+        private final int minChunkSize;
+
+        private DecodingSettings(FieldMaskFilter fieldMask, ForkJoinPool decodingPool, int minChunkSize) {
+            this.fieldMask = fieldMask;
+            this.decodingPool = decodingPool;
+            this.minChunkSize = minChunkSize;
         }
     }
 }
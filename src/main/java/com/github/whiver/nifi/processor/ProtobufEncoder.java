@@ -27,8 +27,10 @@
 package com.github.whiver.nifi.processor;
 
 
-import com.github.whiver.nifi.exception.SchemaCompilationException;
-import com.github.whiver.nifi.exception.SchemaLoadingException;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.JsonWireEncoder;
 import com.github.whiver.nifi.service.ProtobufService;
 import com.google.protobuf.Descriptors;
 import org.apache.nifi.annotation.behavior.SideEffectFree;
@@ -37,69 +39,53 @@ import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
-import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.stream.io.ByteCountingInputStream;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SideEffectFree
 @Tags({"Protobuf", "decoder", "Google Protocol Buffer"})
 @CapabilityDescription("Decode incoming data encoded using a Google Protocol Buffer Schema.")
 public class ProtobufEncoder extends ProtobufProcessor {
+    static final String JSON_BYTES_COUNTER = "JSON bytes read";
+    static final String JSON_MESSAGES_COUNTER = "JSON messages read";
 
     @Override
-    public void onTrigger(ProcessContext processContext, ProcessSession session) throws ProcessException {
-        final AtomicReference<Relationship> error = new AtomicReference<>();
+    protected void processFlowFile(ProcessContext processContext, ProcessSession session, FlowFile flowfile,
+                                   Descriptors.Descriptor descriptor, Batch batch) {
+        final MessageFraming framing = batch.getState().getFraming();
+        final JsonLayout layout = batch.getState().getJsonLayout();
+        final JSONMapper mapper = batch.getState().getJsonMapper();
+        final JsonWireEncoder encoder = batch.getState().getEncoder();
+        final AtomicLong messageCount = new AtomicLong();
+        final AtomicLong jsonBytes = new AtomicLong();
 
-        final FlowFile flowfile = session.get();
-
-        // We check if the protobuf.schemaPath property is defined in the flowfile
-        String protobufSchema = flowfile.getAttribute(PROTOBUF_SCHEMA.getName());
-        boolean compileSchema = processContext.getProperty(COMPILE_SCHEMA.getName()).asBoolean();
-
-        String messageType = flowfile.getAttribute("protobuf.messageType");
-
-
-        if (protobufSchema == null && this.schema == null) {
-            getLogger().error("No schema path given, please fill in the " + PROTOBUF_SCHEMA.getName() +
-                    " property, either at processor or flowfile level..");
-            session.transfer(flowfile, INVALID_SCHEMA);
-        } else if (messageType == null) {
-            getLogger().error("Unable to find the message type in protobuf.messageType, unable to decode data.");
-            session.transfer(flowfile, ERROR);
-        } else {
-
-            FlowFile outputFlowfile = session.write(flowfile, (InputStream in, OutputStream out) -> {
+        // Errors are thrown out of the callback so that the partially written content is discarded and the original
+        // flowfile is routed to error
+        final FlowFile outputFlowfile;
+        try {
+            outputFlowfile = session.write(flowfile, (InputStream in, OutputStream out) -> {
                 try {
-                    // If the protobufSchema property is defined, we use the schema from the flowfile instead of the
-                    // processor-wide one
-                    if (protobufSchema == null) {
-                        ProtobufService.encodeProtobuf(this.schema, messageType, in, out);
-                    } else {
-                        ProtobufService.encodeProtobuf(protobufSchema, compileSchema, messageType, in, out);
-                    }
-                } catch (Descriptors.DescriptorValidationException e) {
-                    getLogger().error("Invalid schema file: " + e.getMessage(), e);
-                    error.set(INVALID_SCHEMA);
-                } catch (SchemaLoadingException | SchemaCompilationException e) {
-                    getLogger().error(e.getMessage(), e);
-                    error.set(INVALID_SCHEMA);
-                } catch (InterruptedException e) {
-                    getLogger().error("Unable to compile schema: " + e.getMessage(), e);
-                    error.set(ERROR);
+                    ByteCountingInputStream countingIn = new ByteCountingInputStream(in);
+                    messageCount.set(ProtobufService.encodeProtobuf(descriptor, framing, layout, mapper, encoder, countingIn, out));
+                    jsonBytes.set(countingIn.getBytesRead());
                 } catch (Exception e) {
-                    getLogger().error(e.getMessage(), e);
-                    error.set(ERROR);
+                    throw new ProcessException(e.getMessage(), e);
                 }
             });
-
-            if (error.get() != null) {
-                session.transfer(flowfile, error.get());
-            } else {
-                session.transfer(outputFlowfile, SUCCESS);
-            }
+        } catch (ProcessException e) {
+            getLogger().error(e.getMessage(), e);
+            batch.transfer(flowfile, ERROR);
+            return;
         }
+
+        session.adjustCounter(JSON_BYTES_COUNTER, jsonBytes.get(), false);
+        session.adjustCounter(JSON_MESSAGES_COUNTER, messageCount.get(), false);
+        batch.countMessages(messageCount.get());
+        batch.countBytesWritten(outputFlowfile);
+        batch.transfer(outputFlowfile, SUCCESS);
     }
 }
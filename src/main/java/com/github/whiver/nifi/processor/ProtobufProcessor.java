@@ -26,22 +26,77 @@
 
 package com.github.whiver.nifi.processor;
 
-import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.AmbiguousMessageTypeException;
+import com.github.whiver.nifi.exception.CodecGenerationException;
 import com.github.whiver.nifi.exception.SchemaCompilationException;
 import com.github.whiver.nifi.exception.SchemaLoadingException;
-import com.github.whiver.nifi.parser.SchemaParser;
+import com.github.whiver.nifi.exception.UnknownMessageTypeException;
+import com.github.whiver.nifi.exception.UnknownSchemaException;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.CodecGenerator;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.JsonWireEncoder;
+import com.github.whiver.nifi.mapper.WireJsonTranscoder;
+import com.github.whiver.nifi.metrics.AllocationSampler;
+import com.github.whiver.nifi.metrics.MetricsSnapshot;
+import com.github.whiver.nifi.metrics.ProcessorMetrics;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.DescriptorCache;
+import com.github.whiver.nifi.parser.MessageTypeIndex;
+import com.github.whiver.nifi.parser.SchemaCache;
+import com.github.whiver.nifi.parser.SchemaWatcher;
+import com.github.whiver.nifi.registry.ProtobufSchemaRegistry;
+import com.github.whiver.nifi.registry.SchemaLoadingProperties;
 import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class ProtobufProcessor extends AbstractProcessor {
+    /**
+     * Name of the flowfile attribute giving the type of the Protobuf message
+     */
+    static final String MESSAGE_TYPE_ATTRIBUTE = "protobuf.messageType";
+
+    /**
+     * Name of the flowfile attribute giving the number of framed messages in a flowfile
+     */
+    static final String MESSAGE_COUNT_ATTRIBUTE = "protobuf.messageCount";
+
+    /**
+     * Names of the flowfile attributes giving the name and version of a schema registered in the schema registry
+     */
+    static final String SCHEMA_NAME_ATTRIBUTE = "protobuf.schemaName";
+    static final String SCHEMA_VERSION_ATTRIBUTE = "protobuf.schemaVersion";
+
+    /**
+     * Names of the NiFi counters adjusted at the end of each batch
+     */
+    static final String BYTES_IN_COUNTER = "Bytes read";
+    static final String BYTES_OUT_COUNTER = "Bytes written";
+    static final String MESSAGES_COUNTER = "Messages converted";
+    static final String SCHEMA_RESOLUTION_TIME_COUNTER = "Schema resolution time (ns)";
+    static final String CONVERSION_TIME_COUNTER = "Conversion time (ns)";
+    static final String ROUTED_COUNTER_PREFIX = "Flowfiles routed to ";
+
     /**
      * NiFi properties of the processor, that can be configured using the Web UI
      */
@@ -53,15 +108,25 @@ public abstract class ProtobufProcessor extends AbstractProcessor {
     private Set<Relationship> relationships;
 
     /**
-     * The compiled descriptor used to parse incoming binaries in case where the schema has been specified in the
-     * processor level (protobuf.schema property)
+     * Everything the processor needs to process flowfiles, built from the properties each time the processor is
+     * scheduled. The state is immutable and replaced at once, so that all the threads see a consistent configuration.
+     */
+    private final AtomicReference<State> state = new AtomicReference<>();
+
+    /**
+     * Registration of the processor-level schema file in the schema watcher, when the WATCH_SCHEMA property is set
      */
-    protected DynamicSchema schema;
+    private volatile SchemaWatcher.Registration schemaWatch;
 
     /**
-     * Reflects the value of the COMPILE_SCHEMA property, so that it can be used by the onPropertyModified method
+     * Time spent reloading the processor-level schema the last time its file changed, in nanoseconds, or -1
      */
-    private boolean compileSchema;
+    private volatile long lastSchemaReloadNanos = -1;
+
+    /**
+     * Metrics of the hot path, kept across the schedules of the processor
+     */
+    private final ProcessorMetrics metrics = new ProcessorMetrics();
 
 
     /*          PROPERTIES          */
@@ -87,6 +152,190 @@ public abstract class ProtobufProcessor extends AbstractProcessor {
             .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
             .build();
 
+    static final PropertyDescriptor WATCH_SCHEMA = new PropertyDescriptor.Builder()
+            .name("protobuf.watchSchema")
+            .displayName("Reload schema on change")
+            .required(true)
+            .defaultValue("false")
+            .description("Set this property to true to watch the processor-level schema file, and load it again in the " +
+                    "background as soon as it changes on the disk. The new schema is used by the next flowfiles, " +
+                    "without stopping the processor. If the new schema cannot be loaded, the previous one is kept.")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor SCHEMA_REGISTRY = new PropertyDescriptor.Builder()
+            .name("protobuf.schemaRegistry")
+            .displayName("Schema registry")
+            .required(false)
+            .description("Controller service loading and caching the schemas once for all the processors using it. " +
+                    "When set, schemas can also be referenced by name using the protobuf.schemaName and " +
+                    "protobuf.schemaVersion flowfile attributes, and the schema cache properties of this processor are " +
+                    "ignored.")
+            .identifiesControllerService(ProtobufSchemaRegistry.class)
+            .build();
+
+    /**
+     * The schema compiling and caching properties, shared with the schema registry
+     */
+    static final AllowableValue PROTOC_COMPILER = SchemaLoadingProperties.PROTOC_COMPILER;
+    static final AllowableValue JAVA_COMPILER = SchemaLoadingProperties.JAVA_COMPILER;
+    static final PropertyDescriptor SCHEMA_COMPILER = SchemaLoadingProperties.SCHEMA_COMPILER;
+    static final PropertyDescriptor SCHEMA_CACHE_SIZE = SchemaLoadingProperties.SCHEMA_CACHE_SIZE;
+    static final PropertyDescriptor SCHEMA_CACHE_TTL = SchemaLoadingProperties.SCHEMA_CACHE_TTL;
+    static final PropertyDescriptor DESCRIPTOR_CACHE_DIRECTORY = SchemaLoadingProperties.DESCRIPTOR_CACHE_DIRECTORY;
+    static final PropertyDescriptor DESCRIPTOR_CACHE_MAX_SIZE = SchemaLoadingProperties.DESCRIPTOR_CACHE_MAX_SIZE;
+
+    static final AllowableValue NO_FRAMING = new AllowableValue(MessageFraming.NONE.getValue(), "None",
+            "Each flowfile contains a single message.");
+
+    static final AllowableValue VARINT_FRAMING = new AllowableValue(MessageFraming.VARINT_DELIMITED.getValue(),
+            "Varint length prefix", "Each message is prefixed with its length encoded as a varint, as written by the " +
+                    "writeDelimitedTo method of the Protobuf libraries.");
+
+    static final AllowableValue FIXED32_FRAMING = new AllowableValue(MessageFraming.FIXED32_BIG_ENDIAN.getValue(),
+            "4-byte length prefix", "Each message is prefixed with its length encoded as a 4-byte big-endian integer.");
+
+    static final AllowableValue GRPC_FRAMING = new AllowableValue(MessageFraming.GRPC.getValue(), "gRPC",
+            "Each message is prefixed with an uncompressed gRPC frame header.");
+
+    static final PropertyDescriptor FRAMING = new PropertyDescriptor.Builder()
+            .name("protobuf.framing")
+            .displayName("Message framing")
+            .required(true)
+            .defaultValue(NO_FRAMING.getValue())
+            .allowableValues(NO_FRAMING, VARINT_FRAMING, FIXED32_FRAMING, GRPC_FRAMING)
+            .description("How several Protobuf messages are framed in a single binary flowfile. Framed messages are " +
+                    "processed one at a time, so that the whole flowfile is never held in memory.")
+            .build();
+
+    static final PropertyDescriptor MAX_MESSAGE_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.maxMessageSize")
+            .displayName("Maximum message size")
+            .required(true)
+            .defaultValue("64 MB")
+            .description("Maximum size of a single framed message. A message whose length prefix is larger than this " +
+                    "size, or than the flowfile itself, is rejected before any memory is allocated for it, and the " +
+                    "flowfile is routed to error.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    static final AllowableValue NDJSON_LAYOUT = new AllowableValue(JsonLayout.NDJSON.getValue(), "Newline-delimited JSON",
+            "One JSON message per line.");
+
+    static final AllowableValue ARRAY_LAYOUT = new AllowableValue(JsonLayout.ARRAY.getValue(), "JSON array",
+            "A single JSON array containing all the messages.");
+
+    static final PropertyDescriptor JSON_LAYOUT = new PropertyDescriptor.Builder()
+            .name("protobuf.jsonLayout")
+            .displayName("JSON layout")
+            .required(true)
+            .defaultValue(NDJSON_LAYOUT.getValue())
+            .allowableValues(NDJSON_LAYOUT, ARRAY_LAYOUT)
+            .description("How several messages are laid out in a single JSON flowfile. Only used when the messages are " +
+                    "framed (see protobuf.framing).")
+            .build();
+
+    static final PropertyDescriptor JSON_COMPACT = new PropertyDescriptor.Builder()
+            .name("protobuf.jsonCompact")
+            .displayName("Compact JSON")
+            .required(true)
+            .defaultValue("false")
+            .description("Set this property to true to write JSON without any insignificant whitespace, which is " +
+                    "significantly smaller than the default pretty-printed JSON.")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor JSON_PRESERVE_FIELD_NAMES = new PropertyDescriptor.Builder()
+            .name("protobuf.jsonPreserveFieldNames")
+            .displayName("Preserve field names")
+            .required(true)
+            .defaultValue("false")
+            .description("Set this property to true to write the field names as they are in the schema, instead of " +
+                    "converting them to lowerCamelCase. Both forms are always accepted when reading JSON.")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor JSON_INCLUDE_DEFAULT_VALUES = new PropertyDescriptor.Builder()
+            .name("protobuf.jsonIncludeDefaultValues")
+            .displayName("Include default values")
+            .required(true)
+            .defaultValue("false")
+            .description("Set this property to true to write the fields set to their default value, which are omitted " +
+                    "from the JSON otherwise.")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor JSON_IGNORE_UNKNOWN_FIELDS = new PropertyDescriptor.Builder()
+            .name("protobuf.jsonIgnoreUnknownFields")
+            .displayName("Ignore unknown fields")
+            .required(true)
+            .defaultValue("false")
+            .description("Set this property to true to ignore the JSON fields that do not exist in the schema, instead " +
+                    "of routing the flowfile to error.")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final AllowableValue DYNAMIC_ENGINE = new AllowableValue("dynamic", "Dynamic messages",
+            "Build a dynamic message from each Protobuf message, and convert it with the JSON library of Protobuf.");
+
+    static final AllowableValue STREAMING_ENGINE = new AllowableValue("streaming", "Streaming",
+            "Convert the Protobuf binaries to JSON in a single pass, and the JSON to binaries while reading its " +
+                    "tokens, without building any intermediate message. The output is " +
+                    "the same as with dynamic messages, which are still used for the messages that cannot be converted " +
+                    "this way, such as messages containing maps or well-known types.");
+
+    static final AllowableValue GENERATED_ENGINE = new AllowableValue("generated", "Generated codecs",
+            "Generate and compile a codec class for each message type when the processor is scheduled, converting the " +
+                    "messages the same way as the streaming engine with code specialized for their fields. NiFi must " +
+                    "run on a JDK, otherwise the streaming engine is used instead.");
+
+    static final PropertyDescriptor CODEC_ENGINE = new PropertyDescriptor.Builder()
+            .name("protobuf.codecEngine")
+            .displayName("Codec engine")
+            .required(true)
+            .defaultValue(DYNAMIC_ENGINE.getValue())
+            .allowableValues(DYNAMIC_ENGINE, STREAMING_ENGINE, GENERATED_ENGINE)
+            .description("How the Protobuf messages are converted to and from JSON.")
+            .build();
+
+    static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.batchSize")
+            .displayName("Batch size")
+            .required(true)
+            .defaultValue("1")
+            .description("Maximum number of flowfiles processed in a single run of the processor. The schemas are " +
+                    "resolved once for the whole batch, so processing many small flowfiles is faster with a higher value.")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor BATCH_DURATION = new PropertyDescriptor.Builder()
+            .name("protobuf.batchDuration")
+            .displayName("Batch duration")
+            .required(false)
+            .description("Maximum time spent processing a single batch. When it is exceeded, the flowfiles not processed " +
+                    "yet are put back in the queue for the next run. If not set, the whole batch is always processed.")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor ALLOCATION_SAMPLING_INTERVAL = new PropertyDescriptor.Builder()
+            .name("protobuf.allocationSamplingInterval")
+            .displayName("Allocation sampling interval")
+            .required(true)
+            .defaultValue("0")
+            .description("Measure the bytes allocated to convert one flowfile out of this number, to find the message " +
+                    "types putting the most pressure on the garbage collector. The measures are only available in the " +
+                    "metrics of the processor, and need a JVM supporting them such as HotSpot. 0 disables the sampling.")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /**
+     * Properties only used to convert messages to and from JSON, which have no effect on the processors reading the
+     * binary messages without converting them
+     */
+    static final Set<PropertyDescriptor> CONVERSION_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            JSON_LAYOUT, JSON_COMPACT, JSON_PRESERVE_FIELD_NAMES, JSON_INCLUDE_DEFAULT_VALUES, JSON_IGNORE_UNKNOWN_FIELDS,
+            CODEC_ENGINE)));
+
 
     /*          RELATIONSHIPS           */
 
@@ -110,6 +359,24 @@ public abstract class ProtobufProcessor extends AbstractProcessor {
         List<PropertyDescriptor> properties = new ArrayList<>();
         properties.add(PROTOBUF_SCHEMA);
         properties.add(COMPILE_SCHEMA);
+        properties.add(WATCH_SCHEMA);
+        properties.add(SCHEMA_REGISTRY);
+        properties.add(SCHEMA_COMPILER);
+        properties.add(SCHEMA_CACHE_SIZE);
+        properties.add(SCHEMA_CACHE_TTL);
+        properties.add(DESCRIPTOR_CACHE_DIRECTORY);
+        properties.add(DESCRIPTOR_CACHE_MAX_SIZE);
+        properties.add(FRAMING);
+        properties.add(MAX_MESSAGE_SIZE);
+        properties.add(JSON_LAYOUT);
+        properties.add(JSON_COMPACT);
+        properties.add(JSON_PRESERVE_FIELD_NAMES);
+        properties.add(JSON_INCLUDE_DEFAULT_VALUES);
+        properties.add(JSON_IGNORE_UNKNOWN_FIELDS);
+        properties.add(CODEC_ENGINE);
+        properties.add(BATCH_SIZE);
+        properties.add(BATCH_DURATION);
+        properties.add(ALLOCATION_SAMPLING_INTERVAL);
         this.properties = Collections.unmodifiableList(properties);
 
         Set<Relationship> relationships = new HashSet<>();
@@ -117,45 +384,579 @@ public abstract class ProtobufProcessor extends AbstractProcessor {
         relationships.add(INVALID_SCHEMA);
         relationships.add(ERROR);
         this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    /**
+     * Build the state of the processor from its properties. The flowfile-level schema cache is kept from the previous
+     * schedule if its configuration did not change, and the processor-level schema is loaded through it, or through
+     * the schema registry when one is set.
+     */
+    @OnScheduled
+    public void setUpState(ProcessContext context) {
+        stopWatchingSchema();
+        final State previousState = this.state.get();
 
-        this.compileSchema = false;
+        int cacheSize = context.getProperty(SCHEMA_CACHE_SIZE).asInteger();
+        long cacheTtl = context.getProperty(SCHEMA_CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS);
+        CompilerMode compilerMode = CompilerMode.fromValue(context.getProperty(SCHEMA_COMPILER).getValue());
+        DescriptorCache descriptorCache = null;
+        if (context.getProperty(DESCRIPTOR_CACHE_DIRECTORY).isSet()) {
+            descriptorCache = new DescriptorCache(new File(context.getProperty(DESCRIPTOR_CACHE_DIRECTORY).getValue()),
+                    context.getProperty(DESCRIPTOR_CACHE_MAX_SIZE).asDataSize(DataUnit.B).longValue());
+        }
+
+        SchemaCache schemaCache = previousState == null ? null : previousState.schemaCache;
+        if (schemaCache == null || schemaCache.getMaxEntries() != cacheSize
+                || schemaCache.getTtl(TimeUnit.MILLISECONDS) != cacheTtl
+                || schemaCache.getCompilerMode() != compilerMode
+                || !sameDescriptorCache(schemaCache.getDescriptorCache(), descriptorCache)) {
+            schemaCache = new SchemaCache(cacheSize, cacheTtl, TimeUnit.MILLISECONDS, compilerMode, descriptorCache);
+        }
+
+        final ProtobufSchemaRegistry registry = context.getProperty(SCHEMA_REGISTRY).isSet()
+                ? context.getProperty(SCHEMA_REGISTRY).asControllerService(ProtobufSchemaRegistry.class) : null;
+        final boolean compileSchema = context.getProperty(COMPILE_SCHEMA).asBoolean();
+        final String pathToSchema = context.getProperty(PROTOBUF_SCHEMA).getValue();
+
+        SchemaLoader loader = null;
+        MessageTypeIndex processorSchema = null;
+        if (pathToSchema != null && !pathToSchema.isEmpty()) {
+            final SchemaCache cache = schemaCache;
+            loader = registry != null
+                    ? () -> registry.getSchemaByPath(pathToSchema, compileSchema)
+                    : () -> cache.getIndex(pathToSchema, compileSchema);
+            processorSchema = loadProcessorSchema(pathToSchema, loader);
+        }
+
+        JSONMapper jsonMapper = new JSONMapper(
+                context.getProperty(JSON_COMPACT).asBoolean(),
+                context.getProperty(JSON_PRESERVE_FIELD_NAMES).asBoolean(),
+                context.getProperty(JSON_INCLUDE_DEFAULT_VALUES).asBoolean(),
+                context.getProperty(JSON_IGNORE_UNKNOWN_FIELDS).asBoolean());
+
+        final String engine = context.getProperty(CODEC_ENGINE).getValue();
+        boolean streaming = STREAMING_ENGINE.getValue().equals(engine) || GENERATED_ENGINE.getValue().equals(engine);
+        CodecGenerator generator = null;
+        if (GENERATED_ENGINE.getValue().equals(engine)) {
+            if (CodecGenerator.isCompilerAvailable()) {
+                generator = new CodecGenerator(jsonMapper.isPreservingFieldNames(), jsonMapper.isIgnoringUnknownFields());
+                if (processorSchema != null) {
+                    generateCodecs(generator, processorSchema);
+                }
+            } else {
+                getLogger().warn("No Java compiler is available, the streaming engine is used instead of generated codecs");
+            }
+        }
+        WireJsonTranscoder transcoder = streaming ? WireJsonTranscoder.forMapper(jsonMapper, generator) : null;
+        JsonWireEncoder encoder = streaming ? JsonWireEncoder.forMapper(jsonMapper, generator) : null;
+
+        this.state.set(new State(
+                processorSchema, pathToSchema, compileSchema, schemaCache, registry, jsonMapper, transcoder, encoder,
+                MessageFraming.fromValue(context.getProperty(FRAMING).getValue()),
+                context.getProperty(MAX_MESSAGE_SIZE).asDataSize(DataUnit.B).longValue(),
+                JsonLayout.fromValue(context.getProperty(JSON_LAYOUT).getValue()),
+                context.getProperty(BATCH_SIZE).asInteger(),
+                context.getProperty(BATCH_DURATION).isSet() ? context.getProperty(BATCH_DURATION).asTimePeriod(TimeUnit.NANOSECONDS) : 0,
+                context.getProperty(ALLOCATION_SAMPLING_INTERVAL).asInteger(),
+                setUpSettings(context)));
+
+        if (loader != null && context.getProperty(WATCH_SCHEMA).asBoolean()) {
+            final SchemaLoader reloader = loader;
+            try {
+                this.schemaWatch = SchemaWatcher.getInstance().watch(pathToSchema, () -> reloadProcessorSchema(pathToSchema, reloader));
+            } catch (IOException e) {
+                getLogger().error("Unable to watch the schema file " + pathToSchema + ", it will not be reloaded when " +
+                        "it changes: " + e.getMessage(), e);
+            }
+        }
     }
 
     /**
-     * Compile the given schema file when the protobuf.schemaPath property is given
-     *
-     * @see AbstractProcessor
+     * Build the settings specific to the implementation from its own properties. They are stored in the state, so that
+     * a batch never sees the settings of one schedule with the schema of another.
+     * @return the settings, available with {@link State#getSettings()}, or null if the implementation has none
      */
-    @Override
-    public void onPropertyModified(PropertyDescriptor descriptor, String oldValue, String newValue) {
-        super.onPropertyModified(descriptor, oldValue, newValue);
+    protected Object setUpSettings(ProcessContext context) {
+        return null;
+    }
 
-        if (descriptor == PROTOBUF_SCHEMA) {
+    /**
+     * @return the state of the current schedule, or null if the processor has never been scheduled
+     */
+    protected State getState() {
+        return state.get();
+    }
+
+    @OnStopped
+    public void stopWatchingSchema() {
+        SchemaWatcher.Registration schemaWatch = this.schemaWatch;
+        if (schemaWatch != null) {
+            schemaWatch.close();
+            this.schemaWatch = null;
+        }
+    }
+
+    /**
+     * Load the processor-level schema again after its file changed, and swap it in a new state
+     */
+    private void reloadProcessorSchema(String pathToSchema, SchemaLoader loader) {
+        long modificationTime = new File(pathToSchema).lastModified();
+        long start = System.nanoTime();
+
+        MessageTypeIndex index = loadProcessorSchema(pathToSchema, loader);
+        if (index == null) {
+            getLogger().warn("Schema file " + pathToSchema + " changed but cannot be loaded, the previous schema is still used.");
+            return;
+        }
 
-            // If the property is unset, just delete the existing descriptor
-            if (newValue == null || newValue.isEmpty()) {
-                this.schema = null;
+        State currentState;
+        do {
+            currentState = this.state.get();
+            if (currentState == null || !pathToSchema.equals(currentState.processorSchemaPath)) {
+                // The processor has been configured with another schema in the meantime
                 return;
             }
+        } while (!this.state.compareAndSet(currentState, currentState.withProcessorSchema(index)));
 
-            if (!newValue.equals(oldValue)) {
-                this.schema = null;
-                try {
-                    this.schema = SchemaParser.parseSchema(newValue, this.compileSchema);
-                } catch (FileNotFoundException e) {
-                    getLogger().error("File " + newValue + " not found on the disk.", e);
-                } catch (Descriptors.DescriptorValidationException e) {
-                    getLogger().error("Invalid schema file: " + e.getMessage(), e);
-                } catch (IOException e) {
-                    getLogger().error("Unable to read file: " + e.getMessage(), e);
-                } catch (SchemaLoadingException | SchemaCompilationException e) {
-                    getLogger().error(e.getMessage(), e);
-                } catch (InterruptedException e) {
-                    getLogger().error("Unable to compile schema: " + e.getMessage(), e);
+        this.lastSchemaReloadNanos = System.nanoTime() - start;
+        getLogger().info("Schema file {} reloaded in {} ms, {} ms after it was modified", new Object[]{pathToSchema,
+                TimeUnit.NANOSECONDS.toMillis(lastSchemaReloadNanos), System.currentTimeMillis() - modificationTime});
+    }
+
+    /**
+     * @return the time spent reloading the processor-level schema the last time its file changed, or -1 if it has
+     * never been reloaded
+     */
+    public long getLastSchemaReloadLatency(TimeUnit unit) {
+        long reloadNanos = this.lastSchemaReloadNanos;
+        return reloadNanos < 0 ? -1 : unit.convert(reloadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static boolean sameDescriptorCache(DescriptorCache first, DescriptorCache second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+        return first.getDirectory().equals(second.getDirectory()) && first.getMaxSize() == second.getMaxSize();
+    }
+
+    /**
+     * @return the cache of flowfile-level schemas, exposing its hit, miss and eviction counts, or null if the
+     * processor has never been scheduled
+     */
+    public SchemaCache getSchemaCache() {
+        State state = this.state.get();
+        return state == null ? null : state.schemaCache;
+    }
+
+    /**
+     * @return a copy of the metrics of the hot path since the processor was created or its metrics were reset
+     */
+    public MetricsSnapshot getMetrics() {
+        SchemaCache schemaCache = getSchemaCache();
+        return schemaCache == null ? metrics.snapshot(0, 0)
+                : metrics.snapshot(schemaCache.getHitCount(), schemaCache.getMissCount());
+    }
+
+    /**
+     * Reset the metrics of the hot path. The counters of the schema cache are not reset.
+     */
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    /**
+     * Load the processor-level schema, logging the reason why it cannot be loaded
+     * @return the index of the loaded schema, or null if it cannot be loaded
+     */
+    private MessageTypeIndex loadProcessorSchema(String pathToSchema, SchemaLoader loader) {
+        try {
+            return loader.load();
+        } catch (FileNotFoundException e) {
+            getLogger().error("File " + pathToSchema + " not found on the disk.", e);
+        } catch (Descriptors.DescriptorValidationException e) {
+            getLogger().error("Invalid schema file: " + e.getMessage(), e);
+        } catch (IOException e) {
+            getLogger().error("Unable to read file: " + e.getMessage(), e);
+        } catch (UnknownSchemaException | SchemaLoadingException | SchemaCompilationException e) {
+            getLogger().error(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            getLogger().error("Unable to compile schema: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Generate the codecs of the processor-level schema, so that they are not compiled while the first flowfiles wait.
+     * The codecs of the other schemas are generated when their first message is converted.
+     */
+    private void generateCodecs(CodecGenerator generator, MessageTypeIndex processorSchema) {
+        long start = System.nanoTime();
+        try {
+            int codecCount = generator.generate(processorSchema.getSchema());
+            getLogger().debug("Generated {} codecs in {} ms", new Object[]{codecCount,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        } catch (CodecGenerationException e) {
+            getLogger().warn(e.getMessage() + ", the streaming engine is used instead", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SchemaLoader {
+        MessageTypeIndex load() throws UnknownSchemaException, Descriptors.DescriptorValidationException, SchemaLoadingException, SchemaCompilationException, InterruptedException, IOException;
+    }
+
+    /**
+     * Pull a batch of flowfiles, resolve the descriptor of each of them and let the implementation process it. All the
+     * results are transferred together at the end of the batch.
+     */
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+        // The state is read once, so that the whole batch is processed with the same configuration and schema
+        final State state = this.state.get();
+        final List<FlowFile> flowfiles = session.get(state.batchSize);
+        if (flowfiles.isEmpty()) {
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final long maxDuration = state.maxBatchNanos;
+        final Batch batch = new Batch(state);
+
+        for (int i = 0; i < flowfiles.size(); i++) {
+            if (i > 0 && maxDuration > 0 && System.nanoTime() - startTime > maxDuration) {
+                // Out of time, give the remaining flowfiles back to the queue for the next run
+                session.transfer(flowfiles.subList(i, flowfiles.size()));
+                break;
+            }
+
+            final FlowFile flowfile = flowfiles.get(i);
+            final long resolutionStart = System.nanoTime();
+            batch.bytesIn += flowfile.getSize();
+            String protobufSchema = flowfile.getAttribute(PROTOBUF_SCHEMA.getName());
+            String schemaName = flowfile.getAttribute(SCHEMA_NAME_ATTRIBUTE);
+            String messageType = flowfile.getAttribute(MESSAGE_TYPE_ATTRIBUTE);
+
+            if (protobufSchema == null && schemaName == null && state.processorSchema == null) {
+                getLogger().error("No schema path given, please fill in the " + PROTOBUF_SCHEMA.getName() +
+                        " property, either at processor or flowfile level..");
+                batch.transfer(flowfile, INVALID_SCHEMA);
+                continue;
+            }
+
+            if (messageType == null) {
+                getLogger().error("Unable to find the message type in " + MESSAGE_TYPE_ATTRIBUTE + ", unable to process data.");
+                batch.transfer(flowfile, ERROR);
+                continue;
+            }
+
+            // A schema given by name in the flowfile takes precedence over the one given by path, which itself takes
+            // precedence over the processor-wide one
+            MessageTypeIndex schemaIndex;
+            String schemaKey;
+            if (schemaName != null) {
+                String schemaVersion = flowfile.getAttribute(SCHEMA_VERSION_ATTRIBUTE);
+                schemaKey = Batch.NAMED_SCHEMA_PREFIX + schemaName + ":" + (schemaVersion == null ? "" : schemaVersion);
+                schemaIndex = batch.getNamedSchema(schemaKey, schemaName, schemaVersion);
+            } else {
+                schemaKey = protobufSchema;
+                schemaIndex = protobufSchema == null ? state.processorSchema : batch.getSchema(protobufSchema);
+            }
+            if (schemaIndex == null) {
+                batch.transfer(flowfile, batch.schemaErrors.get(schemaKey));
+                continue;
+            }
+
+            Descriptors.Descriptor descriptor;
+            try {
+                descriptor = schemaIndex.getDescriptor(messageType);
+            } catch (UnknownMessageTypeException | AmbiguousMessageTypeException e) {
+                getLogger().error(e.getMessage());
+                batch.transfer(flowfile, ERROR);
+                continue;
+            }
+
+            final long conversionStart = System.nanoTime();
+            batch.recordSchemaResolution(conversionStart - resolutionStart);
+            batch.currentSchema = schemaIndex;
+
+            if (metrics.sampleAllocations(state.allocationSamplingInterval)) {
+                long allocated = AllocationSampler.currentThreadAllocatedBytes();
+                processFlowFile(context, session, flowfile, descriptor, batch);
+                metrics.recordAllocatedBytes(descriptor.getFullName(), AllocationSampler.currentThreadAllocatedBytes() - allocated);
+            } else {
+                processFlowFile(context, session, flowfile, descriptor, batch);
+            }
+            batch.recordConversion(System.nanoTime() - conversionStart);
+        }
+
+        batch.transferAll(session);
+    }
+
+    /**
+     * Process a single flowfile of the current batch. The resulting flowfile must be handed to
+     * {@link Batch#transfer(FlowFile, Relationship)} instead of being transferred directly.
+     * @param context       The process context
+     * @param session       The process session
+     * @param flowfile      The flowfile to process
+     * @param descriptor    Descriptor of the message type given in the protobuf.messageType attribute
+     * @param batch         The batch the flowfile belongs to
+     */
+    protected abstract void processFlowFile(ProcessContext context, ProcessSession session, FlowFile flowfile,
+                                            Descriptors.Descriptor descriptor, Batch batch);
+
+    /**
+     * The state of a single run of the processor: the schemas already resolved for the batch, and the flowfiles waiting
+     * to be transferred.
+     */
+    protected final class Batch {
+        /**
+         * Prefix of the keys of the schemas given by name, so that they never collide with a schema path
+         */
+        private static final String NAMED_SCHEMA_PREFIX = "name:";
+
+        private final State state;
+        private final Map<String, MessageTypeIndex> schemas = new HashMap<>();
+        private final Map<String, Relationship> schemaErrors = new HashMap<>();
+        private final Map<Relationship, List<FlowFile>> results = new LinkedHashMap<>();
+        private MessageTypeIndex currentSchema;
+        private long bytesIn;
+        private long bytesOut;
+        private long messageCount;
+        private long schemaResolutionNanos;
+        private long conversionNanos;
+
+        private Batch(State state) {
+            this.state = state;
+        }
+
+        /**
+         * @return the state of the processor the batch is processed with
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return the index of the schema the descriptor of the flowfile being processed was looked up in
+         */
+        public MessageTypeIndex getCurrentSchema() {
+            return currentSchema;
+        }
+
+        /**
+         * @return the flowfile-level schema stored at the given path, or null if it cannot be loaded
+         */
+        private MessageTypeIndex getSchema(String pathToSchema) {
+            if (state.schemaRegistry != null) {
+                return getSchema(pathToSchema, () -> state.schemaRegistry.getSchemaByPath(pathToSchema, state.compileSchema));
+            }
+            return getSchema(pathToSchema, () -> state.schemaCache.getIndex(pathToSchema, state.compileSchema));
+        }
+
+        /**
+         * @return the schema registered in the schema registry under the given name and version, or null if it cannot
+         * be loaded
+         */
+        private MessageTypeIndex getNamedSchema(String key, String name, String version) {
+            if (state.schemaRegistry == null) {
+                if (!schemas.containsKey(key)) {
+                    getLogger().error("Schema " + name + " is given by name, but no schema registry is set in the " +
+                            SCHEMA_REGISTRY.getName() + " property.");
+                    schemas.put(key, null);
+                    schemaErrors.put(key, INVALID_SCHEMA);
                 }
+                return null;
+            }
+            return getSchema(key, () -> state.schemaRegistry.getSchemaByName(name, version));
+        }
+
+        private MessageTypeIndex getSchema(String key, SchemaLoader loader) {
+            if (schemas.containsKey(key)) {
+                return schemas.get(key);
+            }
+
+            MessageTypeIndex schema = null;
+            Relationship error = INVALID_SCHEMA;
+            try {
+                schema = loader.load();
+            } catch (UnknownSchemaException e) {
+                getLogger().error(e.getMessage());
+            } catch (Descriptors.DescriptorValidationException e) {
+                getLogger().error("Invalid schema file: " + e.getMessage(), e);
+            } catch (SchemaLoadingException | SchemaCompilationException e) {
+                getLogger().error(e.getMessage(), e);
+            } catch (IOException e) {
+                getLogger().error("Unable to read file: " + e.getMessage(), e);
+            } catch (InterruptedException e) {
+                getLogger().error("Unable to compile schema: " + e.getMessage(), e);
+                Thread.currentThread().interrupt();
+                error = ERROR;
+            }
+
+            schemas.put(key, schema);
+            if (schema == null) {
+                schemaErrors.put(key, error);
+            }
+            return schema;
+        }
+
+        /**
+         * Queue the given flowfile to be transferred to the given relationship at the end of the batch
+         */
+        public void transfer(FlowFile flowfile, Relationship relationship) {
+            results.computeIfAbsent(relationship, r -> new ArrayList<>()).add(flowfile);
+        }
+
+        /**
+         * Record the content written to a flowfile, which is the only output counted in the written bytes: the
+         * flowfiles only read, cloned or given attributes do not write anything
+         */
+        public void countBytesWritten(FlowFile flowfile) {
+            bytesOut += flowfile.getSize();
+        }
+
+        /**
+         * Record the number of messages of a flowfile converted successfully
+         */
+        public void countMessages(long count) {
+            messageCount += count;
+            metrics.recordMessages(count);
+        }
+
+        private void recordSchemaResolution(long nanos) {
+            schemaResolutionNanos += nanos;
+            metrics.recordSchemaResolution(nanos);
+        }
+
+        private void recordConversion(long nanos) {
+            conversionNanos += nanos;
+            metrics.recordConversion(nanos);
+        }
+
+        /**
+         * Transfer all the flowfiles of the batch, and publish its totals in the metrics and in the NiFi counters
+         */
+        private void transferAll(ProcessSession session) {
+            Map<String, Integer> routedFlowfiles = new HashMap<>();
+            for (Map.Entry<Relationship, List<FlowFile>> result : results.entrySet()) {
+                session.transfer(result.getValue(), result.getKey());
+                session.adjustCounter(ROUTED_COUNTER_PREFIX + result.getKey().getName(), result.getValue().size(), false);
+                routedFlowfiles.put(result.getKey().getName(), result.getValue().size());
+            }
+            metrics.recordBatch(routedFlowfiles, bytesIn, bytesOut);
+
+            session.adjustCounter(BYTES_IN_COUNTER, bytesIn, false);
+            session.adjustCounter(BYTES_OUT_COUNTER, bytesOut, false);
+            if (messageCount > 0) {
+                session.adjustCounter(MESSAGES_COUNTER, messageCount, false);
+            }
+            if (schemaResolutionNanos > 0) {
+                session.adjustCounter(SCHEMA_RESOLUTION_TIME_COUNTER, schemaResolutionNanos, false);
             }
-        } else if (descriptor == COMPILE_SCHEMA) {
-            this.compileSchema = Boolean.parseBoolean(newValue);
+            if (conversionNanos > 0) {
+                session.adjustCounter(CONVERSION_TIME_COUNTER, conversionNanos, false);
+            }
+        }
+    }
+
+    /**
+     * The immutable state of the processor for a schedule, safely shared by all the concurrent tasks
+     */
+    protected static final class State {
+        private final MessageTypeIndex processorSchema;
+        private final String processorSchemaPath;
+        private final boolean compileSchema;
+        private final SchemaCache schemaCache;
+        private final ProtobufSchemaRegistry schemaRegistry;
+        private final JSONMapper jsonMapper;
+        private final WireJsonTranscoder transcoder;
+        private final JsonWireEncoder encoder;
+        private final MessageFraming framing;
+        private final long maxMessageSize;
+        private final JsonLayout jsonLayout;
+        private final int batchSize;
+        private final long maxBatchNanos;
+        private final int allocationSamplingInterval;
+        private final Object settings;
+
+        private State(MessageTypeIndex processorSchema, String processorSchemaPath, boolean compileSchema,
+                      SchemaCache schemaCache, ProtobufSchemaRegistry schemaRegistry, JSONMapper jsonMapper,
+                      WireJsonTranscoder transcoder, JsonWireEncoder encoder, MessageFraming framing, long maxMessageSize,
+                      JsonLayout jsonLayout, int batchSize, long maxBatchNanos, int allocationSamplingInterval, Object settings) {
+            this.processorSchema = processorSchema;
+            this.processorSchemaPath = processorSchemaPath;
+            this.compileSchema = compileSchema;
+            this.schemaCache = schemaCache;
+            this.schemaRegistry = schemaRegistry;
+            this.jsonMapper = jsonMapper;
+            this.transcoder = transcoder;
+            this.encoder = encoder;
+            this.framing = framing;
+            this.maxMessageSize = maxMessageSize;
+            this.jsonLayout = jsonLayout;
+            this.batchSize = batchSize;
+            this.maxBatchNanos = maxBatchNanos;
+            this.allocationSamplingInterval = allocationSamplingInterval;
+            this.settings = settings;
+        }
+
+        /**
+         * @return a copy of this state using the given processor-level schema
+         */
+        private State withProcessorSchema(MessageTypeIndex processorSchema) {
+            return new State(processorSchema, processorSchemaPath, compileSchema, schemaCache, schemaRegistry,
+                    jsonMapper, transcoder, encoder, framing, maxMessageSize, jsonLayout, batchSize, maxBatchNanos,
+                    allocationSamplingInterval, settings);
+        }
+
+        /**
+         * @return the index of the schema given in the processor properties, or null if there is none or if it
+         * cannot be loaded
+         */
+        public MessageTypeIndex getProcessorSchema() {
+            return processorSchema;
+        }
+
+        public JSONMapper getJsonMapper() {
+            return jsonMapper;
+        }
+
+        /**
+         * @return the transcoder converting binaries to JSON in a single pass, or null if dynamic messages must be used
+         */
+        public WireJsonTranscoder getTranscoder() {
+            return transcoder;
+        }
+
+        /**
+         * @return the encoder converting JSON to binaries while reading its tokens, or null if dynamic messages must
+         * be used
+         */
+        public JsonWireEncoder getEncoder() {
+            return encoder;
+        }
+
+        public MessageFraming getFraming() {
+            return framing;
+        }
+
+        /**
+         * @return the maximum length of a framed message of the given flowfile, which can never be larger than the
+         * flowfile itself
+         */
+        public long getMaxMessageLength(FlowFile flowfile) {
+            return Math.min(maxMessageSize, flowfile.getSize());
+        }
+
+        public JsonLayout getJsonLayout() {
+            return jsonLayout;
+        }
+
+        /**
+         * @return the settings built by {@link ProtobufProcessor#setUpSettings(ProcessContext)} for this schedule
+         */
+        public Object getSettings() {
+            return settings;
         }
     }
 
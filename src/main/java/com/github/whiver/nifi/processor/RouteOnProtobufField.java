@@ -0,0 +1,299 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.exception.InvalidPredicateException;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.predicate.FieldPredicate;
+import com.github.whiver.nifi.predicate.WireMatcher;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.DynamicRelationship;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+@SideEffectFree
+@Tags({"Protobuf", "route", "Google Protocol Buffer"})
+@CapabilityDescription("Route flowfiles containing Google Protocol Buffer messages according to predicates on their " +
+        "fields, evaluated directly on the binary data without decoding the messages. The content of the flowfiles is " +
+        "left untouched.")
+@DynamicProperty(name = "Relationship name", value = "Predicate on the fields of the messages",
+        description = "Routes the flowfiles whose messages match the predicate to the relationship of the same name. " +
+                "Predicates are conditions joined with &&, such as id >= 10 && type in (HOME, WORK) && has(email).")
+@DynamicRelationship(name = "Name of a dynamic property", description = "Flowfiles whose messages match the predicate " +
+        "of the dynamic property")
+@WritesAttribute(attribute = RouteOnProtobufField.ROUTE_ATTRIBUTE, description = "Name of the relationship the flowfile " +
+        "has been routed to")
+public class RouteOnProtobufField extends ProtobufProcessor {
+    static final String ROUTE_ATTRIBUTE = "protobuf.route";
+
+    static final Relationship UNMATCHED = new Relationship.Builder()
+            .name("unmatched")
+            .description("Flowfiles whose messages match none of the predicates")
+            .build();
+
+    private static final Validator PREDICATE_VALIDATOR = (subject, input, context) -> {
+        String explanation = null;
+        try {
+            FieldPredicate.parse(input);
+        } catch (IllegalArgumentException e) {
+            explanation = e.getMessage();
+        }
+        return new ValidationResult.Builder().subject(subject).input(input).valid(explanation == null)
+                .explanation(explanation).build();
+    };
+
+    private List<PropertyDescriptor> properties;
+    private volatile Set<Relationship> relationships;
+
+    /**
+     * The predicates of the dynamic properties, read when the processor is scheduled
+     */
+    private volatile Routes routes;
+
+    @Override
+    public void init(final ProcessorInitializationContext context) {
+        super.init(context);
+
+        List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
+        properties.removeAll(CONVERSION_PROPERTIES);
+        this.properties = Collections.unmodifiableList(properties);
+
+        Set<Relationship> relationships = new HashSet<>();
+        relationships.add(UNMATCHED);
+        relationships.add(INVALID_SCHEMA);
+        relationships.add(ERROR);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(final String propertyDescriptorName) {
+        PropertyDescriptor.Builder builder = new PropertyDescriptor.Builder()
+                .name(propertyDescriptorName)
+                .description("Predicate of the flowfiles routed to the " + propertyDescriptorName + " relationship")
+                .required(false)
+                .dynamic(true)
+                .expressionLanguageSupported(false);
+
+        if (isReservedName(propertyDescriptorName)) {
+            return builder.addValidator((subject, input, context) -> new ValidationResult.Builder()
+                    .subject(subject).input(input).valid(false)
+                    .explanation("the " + subject + " relationship already exists and cannot be given a predicate")
+                    .build())
+                    .build();
+        }
+        return builder.addValidator(PREDICATE_VALIDATOR).build();
+    }
+
+    /**
+     * @return true if the given name is the name of one of the static relationships, which a dynamic property must not
+     * replace
+     */
+    private static boolean isReservedName(String name) {
+        return UNMATCHED.getName().equals(name) || INVALID_SCHEMA.getName().equals(name) || ERROR.getName().equals(name);
+    }
+
+    @Override
+    public void onPropertyModified(final PropertyDescriptor descriptor, final String oldValue, final String newValue) {
+        if (!descriptor.isDynamic() || isReservedName(descriptor.getName())) {
+            return;
+        }
+
+        Set<Relationship> relationships = new HashSet<>(this.relationships);
+        Relationship relationship = new Relationship.Builder().name(descriptor.getName()).build();
+        if (newValue == null) {
+            relationships.remove(relationship);
+        } else {
+            relationships.add(relationship);
+        }
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @OnScheduled
+    public void setUpRoutes(ProcessContext context) {
+        List<Relationship> relationships = new ArrayList<>();
+        List<FieldPredicate> predicates = new ArrayList<>();
+        for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
+            if (property.getKey().isDynamic() && property.getValue() != null) {
+                relationships.add(new Relationship.Builder().name(property.getKey().getName()).build());
+                predicates.add(FieldPredicate.parse(property.getValue()));
+            }
+        }
+        this.routes = new Routes(relationships, predicates);
+    }
+
+    @Override
+    protected void processFlowFile(ProcessContext processContext, ProcessSession session, FlowFile flowfile,
+                                   Descriptors.Descriptor descriptor, Batch batch) {
+        final Routes routes = this.routes;
+        final WireMatcher matcher;
+        try {
+            matcher = routes.getMatcher(descriptor);
+        } catch (InvalidPredicateException e) {
+            getLogger().error(e.getMessage());
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        final MessageFraming framing = batch.getState().getFraming();
+        final long maxLength = batch.getState().getMaxMessageLength(flowfile);
+        final boolean[] matched = new boolean[matcher.getPredicateCount()];
+        final AtomicLong messageCount = new AtomicLong();
+
+        try {
+            session.read(flowfile, (InputStream in) -> {
+                try {
+                    messageCount.set(match(matcher, framing, maxLength, in, matched));
+                } catch (IOException e) {
+                    throw new ProcessException("Unable to read message: " + e.getMessage(), e);
+                }
+            });
+        } catch (ProcessException e) {
+            getLogger().error(e.getMessage(), e);
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        batch.countMessages(messageCount.get());
+        List<Relationship> destinations = new ArrayList<>();
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i]) {
+                destinations.add(routes.relationships.get(i));
+            }
+        }
+        if (destinations.isEmpty()) {
+            destinations.add(UNMATCHED);
+        }
+
+        // A flowfile matching several predicates is cloned for each of them, before any of the copies is modified
+        List<FlowFile> copies = new ArrayList<>(destinations.size());
+        copies.add(flowfile);
+        for (int i = 1; i < destinations.size(); i++) {
+            copies.add(session.clone(flowfile));
+        }
+        for (int i = 0; i < destinations.size(); i++) {
+            Relationship relationship = destinations.get(i);
+            batch.transfer(session.putAttribute(copies.get(i), ROUTE_ATTRIBUTE, relationship.getName()), relationship);
+        }
+    }
+
+    /**
+     * Evaluate the predicates on the messages of a flowfile. When the messages are framed, a predicate holds when it
+     * holds for all the messages, and the flowfile is not read any further once none of the predicates can hold.
+     * @param matched   Where to write whether each predicate holds
+     * @return  The number of messages read
+     */
+    private static long match(WireMatcher matcher, MessageFraming framing, long maxLength, InputStream in, boolean[] matched) throws IOException {
+        if (framing == MessageFraming.NONE) {
+            CodedInputStream input = CodedInputStream.newInstance(in);
+            input.setSizeLimit(Integer.MAX_VALUE);
+            System.arraycopy(matcher.match(input), 0, matched, 0, matched.length);
+            return 1;
+        }
+
+        Arrays.fill(matched, true);
+        byte[] buffer = new byte[0];
+        long count = 0;
+        boolean matching = true;
+
+        while (matching) {
+            int length = framing.readLength(in, maxLength);
+            if (length == -1) {
+                break;
+            }
+            if (buffer.length < length) {
+                buffer = new byte[(int) Math.max(length, Math.min(maxLength, buffer.length * 2L))];
+            }
+            MessageFraming.readFully(in, buffer, length);
+
+            boolean[] messageMatched = matcher.match(CodedInputStream.newInstance(buffer, 0, length));
+            matching = false;
+            for (int i = 0; i < matched.length; i++) {
+                matched[i] &= messageMatched[i];
+                matching |= matched[i];
+            }
+            count++;
+        }
+
+        if (count == 0) {
+            Arrays.fill(matched, false);
+        }
+        return count;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * The relationships and predicates of the dynamic properties, and the matchers compiled from them for each message
+     * type
+     */
+    private static final class Routes {
+        private final List<Relationship> relationships;
+        private final List<FieldPredicate> predicates;
+        private final Map<Descriptors.Descriptor, WireMatcher> matchers = Collections.synchronizedMap(new WeakHashMap<>());
+
+        Routes(List<Relationship> relationships, List<FieldPredicate> predicates) {
+            this.relationships = relationships;
+            this.predicates = predicates;
+        }
+
+        WireMatcher getMatcher(Descriptors.Descriptor descriptor) throws InvalidPredicateException {
+            WireMatcher matcher = matchers.get(descriptor);
+            if (matcher == null) {
+                matcher = WireMatcher.compile(descriptor, predicates);
+                matchers.put(descriptor, matcher);
+            }
+            return matcher;
+        }
+    }
+}
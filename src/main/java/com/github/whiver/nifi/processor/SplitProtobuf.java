@@ -0,0 +1,299 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.behavior.SideEffectFree;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+@SideEffectFree
+@Tags({"Protobuf", "split", "Google Protocol Buffer"})
+@CapabilityDescription("Split flowfiles containing a stream of framed Google Protocol Buffer messages into flowfiles " +
+        "of at most a given number of messages or bytes. Only the headers of the messages are read, and the splits " +
+        "reference slices of the original content instead of copying it.")
+@WritesAttributes({
+        @WritesAttribute(attribute = SplitProtobuf.MESSAGE_INDEX_ATTRIBUTE, description = "Index of the first message " +
+                "of the split in the original flowfile, starting at 0"),
+        @WritesAttribute(attribute = ProtobufProcessor.MESSAGE_COUNT_ATTRIBUTE, description = "Number of messages in the split"),
+        @WritesAttribute(attribute = ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, description = "Full name of the message " +
+                "type of the split"),
+        @WritesAttribute(attribute = SplitProtobuf.FRAGMENT_ID_ATTRIBUTE, description = "Identifier shared by all the " +
+                "splits of the same flowfile"),
+        @WritesAttribute(attribute = SplitProtobuf.FRAGMENT_INDEX_ATTRIBUTE, description = "Index of the split, " +
+                "starting at 0"),
+        @WritesAttribute(attribute = SplitProtobuf.FRAGMENT_COUNT_ATTRIBUTE, description = "Number of splits of the " +
+                "original flowfile"),
+        @WritesAttribute(attribute = SplitProtobuf.SEGMENT_ORIGINAL_FILENAME_ATTRIBUTE, description = "Filename of " +
+                "the original flowfile")
+})
+public class SplitProtobuf extends ProtobufProcessor {
+    static final String MESSAGE_INDEX_ATTRIBUTE = "protobuf.messageIndex";
+
+    /**
+     * Names of the standard NiFi fragment attributes, so that the splits can be merged back together
+     */
+    static final String FRAGMENT_ID_ATTRIBUTE = "fragment.identifier";
+    static final String FRAGMENT_INDEX_ATTRIBUTE = "fragment.index";
+    static final String FRAGMENT_COUNT_ATTRIBUTE = "fragment.count";
+    static final String SEGMENT_ORIGINAL_FILENAME_ATTRIBUTE = "segment.original.filename";
+
+    static final PropertyDescriptor SPLIT_MESSAGE_COUNT = new PropertyDescriptor.Builder()
+            .name("protobuf.split.messageCount")
+            .displayName("Messages per split")
+            .required(true)
+            .defaultValue("10000")
+            .description("Maximum number of messages in a single split.")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor SPLIT_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.split.maxSize")
+            .displayName("Maximum split size")
+            .required(false)
+            .description("Maximum size of a single split, headers included. A message larger than this size is put in " +
+                    "a split of its own. If not set, the splits are only bounded by their number of messages.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("original")
+            .description("The original flowfiles, once they have been split")
+            .build();
+
+    private List<PropertyDescriptor> properties;
+    private Set<Relationship> relationships;
+
+    private volatile int maxMessages;
+    private volatile long maxSize;
+
+    @Override
+    public void init(final ProcessorInitializationContext context) {
+        super.init(context);
+        List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
+        properties.removeAll(CONVERSION_PROPERTIES);
+        properties.add(properties.indexOf(FRAMING) + 1, SPLIT_MESSAGE_COUNT);
+        properties.add(properties.indexOf(SPLIT_MESSAGE_COUNT) + 1, SPLIT_MAX_SIZE);
+        this.properties = Collections.unmodifiableList(properties);
+
+        Set<Relationship> relationships = new HashSet<>(super.getRelationships());
+        relationships.add(ORIGINAL);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext context) {
+        List<ValidationResult> results = new ArrayList<>();
+        if (MessageFraming.fromValue(context.getProperty(FRAMING).getValue()) == MessageFraming.NONE) {
+            results.add(new ValidationResult.Builder()
+                    .subject(FRAMING.getDisplayName())
+                    .valid(false)
+                    .explanation("only framed messages can be split")
+                    .build());
+        }
+        return results;
+    }
+
+    @OnScheduled
+    public void setUpSplits(ProcessContext context) {
+        this.maxMessages = context.getProperty(SPLIT_MESSAGE_COUNT).asInteger();
+        this.maxSize = context.getProperty(SPLIT_MAX_SIZE).isSet()
+                ? context.getProperty(SPLIT_MAX_SIZE).asDataSize(DataUnit.B).longValue() : 0;
+    }
+
+    @Override
+    protected void processFlowFile(ProcessContext processContext, ProcessSession session, FlowFile flowfile,
+                                   Descriptors.Descriptor descriptor, Batch batch) {
+        final MessageFraming framing = batch.getState().getFraming();
+        final long maxLength = batch.getState().getMaxMessageLength(flowfile);
+        final int maxMessages = this.maxMessages;
+        final long maxSize = this.maxSize;
+        final List<Split> splits = new ArrayList<>();
+
+        // Only the headers are read: the bodies are skipped, so that the memory used does not depend on the size of
+        // the messages
+        try {
+            session.read(flowfile, (InputStream rawIn) -> {
+                PositionInputStream in = new PositionInputStream(new BufferedInputStream(rawIn));
+                Split current = null;
+                long messageIndex = 0;
+                try {
+                    while (true) {
+                        long start = in.position;
+                        int length = framing.readLength(in, maxLength);
+                        if (length == -1) {
+                            break;
+                        }
+                        skipFully(in, length);
+                        long frameSize = in.position - start;
+
+                        if (current == null || current.messageCount == maxMessages
+                                || (maxSize > 0 && current.size + frameSize > maxSize)) {
+                            current = new Split(start, messageIndex);
+                            splits.add(current);
+                        }
+                        current.size += frameSize;
+                        current.messageCount++;
+                        messageIndex++;
+                    }
+                } catch (IOException e) {
+                    throw new ProcessException("Unable to split messages: " + e.getMessage(), e);
+                }
+            });
+        } catch (ProcessException e) {
+            getLogger().error(e.getMessage(), e);
+            batch.transfer(flowfile, ERROR);
+            return;
+        }
+
+        final String fragmentId = UUID.randomUUID().toString();
+        final String filename = flowfile.getAttribute(CoreAttributes.FILENAME.key());
+        long messageCount = 0;
+        for (int i = 0; i < splits.size(); i++) {
+            Split split = splits.get(i);
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(MESSAGE_TYPE_ATTRIBUTE, descriptor.getFullName());
+            attributes.put(MESSAGE_INDEX_ATTRIBUTE, String.valueOf(split.firstMessage));
+            attributes.put(MESSAGE_COUNT_ATTRIBUTE, String.valueOf(split.messageCount));
+            attributes.put(FRAGMENT_ID_ATTRIBUTE, fragmentId);
+            attributes.put(FRAGMENT_INDEX_ATTRIBUTE, String.valueOf(i));
+            attributes.put(FRAGMENT_COUNT_ATTRIBUTE, String.valueOf(splits.size()));
+            if (filename != null) {
+                attributes.put(SEGMENT_ORIGINAL_FILENAME_ATTRIBUTE, filename);
+            }
+
+            // The clone references a slice of the content claim of the original flowfile, nothing is copied
+            FlowFile child = session.clone(flowfile, split.offset, split.size);
+            batch.transfer(session.putAllAttributes(child, attributes), SUCCESS);
+            messageCount += split.messageCount;
+        }
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(FRAGMENT_ID_ATTRIBUTE, fragmentId);
+        attributes.put(FRAGMENT_COUNT_ATTRIBUTE, String.valueOf(splits.size()));
+        batch.countMessages(messageCount);
+        batch.transfer(session.putAllAttributes(flowfile, attributes), ORIGINAL);
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                // skip() may give up before the end of the stream, read() tells whether it has actually been reached
+                if (in.read() == -1) {
+                    throw new EOFException("Truncated message: " + length + " bytes missing");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * A range of consecutive messages of the original flowfile
+     */
+    private static final class Split {
+        private final long offset;
+        private final long firstMessage;
+        private long size;
+        private int messageCount;
+
+        Split(long offset, long firstMessage) {
+            this.offset = offset;
+            this.firstMessage = firstMessage;
+        }
+    }
+
+    /**
+     * An input stream keeping track of the number of bytes read or skipped
+     */
+    private static final class PositionInputStream extends FilterInputStream {
+        private long position;
+
+        PositionInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+}
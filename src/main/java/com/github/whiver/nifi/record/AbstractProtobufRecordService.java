@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.exception.AmbiguousMessageTypeException;
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.github.whiver.nifi.exception.SchemaLoadingException;
+import com.github.whiver.nifi.exception.UnknownMessageTypeException;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.MessageTypeIndex;
+import com.github.whiver.nifi.parser.SchemaCache;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class of the record controller services, resolving the descriptor of the Protobuf messages from the schema path
+ * and message type properties.
+ */
+public abstract class AbstractProtobufRecordService extends AbstractControllerService {
+    /**
+     * Number of schemas kept parsed in memory when the schema path depends on the flowfile attributes
+     */
+    private static final int SCHEMA_CACHE_SIZE = 100;
+
+    static final PropertyDescriptor SCHEMA_PATH = new PropertyDescriptor.Builder()
+            .name("protobuf.schemaPath")
+            .displayName("Schema path")
+            .required(true)
+            .description("Path to the Protocol Buffers schema of the data. The path can reference the flowfile " +
+                    "attributes, such as ${protobuf.schemaPath}.")
+            .expressionLanguageSupported(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor COMPILE_SCHEMA = new PropertyDescriptor.Builder()
+            .name("protobuf.compileSchema")
+            .displayName("Compile schema")
+            .required(true)
+            .defaultValue("false")
+            .description("Set this property to true if the given schema file must be compiled before processing the " +
+                    "data. It is useful if the given schema file is in .proto format.")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor SCHEMA_COMPILER = new PropertyDescriptor.Builder()
+            .name("protobuf.schemaCompiler")
+            .displayName("Schema compiler")
+            .required(true)
+            .defaultValue(CompilerMode.PROTOC.getValue())
+            .allowableValues(CompilerMode.PROTOC.getValue(), CompilerMode.JAVA.getValue())
+            .description("Compiler to use for .proto schemas when protobuf.compileSchema is true: protoc, run in an " +
+                    "external process, or java, run inside NiFi's JVM.")
+            .build();
+
+    static final PropertyDescriptor MESSAGE_TYPE = new PropertyDescriptor.Builder()
+            .name("protobuf.messageType")
+            .displayName("Message type")
+            .required(true)
+            .defaultValue("${protobuf.messageType}")
+            .description("Type of the Protobuf messages, either fully qualified or any unambiguous suffix of it. It " +
+                    "can reference the flowfile attributes.")
+            .expressionLanguageSupported(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    /**
+     * The properties shared by all the record services, to which the implementations add their own
+     */
+    static final List<PropertyDescriptor> COMMON_PROPERTIES = Collections.unmodifiableList(
+            Arrays.asList(SCHEMA_PATH, COMPILE_SCHEMA, SCHEMA_COMPILER, MESSAGE_TYPE));
+
+    protected volatile ConfigurationContext context;
+    private volatile SchemaCache schemaCache;
+    private volatile boolean compileSchema;
+
+    @OnEnabled
+    public void setUpSchemaCache(final ConfigurationContext context) {
+        this.context = context;
+        this.compileSchema = context.getProperty(COMPILE_SCHEMA).asBoolean();
+        this.schemaCache = new SchemaCache(SCHEMA_CACHE_SIZE, 0, TimeUnit.SECONDS,
+                CompilerMode.fromValue(context.getProperty(SCHEMA_COMPILER).getValue()), null);
+    }
+
+    /**
+     * Get the descriptor of the messages, given the schema path and message type properties evaluated for a flowfile.
+     * @param schemaPath    The evaluated schema path property
+     * @param messageType   The evaluated message type property
+     * @return  The descriptor of the message type
+     * @throws IOException  Thrown when the schema cannot be loaded or does not contain the message type
+     */
+    protected Descriptors.Descriptor getDescriptor(PropertyValue schemaPath, PropertyValue messageType) throws IOException {
+        String path = schemaPath.getValue();
+
+        MessageTypeIndex schemaIndex;
+        try {
+            schemaIndex = schemaCache.getIndex(path, compileSchema);
+        } catch (Descriptors.DescriptorValidationException | SchemaLoadingException | SchemaCompilationException e) {
+            throw new IOException("Unable to load schema " + path + ": " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compiling schema " + path, e);
+        }
+
+        try {
+            return schemaIndex.getDescriptor(messageType.getValue());
+        } catch (UnknownMessageTypeException | AmbiguousMessageTypeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
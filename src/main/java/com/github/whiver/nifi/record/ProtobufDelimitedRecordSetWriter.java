@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.mapper.MessageMapper;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import org.apache.nifi.serialization.AbstractRecordSetWriter;
+import org.apache.nifi.serialization.record.Record;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Writes records as varint-delimited Protobuf messages, as MessageLite.writeDelimitedTo would.
+ */
+class ProtobufDelimitedRecordSetWriter extends AbstractRecordSetWriter {
+    static final String MIME_TYPE = "application/x-protobuf";
+
+    private final Descriptors.Descriptor descriptor;
+    private final MessageMapper mapper;
+    private final CodedOutputStream codedOutput;
+
+    ProtobufDelimitedRecordSetWriter(OutputStream out, Descriptors.Descriptor descriptor, MessageMapper mapper) {
+        super(out);
+        this.descriptor = descriptor;
+        this.mapper = mapper;
+        // A single coded stream is used for the whole record set, so that its buffer is allocated only once
+        this.codedOutput = CodedOutputStream.newInstance(out);
+    }
+
+    @Override
+    protected Map<String, String> writeRecord(Record record) throws IOException {
+        Message message = mapper.toMessage(record, descriptor);
+        codedOutput.writeUInt32NoTag(message.getSerializedSize());
+        message.writeTo(codedOutput);
+        return Collections.emptyMap();
+    }
+
+    @Override
+    protected Map<String, String> onFinishRecordSet() throws IOException {
+        codedOutput.flush();
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public String getMimeType() {
+        return MIME_TYPE;
+    }
+
+    public void flush() throws IOException {
+        codedOutput.flush();
+        getOutputStream().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        codedOutput.flush();
+        super.close();
+    }
+}
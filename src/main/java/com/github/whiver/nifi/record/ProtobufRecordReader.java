@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.RecordMapper;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Tags({"Protobuf", "record", "reader", "parser", "Google Protocol Buffer"})
+@CapabilityDescription("Parses data encoded using a Google Protocol Buffer schema into records, so that record-oriented " +
+        "processors can consume Protobuf data directly. Each flowfile contains either a single message or a stream of " +
+        "framed messages, which are read one at a time.")
+public class ProtobufRecordReader extends AbstractProtobufRecordService implements RecordReaderFactory {
+
+    static final PropertyDescriptor FRAMING = new PropertyDescriptor.Builder()
+            .name("protobuf.framing")
+            .displayName("Message framing")
+            .required(true)
+            .defaultValue(MessageFraming.NONE.getValue())
+            .allowableValues(
+                    new AllowableValue(MessageFraming.NONE.getValue(), "None",
+                            "Each flowfile contains a single message."),
+                    new AllowableValue(MessageFraming.VARINT_DELIMITED.getValue(), "Varint length prefix",
+                            "Each message is prefixed with its length encoded as a varint."),
+                    new AllowableValue(MessageFraming.FIXED32_BIG_ENDIAN.getValue(), "4-byte length prefix",
+                            "Each message is prefixed with its length encoded as a 4-byte big-endian integer."),
+                    new AllowableValue(MessageFraming.GRPC.getValue(), "gRPC",
+                            "Each message is prefixed with an uncompressed gRPC frame header."))
+            .description("How several Protobuf messages are framed in a single flowfile.")
+            .build();
+
+    private static final List<PropertyDescriptor> PROPERTIES;
+
+    static {
+        List<PropertyDescriptor> properties = new ArrayList<>(COMMON_PROPERTIES);
+        properties.add(FRAMING);
+        PROPERTIES = Collections.unmodifiableList(properties);
+    }
+
+    private volatile RecordMapper recordMapper;
+    private volatile MessageFraming framing;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return PROPERTIES;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        this.framing = MessageFraming.fromValue(context.getProperty(FRAMING).getValue());
+        this.recordMapper = new RecordMapper();
+    }
+
+    @Override
+    public RecordReader createRecordReader(FlowFile flowFile, InputStream in, ComponentLog logger) throws MalformedRecordException, IOException {
+        Descriptors.Descriptor descriptor = getDescriptor(
+                context.getProperty(SCHEMA_PATH).evaluateAttributeExpressions(flowFile),
+                context.getProperty(MESSAGE_TYPE).evaluateAttributeExpressions(flowFile));
+
+        return new ProtobufRowRecordReader(in, descriptor, framing, recordMapper);
+    }
+}
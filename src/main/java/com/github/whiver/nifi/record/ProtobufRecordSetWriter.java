@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.mapper.MessageMapper;
+import com.github.whiver.nifi.mapper.RecordMapper;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Tags({"Protobuf", "record", "writer", "serializer", "Google Protocol Buffer"})
+@CapabilityDescription("Writes records as Protobuf messages encoded using a Google Protocol Buffer schema, each message " +
+        "being prefixed with its length encoded as a varint, so that a whole record set is written in one pass. Record " +
+        "fields are matched to message fields by name, either as written in the schema or in lowerCamelCase.")
+public class ProtobufRecordSetWriter extends AbstractProtobufRecordService implements RecordSetWriterFactory {
+
+    private volatile RecordMapper recordMapper;
+    private volatile MessageMapper messageMapper;
+
+    /**
+     * The descriptors of the record schemas returned by getSchema, so that createWriter knows which message type to
+     * write, since it is only given the record schema
+     */
+    private final Map<RecordSchema, Descriptors.Descriptor> descriptors = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return COMMON_PROPERTIES;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        this.recordMapper = new RecordMapper();
+        this.messageMapper = new MessageMapper();
+        this.descriptors.clear();
+    }
+
+    @Override
+    public RecordSchema getSchema(Map<String, String> variables, RecordSchema readSchema) throws IOException {
+        Descriptors.Descriptor descriptor = getDescriptor(
+                context.getProperty(SCHEMA_PATH).evaluateAttributeExpressions(variables),
+                context.getProperty(MESSAGE_TYPE).evaluateAttributeExpressions(variables));
+
+        RecordSchema schema = recordMapper.getRecordSchema(descriptor);
+        descriptors.put(schema, descriptor);
+        return schema;
+    }
+
+    @Override
+    public RecordSetWriter createWriter(ComponentLog logger, RecordSchema schema, OutputStream out) throws IOException {
+        Descriptors.Descriptor descriptor = descriptors.get(schema);
+        if (descriptor == null) {
+            // The schema does not come from getSchema, the properties must then not depend on the flowfile attributes
+            descriptor = getDescriptor(
+                    context.getProperty(SCHEMA_PATH).evaluateAttributeExpressions(),
+                    context.getProperty(MESSAGE_TYPE).evaluateAttributeExpressions());
+        }
+
+        return new ProtobufDelimitedRecordSetWriter(out, descriptor, messageMapper);
+    }
+}
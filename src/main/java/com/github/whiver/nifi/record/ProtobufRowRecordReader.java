@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.RecordMapper;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the Protobuf messages of a flowfile as records, one message at a time.
+ */
+class ProtobufRowRecordReader implements RecordReader {
+    private final InputStream in;
+    private final Descriptors.Descriptor descriptor;
+    private final MessageFraming framing;
+    private final RecordMapper mapper;
+
+    private byte[] buffer = new byte[0];
+    private boolean singleMessageRead = false;
+
+    ProtobufRowRecordReader(InputStream in, Descriptors.Descriptor descriptor, MessageFraming framing, RecordMapper mapper) {
+        this.in = in;
+        this.descriptor = descriptor;
+        this.framing = framing;
+        this.mapper = mapper;
+    }
+
+    public Record nextRecord() throws IOException, MalformedRecordException {
+        return nextRecord(true, false);
+    }
+
+    /**
+     * Records are always built with the types of the schema, so both flags are ignored
+     */
+    public Record nextRecord(boolean coerceTypes, boolean dropUnknownFields) throws IOException, MalformedRecordException {
+        DynamicMessage message;
+
+        try {
+            if (framing == MessageFraming.NONE) {
+                if (singleMessageRead) {
+                    return null;
+                }
+                singleMessageRead = true;
+                message = DynamicMessage.parseFrom(descriptor, in);
+            } else {
+                int length = framing.readLength(in);
+                if (length == -1) {
+                    return null;
+                }
+
+                // Only the current message is kept in memory, reusing the same buffer as long as it is large enough
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                MessageFraming.readFully(in, buffer, length);
+                message = DynamicMessage.parseFrom(descriptor, CodedInputStream.newInstance(buffer, 0, length));
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new MalformedRecordException("Unable to decode " + descriptor.getFullName() + " message: " + e.getMessage(), e);
+        }
+
+        return mapper.toRecord(message);
+    }
+
+    @Override
+    public RecordSchema getSchema() {
+        return mapper.getRecordSchema(descriptor);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
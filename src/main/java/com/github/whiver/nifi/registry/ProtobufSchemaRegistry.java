@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.registry;
+
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.github.whiver.nifi.exception.SchemaLoadingException;
+import com.github.whiver.nifi.exception.UnknownSchemaException;
+import com.github.whiver.nifi.parser.MessageTypeIndex;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.controller.ControllerService;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A controller service owning the loading and caching of Protobuf schemas, so that processors sharing the same schemas
+ * parse them only once and share the same descriptors.
+ */
+public interface ProtobufSchemaRegistry extends ControllerService {
+
+    /**
+     * Get the schema stored at the given path, loading it only if it is not already cached.
+     * @param pathToSchema  Path to the schema file on disk
+     * @param compileSchema true if the given schema is still in raw .proto format
+     * @return  The index of the message types of the schema
+     */
+    MessageTypeIndex getSchemaByPath(String pathToSchema, boolean compileSchema) throws Descriptors.DescriptorValidationException, SchemaLoadingException, SchemaCompilationException, InterruptedException, IOException;
+
+    /**
+     * Get a schema registered under a logical name, loading it only if it is not already cached.
+     * @param name      Name of the schema
+     * @param version   Version of the schema, or null to get its latest version
+     * @return  The index of the message types of the schema
+     * @throws UnknownSchemaException   Thrown when no schema is registered under the given name and version
+     */
+    MessageTypeIndex getSchemaByName(String name, String version) throws UnknownSchemaException, Descriptors.DescriptorValidationException, SchemaLoadingException, SchemaCompilationException, InterruptedException, IOException;
+
+    /**
+     * @return the names of all the registered schemas
+     */
+    Set<String> getSchemaNames();
+}
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.registry;
+
+import com.github.whiver.nifi.parser.CompilerMode;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.util.StandardValidators;
+
+/**
+ * The properties configuring how schemas are compiled and cached, shared by the processors and the schema registry so
+ * that both are configured the same way.
+ */
+public final class SchemaLoadingProperties {
+    public static final AllowableValue PROTOC_COMPILER = new AllowableValue(CompilerMode.PROTOC.getValue(), "protoc",
+            "Compile schemas with Google's protoc compiler, run in an external process.");
+
+    public static final AllowableValue JAVA_COMPILER = new AllowableValue(CompilerMode.JAVA.getValue(), "Java",
+            "Compile schemas inside NiFi's JVM, without forking any process. Useful on hosts where running external " +
+                    "processes is slow or forbidden.");
+
+    public static final PropertyDescriptor SCHEMA_COMPILER = new PropertyDescriptor.Builder()
+            .name("protobuf.schemaCompiler")
+            .displayName("Schema compiler")
+            .required(true)
+            .defaultValue(PROTOC_COMPILER.getValue())
+            .allowableValues(PROTOC_COMPILER, JAVA_COMPILER)
+            .description("Compiler to use for .proto schemas.")
+            .build();
+
+    public static final PropertyDescriptor SCHEMA_CACHE_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.schemaCacheSize")
+            .displayName("Schema cache size")
+            .required(true)
+            .defaultValue("100")
+            .description("Maximum number of schemas loaded by path, such as the ones given in the protobuf.schemaPath " +
+                    "attribute, to keep parsed in memory. The least recently used schemas are evicted first. Set to 0 " +
+                    "to disable the cache.")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SCHEMA_CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("protobuf.schemaCacheTTL")
+            .displayName("Schema cache TTL")
+            .required(true)
+            .defaultValue("1 hour")
+            .description("Maximum time a schema is kept in the cache after being parsed. Set to 0 sec to keep the " +
+                    "schemas until they are evicted. Note that a schema file modified on the disk is always parsed again.")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor DESCRIPTOR_CACHE_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("protobuf.descriptorCacheDirectory")
+            .displayName("Compiled descriptor cache directory")
+            .required(false)
+            .description("Directory where to keep the descriptors compiled from .proto schemas, so that a schema is " +
+                    "compiled only once, even across processors and NiFi restarts. Descriptors are identified by the " +
+                    "content of the .proto file, of its imports and by the compiler version. If not set, schemas are " +
+                    "compiled again each time they are loaded.")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.createDirectoryExistsValidator(false, true))
+            .build();
+
+    public static final PropertyDescriptor DESCRIPTOR_CACHE_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("protobuf.descriptorCacheMaxSize")
+            .displayName("Compiled descriptor cache max size")
+            .required(true)
+            .defaultValue("100 MB")
+            .description("Maximum total size of the compiled descriptor cache directory. The least recently used " +
+                    "descriptors are deleted first.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+
+    private SchemaLoadingProperties() {
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.registry;
+
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.github.whiver.nifi.exception.SchemaLoadingException;
+import com.github.whiver.nifi.exception.UnknownSchemaException;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.DescriptorCache;
+import com.github.whiver.nifi.parser.MessageTypeIndex;
+import com.github.whiver.nifi.parser.SchemaCache;
+import com.google.protobuf.Descriptors;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@Tags({"Protobuf", "schema", "registry", "Google Protocol Buffer"})
+@CapabilityDescription("Loads and caches Protocol Buffers schemas once for all the processors referencing this service. " +
+        "Schemas are looked up either by path, or by a logical name and version registered as a dynamic property.")
+@DynamicProperty(name = "<schema name>:<version>", value = "Path to the schema file",
+        description = "Registers the schema file under the given name and version. The version can be omitted, and the " +
+                "latest version of a schema is used when none is requested.")
+public class StandardProtobufSchemaRegistry extends AbstractControllerService implements ProtobufSchemaRegistry {
+    /**
+     * Separator between the name and the version of a schema in the dynamic property names
+     */
+    static final String VERSION_SEPARATOR = ":";
+
+    /**
+     * Orders versions such as 1.2 and 1.10 by comparing each dot-separated part numerically when possible
+     */
+    static final Comparator<String> VERSION_ORDER = (first, second) -> {
+        String[] firstParts = first.split("\\.");
+        String[] secondParts = second.split("\\.");
+
+        for (int i = 0; i < Math.min(firstParts.length, secondParts.length); i++) {
+            int result;
+            try {
+                result = Long.compare(Long.parseLong(firstParts[i]), Long.parseLong(secondParts[i]));
+            } catch (NumberFormatException e) {
+                result = firstParts[i].compareTo(secondParts[i]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(firstParts.length, secondParts.length);
+    };
+
+    private static final List<PropertyDescriptor> PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+            SchemaLoadingProperties.SCHEMA_CACHE_SIZE, SchemaLoadingProperties.SCHEMA_CACHE_TTL,
+            SchemaLoadingProperties.SCHEMA_COMPILER, SchemaLoadingProperties.DESCRIPTOR_CACHE_DIRECTORY,
+            SchemaLoadingProperties.DESCRIPTOR_CACHE_MAX_SIZE));
+
+    private volatile SchemaCache schemaCache;
+
+    /**
+     * Paths of the registered schemas, by name then by version
+     */
+    private volatile Map<String, NavigableMap<String, String>> registeredSchemas = Collections.emptyMap();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return PROPERTIES;
+    }
+
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(final String propertyDescriptorName) {
+        return new PropertyDescriptor.Builder()
+                .name(propertyDescriptorName)
+                .description("Path to the schema registered as " + propertyDescriptorName)
+                .required(false)
+                .dynamic(true)
+                .expressionLanguageSupported(false)
+                .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+                .build();
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        DescriptorCache descriptorCache = null;
+        if (context.getProperty(SchemaLoadingProperties.DESCRIPTOR_CACHE_DIRECTORY).isSet()) {
+            descriptorCache = new DescriptorCache(new File(context.getProperty(SchemaLoadingProperties.DESCRIPTOR_CACHE_DIRECTORY).getValue()),
+                    context.getProperty(SchemaLoadingProperties.DESCRIPTOR_CACHE_MAX_SIZE).asDataSize(DataUnit.B).longValue());
+        }
+
+        this.schemaCache = new SchemaCache(
+                context.getProperty(SchemaLoadingProperties.SCHEMA_CACHE_SIZE).asInteger(),
+                context.getProperty(SchemaLoadingProperties.SCHEMA_CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS,
+                CompilerMode.fromValue(context.getProperty(SchemaLoadingProperties.SCHEMA_COMPILER).getValue()),
+                descriptorCache);
+
+        Map<String, NavigableMap<String, String>> registeredSchemas = new HashMap<>();
+        for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
+            if (!property.getKey().isDynamic() || property.getValue() == null) {
+                continue;
+            }
+
+            String name = property.getKey().getName();
+            String version = "";
+            int separator = name.lastIndexOf(VERSION_SEPARATOR);
+            if (separator != -1) {
+                version = name.substring(separator + 1);
+                name = name.substring(0, separator);
+            }
+            registeredSchemas.computeIfAbsent(name, n -> new TreeMap<>(VERSION_ORDER)).put(version, property.getValue());
+        }
+        this.registeredSchemas = registeredSchemas;
+    }
+
+    @Override
+    public MessageTypeIndex getSchemaByPath(String pathToSchema, boolean compileSchema) throws Descriptors.DescriptorValidationException, SchemaLoadingException, SchemaCompilationException, InterruptedException, IOException {
+        return schemaCache.getIndex(pathToSchema, compileSchema);
+    }
+
+    @Override
+    public MessageTypeIndex getSchemaByName(String name, String version) throws UnknownSchemaException, Descriptors.DescriptorValidationException, SchemaLoadingException, SchemaCompilationException, InterruptedException, IOException {
+        NavigableMap<String, String> versions = registeredSchemas.get(name);
+        if (versions == null) {
+            throw new UnknownSchemaException(name, version);
+        }
+
+        String path = version == null || version.isEmpty() ? versions.lastEntry().getValue() : versions.get(version);
+        if (path == null) {
+            throw new UnknownSchemaException(name, version);
+        }
+
+        // Registered .proto files are compiled, any other file is expected to be a compiled descriptor set
+        return schemaCache.getIndex(path, path.endsWith(".proto"));
+    }
+
+    @Override
+    public Set<String> getSchemaNames() {
+        return Collections.unmodifiableSet(registeredSchemas.keySet());
+    }
+
+    /**
+     * @return the cache of the schemas, exposing its hit, miss and eviction counts
+     */
+    public SchemaCache getSchemaCache() {
+        return schemaCache;
+    }
+}
@@ -28,16 +28,35 @@ package com.github.whiver.nifi.service;
 
 import com.github.os72.protobuf.dynamic.DynamicSchema;
 import com.github.whiver.nifi.exception.*;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.FieldMaskFilter;
 import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.mapper.JsonWireEncoder;
+import com.github.whiver.nifi.mapper.WireJsonTranscoder;
 import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ProtobufService {
+    private static final byte[] ARRAY_SEPARATOR = ",\n".getBytes(StandardCharsets.UTF_8);
+
     /**
      * Handle all the logic leading to the decoding of a Protobuf-encoded binary given a schema file path.
      * @param schema  Schema used to decode the binary data
@@ -52,7 +71,6 @@ public class ProtobufService {
      */
     public static String decodeProtobuf(DynamicSchema schema, String messageType, InputStream encodedData) throws InvalidProtocolBufferException, Descriptors.DescriptorValidationException, UnknownMessageTypeException, MessageDecodingException, SchemaLoadingException {
         Descriptors.Descriptor descriptor;
-        DynamicMessage message;
 
         descriptor = schema.getMessageDescriptor(messageType);
 
@@ -60,6 +78,20 @@ public class ProtobufService {
             throw new UnknownMessageTypeException(messageType);
         }
 
+        return decodeProtobuf(descriptor, encodedData);
+    }
+
+    /**
+     * Handle all the logic leading to the decoding of a Protobuf-encoded binary given the descriptor of its message type.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param encodedData   Encoded data source
+     * @return  A JSON representation of the data, contained in a Java String
+     * @throws InvalidProtocolBufferException   Thrown when an error occurs during the encoding of the decoded data into JSON
+     * @throws MessageDecodingException Thrown when an error occurs during the binary decoding
+     */
+    public static String decodeProtobuf(Descriptors.Descriptor descriptor, InputStream encodedData) throws InvalidProtocolBufferException, MessageDecodingException {
+        DynamicMessage message;
+
         try {
             message = DynamicMessage.parseFrom(descriptor, encodedData);
         } catch (IOException e) {
@@ -69,6 +101,45 @@ public class ProtobufService {
         return JSONMapper.toJSON(message);
     }
 
+    /**
+     * Handle all the logic leading to the decoding of a Protobuf-encoded binary given the descriptor of its message type,
+     * writing the JSON representation of the data directly to the given stream instead of building a String.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param encodedData   Encoded data source
+     * @param jsonOutput    The stream where to output the JSON data, encoded in UTF-8
+     * @throws InvalidProtocolBufferException   Thrown when an error occurs during the encoding of the decoded data into JSON
+     * @throws MessageDecodingException Thrown when an error occurs during the binary decoding
+     * @throws IOException  Thrown when the JSON data cannot be written
+     */
+    public static void decodeProtobuf(Descriptors.Descriptor descriptor, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        decodeProtobuf(descriptor, JSONMapper.getDefault(), encodedData, jsonOutput);
+    }
+
+    /**
+     * Handle all the logic leading to the decoding of a Protobuf-encoded binary given the descriptor of its message type,
+     * writing the JSON representation of the data directly to the given stream instead of building a String.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param mapper        Mapper used to print the data as JSON
+     * @param encodedData   Encoded data source
+     * @param jsonOutput    The stream where to output the JSON data, encoded in UTF-8
+     * @throws InvalidProtocolBufferException   Thrown when an error occurs during the encoding of the decoded data into JSON
+     * @throws MessageDecodingException Thrown when an error occurs during the binary decoding
+     * @throws IOException  Thrown when the JSON data cannot be written
+     */
+    public static void decodeProtobuf(Descriptors.Descriptor descriptor, JSONMapper mapper, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        DynamicMessage message;
+
+        try {
+            message = DynamicMessage.parseFrom(descriptor, encodedData);
+        } catch (IOException e) {
+            throw new MessageDecodingException(e);
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(jsonOutput, StandardCharsets.UTF_8));
+        mapper.print(message, writer);
+        writer.flush();
+    }
+
     /**
      * Handle all the logic leading to the decoding of a Protobuf-encoded binary given a schema file path.
      * @param pathToSchema  Path to the .desc schema file on disk
@@ -86,6 +157,463 @@ public class ProtobufService {
         return decodeProtobuf(SchemaParser.parseSchema(pathToSchema, compileSchema), messageType, encodedData);
     }
 
+    /**
+     * Decode a stream of framed Protobuf messages, one message at a time, into a stream of JSON messages.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param framing       Framing of the messages in the encoded stream
+     * @param layout        Layout of the JSON messages in the output stream, ignored if the messages are not framed
+     * @param mapper        Mapper used to print the data as JSON
+     * @param encodedData   Encoded data source
+     * @param jsonOutput    The stream where to output the JSON data, encoded in UTF-8
+     * @return  The number of decoded messages
+     * @throws InvalidProtocolBufferException   Thrown when an error occurs during the encoding of the decoded data into JSON
+     * @throws MessageDecodingException Thrown when an error occurs during the binary decoding
+     * @throws IOException  Thrown when the JSON data cannot be written
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        return decodeProtobuf(descriptor, framing, layout, mapper, MessageFraming.DEFAULT_MAX_MESSAGE_LENGTH, encodedData, jsonOutput);
+    }
+
+    /**
+     * Same as {@link #decodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, InputStream, OutputStream)},
+     * but rejecting the messages longer than the given length before allocating any memory for them.
+     * @param maxLength Maximum length of a single message, usually bounded by the size of the encoded data
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, long maxLength, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        if (framing == MessageFraming.NONE) {
+            decodeProtobuf(descriptor, mapper, encodedData, jsonOutput);
+            return 1;
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(jsonOutput, StandardCharsets.UTF_8));
+        byte[] buffer = new byte[0];
+        long count = 0;
+
+        if (layout == JsonLayout.ARRAY) {
+            writer.write('[');
+        }
+
+        while (true) {
+            int length;
+            DynamicMessage message;
+
+            try {
+                length = framing.readLength(encodedData, maxLength);
+                if (length == -1) {
+                    break;
+                }
+
+                // Only the current message is kept in memory, reusing the same buffer as long as it is large enough
+                if (buffer.length < length) {
+                    buffer = new byte[growBuffer(buffer.length, length, maxLength)];
+                }
+                MessageFraming.readFully(encodedData, buffer, length);
+                message = DynamicMessage.parseFrom(descriptor, CodedInputStream.newInstance(buffer, 0, length));
+            } catch (IOException e) {
+                throw new MessageDecodingException(e);
+            }
+
+            if (layout == JsonLayout.ARRAY) {
+                if (count > 0) {
+                    writer.write(",\n");
+                }
+                mapper.print(message, writer);
+            } else {
+                // Newline-delimited JSON requires each message to be printed on a single line
+                mapper.printCompact(message, writer);
+                writer.write('\n');
+            }
+            count++;
+        }
+
+        if (layout == JsonLayout.ARRAY) {
+            writer.write(']');
+        }
+        writer.flush();
+
+        return count;
+    }
+
+    /**
+     * Same as {@link #decodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, InputStream, OutputStream)},
+     * but converting the messages to JSON with the given transcoder whenever possible, without building a
+     * DynamicMessage for each of them. The JSON output is the same.
+     * @param transcoder    Transcoder producing the same JSON as the mapper, or null to always use the mapper
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, WireJsonTranscoder transcoder, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        return decodeProtobuf(descriptor, framing, layout, mapper, transcoder, null, encodedData, jsonOutput);
+    }
+
+    /**
+     * Same as {@link #decodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, WireJsonTranscoder, InputStream, OutputStream)},
+     * but only decoding the fields selected by the given projection. The other fields are skipped at the wire level,
+     * and are written as if they were not set.
+     * @param projection    Projection of the message type on a field mask, or null to decode all the fields
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, WireJsonTranscoder transcoder, FieldMaskFilter.Projection projection, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        return decodeProtobuf(descriptor, framing, layout, mapper, transcoder, projection, MessageFraming.DEFAULT_MAX_MESSAGE_LENGTH, encodedData, jsonOutput);
+    }
+
+    /**
+     * Same as {@link #decodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, WireJsonTranscoder, FieldMaskFilter.Projection, InputStream, OutputStream)},
+     * but rejecting the messages longer than the given length before allocating any memory for them.
+     * @param maxLength Maximum length of a single message, usually bounded by the size of the encoded data
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, WireJsonTranscoder transcoder, FieldMaskFilter.Projection projection, long maxLength, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        if (transcoder != null && !transcoder.supports(descriptor)) {
+            transcoder = null;
+        }
+        if (transcoder == null && projection == null) {
+            return decodeProtobuf(descriptor, framing, layout, mapper, maxLength, encodedData, jsonOutput);
+        }
+
+        OutputStream output = new BufferedOutputStream(jsonOutput);
+
+        if (framing == MessageFraming.NONE) {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int read = encodedData.read(chunk); read != -1; read = encodedData.read(chunk)) {
+                message.write(chunk, 0, read);
+            }
+
+            byte[] data = message.toByteArray();
+            int length = data.length;
+            if (projection != null) {
+                byte[] projected = new byte[length];
+                try {
+                    length = projection.filter(data, length, projected);
+                } catch (IOException e) {
+                    throw new MessageDecodingException(e);
+                }
+                data = projected;
+            }
+            transcodeMessage(descriptor, mapper, transcoder, data, length, mapper.isCompact(), output);
+            output.flush();
+            return 1;
+        }
+
+        byte[] buffer = new byte[0];
+        byte[] projected = new byte[0];
+        long count = 0;
+
+        if (layout == JsonLayout.ARRAY) {
+            output.write('[');
+        }
+
+        while (true) {
+            int length;
+            try {
+                length = framing.readLength(encodedData, maxLength);
+                if (length == -1) {
+                    break;
+                }
+
+                if (buffer.length < length) {
+                    buffer = new byte[growBuffer(buffer.length, length, maxLength)];
+                }
+                MessageFraming.readFully(encodedData, buffer, length);
+
+                if (projection != null) {
+                    if (projected.length < length) {
+                        projected = new byte[buffer.length];
+                    }
+                    length = projection.filter(buffer, length, projected);
+                }
+            } catch (IOException e) {
+                throw new MessageDecodingException(e);
+            }
+
+            byte[] data = projection != null ? projected : buffer;
+            if (layout == JsonLayout.ARRAY) {
+                if (count > 0) {
+                    output.write(ARRAY_SEPARATOR);
+                }
+                transcodeMessage(descriptor, mapper, transcoder, data, length, mapper.isCompact(), output);
+            } else {
+                // Newline-delimited JSON requires each message to be printed on a single line
+                transcodeMessage(descriptor, mapper, transcoder, data, length, true, output);
+                output.write('\n');
+            }
+            count++;
+        }
+
+        if (layout == JsonLayout.ARRAY) {
+            output.write(']');
+        }
+        output.flush();
+
+        return count;
+    }
+
+    /**
+     * Same as {@link #decodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, WireJsonTranscoder, FieldMaskFilter.Projection, InputStream, OutputStream)},
+     * but decoding the framed messages in parallel on the given pool. The stream is read by windows of messages whose
+     * offsets are indexed from their headers, each window is cut in chunks of at least minChunkSize bytes decoded
+     * concurrently, and the JSON of the chunks is written in the original order, so that the output is the same.
+     * @param pool          Pool the chunks are decoded on, or null to decode the messages on the current thread
+     * @param minChunkSize  Minimum number of bytes of messages decoded by a single task
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, WireJsonTranscoder transcoder, FieldMaskFilter.Projection projection, ForkJoinPool pool, int minChunkSize, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        return decodeProtobuf(descriptor, framing, layout, mapper, transcoder, projection, pool, minChunkSize, MessageFraming.DEFAULT_MAX_MESSAGE_LENGTH, encodedData, jsonOutput);
+    }
+
+    /**
+     * Same as {@link #decodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, WireJsonTranscoder, FieldMaskFilter.Projection, ForkJoinPool, int, InputStream, OutputStream)},
+     * but rejecting the messages longer than the given length before allocating any memory for them.
+     * @param maxLength Maximum length of a single message, usually bounded by the size of the encoded data
+     */
+    public static long decodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, WireJsonTranscoder transcoder, FieldMaskFilter.Projection projection, ForkJoinPool pool, int minChunkSize, long maxLength, InputStream encodedData, OutputStream jsonOutput) throws InvalidProtocolBufferException, MessageDecodingException, IOException {
+        if (pool == null || framing == MessageFraming.NONE) {
+            return decodeProtobuf(descriptor, framing, layout, mapper, transcoder, projection, maxLength, encodedData, jsonOutput);
+        }
+        if (transcoder != null && !transcoder.supports(descriptor)) {
+            transcoder = null;
+        }
+
+        // A window holds a few chunks per thread, so that the threads finishing early do not wait for the others
+        final int windowSize = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (long) minChunkSize * pool.getParallelism() * 4));
+        final OutputStream output = new BufferedOutputStream(jsonOutput);
+        byte[] window = new byte[Math.min(windowSize, 65536)];
+        int[] offsets = new int[64];
+        int[] lengths = new int[64];
+        long count = 0;
+        boolean endOfStream = false;
+
+        if (layout == JsonLayout.ARRAY) {
+            output.write('[');
+        }
+
+        while (!endOfStream) {
+            // Index the messages of the next window, reading only their headers to find their offsets
+            int used = 0;
+            int messages = 0;
+            try {
+                while (used < windowSize) {
+                    int length = framing.readLength(encodedData, maxLength);
+                    if (length == -1) {
+                        endOfStream = true;
+                        break;
+                    }
+                    if (window.length - used < length) {
+                        window = Arrays.copyOf(window, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) used + length, window.length * 2L)));
+                    }
+                    MessageFraming.readFully(encodedData, window, used, length);
+
+                    if (messages == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, messages * 2);
+                        lengths = Arrays.copyOf(lengths, messages * 2);
+                    }
+                    offsets[messages] = used;
+                    lengths[messages] = length;
+                    used += length;
+                    messages++;
+                }
+            } catch (IOException e) {
+                throw new MessageDecodingException(e);
+            }
+
+            // Cut the window in chunks, decoded concurrently but written in order
+            List<Callable<byte[]>> chunks = new ArrayList<>();
+            int chunkStart = 0;
+            int chunkSize = 0;
+            for (int i = 0; i < messages; i++) {
+                chunkSize += lengths[i];
+                if (chunkSize >= minChunkSize || i == messages - 1) {
+                    chunks.add(chunkDecoder(descriptor, layout, mapper, transcoder, projection, window, offsets, lengths,
+                            chunkStart, i + 1, count + chunkStart == 0));
+                    chunkStart = i + 1;
+                    chunkSize = 0;
+                }
+            }
+
+            if (chunks.size() == 1) {
+                output.write(callChunk(chunks.get(0)));
+            } else if (!chunks.isEmpty()) {
+                List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(chunks.size());
+                for (Callable<byte[]> chunk : chunks) {
+                    tasks.add(pool.submit(chunk));
+                }
+                try {
+                    for (ForkJoinTask<byte[]> task : tasks) {
+                        output.write(joinChunk(task));
+                    }
+                } finally {
+                    // When a chunk cannot be decoded, the chunks not started yet are not decoded at all
+                    for (ForkJoinTask<byte[]> task : tasks) {
+                        task.cancel(false);
+                    }
+                }
+            }
+            count += messages;
+        }
+
+        if (layout == JsonLayout.ARRAY) {
+            output.write(']');
+        }
+        output.flush();
+
+        return count;
+    }
+
+    /**
+     * @return the new size of a buffer too small for a message of the given length, doubling it but never beyond the
+     * maximum length of a message
+     */
+    private static int growBuffer(int size, int length, long maxLength) {
+        return (int) Math.max(length, Math.min(maxLength, size * 2L));
+    }
+
+    /**
+     * @return a task writing the JSON of the messages of the window from the index from (inclusive) to the index to
+     * (exclusive), with the separators of the given layout
+     */
+    private static Callable<byte[]> chunkDecoder(Descriptors.Descriptor descriptor, JsonLayout layout, JSONMapper mapper, WireJsonTranscoder transcoder, FieldMaskFilter.Projection projection, byte[] window, int[] offsets, int[] lengths, int from, int to, boolean first) {
+        return () -> {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[0];
+            byte[] projected = new byte[0];
+
+            for (int i = from; i < to; i++) {
+                // The transcoder and the projection read messages from the start of their buffer
+                int length = lengths[i];
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                System.arraycopy(window, offsets[i], buffer, 0, length);
+
+                byte[] data = buffer;
+                if (projection != null) {
+                    if (projected.length < length) {
+                        projected = new byte[buffer.length];
+                    }
+                    try {
+                        length = projection.filter(buffer, length, projected);
+                    } catch (IOException e) {
+                        throw new MessageDecodingException(e);
+                    }
+                    data = projected;
+                }
+
+                if (layout == JsonLayout.ARRAY) {
+                    if (i > from || !first) {
+                        output.write(ARRAY_SEPARATOR);
+                    }
+                    transcodeMessage(descriptor, mapper, transcoder, data, length, mapper.isCompact(), output);
+                } else {
+                    transcodeMessage(descriptor, mapper, transcoder, data, length, true, output);
+                    output.write('\n');
+                }
+            }
+            return output.toByteArray();
+        };
+    }
+
+    private static byte[] callChunk(Callable<byte[]> chunk) throws MessageDecodingException, IOException {
+        try {
+            return chunk.call();
+        } catch (MessageDecodingException | IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] joinChunk(ForkJoinTask<byte[]> task) throws MessageDecodingException, IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding messages");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessageDecodingException) {
+                throw (MessageDecodingException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Write a single message as JSON with the transcoder, or with the mapper when there is no transcoder or when it
+     * cannot convert the message
+     */
+    private static void transcodeMessage(Descriptors.Descriptor descriptor, JSONMapper mapper, WireJsonTranscoder transcoder, byte[] data, int length, boolean compact, OutputStream output) throws MessageDecodingException, IOException {
+        if (transcoder != null && transcoder.transcode(descriptor, data, length, compact, output)) {
+            return;
+        }
+
+        DynamicMessage message;
+        try {
+            message = DynamicMessage.parseFrom(descriptor, CodedInputStream.newInstance(data, 0, length));
+        } catch (IOException e) {
+            throw new MessageDecodingException(e);
+        }
+
+        // The writer is only flushed, closing it would close the output
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (compact) {
+            mapper.printCompact(message, writer);
+        } else {
+            mapper.print(message, writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Same as {@link #encodeProtobuf(Descriptors.Descriptor, MessageFraming, JsonLayout, JSONMapper, InputStream, OutputStream)},
+     * but writing the binaries with the given encoder while reading the JSON tokens whenever possible, which is much
+     * faster than building a JSON tree and a DynamicMessage for each message. The binary output is the same.
+     * @param encoder   Encoder accepting the same JSON as the mapper, or null to always use the mapper
+     */
+    public static long encodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, JsonWireEncoder encoder, InputStream jsonData, OutputStream binaryOutput) throws IOException, MessageEncodingException {
+        if (encoder == null || !encoder.supports(descriptor)) {
+            return encodeProtobuf(descriptor, framing, layout, mapper, jsonData, binaryOutput);
+        }
+
+        JsonReader jsonReader = new JsonReader(new BufferedReader(new InputStreamReader(jsonData, StandardCharsets.UTF_8)));
+        OutputStream output = new BufferedOutputStream(binaryOutput);
+        long count = 0;
+
+        try {
+            if (framing == MessageFraming.NONE) {
+                encoder.encode(descriptor, jsonReader, framing, output);
+                count++;
+            } else {
+                if (layout == JsonLayout.ARRAY) {
+                    jsonReader.beginArray();
+                } else {
+                    // Newline-delimited JSON is a sequence of top-level values, which is only accepted in lenient mode
+                    jsonReader.setLenient(true);
+                }
+
+                while (layout == JsonLayout.ARRAY ? jsonReader.hasNext() : jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                    encoder.encode(descriptor, jsonReader, framing, output);
+                    count++;
+                }
+
+                if (layout == JsonLayout.ARRAY) {
+                    jsonReader.endArray();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Gson reports malformed JSON with unchecked exceptions
+            throw new IOException("Unable to parse JSON data: " + e.getMessage(), e);
+        }
+
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new MessageEncodingException(e);
+        }
+        return count;
+    }
+
     /**
      * Handle all the logic leading to the encoding of a Protobuf-encoded binary given a schema file path and a JSON
      * data file.
@@ -101,7 +629,6 @@ public class ProtobufService {
      */
     public static void encodeProtobuf(DynamicSchema schema, String messageType, InputStream jsonData, OutputStream binaryOutput) throws Descriptors.DescriptorValidationException, IOException, MessageEncodingException, UnknownMessageTypeException, SchemaLoadingException {
         Descriptors.Descriptor descriptor;
-        Message message;
 
         descriptor = schema.getMessageDescriptor(messageType);
 
@@ -109,11 +636,40 @@ public class ProtobufService {
             throw new UnknownMessageTypeException(messageType);
         }
 
+        encodeProtobuf(descriptor, jsonData, binaryOutput);
+    }
+
+    /**
+     * Handle all the logic leading to the encoding of a Protobuf-encoded binary given the descriptor of its message type
+     * and a JSON data file.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param jsonData      Data to encode, structured in a JSON format
+     * @param binaryOutput  The stream where to output the encoded data
+     * @throws IOException  Thrown when an errors occurs while parsing the JSON data
+     * @throws MessageEncodingException Thrown when an error occurs during the binary encoding
+     */
+    public static void encodeProtobuf(Descriptors.Descriptor descriptor, InputStream jsonData, OutputStream binaryOutput) throws IOException, MessageEncodingException {
+        encodeProtobuf(descriptor, JSONMapper.getDefault(), jsonData, binaryOutput);
+    }
+
+    /**
+     * Handle all the logic leading to the encoding of a Protobuf-encoded binary given the descriptor of its message type
+     * and a JSON data file.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param mapper        Mapper used to parse the JSON data
+     * @param jsonData      Data to encode, structured in a JSON format
+     * @param binaryOutput  The stream where to output the encoded data
+     * @throws IOException  Thrown when an errors occurs while parsing the JSON data
+     * @throws MessageEncodingException Thrown when an error occurs during the binary encoding
+     */
+    public static void encodeProtobuf(Descriptors.Descriptor descriptor, JSONMapper mapper, InputStream jsonData, OutputStream binaryOutput) throws IOException, MessageEncodingException {
+        Message message;
+
         DynamicMessage.Builder builder = DynamicMessage.newBuilder(descriptor);
         BufferedReader jsonReader = new BufferedReader(new InputStreamReader(jsonData));
 
         try {
-            message = JSONMapper.fromJSON(new BufferedReader(jsonReader), builder);
+            message = mapper.parse(jsonReader, builder);
         } catch (IOException e) {
             throw new IOException("Unable to parse JSON data: " + e.getMessage(), e);
         }
@@ -125,6 +681,61 @@ public class ProtobufService {
         }
     }
 
+    /**
+     * Encode a stream of JSON messages, one message at a time, into a stream of framed Protobuf messages.
+     * @param descriptor    Descriptor of the Protobuf Message type
+     * @param framing       Framing of the messages in the encoded stream
+     * @param layout        Layout of the JSON messages in the input stream, ignored if the messages are not framed
+     * @param mapper        Mapper used to parse the JSON data
+     * @param jsonData      Data to encode, structured in a JSON format and encoded in UTF-8
+     * @param binaryOutput  The stream where to output the encoded data
+     * @return  The number of encoded messages
+     * @throws IOException  Thrown when an errors occurs while parsing the JSON data
+     * @throws MessageEncodingException Thrown when an error occurs during the binary encoding
+     */
+    public static long encodeProtobuf(Descriptors.Descriptor descriptor, MessageFraming framing, JsonLayout layout, JSONMapper mapper, InputStream jsonData, OutputStream binaryOutput) throws IOException, MessageEncodingException {
+        if (framing == MessageFraming.NONE) {
+            encodeProtobuf(descriptor, mapper, jsonData, binaryOutput);
+            return 1;
+        }
+
+        JsonReader jsonReader = new JsonReader(new BufferedReader(new InputStreamReader(jsonData, StandardCharsets.UTF_8)));
+        JsonParser jsonParser = new JsonParser();
+        long count = 0;
+
+        try {
+            if (layout == JsonLayout.ARRAY) {
+                jsonReader.beginArray();
+            } else {
+                // Newline-delimited JSON is a sequence of top-level values, which is only accepted in lenient mode
+                jsonReader.setLenient(true);
+            }
+
+            while (layout == JsonLayout.ARRAY ? jsonReader.hasNext() : jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                // Only the current message is kept in memory
+                String json = jsonParser.parse(jsonReader).toString();
+                Message message = mapper.parse(new StringReader(json), DynamicMessage.newBuilder(descriptor));
+
+                try {
+                    framing.writeHeader(binaryOutput, message.getSerializedSize());
+                    message.writeTo(binaryOutput);
+                } catch (IOException e) {
+                    throw new MessageEncodingException(e);
+                }
+                count++;
+            }
+
+            if (layout == JsonLayout.ARRAY) {
+                jsonReader.endArray();
+            }
+        } catch (RuntimeException e) {
+            // Gson reports malformed JSON with unchecked exceptions
+            throw new IOException("Unable to parse JSON data: " + e.getMessage(), e);
+        }
+
+        return count;
+    }
+
     /**
      * Handle all the logic leading to the encoding of a Protobuf-encoded binary given a schema file path and a JSON
      * data file.
@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.framing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class MessageFramingTest {
+    private final int[] lengths = {0, 1, 127, 128, 300, 16384, 2097151, 268435456, Integer.MAX_VALUE};
+
+    /**
+     * Test that every written header is read back with the same length, until the end of the stream
+     * @throws IOException
+     */
+    @Test
+    public void writeAndReadHeaders() throws IOException {
+        for (MessageFraming framing : new MessageFraming[]{MessageFraming.VARINT_DELIMITED, MessageFraming.FIXED32_BIG_ENDIAN, MessageFraming.GRPC}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int length : lengths) {
+                framing.writeHeader(out, length);
+            }
+
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            for (int length : lengths) {
+                Assert.assertEquals("Unexpected " + framing.getValue() + " length", length, framing.readLength(in, Integer.MAX_VALUE));
+            }
+            Assert.assertEquals("The end of the stream should be reported", -1, framing.readLength(in, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void writeVarintHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageFraming.VARINT_DELIMITED.writeHeader(out, 300);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xAC, 0x02}, out.toByteArray());
+    }
+
+    @Test
+    public void writeGrpcHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageFraming.GRPC.writeHeader(out, 258);
+        Assert.assertArrayEquals(new byte[]{0, 0, 0, 1, 2}, out.toByteArray());
+    }
+
+    @Test(expected = EOFException.class)
+    public void readTruncatedHeader() throws IOException {
+        MessageFraming.FIXED32_BIG_ENDIAN.readLength(new ByteArrayInputStream(new byte[]{0, 0}));
+    }
+
+    @Test(expected = IOException.class)
+    public void readCompressedGrpcFrame() throws IOException {
+        MessageFraming.GRPC.readLength(new ByteArrayInputStream(new byte[]{1, 0, 0, 0, 1, 0}));
+    }
+
+    /**
+     * Test that a header announcing a message larger than the maximum is rejected, whatever the data that follows
+     * @throws IOException
+     */
+    @Test
+    public void readTooLongMessage() throws IOException {
+        for (MessageFraming framing : new MessageFraming[]{MessageFraming.VARINT_DELIMITED, MessageFraming.FIXED32_BIG_ENDIAN, MessageFraming.GRPC}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            framing.writeHeader(out, Integer.MAX_VALUE);
+            framing.writeHeader(out, 300);
+
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            try {
+                framing.readLength(in);
+                Assert.fail("A " + framing.getValue() + " message larger than the default maximum should be rejected");
+            } catch (IOException e) {
+                // Expected
+            }
+
+            Assert.assertEquals(300, framing.readLength(in, 300));
+
+            out.reset();
+            framing.writeHeader(out, 300);
+            try {
+                framing.readLength(new ByteArrayInputStream(out.toByteArray()), 299);
+                Assert.fail("A " + framing.getValue() + " message larger than the given maximum should be rejected");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void fromValue() {
+        for (MessageFraming framing : MessageFraming.values()) {
+            Assert.assertSame(framing, MessageFraming.fromValue(framing.getValue()));
+        }
+    }
+}
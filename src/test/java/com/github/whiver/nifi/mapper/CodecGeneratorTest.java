@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.gson.stream.JsonReader;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+public class CodecGeneratorTest {
+
+    @Before
+    public void requireCompiler() {
+        Assume.assumeTrue("Codecs can only be generated on a JDK", CodecGenerator.isCompilerAvailable());
+    }
+
+    private static CodecGenerator forMapper(JSONMapper mapper) {
+        return new CodecGenerator(mapper.isPreservingFieldNames(), mapper.isIgnoringUnknownFields());
+    }
+
+    /**
+     * Decode the given binary with a generated codec, and check that it is the same JSON as the one printed by the
+     * mapper
+     */
+    private static void assertSameJson(Descriptors.Descriptor descriptor, byte[] data, JSONMapper mapper) throws Exception {
+        CodecGenerator generator = forMapper(mapper);
+        Assert.assertNotNull("A codec should be generated", generator.getCodec(descriptor));
+        WireJsonTranscoder transcoder = WireJsonTranscoder.forMapper(mapper, generator);
+        Message message = DynamicMessage.parseFrom(descriptor, data);
+
+        for (boolean compact : new boolean[]{false, true}) {
+            StringBuilder expected = new StringBuilder();
+            if (compact) {
+                mapper.printCompact(message, expected);
+            } else {
+                mapper.print(message, expected);
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Assert.assertTrue("The message should be transcoded", transcoder.transcode(descriptor, data, data.length, compact, output));
+            Assert.assertEquals(expected.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Encode the given JSON with a generated codec, and check that it is the same binary as the one of the message
+     * parsed by the mapper
+     */
+    private static void assertSameBinary(Descriptors.Descriptor descriptor, String json, JSONMapper mapper) throws Exception {
+        CodecGenerator generator = forMapper(mapper);
+        Assert.assertNotNull("A codec should be generated", generator.getCodec(descriptor));
+        byte[] expected = mapper.parse(new StringReader(json), DynamicMessage.newBuilder(descriptor)).toByteArray();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonWireEncoder.forMapper(mapper, generator).encode(descriptor, new JsonReader(new StringReader(json)), MessageFraming.NONE, output);
+        Assert.assertArrayEquals(expected, output.toByteArray());
+    }
+
+    private static Descriptors.Descriptor getAddressBook() throws Exception {
+        return SchemaParser.parseSchema(CodecGeneratorTest.class.getResource("/schemas/AddressBook.desc").getPath(), false)
+                .getMessageDescriptor("AddressBook");
+    }
+
+    private static DynamicSchema getPersonSchema() throws Exception {
+        return SchemaParser.parseSchema(CodecGeneratorTest.class.getResource("/schemas/Person.proto").getPath(), true, CompilerMode.JAVA, null);
+    }
+
+    @Test
+    public void decodeWithGeneratedCodecs() throws Exception {
+        for (String filename : new String[]{"AddressBook_basic", "AddressBook_several"}) {
+            byte[] data = IOUtils.toByteArray(CodecGeneratorTest.class.getResourceAsStream("/data/" + filename + ".data"));
+            assertSameJson(getAddressBook(), data, JSONMapper.getDefault());
+            assertSameJson(getAddressBook(), data, new JSONMapper(true, true, false, false));
+        }
+
+        byte[] data = DescriptorProtos.getDescriptor().toProto().toByteArray();
+        assertSameJson(DescriptorProtos.FileDescriptorProto.getDescriptor(), data, JSONMapper.getDefault());
+        assertSameJson(DescriptorProtos.FileDescriptorProto.getDescriptor(), data, new JSONMapper(false, true, false, false));
+    }
+
+    @Test
+    public void encodeWithGeneratedCodecs() throws Exception {
+        DescriptorProtos.FileDescriptorProto descriptor = DescriptorProtos.getDescriptor().toProto();
+        assertSameBinary(DescriptorProtos.FileDescriptorProto.getDescriptor(), JsonFormat.printer().print(descriptor), JSONMapper.getDefault());
+        assertSameBinary(DescriptorProtos.FileDescriptorProto.getDescriptor(),
+                JsonFormat.printer().preservingProtoFieldNames().omittingInsignificantWhitespace().print(descriptor), JSONMapper.getDefault());
+
+        // Keys out of order, duplicated keys, null values and proto3 default values
+        Descriptors.Descriptor person = getPersonSchema().getMessageDescriptor("tutorial.Person");
+        assertSameBinary(person, "{\"phones\": [{\"type\": \"HOME\", \"number\": \"0123\"}, {\"type\": 2, \"number\": \"\"}], " +
+                "\"email\": \"me@example.com\", \"id\": 666, \"name\": \"Me\"}", JSONMapper.getDefault());
+        assertSameBinary(person, "{\"name\": \"Me\", \"id\": 1, \"name\": \"You\", \"id\": 0, \"email\": null, \"phones\": []}", JSONMapper.getDefault());
+        assertSameBinary(person, "{\"phones\": [{\"type\": \"MOBILE\"}, {}], \"id\": \"0\", \"name\": \"\"}", JSONMapper.getDefault());
+        assertSameBinary(person, "{\"unknown\": {\"id\": [1, 2]}, \"id\": 3}", new JSONMapper(false, false, false, true));
+    }
+
+    @Test
+    public void rejectInvalidJson() throws Exception {
+        Descriptors.Descriptor person = getPersonSchema().getMessageDescriptor("tutorial.Person");
+        JsonWireEncoder encoder = new JsonWireEncoder(false, new CodecGenerator(false, false));
+        String[] invalidJson = {
+                "{\"unknown\": 1}",
+                "{\"id\": \"abc\"}",
+                "{\"id\": 2147483648}",
+                "{\"phones\": {}}",
+                "{\"phones\": [null]}",
+                "{\"phones\": [{\"type\": \"UNKNOWN\"}]}",
+                "[]",
+                "{\"name\": \"Me\""
+        };
+        for (String json : invalidJson) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try {
+                encoder.encode(person, new JsonReader(new StringReader(json)), MessageFraming.NONE, output);
+                Assert.fail("The JSON should be rejected: " + json);
+            } catch (InvalidProtocolBufferException e) {
+                Assert.assertEquals("Nothing should be written for an invalid JSON", 0, output.size());
+            } catch (IOException e) {
+                // Malformed JSON
+            }
+        }
+    }
+
+    /**
+     * Test that the codecs are only compiled once for the same schema and options, and never for the unsupported types
+     * @throws Exception
+     */
+    @Test
+    public void shareGeneratedCodecs() throws Exception {
+        DynamicSchema schema = getPersonSchema();
+        CodecGenerator generator = new CodecGenerator(false, false);
+        Assert.assertTrue(generator.generate(schema) > 0);
+
+        // A schema parsed again has other descriptors, but the same content
+        MessageCodec codec = generator.getCodec(schema.getMessageDescriptor("tutorial.Person"));
+        Assert.assertNotNull(codec);
+        Assert.assertSame(codec, new CodecGenerator(false, false).getCodec(getPersonSchema().getMessageDescriptor("tutorial.Person")));
+        Assert.assertNotSame(codec, new CodecGenerator(true, false).getCodec(schema.getMessageDescriptor("tutorial.Person")));
+
+        // Map fields are not supported
+        DynamicSchema features = SchemaParser.parseSchema(CodecGeneratorTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null);
+        Assert.assertNull(generator.getCodec(features.getMessageDescriptor("features.Event")));
+        Assert.assertNotNull(generator.getCodec(features.getMessageDescriptor("common.Tenant")));
+        assertSameBinary(features.getMessageDescriptor("common.Tenant"), "{\"id\": \"18446744073709551615\", \"name\": \"tenant\"}", JSONMapper.getDefault());
+    }
+
+    /**
+     * Test that a generated codec leaves to the mapper the binaries holding several members of the same oneof, of which
+     * only the last one is printed
+     * @throws Exception
+     */
+    @Test
+    public void decodeOneofMembersWithGeneratedCodecs() throws Exception {
+        DynamicSchema features = SchemaParser.parseSchema(CodecGeneratorTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null);
+        Descriptors.Descriptor choice = features.getMessageDescriptor("features.Choice");
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        CodedOutputStream coded = CodedOutputStream.newInstance(data);
+        coded.writeInt64(2, 42);
+        coded.flush();
+        assertSameJson(choice, data.toByteArray(), JSONMapper.getDefault());
+
+        data.reset();
+        coded = CodedOutputStream.newInstance(data);
+        coded.writeString(1, "text");
+        coded.writeInt64(2, 42);
+        coded.flush();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        WireJsonTranscoder transcoder = WireJsonTranscoder.forMapper(JSONMapper.getDefault(), forMapper(JSONMapper.getDefault()));
+        Assert.assertFalse(transcoder.transcode(choice, data.toByteArray(), data.size(), false, output));
+        Assert.assertEquals("Nothing should be written when the mapper must be used", 0, output.size());
+    }
+}
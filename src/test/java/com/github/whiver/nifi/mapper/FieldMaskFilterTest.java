@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.exception.InvalidFieldMaskException;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class FieldMaskFilterTest {
+
+    private static Descriptors.Descriptor getAddressBook() throws Exception {
+        return SchemaParser.parseSchema(FieldMaskFilterTest.class.getResource("/schemas/AddressBook.desc").getPath(), false)
+                .getMessageDescriptor("AddressBook");
+    }
+
+    private static String project(String mask, Descriptors.Descriptor descriptor, byte[] data) throws Exception {
+        byte[] projected = new byte[data.length];
+        int length = FieldMaskFilter.parse(mask).forType(descriptor).filter(data, data.length, projected);
+        return JSONMapper.toJSON(DynamicMessage.parseFrom(descriptor, Arrays.copyOf(projected, length)), true);
+    }
+
+    @Test
+    public void filterNestedAndRepeatedFields() throws Exception {
+        Descriptors.Descriptor descriptor = getAddressBook();
+        byte[] data = IOUtils.toByteArray(FieldMaskFilterTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+
+        Assert.assertEquals("{\"people\":[{\"name\":\"John Doe\"},{\"name\":\"Jane Doe\"}]}",
+                project("people.name", descriptor, data));
+        Assert.assertEquals("{\"people\":[{\"id\":42,\"email\":\"john.doe@example.com\"},{\"id\":41}]}",
+                project(" people.email , people.id ", descriptor, data));
+
+        // A field selected as a whole takes precedence over its sub-fields
+        Assert.assertEquals(JSONMapper.toJSON(DynamicMessage.parseFrom(descriptor, data), true),
+                project("people.name,people", descriptor, data));
+    }
+
+    @Test
+    public void filterUnselectedFieldsOnly() throws Exception {
+        Descriptors.Descriptor descriptor = getAddressBook();
+        byte[] data = IOUtils.toByteArray(FieldMaskFilterTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+
+        byte[] projected = new byte[data.length];
+        int length = FieldMaskFilter.parse("people").forType(descriptor).filter(data, data.length, projected);
+        Assert.assertArrayEquals("Selecting all the fields should copy the message as is", data, Arrays.copyOf(projected, length));
+
+        length = FieldMaskFilter.parse("people.phones").forType(descriptor).filter(data, data.length, projected);
+        Assert.assertTrue("The projected message should be smaller", length < data.length);
+    }
+
+    @Test
+    public void invalidPaths() throws Exception {
+        Descriptors.Descriptor descriptor = getAddressBook();
+
+        for (String mask : new String[]{"persons", "people.unknown", "people.name.first"}) {
+            try {
+                FieldMaskFilter.parse(mask).forType(descriptor);
+                Assert.fail("The mask " + mask + " should not apply to " + descriptor.getFullName());
+            } catch (InvalidFieldMaskException e) {
+                Assert.assertTrue(e.getMessage().contains(mask));
+            }
+        }
+
+        for (String mask : new String[]{"", " , ", "people..name"}) {
+            try {
+                FieldMaskFilter.parse(mask);
+                Assert.fail("The mask '" + mask + "' should be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.os72.protobuf.dynamic.MessageDefinition;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class JSONMapperTest {
+    private Descriptors.Descriptor descriptor;
+    private Message message;
+
+    @Before
+    public void setUp() throws Exception {
+        DynamicSchema schema = DynamicSchema.newBuilder()
+                .setName("Item.proto")
+                .addMessageDefinition(MessageDefinition.newBuilder("Item")
+                        .addField("optional", "string", "item_name", 1)
+                        .addField("optional", "int32", "item_count", 2)
+                        .build())
+                .build();
+        descriptor = schema.getMessageDescriptor("Item");
+        message = DynamicMessage.newBuilder(descriptor)
+                .setField(descriptor.findFieldByName("item_name"), "box")
+                .build();
+    }
+
+    @Test
+    public void defaultMapperMatchesJsonFormat() throws IOException {
+        StringBuilder json = new StringBuilder();
+        JSONMapper.getDefault().print(message, json);
+        Assert.assertEquals("{\n  \"itemName\": \"box\"\n}", json.toString());
+        Assert.assertEquals(json.toString(), JSONMapper.toJSON(message));
+    }
+
+    @Test
+    public void printCompact() throws IOException {
+        StringBuilder json = new StringBuilder();
+        new JSONMapper(true, false, false, false).print(message, json);
+        Assert.assertEquals("{\"itemName\":\"box\"}", json.toString());
+    }
+
+    @Test
+    public void printPreservingFieldNamesAndDefaultValues() throws IOException {
+        StringBuilder json = new StringBuilder();
+        new JSONMapper(true, true, true, false).print(message, json);
+        Assert.assertEquals("{\"item_name\":\"box\",\"item_count\":0}", json.toString());
+    }
+
+    @Test
+    public void parseIgnoringUnknownFields() throws IOException {
+        String json = "{\"itemName\": \"box\", \"color\": \"red\"}";
+
+        Message parsed = new JSONMapper(false, false, false, true).parse(new StringReader(json), DynamicMessage.newBuilder(descriptor));
+        Assert.assertEquals(message, parsed);
+
+        try {
+            JSONMapper.getDefault().parse(new StringReader(json), DynamicMessage.newBuilder(descriptor));
+            Assert.fail("Unknown fields should be rejected by default");
+        } catch (InvalidProtocolBufferException e) {
+            // Expected
+        }
+    }
+}
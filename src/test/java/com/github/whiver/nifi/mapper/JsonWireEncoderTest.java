@@ -0,0 +1,214 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.github.whiver.nifi.service.ProtobufService;
+import com.google.gson.stream.JsonReader;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+public class JsonWireEncoderTest {
+
+    /**
+     * Encode the given JSON, and check that it is the same binary as the one of the message parsed by the mapper
+     */
+    private static void assertSameBinary(Descriptors.Descriptor descriptor, String json, JSONMapper mapper) throws Exception {
+        JsonWireEncoder encoder = JsonWireEncoder.forMapper(mapper);
+        Assert.assertTrue("The message type should be supported", encoder.supports(descriptor));
+        byte[] expected = mapper.parse(new StringReader(json), DynamicMessage.newBuilder(descriptor)).toByteArray();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encoder.encode(descriptor, new JsonReader(new StringReader(json)), MessageFraming.NONE, output);
+        Assert.assertArrayEquals(expected, output.toByteArray());
+    }
+
+    private static Descriptors.Descriptor getAddressBook() throws Exception {
+        return SchemaParser.parseSchema(JsonWireEncoderTest.class.getResource("/schemas/AddressBook.desc").getPath(), false)
+                .getMessageDescriptor("AddressBook");
+    }
+
+    private static Descriptors.Descriptor getPerson() throws Exception {
+        return SchemaParser.parseSchema(JsonWireEncoderTest.class.getResource("/schemas/Person.proto").getPath(), true, CompilerMode.JAVA, null)
+                .getMessageDescriptor("tutorial.Person");
+    }
+
+    @Test
+    public void encodeAddressBook() throws Exception {
+        for (String filename : new String[]{"AddressBook_basic", "AddressBook_several"}) {
+            String json = IOUtils.toString(JsonWireEncoderTest.class.getResourceAsStream("/data/" + filename + ".json"), StandardCharsets.UTF_8);
+            assertSameBinary(getAddressBook(), json, JSONMapper.getDefault());
+
+            // The test data must also be the exact binary
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            JsonWireEncoder.forMapper(JSONMapper.getDefault()).encode(getAddressBook(), new JsonReader(new StringReader(json)), MessageFraming.NONE, output);
+            Assert.assertArrayEquals(IOUtils.toByteArray(JsonWireEncoderTest.class.getResourceAsStream("/data/" + filename + ".data")), output.toByteArray());
+        }
+    }
+
+    /**
+     * Encode the descriptor of descriptor.proto, a large proto2 message with nested messages, enums, booleans,
+     * strings and repeated fields, printed with both field name styles
+     * @throws Exception
+     */
+    @Test
+    public void encodeDescriptors() throws Exception {
+        DescriptorProtos.FileDescriptorProto descriptor = DescriptorProtos.getDescriptor().toProto();
+        assertSameBinary(DescriptorProtos.FileDescriptorProto.getDescriptor(), JsonFormat.printer().print(descriptor), JSONMapper.getDefault());
+        assertSameBinary(DescriptorProtos.FileDescriptorProto.getDescriptor(),
+                JsonFormat.printer().preservingProtoFieldNames().omittingInsignificantWhitespace().print(descriptor), JSONMapper.getDefault());
+    }
+
+    @Test
+    public void encodeScalars() throws Exception {
+        DescriptorProtos.UninterpretedOption options = DescriptorProtos.UninterpretedOption.newBuilder()
+                .addName(DescriptorProtos.UninterpretedOption.NamePart.newBuilder().setNamePart("quote\" <tag> & \u00e9\n \uD83D\uDE00").setIsExtension(false))
+                .setPositiveIntValue(-1L)
+                .setNegativeIntValue(Long.MIN_VALUE)
+                .setDoubleValue(Double.NaN)
+                .setStringValue(ByteString.copyFrom(new byte[]{0, 1, -1}))
+                .setAggregateValue("")
+                .build();
+        assertSameBinary(DescriptorProtos.UninterpretedOption.getDescriptor(), JsonFormat.printer().print(options), JSONMapper.getDefault());
+
+        // Numbers written as strings, with an exponent or with a fractional part, and unpadded base64
+        Descriptors.Descriptor uninterpretedOption = DescriptorProtos.UninterpretedOption.getDescriptor();
+        assertSameBinary(uninterpretedOption, "{\"positiveIntValue\": 1e3, \"negativeIntValue\": \"-42.0\", " +
+                "\"doubleValue\": \"-Infinity\", \"stringValue\": \"AAH_\"}", JSONMapper.getDefault());
+        assertSameBinary(uninterpretedOption, "{\"doubleValue\": 0.1, \"stringValue\": \"YQ\", \"positiveIntValue\": \"18446744073709551615\"}", JSONMapper.getDefault());
+
+        Descriptors.Descriptor range = DescriptorProtos.DescriptorProto.ExtensionRange.getDescriptor();
+        assertSameBinary(range, "{\"start\": -5, \"end\": 0}", JSONMapper.getDefault());
+        assertSameBinary(range, "{\"end\": 2147483647, \"start\": -2147483648}", JSONMapper.getDefault());
+    }
+
+    /**
+     * Test the JSON that is parsed differently from its order: keys out of order, duplicated keys, null values and
+     * proto3 default values
+     * @throws Exception
+     */
+    @Test
+    public void encodeUnorderedKeys() throws Exception {
+        Descriptors.Descriptor person = getPerson();
+        assertSameBinary(person, "{\"phones\": [{\"type\": \"HOME\", \"number\": \"0123\"}, {\"type\": 2, \"number\": \"\"}], " +
+                "\"email\": \"me@example.com\", \"id\": 666, \"name\": \"Me\"}", JSONMapper.getDefault());
+        assertSameBinary(person, "{\"name\": \"Me\", \"id\": 1, \"name\": \"You\", \"id\": 0, \"email\": null, \"phones\": []}", JSONMapper.getDefault());
+        assertSameBinary(person, "{\"phones\": [{\"type\": \"MOBILE\"}, {}], \"id\": \"0\", \"name\": \"\"}", JSONMapper.getDefault());
+        assertSameBinary(person, "{}", JSONMapper.getDefault());
+
+        // A message larger than 127 bytes needs a longer length prefix
+        StringBuilder longNumber = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longNumber.append(i % 10);
+        }
+        assertSameBinary(person, "{\"phones\": [{\"number\": \"" + longNumber + "\", \"type\": \"WORK\"}], \"name\": \"Me\"}", JSONMapper.getDefault());
+    }
+
+    /**
+     * Test that the JSON rejected by the mapper is rejected too, and that the unsupported types are left to the mapper
+     * @throws Exception
+     */
+    @Test
+    public void rejectInvalidJson() throws Exception {
+        Descriptors.Descriptor person = getPerson();
+        JsonWireEncoder encoder = new JsonWireEncoder(false);
+        String[] invalidJson = {
+                "{\"unknown\": 1}",
+                "{\"id\": \"abc\"}",
+                "{\"id\": 2147483648}",
+                "{\"phones\": {}}",
+                "{\"phones\": [null]}",
+                "{\"phones\": [{\"type\": \"UNKNOWN\"}]}",
+                "[]",
+                "{\"name\": \"Me\""
+        };
+        for (String json : invalidJson) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try {
+                encoder.encode(person, new JsonReader(new StringReader(json)), MessageFraming.NONE, output);
+                Assert.fail("The JSON should be rejected: " + json);
+            } catch (InvalidProtocolBufferException e) {
+                Assert.assertEquals("Nothing should be written for an invalid JSON", 0, output.size());
+            } catch (IOException e) {
+                // Malformed JSON
+            }
+        }
+
+        // Unknown fields are skipped when the mapper ignores them
+        assertSameBinary(person, "{\"unknown\": {\"id\": [1, 2]}, \"id\": 3}", new JSONMapper(false, false, false, true));
+
+        // Map fields are not supported
+        DynamicSchema schema = SchemaParser.parseSchema(JsonWireEncoderTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null);
+        Assert.assertFalse(encoder.supports(schema.getMessageDescriptor("features.Event")));
+        Assert.assertTrue(encoder.supports(schema.getMessageDescriptor("common.Tenant")));
+        assertSameBinary(schema.getMessageDescriptor("common.Tenant"), "{\"id\": \"18446744073709551615\", \"name\": \"tenant\"}", JSONMapper.getDefault());
+    }
+
+    /**
+     * Test that a stream of AddressBook messages is encoded to the same binaries by dynamic messages and by the encoder.
+     * Their throughputs are compared by EncodeBenchmark.
+     * @throws Exception
+     */
+    @Test
+    public void encodeStream() throws Exception {
+        final int messageCount = 100;
+        Descriptors.Descriptor addressBook = getAddressBook();
+        String message = IOUtils.toString(JsonWireEncoderTest.class.getResourceAsStream("/data/AddressBook_several.json"), StandardCharsets.UTF_8);
+
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < messageCount; i++) {
+            json.append(message.replace('\n', ' ')).append('\n');
+        }
+        byte[] stream = json.toString().getBytes(StandardCharsets.UTF_8);
+        JsonWireEncoder encoder = JsonWireEncoder.forMapper(JSONMapper.getDefault());
+
+        ByteArrayOutputStream dynamicOutput = new ByteArrayOutputStream();
+        ByteArrayOutputStream streamingOutput = new ByteArrayOutputStream();
+        Assert.assertEquals(messageCount, ProtobufService.encodeProtobuf(addressBook, MessageFraming.VARINT_DELIMITED,
+                JsonLayout.NDJSON, JSONMapper.getDefault(), new ByteArrayInputStream(stream), dynamicOutput));
+        Assert.assertEquals(messageCount, ProtobufService.encodeProtobuf(addressBook, MessageFraming.VARINT_DELIMITED,
+                JsonLayout.NDJSON, JSONMapper.getDefault(), encoder, new ByteArrayInputStream(stream), streamingOutput));
+        Assert.assertArrayEquals(dynamicOutput.toByteArray(), streamingOutput.toByteArray());
+    }
+}
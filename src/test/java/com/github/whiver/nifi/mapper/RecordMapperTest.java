@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.apache.nifi.serialization.record.ArrayDataType;
+import org.apache.nifi.serialization.record.MapDataType;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordDataType;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class RecordMapperTest {
+    private Descriptors.Descriptor event;
+
+    @Before
+    public void setUp() throws Exception {
+        event = SchemaParser.parseSchema(RecordMapperTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null)
+                .getMessageDescriptor("features.Event");
+    }
+
+    @Test
+    public void getRecordSchema() {
+        RecordMapper mapper = new RecordMapper();
+        RecordSchema schema = mapper.getRecordSchema(event);
+
+        Assert.assertSame("Record schemas should be cached", schema, mapper.getRecordSchema(event));
+        Assert.assertEquals(RecordFieldType.STRING, schema.getDataType("id").get().getFieldType());
+        Assert.assertEquals(RecordFieldType.RECORD, schema.getDataType("tenant").get().getFieldType());
+        Assert.assertEquals(RecordFieldType.STRING, schema.getDataType("level").get().getFieldType());
+        Assert.assertEquals(RecordFieldType.DOUBLE, schema.getDataType("score").get().getFieldType());
+
+        MapDataType counters = (MapDataType) schema.getDataType("counters").get();
+        Assert.assertEquals(RecordFieldType.LONG, counters.getValueType().getFieldType());
+
+        ArrayDataType samples = (ArrayDataType) schema.getDataType("samples").get();
+        Assert.assertEquals(RecordFieldType.INT, samples.getElementType().getFieldType());
+
+        RecordSchema tenant = ((RecordDataType) schema.getDataType("tenant").get()).getChildSchema();
+        Assert.assertEquals(RecordFieldType.BIGINT, tenant.getDataType("id").get().getFieldType());
+    }
+
+    @Test
+    public void getRecursiveRecordSchema() {
+        RecordSchema nested = new RecordMapper().getRecordSchema(event.findNestedTypeByName("Nested"));
+
+        ArrayDataType children = (ArrayDataType) nested.getDataType("children").get();
+        Assert.assertSame("Recursive message types should reference their own record schema",
+                nested, ((RecordDataType) children.getElementType()).getChildSchema());
+    }
+
+    @Test
+    public void toRecord() {
+        Descriptors.Descriptor tenant = event.findFieldByName("tenant").getMessageType();
+        Descriptors.FieldDescriptor counters = event.findFieldByName("counters");
+        Descriptors.Descriptor countersEntry = counters.getMessageType();
+
+        DynamicMessage message = DynamicMessage.newBuilder(event)
+                .setField(event.findFieldByName("id"), "event-1")
+                .setField(event.findFieldByName("tenant"), DynamicMessage.newBuilder(tenant)
+                        .setField(tenant.findFieldByName("name"), "acme")
+                        .setField(tenant.findFieldByName("id"), -1L)
+                        .build())
+                .addRepeatedField(counters, DynamicMessage.newBuilder(countersEntry)
+                        .setField(countersEntry.findFieldByName("key"), "clicks")
+                        .setField(countersEntry.findFieldByName("value"), 12L)
+                        .build())
+                .addRepeatedField(event.findFieldByName("samples"), 3)
+                .setField(event.findFieldByName("data"), ByteString.copyFrom(new byte[]{1, 2}))
+                .setField(event.findFieldByName("level"), event.findEnumTypeByName("Level").findValueByName("HIGH"))
+                .build();
+
+        Record record = new RecordMapper().toRecord(message);
+
+        Assert.assertEquals("event-1", record.getValue("id"));
+        Assert.assertEquals("acme", ((Record) record.getValue("tenant")).getValue("name"));
+        Assert.assertEquals("18446744073709551615", ((Record) record.getValue("tenant")).getValue("id").toString());
+        Assert.assertEquals(12L, ((Map<?, ?>) record.getValue("counters")).get("clicks"));
+        Assert.assertArrayEquals(new Object[]{3}, (Object[]) record.getValue("samples"));
+        Assert.assertArrayEquals(new Object[]{(byte) 1, (byte) 2}, (Object[]) record.getValue("data"));
+        Assert.assertNull("Only the field set in a oneof should have a value", record.getValue("text"));
+        Assert.assertEquals("HIGH", record.getValue("level"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.whiver.nifi.exception.InvalidFieldPathException;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class WireFieldExtractorTest {
+    private Descriptors.Descriptor event;
+
+    @Before
+    public void setUp() throws Exception {
+        event = SchemaParser.parseSchema(WireFieldExtractorTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null)
+                .getMessageDescriptor("features.Event");
+    }
+
+    private String[] extract(DynamicMessage message, String... paths) throws Exception {
+        return WireFieldExtractor.compile(event, Arrays.asList(paths))
+                .extract(event, CodedInputStream.newInstance(message.toByteArray()));
+    }
+
+    @Test
+    public void extractScalarAndMessageFields() throws Exception {
+        Descriptors.Descriptor tenant = event.findFieldByName("tenant").getMessageType();
+        Descriptors.FieldDescriptor samples = event.findFieldByName("samples");
+        DynamicMessage message = DynamicMessage.newBuilder(event)
+                .setField(event.findFieldByName("id"), "event-1")
+                .setField(event.findFieldByName("tenant"), DynamicMessage.newBuilder(tenant)
+                        .setField(tenant.findFieldByName("name"), "acme")
+                        .setField(tenant.findFieldByName("id"), -1L)
+                        .build())
+                .addRepeatedField(samples, 3)
+                .addRepeatedField(samples, -4)
+                .setField(event.findFieldByName("data"), ByteString.copyFrom(new byte[]{1, 2}))
+                .setField(event.findFieldByName("level"), event.findEnumTypeByName("Level").findValueByName("HIGH"))
+                .setField(event.findFieldByName("score"), 0.5)
+                .build();
+
+        Assert.assertArrayEquals(new String[]{"event-1", "acme", "18446744073709551615", "3,-4", "AQI=", "HIGH", "0.5",
+                        "{\"name\":\"acme\",\"id\":\"18446744073709551615\"}"},
+                extract(message, "id", "tenant.name", "tenant.id", "samples", "data", "level", "eventScore", "tenant"));
+
+        // Missing scalar fields have their default value, missing messages and empty repeated fields have none
+        DynamicMessage empty = DynamicMessage.newBuilder(event).build();
+        Assert.assertArrayEquals(new String[]{"", "0", "LOW", null, null, "LOW"},
+                extract(empty, "text", "tenant.id", "level", "tenant", "samples", "nested.level"));
+    }
+
+    @Test
+    public void extractRepeatedMessageFields() throws Exception {
+        Descriptors.Descriptor nested = event.findNestedTypeByName("Nested");
+        Descriptors.FieldDescriptor children = nested.findFieldByName("children");
+        Descriptors.FieldDescriptor level = nested.findFieldByName("level");
+        DynamicMessage message = DynamicMessage.newBuilder(event)
+                .setField(event.findFieldByName("nested"), DynamicMessage.newBuilder(nested)
+                        .addRepeatedField(children, DynamicMessage.newBuilder(nested)
+                                .setField(level, event.findEnumTypeByName("Level").findValueByName("HIGH")).build())
+                        .addRepeatedField(children, DynamicMessage.newBuilder(nested).build())
+                        .build())
+                .build();
+
+        Assert.assertArrayEquals(new String[]{"HIGH,LOW", "LOW"},
+                extract(message, "nested.children.level", "nested.level"));
+    }
+
+    @Test
+    public void invalidPaths() {
+        for (String path : new String[]{"unknown", "tenant.unknown", "id.length", "counters.key"}) {
+            try {
+                WireFieldExtractor.compile(event, Collections.singletonList(path));
+                Assert.fail("The path " + path + " should not apply to " + event.getFullName());
+            } catch (InvalidFieldPathException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(path));
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.github.whiver.nifi.service.ProtobufService;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class WireJsonTranscoderTest {
+
+    /**
+     * Transcode the given binary with both a pretty and a compact output, and check that it is the same JSON as the
+     * one printed by the mapper
+     */
+    private static void assertSameJson(Descriptors.Descriptor descriptor, byte[] data, JSONMapper mapper) throws Exception {
+        WireJsonTranscoder transcoder = WireJsonTranscoder.forMapper(mapper);
+        Assert.assertNotNull(transcoder);
+        Message message = DynamicMessage.parseFrom(descriptor, data);
+
+        for (boolean compact : new boolean[]{false, true}) {
+            StringBuilder expected = new StringBuilder();
+            if (compact) {
+                mapper.printCompact(message, expected);
+            } else {
+                mapper.print(message, expected);
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Assert.assertTrue("The message should be transcoded", transcoder.transcode(descriptor, data, data.length, compact, output));
+            Assert.assertEquals(expected.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Descriptors.Descriptor getAddressBook() throws Exception {
+        return SchemaParser.parseSchema(WireJsonTranscoderTest.class.getResource("/schemas/AddressBook.desc").getPath(), false)
+                .getMessageDescriptor("AddressBook");
+    }
+
+    @Test
+    public void transcodeAddressBook() throws Exception {
+        for (String filename : new String[]{"AddressBook_basic", "AddressBook_several"}) {
+            byte[] data = IOUtils.toByteArray(WireJsonTranscoderTest.class.getResourceAsStream("/data/" + filename + ".data"));
+            assertSameJson(getAddressBook(), data, JSONMapper.getDefault());
+            assertSameJson(getAddressBook(), data, new JSONMapper(false, true, false, false));
+        }
+    }
+
+    /**
+     * Transcode the descriptor of descriptor.proto, a large proto2 message with nested messages, enums, booleans,
+     * strings and repeated fields
+     * @throws Exception
+     */
+    @Test
+    public void transcodeDescriptors() throws Exception {
+        byte[] data = DescriptorProtos.getDescriptor().toProto().toByteArray();
+        assertSameJson(DescriptorProtos.FileDescriptorProto.getDescriptor(), data, JSONMapper.getDefault());
+        assertSameJson(DescriptorProtos.FileDescriptorProto.getDescriptor(), data, new JSONMapper(false, true, false, false));
+    }
+
+    @Test
+    public void transcodeScalars() throws Exception {
+        Message options = DescriptorProtos.UninterpretedOption.newBuilder()
+                .addName(DescriptorProtos.UninterpretedOption.NamePart.newBuilder().setNamePart("quote\" <tag> & é\n ").setIsExtension(false))
+                .setPositiveIntValue(-1L)
+                .setNegativeIntValue(Long.MIN_VALUE)
+                .setDoubleValue(Double.NaN)
+                .setStringValue(com.google.protobuf.ByteString.copyFrom(new byte[]{0, 1, -1}))
+                .setAggregateValue("")
+                .build();
+        assertSameJson(DescriptorProtos.UninterpretedOption.getDescriptor(), options.toByteArray(), JSONMapper.getDefault());
+
+        Message range = DescriptorProtos.DescriptorProto.ExtensionRange.newBuilder().setStart(-5).setEnd(0).build();
+        assertSameJson(DescriptorProtos.DescriptorProto.ExtensionRange.getDescriptor(), range.toByteArray(), JSONMapper.getDefault());
+    }
+
+    /**
+     * Test that the binaries that cannot be transcoded in a single pass are left to the mapper
+     * @throws Exception
+     */
+    @Test
+    public void fallBackToMapper() throws Exception {
+        WireJsonTranscoder transcoder = new WireJsonTranscoder(false);
+        DynamicSchema schema = SchemaParser.parseSchema(WireJsonTranscoderTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null);
+        Descriptors.Descriptor tenant = schema.getMessageDescriptor("common.Tenant");
+        Descriptors.Descriptor event = schema.getMessageDescriptor("features.Event");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Fields out of order
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        CodedOutputStream coded = CodedOutputStream.newInstance(data);
+        coded.writeUInt64(2, 42);
+        coded.writeString(1, "tenant");
+        coded.flush();
+        Assert.assertFalse(transcoder.transcode(tenant, data.toByteArray(), data.size(), false, output));
+
+        // Default value written in proto3
+        data.reset();
+        coded = CodedOutputStream.newInstance(data);
+        coded.writeString(1, "");
+        coded.flush();
+        Assert.assertFalse(transcoder.transcode(tenant, data.toByteArray(), data.size(), false, output));
+
+        // Invalid binary
+        Assert.assertFalse(transcoder.transcode(tenant, new byte[]{10, 42}, 2, false, output));
+
+        // Map fields are not supported
+        Assert.assertFalse(transcoder.supports(event));
+
+        Assert.assertEquals("Nothing should be written when the mapper must be used", 0, output.size());
+
+        // Valid proto3 message
+        data.reset();
+        coded = CodedOutputStream.newInstance(data);
+        coded.writeString(1, "tenant");
+        coded.writeUInt64(2, -1L);
+        coded.flush();
+        assertSameJson(tenant, data.toByteArray(), JSONMapper.getDefault());
+    }
+
+    /**
+     * Test that only the last member of a oneof is printed, as by the mapper, when several members are on the wire like
+     * in concatenated messages
+     * @throws Exception
+     */
+    @Test
+    public void transcodeOneofMembers() throws Exception {
+        DynamicSchema schema = SchemaParser.parseSchema(WireJsonTranscoderTest.class.getResource("/schemas/Features.proto").getPath(), true, CompilerMode.JAVA, null);
+        Descriptors.Descriptor choice = schema.getMessageDescriptor("features.Choice");
+        WireJsonTranscoder transcoder = WireJsonTranscoder.forMapper(JSONMapper.getDefault());
+        Assert.assertTrue(transcoder.supports(choice));
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        CodedOutputStream coded = CodedOutputStream.newInstance(data);
+        coded.writeString(1, "text");
+        coded.writeUInt32(3, 2);
+        coded.flush();
+        assertSameJson(choice, data.toByteArray(), JSONMapper.getDefault());
+
+        // Two members of the same oneof, in the order of their field numbers
+        data.reset();
+        coded = CodedOutputStream.newInstance(data);
+        coded.writeString(1, "text");
+        coded.writeInt64(2, 42);
+        coded.writeUInt32(3, 2);
+        coded.flush();
+        byte[] members = data.toByteArray();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertFalse(transcoder.transcode(choice, members, members.length, false, output));
+        Assert.assertEquals("Nothing should be written when the mapper must be used", 0, output.size());
+
+        StringBuilder expected = new StringBuilder();
+        JSONMapper.getDefault().printCompact(DynamicMessage.parseFrom(choice, members), expected);
+        Assert.assertFalse("Only the last member should be printed", expected.toString().contains("text"));
+
+        data.reset();
+        MessageFraming.VARINT_DELIMITED.writeHeader(data, members.length);
+        data.write(members);
+        Assert.assertEquals(1, ProtobufService.decodeProtobuf(choice, MessageFraming.VARINT_DELIMITED, JsonLayout.NDJSON,
+                JSONMapper.getDefault(), transcoder, new ByteArrayInputStream(data.toByteArray()), output));
+        Assert.assertEquals(expected + "\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that a stream of AddressBook messages is decoded to the same newline-delimited JSON by dynamic messages and
+     * by the transcoder. Their throughputs are compared by AddressBookDecodeBenchmark.
+     * @throws Exception
+     */
+    @Test
+    public void transcodeStream() throws Exception {
+        final int messageCount = 100;
+        Descriptors.Descriptor addressBook = getAddressBook();
+        byte[] message = IOUtils.toByteArray(WireJsonTranscoderTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < messageCount; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+            data.write(message);
+        }
+        byte[] stream = data.toByteArray();
+        WireJsonTranscoder transcoder = WireJsonTranscoder.forMapper(JSONMapper.getDefault());
+
+        ByteArrayOutputStream dynamicOutput = new ByteArrayOutputStream();
+        ByteArrayOutputStream streamingOutput = new ByteArrayOutputStream();
+        Assert.assertEquals(messageCount, ProtobufService.decodeProtobuf(addressBook, MessageFraming.VARINT_DELIMITED,
+                JsonLayout.NDJSON, JSONMapper.getDefault(), new ByteArrayInputStream(stream), dynamicOutput));
+        Assert.assertEquals(messageCount, ProtobufService.decodeProtobuf(addressBook, MessageFraming.VARINT_DELIMITED,
+                JsonLayout.NDJSON, JSONMapper.getDefault(), transcoder, new ByteArrayInputStream(stream), streamingOutput));
+        Assert.assertArrayEquals(dynamicOutput.toByteArray(), streamingOutput.toByteArray());
+    }
+}
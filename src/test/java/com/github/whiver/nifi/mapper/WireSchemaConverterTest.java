@@ -0,0 +1,197 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.mapper;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.InvalidFieldMappingException;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+public class WireSchemaConverterTest {
+    private DynamicSchema schema;
+    private Descriptors.Descriptor customerV1;
+    private Descriptors.Descriptor customerV2;
+
+    @Before
+    public void setUp() throws Exception {
+        schema = SchemaParser.parseSchema(WireSchemaConverterTest.class.getResource("/schemas/Migration.proto").getPath(), true, CompilerMode.JAVA, null);
+        customerV1 = schema.getMessageDescriptor("migration.CustomerV1");
+        customerV2 = schema.getMessageDescriptor("migration.CustomerV2");
+    }
+
+    private static DynamicMessage address(Descriptors.Descriptor type, String street, String city) {
+        return DynamicMessage.newBuilder(type)
+                .setField(type.findFieldByName("street"), street)
+                .setField(type.findFieldByNumber(2), city)
+                .build();
+    }
+
+    private DynamicMessage customer() {
+        Descriptors.Descriptor addressV1 = schema.getMessageDescriptor("migration.AddressV1");
+        Descriptors.FieldDescriptor places = customerV1.findFieldByName("places");
+        DynamicMessage home = DynamicMessage.newBuilder(places.getMessageType())
+                .setField(places.getMessageType().findFieldByName("key"), "home")
+                .setField(places.getMessageType().findFieldByName("value"), address(addressV1, "", "Springfield"))
+                .build();
+
+        return DynamicMessage.newBuilder(customerV1)
+                .setField(customerV1.findFieldByName("name"), "Jane Doe")
+                .setField(customerV1.findFieldByName("age"), 41)
+                .setField(customerV1.findFieldByName("email"), "jane@example.com")
+                .setField(customerV1.findFieldByName("address"), address(addressV1, "1 Main St", "Springfield"))
+                .addRepeatedField(customerV1.findFieldByName("previous"), address(addressV1, "2 Elm St", "Shelbyville"))
+                .setField(customerV1.findFieldByName("internal_note"), "vip")
+                .addRepeatedField(places, home)
+                .addRepeatedField(customerV1.findFieldByName("scores"), 1)
+                .addRepeatedField(customerV1.findFieldByName("scores"), -2)
+                .build();
+    }
+
+    private static DynamicMessage convert(WireSchemaConverter converter, Descriptors.Descriptor source,
+                                          Descriptors.Descriptor target, DynamicMessage message) throws Exception {
+        byte[] data = message.toByteArray();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        converter.forTypes(source, target).convert(data, 0, data.length, output);
+        return DynamicMessage.parseFrom(target, output.toByteArray());
+    }
+
+    private static Object field(DynamicMessage message, String path) {
+        Object value = message;
+        for (String name : path.split("\\.")) {
+            DynamicMessage current = (DynamicMessage) value;
+            value = current.getField(current.getDescriptorForType().findFieldByName(name));
+        }
+        return value;
+    }
+
+    /**
+     * Test converting messages matching their fields by number, copying the unchanged nested messages as is
+     * @throws Exception
+     */
+    @Test
+    public void convertByNumber() throws Exception {
+        WireSchemaConverter converter = WireSchemaConverter.parse(WireSchemaConverter.FieldMatching.NUMBER, "name=full_name", null);
+        DynamicMessage converted = convert(converter, customerV1, customerV2, customer());
+
+        Assert.assertEquals("Jane Doe", field(converted, "full_name"));
+        Assert.assertEquals(41L, field(converted, "age"));
+        Assert.assertEquals(ByteString.copyFromUtf8("jane@example.com"), field(converted, "email"));
+        Assert.assertEquals("1 Main St", field(converted, "address.street"));
+        Assert.assertEquals("Springfield", field(converted, "address.town"));
+        Assert.assertEquals(Arrays.asList(1L, -2L), field(converted, "scores"));
+        Assert.assertTrue("Dropped fields should not be kept as unknown fields", converted.getUnknownFields().asMap().isEmpty());
+
+        List<?> previous = (List<?>) field(converted, "previous");
+        Assert.assertEquals("Shelbyville", field((DynamicMessage) previous.get(0), "town"));
+        List<?> places = (List<?>) field(converted, "places");
+        Assert.assertEquals("home", field((DynamicMessage) places.get(0), "key"));
+        Assert.assertEquals("Springfield", field((DynamicMessage) places.get(0), "value.town"));
+
+        Assert.assertFalse(converter.forTypes(customerV1, customerV2).isIdentity());
+        Descriptors.Descriptor addressV1 = schema.getMessageDescriptor("migration.AddressV1");
+        Descriptors.Descriptor addressV2 = schema.getMessageDescriptor("migration.AddressV2");
+        WireSchemaConverter.Conversion identity = WireSchemaConverter.parse(WireSchemaConverter.FieldMatching.NUMBER, null, null)
+                .forTypes(addressV1, addressV2);
+        Assert.assertTrue(identity.isIdentity());
+
+        byte[] data = address(addressV1, "1 Main St", "Springfield").toByteArray();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        identity.convert(data, 0, data.length, output);
+        Assert.assertArrayEquals(data, output.toByteArray());
+    }
+
+    /**
+     * Test converting messages matching their fields by name, with renames and drops applying only to their own paths
+     * @throws Exception
+     */
+    @Test
+    public void convertByName() throws Exception {
+        WireSchemaConverter converter = WireSchemaConverter.parse(WireSchemaConverter.FieldMatching.NAME,
+                "name=full_name, address.city=town", "email");
+        DynamicMessage converted = convert(converter, customerV1, customerV2, customer());
+
+        Assert.assertEquals("Jane Doe", field(converted, "full_name"));
+        Assert.assertEquals(41L, field(converted, "age"));
+        Assert.assertEquals(ByteString.EMPTY, field(converted, "email"));
+        Assert.assertEquals("1 Main St", field(converted, "address.street"));
+        Assert.assertEquals("Springfield", field(converted, "address.town"));
+        Assert.assertEquals(Arrays.asList(1L, -2L), field(converted, "scores"));
+
+        List<?> previous = (List<?>) field(converted, "previous");
+        Assert.assertEquals("2 Elm St", field((DynamicMessage) previous.get(0), "street"));
+        Assert.assertEquals("", field((DynamicMessage) previous.get(0), "town"));
+        List<?> places = (List<?>) field(converted, "places");
+        Assert.assertEquals("", field((DynamicMessage) places.get(0), "value.town"));
+    }
+
+    /**
+     * Test that the rules are checked against the source message type, and that incompatible fields are rejected
+     * @throws Exception
+     */
+    @Test
+    public void invalidMappings() throws Exception {
+        Descriptors.Descriptor incompatible = schema.getMessageDescriptor("migration.Incompatible");
+        String[][] mappings = {
+                {"name=nickname", null},
+                {null, "address.country"},
+                {null, "email.domain"},
+                {"name=age", null},
+        };
+        for (String[] mapping : mappings) {
+            try {
+                WireSchemaConverter.parse(WireSchemaConverter.FieldMatching.NUMBER, mapping[0], mapping[1]).forTypes(customerV1, customerV2);
+                Assert.fail("The mapping " + Arrays.toString(mapping) + " should be rejected");
+            } catch (InvalidFieldMappingException e) {
+                // Expected
+            }
+        }
+
+        try {
+            WireSchemaConverter.parse(WireSchemaConverter.FieldMatching.NUMBER, null, null).forTypes(customerV1, incompatible);
+            Assert.fail("An int32 field should not be converted to a sint32 field");
+        } catch (InvalidFieldMappingException e) {
+            // Expected
+        }
+
+        try {
+            WireSchemaConverter.parse(WireSchemaConverter.FieldMatching.NAME, "name=", null);
+            Assert.fail("A rename without target should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DescriptorCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void computeKeyDependsOnTransitiveImports() throws Exception {
+        File schemaDirectory = temporaryFolder.newFolder("schemas");
+        File mainFile = writeFile(schemaDirectory, "main.proto", "syntax = \"proto3\";\nimport \"dep.proto\";\nmessage Main { Dep dep = 1; }\n");
+        File dependencyFile = writeFile(schemaDirectory, "dep.proto", "syntax = \"proto3\";\nmessage Dep { string name = 1; }\n");
+
+        DescriptorCache descriptorCache = new DescriptorCache(temporaryFolder.newFolder("cache"), 1024);
+        String firstKey = descriptorCache.computeKey(mainFile, "protoc-test");
+
+        Assert.assertEquals("The key should be stable", firstKey, descriptorCache.computeKey(mainFile, "protoc-test"));
+        Assert.assertNotEquals("The key should depend on the compiler version", firstKey, descriptorCache.computeKey(mainFile, "protoc-other"));
+
+        writeFile(schemaDirectory, "dep.proto", "syntax = \"proto3\";\nmessage Dep { string label = 1; }\n");
+        Assert.assertNotEquals("The key should depend on the imported files", firstKey, descriptorCache.computeKey(mainFile, "protoc-test"));
+        Assert.assertTrue(dependencyFile.exists());
+    }
+
+    @Test
+    public void findImportsIgnoresComments() {
+        String content = "import \"a.proto\";\n// import \"b.proto\";\n/* import \"c.proto\"; */\nimport public \"d.proto\";\n";
+        Assert.assertEquals(Arrays.asList("a.proto", "d.proto"), DescriptorCache.findImports(content));
+    }
+
+    @Test
+    public void putEvictsLeastRecentlyUsedDescriptors() throws Exception {
+        File cacheDirectory = temporaryFolder.newFolder("cache");
+        DescriptorCache descriptorCache = new DescriptorCache(cacheDirectory, 150);
+        File descriptor = writeFile(temporaryFolder.getRoot(), "compiled.desc", new String(new char[100]).replace('\0', 'x'));
+
+        File first = descriptorCache.put("first", descriptor);
+        Assert.assertTrue(first.setLastModified(System.currentTimeMillis() - 60000));
+        descriptorCache.put("second", descriptor);
+
+        Assert.assertNull("The least recently used descriptor should have been evicted", descriptorCache.get("first"));
+        Assert.assertNotNull(descriptorCache.get("second"));
+        Assert.assertTrue("The source descriptor should be left untouched", descriptor.exists());
+    }
+
+    /**
+     * Test that descriptors evicted by concurrent puts are read as cache misses, and never as missing files
+     * @throws Exception
+     */
+    @Test
+    public void readWhileConcurrentPutsEvictDescriptors() throws Exception {
+        final int threadCount = 8;
+        final String content = new String(new char[100]).replace('\0', 'x');
+
+        // Room for two descriptors only, so that nearly every put evicts a descriptor another thread is reading
+        DescriptorCache descriptorCache = new DescriptorCache(temporaryFolder.newFolder("cache"), 250);
+        File descriptor = writeFile(temporaryFolder.getRoot(), "compiled.desc", content);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (int thread = 0; thread < threadCount; thread++) {
+                final int offset = thread;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        String key = "descriptor" + ((offset + i) % 16);
+                        byte[] cached = descriptorCache.read(key);
+                        if (cached == null) {
+                            descriptorCache.put(key, descriptor);
+                        } else {
+                            Assert.assertEquals(content, new String(cached, StandardCharsets.UTF_8));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertNull(descriptorCache.read("missing"));
+    }
+
+    private static File writeFile(File directory, String name, String content) throws Exception {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.AmbiguousMessageTypeException;
+import com.github.whiver.nifi.exception.UnknownMessageTypeException;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageTypeIndexTest {
+
+    /**
+     * Build a schema where the "Item" message type is defined in two packages, and "Order" in a single one
+     */
+    private static MessageTypeIndex buildIndex() throws Exception {
+        DescriptorProto item = DescriptorProto.newBuilder().setName("Item").build();
+        DescriptorProto order = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addNestedType(DescriptorProto.newBuilder().setName("Line"))
+                .build();
+
+        FileDescriptorSet descriptorSet = FileDescriptorSet.newBuilder()
+                .addFile(FileDescriptorProto.newBuilder().setName("shop.proto").setPackage("shop").addMessageType(item).addMessageType(order))
+                .addFile(FileDescriptorProto.newBuilder().setName("stock.proto").setPackage("stock").addMessageType(item))
+                .build();
+
+        return new MessageTypeIndex(DynamicSchema.parseFrom(descriptorSet.toByteArray()));
+    }
+
+    @Test
+    public void getDescriptorByFullAndShortNames() throws Exception {
+        MessageTypeIndex index = buildIndex();
+
+        Assert.assertEquals("shop.Order", index.getDescriptor("Order").getFullName());
+        Assert.assertEquals("shop.Order", index.getDescriptor("shop.Order").getFullName());
+        Assert.assertEquals("shop.Order", index.getDescriptor(".shop.Order").getFullName());
+        Assert.assertEquals("stock.Item", index.getDescriptor("stock.Item").getFullName());
+    }
+
+    @Test
+    public void getNestedDescriptor() throws Exception {
+        MessageTypeIndex index = buildIndex();
+
+        Assert.assertEquals("shop.Order.Line", index.getDescriptor("Line").getFullName());
+        Assert.assertEquals("shop.Order.Line", index.getDescriptor("Order.Line").getFullName());
+        Assert.assertEquals("shop.Order.Line", index.getDescriptor("shop.Order.Line").getFullName());
+        Assert.assertTrue(index.getMessageTypes().contains("shop.Order.Line"));
+    }
+
+    @Test(expected = AmbiguousMessageTypeException.class)
+    public void getAmbiguousDescriptor() throws Exception {
+        buildIndex().getDescriptor("Item");
+    }
+
+    @Test
+    public void getUnknownDescriptorReusesException() throws Exception {
+        MessageTypeIndex index = buildIndex();
+
+        UnknownMessageTypeException first = null;
+        UnknownMessageTypeException second = null;
+        try {
+            index.getDescriptor("Customer");
+        } catch (UnknownMessageTypeException e) {
+            first = e;
+        }
+        try {
+            index.getDescriptor("Customer");
+        } catch (UnknownMessageTypeException e) {
+            second = e;
+        }
+
+        Assert.assertNotNull("Unknown message types should be reported", first);
+        Assert.assertSame("Unknown message types should be cached", first, second);
+    }
+
+    @Test
+    public void indexPersonSchema() throws Exception {
+        MessageTypeIndex index = new MessageTypeIndex(SchemaParser.parseSchema(MessageTypeIndexTest.class.getResource("/schemas/Person.desc").getPath(), false));
+
+        Assert.assertEquals("tutorial.Person", index.getDescriptor("Person").getFullName());
+        Assert.assertEquals("tutorial.Person.PhoneNumber", index.getDescriptor("PhoneNumber").getFullName());
+    }
+}
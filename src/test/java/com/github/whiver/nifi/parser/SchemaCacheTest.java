@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SchemaCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final String personSchema = SchemaCacheTest.class.getResource("/schemas/Person.desc").getPath();
+    private final String addressBookSchema = SchemaCacheTest.class.getResource("/schemas/AddressBook.desc").getPath();
+
+    @Test
+    public void getReturnsCachedSchema() throws Exception {
+        SchemaCache cache = new SchemaCache(10, 0, TimeUnit.SECONDS);
+
+        DynamicSchema first = cache.get(personSchema, false);
+        DynamicSchema second = cache.get(personSchema, false);
+
+        Assert.assertSame("The second lookup should return the cached schema", first, second);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void getSeparatesCompileFlag() throws Exception {
+        SchemaCache cache = new SchemaCache(10, 0, TimeUnit.SECONDS);
+        String protoSchema = SchemaCacheTest.class.getResource("/schemas/Person.proto").getPath();
+
+        cache.get(protoSchema, true);
+        cache.get(personSchema, false);
+        cache.get(protoSchema, true);
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void getEvictsLeastRecentlyUsedSchema() throws Exception {
+        SchemaCache cache = new SchemaCache(1, 0, TimeUnit.SECONDS);
+
+        cache.get(personSchema, false);
+        cache.get(addressBookSchema, false);
+        cache.get(personSchema, false);
+
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(2, cache.getEvictionCount());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void getExpiresSchemaAfterTtl() throws Exception {
+        SchemaCache cache = new SchemaCache(10, 1, TimeUnit.MILLISECONDS);
+
+        cache.get(personSchema, false);
+        Thread.sleep(10);
+        cache.get(personSchema, false);
+
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void getReloadsModifiedSchemaFile() throws Exception {
+        SchemaCache cache = new SchemaCache(10, 0, TimeUnit.SECONDS);
+        File schemaFile = temporaryFolder.newFile("Schema.desc");
+
+        Files.copy(new File(personSchema).toPath(), schemaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        DynamicSchema firstSchema = cache.get(schemaFile.getAbsolutePath(), false);
+
+        Files.copy(new File(addressBookSchema).toPath(), schemaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertTrue(schemaFile.setLastModified(schemaFile.lastModified() + 2000));
+        DynamicSchema secondSchema = cache.get(schemaFile.getAbsolutePath(), false);
+
+        Assert.assertNotSame("A modified schema file should be parsed again", firstSchema, secondSchema);
+        Assert.assertNotNull(secondSchema.getMessageDescriptor("AddressBook"));
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void getLoadsSchemaOnceForConcurrentLookups() throws Exception {
+        final int threadCount = 8;
+        SchemaCache cache = new SchemaCache(10, 0, TimeUnit.SECONDS, CompilerMode.JAVA, null);
+        String protoSchema = SchemaCacheTest.class.getResource("/schemas/Person.proto").getPath();
+
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<MessageTypeIndex>> lookups = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getIndex(protoSchema, true);
+                }));
+            }
+            start.countDown();
+
+            MessageTypeIndex first = lookups.get(0).get();
+            for (Future<MessageTypeIndex> lookup : lookups) {
+                Assert.assertSame("All the lookups should get the schema loaded once", first, lookup.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(threadCount - 1, cache.getHitCount());
+    }
+
+    @Test
+    public void getWithDisabledCacheAlwaysParses() throws Exception {
+        SchemaCache cache = new SchemaCache(0, 0, TimeUnit.SECONDS);
+
+        cache.get(personSchema, false);
+        cache.get(personSchema, false);
+
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(0, cache.size());
+    }
+}
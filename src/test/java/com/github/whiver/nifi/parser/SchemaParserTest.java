@@ -26,13 +26,31 @@
 
 package com.github.whiver.nifi.parser;
 
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.SchemaCompilationException;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors;
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 
 public class SchemaParserTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void compileProto() throws Exception {
         InputStream referenceSchema = SchemaParserTest.class.getResourceAsStream("/schemas/Person.desc");
@@ -40,4 +58,121 @@ public class SchemaParserTest {
             Assert.assertTrue("Compiled Person.proto should be equal to Person.desc", IOUtils.contentEquals(referenceSchema, resultSchema.read()));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compileProtoWithDescriptorCache() throws Exception {
+        File cacheDirectory = temporaryFolder.newFolder("descriptors");
+        DescriptorCache descriptorCache = new DescriptorCache(cacheDirectory, 1024 * 1024);
+        String protoPath = SchemaParserTest.class.getResource("/schemas/Person.proto").getPath();
+
+        try (CompiledSchema resultSchema = SchemaParser.compileProto(protoPath, descriptorCache)) {
+            InputStream referenceSchema = SchemaParserTest.class.getResourceAsStream("/schemas/Person.desc");
+            Assert.assertTrue("Compiled Person.proto should be equal to Person.desc", IOUtils.contentEquals(referenceSchema, resultSchema.read()));
+        }
+
+        File[] cachedFiles = cacheDirectory.listFiles();
+        Assert.assertNotNull(cachedFiles);
+        Assert.assertEquals("The compiled descriptor should be kept in the cache after use", 1, cachedFiles.length);
+
+        try (CompiledSchema resultSchema = SchemaParser.compileProto(protoPath, descriptorCache)) {
+            InputStream referenceSchema = SchemaParserTest.class.getResourceAsStream("/schemas/Person.desc");
+            Assert.assertTrue("Cached Person.proto should be equal to Person.desc", IOUtils.contentEquals(referenceSchema, resultSchema.read()));
+        }
+
+        Assert.assertEquals("The cached descriptor should be reused", 1, cacheDirectory.listFiles().length);
+    }
+
+    @Test
+    public void compileProtoInJvmMatchesProtoc() throws Exception {
+        for (String schemaName : new String[]{"Person", "Features"}) {
+            String protoPath = SchemaParserTest.class.getResource("/schemas/" + schemaName + ".proto").getPath();
+
+            FileDescriptorSet expected;
+            try (CompiledSchema protocSchema = SchemaParser.compileProto(protoPath)) {
+                expected = FileDescriptorSet.parseFrom(protocSchema.read());
+            }
+            FileDescriptorSet given = JavaProtoCompiler.compile(new File(protoPath));
+
+            Assert.assertEquals("The Java compiler should produce the same descriptors as protoc for " + schemaName + ".proto",
+                    withoutDefaultJsonNames(expected), withoutDefaultJsonNames(given));
+        }
+
+        // An explicit JSON name is always written, and kept by the comparison
+        FileDescriptorSet features = JavaProtoCompiler.compile(new File(SchemaParserTest.class.getResource("/schemas/Features.proto").getPath()));
+        for (FileDescriptorProto file : withoutDefaultJsonNames(features).getFileList()) {
+            for (DescriptorProto message : file.getMessageTypeList()) {
+                if (message.getName().equals("Event")) {
+                    for (FieldDescriptorProto field : message.getFieldList()) {
+                        Assert.assertEquals(field.getName().equals("score") ? "eventScore" : "", field.getJsonName());
+                    }
+                }
+            }
+
+            // Unlike the ones of messages, the reserved ranges of enums include their end
+            for (EnumDescriptorProto enumType : file.getEnumTypeList()) {
+                if (enumType.getName().equals("Status")) {
+                    Assert.assertEquals(Arrays.asList(
+                            EnumDescriptorProto.EnumReservedRange.newBuilder().setStart(2).setEnd(2).build(),
+                            EnumDescriptorProto.EnumReservedRange.newBuilder().setStart(15).setEnd(Integer.MAX_VALUE).build()),
+                            enumType.getReservedRangeList());
+                    Assert.assertEquals(Collections.singletonList("FOO"), enumType.getReservedNameList());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compileProtoInJvmResolvesWellKnownTypes() throws Exception {
+        File protoFile = temporaryFolder.newFile("Timestamped.proto");
+        Files.write(protoFile.toPath(), ("syntax = \"proto3\";\n" +
+                "import \"google/protobuf/timestamp.proto\";\n" +
+                "message Timestamped { google.protobuf.Timestamp time = 1; }\n").getBytes(StandardCharsets.UTF_8));
+
+        DynamicSchema schema = SchemaParser.parseSchema(protoFile.getAbsolutePath(), true, CompilerMode.JAVA, null);
+        Descriptors.FieldDescriptor timeField = schema.getMessageDescriptor("Timestamped").findFieldByName("time");
+
+        Assert.assertEquals("google.protobuf.Timestamp", timeField.getMessageType().getFullName());
+    }
+
+    @Test(expected = SchemaCompilationException.class)
+    public void compileProtoInJvmRejectsUndefinedTypes() throws Exception {
+        File protoFile = temporaryFolder.newFile("Invalid.proto");
+        Files.write(protoFile.toPath(), "syntax = \"proto3\";\nmessage Invalid { Missing field = 1; }\n".getBytes(StandardCharsets.UTF_8));
+
+        JavaProtoCompiler.compile(protoFile);
+    }
+
+    /**
+     * protoc versions differ on whether the default JSON names are written, so only the explicit ones are compared
+     */
+    private static FileDescriptorSet withoutDefaultJsonNames(FileDescriptorSet descriptorSet) {
+        FileDescriptorSet.Builder builder = descriptorSet.toBuilder();
+        for (FileDescriptorProto.Builder file : builder.getFileBuilderList()) {
+            for (DescriptorProto.Builder message : file.getMessageTypeBuilderList()) {
+                clearDefaultJsonNames(message);
+            }
+            for (FieldDescriptorProto.Builder extension : file.getExtensionBuilderList()) {
+                clearDefaultJsonName(extension);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void clearDefaultJsonNames(DescriptorProto.Builder message) {
+        for (FieldDescriptorProto.Builder field : message.getFieldBuilderList()) {
+            clearDefaultJsonName(field);
+        }
+        for (FieldDescriptorProto.Builder extension : message.getExtensionBuilderList()) {
+            clearDefaultJsonName(extension);
+        }
+        for (DescriptorProto.Builder nestedType : message.getNestedTypeBuilderList()) {
+            clearDefaultJsonNames(nestedType);
+        }
+    }
+
+    private static void clearDefaultJsonName(FieldDescriptorProto.Builder field) {
+        if (field.getJsonName().equals(ProtoParser.toJsonName(field.getName()))) {
+            field.clearJsonName();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.parser;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SchemaWatcherTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Test that the listener is called when the watched file is overwritten, and no more once the registration is closed
+     * @throws Exception
+     */
+    @Test
+    public void notifiesChangedFile() throws Exception {
+        File personSchema = new File(SchemaWatcherTest.class.getResource("/schemas/Person.desc").getPath());
+        File addressBookSchema = new File(SchemaWatcherTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        File schemaFile = temporaryFolder.newFile("schema.desc");
+        Files.copy(personSchema.toPath(), schemaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        CountDownLatch changed = new CountDownLatch(1);
+        SchemaWatcher watcher = SchemaWatcher.getInstance();
+        int watchedFiles = watcher.getWatchedFileCount();
+
+        try (SchemaWatcher.Registration ignored = watcher.watch(schemaFile.getPath(), changed::countDown)) {
+            Assert.assertEquals(watchedFiles + 1, watcher.getWatchedFileCount());
+
+            Files.copy(addressBookSchema.toPath(), schemaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue("The listener should be called when the file changes", changed.await(30, TimeUnit.SECONDS));
+        }
+
+        Assert.assertEquals(watchedFiles, watcher.getWatchedFileCount());
+    }
+}
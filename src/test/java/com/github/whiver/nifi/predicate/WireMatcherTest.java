@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.predicate;
+
+import com.github.whiver.nifi.exception.InvalidPredicateException;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class WireMatcherTest {
+
+    private static Descriptors.Descriptor getAddressBook() throws Exception {
+        return SchemaParser.parseSchema(WireMatcherTest.class.getResource("/schemas/AddressBook.desc").getPath(), false)
+                .getMessageDescriptor("AddressBook");
+    }
+
+    private static boolean[] match(Descriptors.Descriptor descriptor, byte[] data, String... predicates) throws Exception {
+        List<FieldPredicate> parsed = new ArrayList<>();
+        for (String predicate : predicates) {
+            parsed.add(FieldPredicate.parse(predicate));
+        }
+        return WireMatcher.compile(descriptor, parsed).match(CodedInputStream.newInstance(data));
+    }
+
+    /**
+     * Build a person, each optional field being left unset when null
+     */
+    private static DynamicMessage person(Descriptors.Descriptor descriptor, String name, int id, String email, String... phoneTypes) {
+        DynamicMessage.Builder person = DynamicMessage.newBuilder(descriptor);
+        person.setField(descriptor.findFieldByName("name"), name);
+        person.setField(descriptor.findFieldByName("id"), id);
+        if (email != null) {
+            person.setField(descriptor.findFieldByName("email"), email);
+        }
+
+        Descriptors.FieldDescriptor phones = descriptor.findFieldByName("phones");
+        for (String phoneType : phoneTypes) {
+            Descriptors.Descriptor phoneDescriptor = phones.getMessageType();
+            Descriptors.FieldDescriptor type = phoneDescriptor.findFieldByName("type");
+            person.addRepeatedField(phones, DynamicMessage.newBuilder(phoneDescriptor)
+                    .setField(phoneDescriptor.findFieldByName("number"), "555-" + phoneType)
+                    .setField(type, type.getEnumType().findValueByName(phoneType))
+                    .build());
+        }
+        return person.build();
+    }
+
+    @Test
+    public void matchScalarFields() throws Exception {
+        Descriptors.Descriptor addressBook = getAddressBook();
+        Descriptors.Descriptor descriptor = addressBook.findFieldByName("people").getMessageType();
+        byte[] data = person(descriptor, "John Doe", 42, null).toByteArray();
+
+        Assert.assertArrayEquals(new boolean[]{true, false, true, true, false, true},
+                match(descriptor, data, "id == 42", "id != 42", "id >= 10 && id < 100", "name in ('Jane Doe', \"John Doe\")",
+                        "name > 'K'", "id in (1, 42)"));
+
+        // Missing fields have their default value, but are not present
+        Assert.assertArrayEquals(new boolean[]{true, false, true, false},
+                match(descriptor, data, "email == ''", "has(email)", "!has(email) && has(name)", "has(phones)"));
+    }
+
+    @Test
+    public void matchNestedAndRepeatedFields() throws Exception {
+        Descriptors.Descriptor addressBook = getAddressBook();
+        Descriptors.FieldDescriptor people = addressBook.findFieldByName("people");
+        Descriptors.Descriptor descriptor = people.getMessageType();
+        byte[] data = DynamicMessage.newBuilder(addressBook)
+                .addRepeatedField(people, person(descriptor, "John Doe", 42, "john.doe@example.com", "HOME", "WORK"))
+                .addRepeatedField(people, person(descriptor, "Jane Doe", 41, null, "MOBILE"))
+                .build().toByteArray();
+
+        Assert.assertArrayEquals(new boolean[]{true, true, false, true, true, false, true},
+                match(addressBook, data, "people.id == 41", "people.email == 'john.doe@example.com'", "people.id > 100",
+                        "people.phones.type == WORK", "people.phones.type in (2, MOBILE)", "people.phones.type == 5",
+                        "has(people.phones) && people.email == ''"));
+
+        // Messages of the test data
+        byte[] expected = IOUtils.toByteArray(WireMatcherTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+        Assert.assertArrayEquals(new boolean[]{true, false},
+                match(addressBook, expected, "people.name == 'Jane Doe'", "has(people.phones)"));
+    }
+
+    /**
+     * A singular field appearing several times on the wire has its last value, as in the decoded message
+     */
+    @Test
+    public void matchLastValueOfSingularFields() throws Exception {
+        Descriptors.Descriptor descriptor = getAddressBook().findFieldByName("people").getMessageType();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(person(descriptor, "John Doe", 42, null).toByteArray());
+        data.write(DynamicMessage.newBuilder(descriptor)
+                .setField(descriptor.findFieldByName("id"), 7)
+                .buildPartial().toByteArray());
+
+        Assert.assertEquals(7, DynamicMessage.parseFrom(descriptor, data.toByteArray()).getField(descriptor.findFieldByName("id")));
+        Assert.assertArrayEquals(new boolean[]{true, false, true, false},
+                match(descriptor, data.toByteArray(), "id == 7", "id == 42", "id < 10 && name == 'John Doe'", "id in (42)"));
+    }
+
+    @Test
+    public void invalidPredicates() throws Exception {
+        Descriptors.Descriptor descriptor = getAddressBook().findFieldByName("people").getMessageType();
+
+        for (String predicate : new String[]{"unknown == 1", "id == 'text'", "name == 42", "phones == 1",
+                "phones.type < HOME", "phones.type == OFFICE", "id.value == 1", "id == 1.5"}) {
+            try {
+                match(descriptor, new byte[0], predicate);
+                Assert.fail("The predicate " + predicate + " should not apply to " + descriptor.getFullName());
+            } catch (InvalidPredicateException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(predicate));
+            }
+        }
+
+        for (String predicate : Arrays.asList("", "id", "id ==", "id = 1", "has(id", "id in ()", "id == 1 &&",
+                "name == 'unterminated", "has(people..id)")) {
+            try {
+                FieldPredicate.parse(predicate);
+                Assert.fail("The predicate '" + predicate + "' should be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
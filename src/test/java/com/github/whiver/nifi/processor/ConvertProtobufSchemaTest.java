@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.parser.CompilerMode;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+public class ConvertProtobufSchemaTest {
+    private static final String SCHEMA = "/schemas/Migration.proto";
+
+    private static DynamicSchema loadSchema() throws Exception {
+        return SchemaParser.parseSchema(ConvertProtobufSchemaTest.class.getResource(SCHEMA).getPath(), true, CompilerMode.JAVA, null);
+    }
+
+    private static TestRunner createRunner() {
+        TestRunner runner = TestRunners.newTestRunner(new ConvertProtobufSchema());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ConvertProtobufSchemaTest.class.getResource(SCHEMA).getPath());
+        runner.setProperty(ProtobufProcessor.COMPILE_SCHEMA, "true");
+        runner.setProperty(ProtobufProcessor.SCHEMA_COMPILER, ProtobufProcessor.JAVA_COMPILER.getValue());
+        runner.setProperty(ConvertProtobufSchema.TARGET_MESSAGE_TYPE, "CustomerV2");
+        return runner;
+    }
+
+    /**
+     * Test converting a stream of framed messages to another message type of the same schema
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerConvertFramedMessages() throws Exception {
+        DynamicSchema schema = loadSchema();
+        Descriptors.Descriptor customerV1 = schema.getMessageDescriptor("migration.CustomerV1");
+        Descriptors.Descriptor customerV2 = schema.getMessageDescriptor("migration.CustomerV2");
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (String name : new String[]{"John Doe", "Jane Doe"}) {
+            DynamicMessage.newBuilder(customerV1)
+                    .setField(customerV1.findFieldByName("name"), name)
+                    .setField(customerV1.findFieldByName("age"), 42)
+                    .build()
+                    .writeDelimitedTo(data);
+        }
+
+        TestRunner runner = createRunner();
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+        runner.setProperty(ConvertProtobufSchema.FIELD_RENAMES, "name=full_name");
+
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "CustomerV1");
+        runner.enqueue(data.toByteArray(), attributes);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.SUCCESS, 1);
+
+        MockFlowFile result = runner.getFlowFilesForRelationship(ProtobufProcessor.SUCCESS).get(0);
+        result.assertAttributeEquals(ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, "migration.CustomerV2");
+        result.assertAttributeNotExists("protobuf.schemaPath");
+
+        ByteArrayInputStream converted = new ByteArrayInputStream(runner.getContentAsByteArray(result));
+        for (String name : new String[]{"John Doe", "Jane Doe"}) {
+            DynamicMessage.Builder message = DynamicMessage.newBuilder(customerV2);
+            Assert.assertTrue(message.mergeDelimitedFrom(converted));
+            Assert.assertEquals(name, message.getField(customerV2.findFieldByName("full_name")));
+            Assert.assertEquals(42L, message.getField(customerV2.findFieldByName("age")));
+        }
+        Assert.assertEquals(0, converted.available());
+    }
+
+    /**
+     * Test converting a single message to a message type of a target schema, which is then given in the attributes
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerConvertToTargetSchema() throws Exception {
+        DynamicSchema schema = loadSchema();
+        Descriptors.Descriptor customerV1 = schema.getMessageDescriptor("migration.CustomerV1");
+        Descriptors.Descriptor customerV2 = schema.getMessageDescriptor("migration.CustomerV2");
+        byte[] data = DynamicMessage.newBuilder(customerV1)
+                .setField(customerV1.findFieldByName("name"), "Jane Doe")
+                .setField(customerV1.findFieldByName("email"), "jane@example.com")
+                .build()
+                .toByteArray();
+
+        TestRunner runner = createRunner();
+        runner.setProperty(ConvertProtobufSchema.TARGET_SCHEMA, ConvertProtobufSchemaTest.class.getResource(SCHEMA).getPath());
+        runner.setProperty(ConvertProtobufSchema.FIELD_MATCHING, ConvertProtobufSchema.NAME_MATCHING.getValue());
+        runner.setProperty(ConvertProtobufSchema.DROPPED_FIELDS, "email");
+
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "CustomerV1");
+        runner.enqueue(data, attributes);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.SUCCESS, 1);
+
+        MockFlowFile result = runner.getFlowFilesForRelationship(ProtobufProcessor.SUCCESS).get(0);
+        result.assertAttributeEquals(ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, "migration.CustomerV2");
+        result.assertAttributeEquals("protobuf.schemaPath", ConvertProtobufSchemaTest.class.getResource(SCHEMA).getPath());
+
+        // Matching by name, the name field is not converted without being renamed
+        DynamicMessage converted = DynamicMessage.parseFrom(customerV2, runner.getContentAsByteArray(result));
+        Assert.assertEquals("", converted.getField(customerV2.findFieldByName("full_name")));
+        Assert.assertFalse(converted.hasField(customerV2.findFieldByName("email")));
+        Assert.assertTrue(converted.getUnknownFields().asMap().isEmpty());
+    }
+
+    /**
+     * Test that flowfiles whose message type cannot be converted are routed to error
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerInvalidMapping() throws Exception {
+        TestRunner runner = createRunner();
+        runner.setProperty(ConvertProtobufSchema.FIELD_RENAMES, "name=nickname");
+        runner.assertValid();
+
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "CustomerV1");
+        runner.enqueue(new byte[0], attributes);
+        attributes.put("protobuf.messageType", "AddressV1");
+        runner.enqueue(new byte[0], attributes);
+        runner.run(2);
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.ERROR, 2);
+
+        runner.setProperty(ConvertProtobufSchema.FIELD_RENAMES, "name");
+        runner.assertNotValid();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+public class ExtractProtobufFieldsTest {
+
+    /**
+     * Test extracting fields of single and framed messages into attributes, without modifying the content
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerExtractFields() throws Exception {
+        byte[] message = IOUtils.toByteArray(ExtractProtobufFieldsTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        for (int i = 0; i < 2; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(framed, message.length);
+            framed.write(message);
+        }
+
+        for (MessageFraming framing : new MessageFraming[]{MessageFraming.NONE, MessageFraming.VARINT_DELIMITED}) {
+            byte[] content = framing == MessageFraming.NONE ? message : framed.toByteArray();
+
+            TestRunner runner = TestRunners.newTestRunner(new ExtractProtobufFields());
+            runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ExtractProtobufFieldsTest.class.getResource("/schemas/Person.desc").getPath());
+            runner.setProperty(ProtobufProcessor.FRAMING, framing.getValue());
+            runner.setProperty("person.name", "name");
+            runner.setProperty("person.id", "id");
+            runner.setProperty("person.email", "email");
+            runner.setProperty("person.phones", "phones");
+
+            HashMap<String, String> attributes = new HashMap<>();
+            attributes.put("protobuf.messageType", "Person");
+            runner.enqueue(content, attributes);
+
+            runner.assertValid();
+            runner.run(1);
+            runner.assertQueueEmpty();
+            runner.assertAllFlowFilesTransferred(ProtobufProcessor.SUCCESS, 1);
+
+            MockFlowFile result = runner.getFlowFilesForRelationship(ProtobufProcessor.SUCCESS).get(0);
+            result.assertAttributeEquals("person.name", "Me");
+            result.assertAttributeEquals("person.id", "666");
+            result.assertAttributeEquals("person.email", "");
+            result.assertAttributeNotExists("person.phones");
+            result.assertContentEquals(content);
+
+            // The content is only read, nothing is written
+            Assert.assertEquals(Long.valueOf(content.length), runner.getCounterValue(ProtobufProcessor.BYTES_IN_COUNTER));
+            Assert.assertEquals(Long.valueOf(0), runner.getCounterValue(ProtobufProcessor.BYTES_OUT_COUNTER));
+        }
+    }
+
+    /**
+     * Test that the field paths are checked when they are set, and against the message types when the fields are read
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerInvalidPaths() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ExtractProtobufFields());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ExtractProtobufFieldsTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty("tenant", "tenant..id");
+        runner.assertNotValid();
+
+        runner.setProperty("tenant", "tenant.id");
+        runner.assertValid();
+
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "Person");
+        runner.enqueue(ExtractProtobufFieldsTest.class.getResourceAsStream("/data/Person.data"), attributes);
+        runner.run(1);
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.ERROR, 1);
+    }
+}
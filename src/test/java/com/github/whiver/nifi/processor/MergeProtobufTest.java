@@ -0,0 +1,181 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+
+public class MergeProtobufTest {
+
+    private static byte[] frame(MessageFraming framing, byte[]... messages) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] message : messages) {
+            framing.writeHeader(out, message.length);
+            out.write(message);
+        }
+        return out.toByteArray();
+    }
+
+    private static HashMap<String, String> attributes(String schema, String messageType) {
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.schemaPath", MergeProtobufTest.class.getResource(schema).getPath());
+        attributes.put("protobuf.messageType", messageType);
+        return attributes;
+    }
+
+    /**
+     * Test merging messages in bins of a maximum number of messages, framed as requested and grouped by message type
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerMergeByMessageCount() throws Exception {
+        byte[] person = IOUtils.toByteArray(MergeProtobufTest.class.getResourceAsStream("/data/Person.data"));
+        byte[] addressBook = IOUtils.toByteArray(MergeProtobufTest.class.getResourceAsStream("/data/AddressBook_basic.data"));
+
+        for (MessageFraming framing : new MessageFraming[]{MessageFraming.VARINT_DELIMITED, MessageFraming.FIXED32_BIG_ENDIAN, MessageFraming.GRPC}) {
+            TestRunner runner = TestRunners.newTestRunner(new MergeProtobuf());
+            runner.setProperty(MergeProtobuf.FRAMING, framing.getValue());
+            runner.setProperty(MergeProtobuf.MAX_MESSAGES, "2");
+
+            for (int i = 0; i < 3; i++) {
+                runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+            }
+            runner.enqueue(addressBook, attributes("/schemas/AddressBook.desc", "AddressBook"));
+
+            runner.assertValid();
+            runner.run(1);
+            runner.assertQueueEmpty();
+            runner.assertTransferCount(MergeProtobuf.ORIGINAL, 4);
+            runner.assertTransferCount(MergeProtobuf.MERGED, 3);
+
+            List<MockFlowFile> merged = runner.getFlowFilesForRelationship(MergeProtobuf.MERGED);
+            merged.get(0).assertContentEquals(frame(framing, person, person));
+            merged.get(0).assertAttributeEquals(ProtobufProcessor.MESSAGE_COUNT_ATTRIBUTE, "2");
+            merged.get(0).assertAttributeEquals(ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, "Person");
+            merged.get(0).assertAttributeEquals(MergeProtobuf.FRAMING_ATTRIBUTE, framing.getValue());
+            merged.get(1).assertContentEquals(frame(framing, person));
+            merged.get(1).assertAttributeEquals(ProtobufProcessor.MESSAGE_COUNT_ATTRIBUTE, "1");
+            merged.get(2).assertContentEquals(frame(framing, addressBook));
+            merged.get(2).assertAttributeEquals(ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, "AddressBook");
+        }
+    }
+
+    /**
+     * Test that a merged flowfile never exceeds the maximum size, unless it contains a single larger message
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerMergeBySize() throws Exception {
+        byte[] person = IOUtils.toByteArray(MergeProtobufTest.class.getResourceAsStream("/data/Person.data"));
+        byte[] large = new byte[3 * person.length];
+
+        TestRunner runner = TestRunners.newTestRunner(new MergeProtobuf());
+        runner.setProperty(MergeProtobuf.MAX_SIZE, (2 * person.length) + " B");
+
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.enqueue(large, attributes("/schemas/Person.desc", "Person"));
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.run(1);
+
+        List<MockFlowFile> merged = runner.getFlowFilesForRelationship(MergeProtobuf.MERGED);
+        Assert.assertEquals(3, merged.size());
+        merged.get(0).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, person, person));
+        merged.get(1).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, large));
+        merged.get(2).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, person));
+    }
+
+    /**
+     * Test that flowfiles are held back across triggers until the minimum number of messages is reached, or until they
+     * are too old, and put back in the queue when the processor stops
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerMergeWithMinimums() throws Exception {
+        byte[] person = IOUtils.toByteArray(MergeProtobufTest.class.getResourceAsStream("/data/Person.data"));
+
+        TestRunner runner = TestRunners.newTestRunner(new MergeProtobuf());
+        runner.setProperty(MergeProtobuf.MIN_MESSAGES, "3");
+        runner.setProperty(MergeProtobuf.MAX_AGE, "200 ms");
+
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.run(1, false, true);
+        runner.assertTransferCount(MergeProtobuf.MERGED, 0);
+        runner.assertQueueEmpty();
+
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.run(1, false, false);
+        runner.assertTransferCount(MergeProtobuf.MERGED, 1);
+        runner.assertTransferCount(MergeProtobuf.ORIGINAL, 3);
+        runner.assertQueueEmpty();
+        runner.getFlowFilesForRelationship(MergeProtobuf.MERGED).get(0)
+                .assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, person, person, person));
+
+        runner.clearTransferState();
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.run(1, false, false);
+        runner.assertTransferCount(MergeProtobuf.MERGED, 0);
+
+        // The bin is merged once too old, even though no other flowfile arrives
+        Thread.sleep(300);
+        runner.run(1, false, false);
+        runner.assertTransferCount(MergeProtobuf.MERGED, 1);
+        runner.assertQueueEmpty();
+
+        runner.clearTransferState();
+        runner.enqueue(person, attributes("/schemas/Person.desc", "Person"));
+        runner.run(1, true, false);
+        runner.assertTransferCount(MergeProtobuf.MERGED, 0);
+        Assert.assertEquals(1, runner.getQueueSize().getObjectCount());
+    }
+
+    /**
+     * Test that flowfiles without a message type are routed to error, and that the thresholds are checked
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerInvalidInput() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new MergeProtobuf());
+        runner.enqueue(new byte[]{1, 2, 3});
+        runner.run(1);
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.ERROR, 1);
+
+        runner.setProperty(MergeProtobuf.MIN_MESSAGES, "10");
+        runner.setProperty(MergeProtobuf.MAX_MESSAGES, "5");
+        runner.assertNotValid();
+    }
+}
@@ -28,16 +28,28 @@ package com.github.whiver.nifi.processor;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.metrics.AllocationSampler;
+import com.github.whiver.nifi.metrics.MetricsSnapshot;
+import com.github.whiver.nifi.registry.StandardProtobufSchemaRegistry;
+import org.apache.commons.io.IOUtils;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -171,6 +183,35 @@ public class ProtobufDecoderTest {
         Assert.assertEquals("The parsing result of Person.data is not as expected", expected, given);
     }
 
+    /**
+     * Test decoding valid files given an uncompiled .proto schema compiled inside the JVM
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerCompileSchemaInJvmAndDecodeValidFiles() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.COMPILE_SCHEMA, "true");
+        runner.setProperty(ProtobufProcessor.SCHEMA_COMPILER, ProtobufProcessor.JAVA_COMPILER.getValue());
+
+        InputStream dataFile = ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data");
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/Person.proto").getPath());
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(dataFile, personProperties);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS);
+        MockFlowFile result = runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS).get(0);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode expected = mapper.readTree(this.getClass().getResourceAsStream("/data/Person.json"));
+        JsonNode given = mapper.readTree(runner.getContentAsByteArray(result));
+        Assert.assertEquals("The parsing result of Person.data is not as expected", expected, given);
+    }
+
     /**
      * Test if the per-flowfile schema have priority on the processor-wide one
      * @throws IOException
@@ -275,4 +316,546 @@ public class ProtobufDecoderTest {
         Assert.assertEquals("The parsing result of AddressBook_basic.data is not as expected", expected, given);
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Test decoding several flowfiles, with different schemas, in a single batch
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeBatch() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.BATCH_SIZE, "10");
+
+        HashMap<String, String> addressBookProperties = new HashMap<>();
+        addressBookProperties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        addressBookProperties.put("protobuf.messageType", "AddressBook");
+        for (String filename: validTestFiles) {
+            addressBookProperties.put("testfile", filename);
+            runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/" + filename + ".data"), addressBookProperties);
+        }
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        personProperties.put("protobuf.messageType", "Person");
+        personProperties.put("testfile", "Person");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), personProperties);
+
+        HashMap<String, String> unknownTypeProperties = new HashMap<>(personProperties);
+        unknownTypeProperties.put("protobuf.messageType", "Unknown");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), unknownTypeProperties);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+
+        runner.assertTransferCount(ProtobufDecoder.SUCCESS, validTestFiles.length + 1);
+        runner.assertTransferCount(ProtobufDecoder.ERROR, 1);
+
+        ObjectMapper mapper = new ObjectMapper();
+        for (MockFlowFile result: runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS)) {
+            JsonNode expected = mapper.readTree(this.getClass().getResourceAsStream("/data/" + result.getAttribute("testfile") + ".json"));
+            JsonNode given = mapper.readTree(runner.getContentAsByteArray(result));
+            Assert.assertEquals("The parsing result of " + result.getAttribute("testfile") + ".data is not as expected", expected, given);
+        }
+    }
+
+    /**
+     * Test that each run of the decoder processes at most one batch of flowfiles, leaving the others in the queue
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeBatchSize() throws Exception {
+        final int flowfileCount = 1000;
+        final int batchSize = 300;
+
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.BATCH_SIZE, String.valueOf(batchSize));
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        personProperties.put("protobuf.messageType", "Person");
+
+        byte[] data = IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"));
+        for (int i = 0; i < flowfileCount; i++) {
+            runner.enqueue(data, personProperties);
+        }
+
+        runner.run(1, false, true);
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS, batchSize);
+        Assert.assertEquals(flowfileCount - batchSize, runner.getQueueSize().getObjectCount());
+
+        // The remaining flowfiles take the other runs
+        runner.run((flowfileCount - 1) / batchSize, true, false);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS, flowfileCount);
+    }
+
+    /**
+     * Test decoding a stream of varint-delimited messages into newline-delimited JSON
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeFramedMessages() throws Exception {
+        final int messageCount = 3;
+
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+        runner.setProperty(ProtobufProcessor.JSON_LAYOUT, JsonLayout.NDJSON.getValue());
+
+        byte[] message = IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < messageCount; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+            data.write(message);
+        }
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(data.toByteArray(), personProperties);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode expected = mapper.readTree(this.getClass().getResourceAsStream("/data/Person.json"));
+        String[] lines = new String(runner.getContentAsByteArray(runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS).get(0)), StandardCharsets.UTF_8).split("\n");
+
+        Assert.assertEquals("There should be one JSON message per line", messageCount, lines.length);
+        for (String line : lines) {
+            Assert.assertEquals("The parsing result of Person.data is not as expected", expected, mapper.readTree(line));
+        }
+    }
+
+    /**
+     * Test that a stream whose last message is truncated is routed to error with its original content, and not with the
+     * JSON of the messages decoded before the error
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeTruncatedFramedMessages() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+
+        byte[] message = IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+        data.write(message);
+        MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+        data.write(message, 0, message.length / 2);
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(data.toByteArray(), personProperties);
+
+        runner.run(1);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.ERROR, 1);
+        runner.getFlowFilesForRelationship(ProtobufDecoder.ERROR).get(0).assertContentEquals(data.toByteArray());
+    }
+
+    /**
+     * Test that a length prefix larger than the flowfile, or than the maximum message size, is rejected before the
+     * message is read, and that the flowfile is routed to error with its original content
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeTooLongFramedMessage() throws Exception {
+        byte[] message = IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"));
+
+        for (MessageFraming framing : new MessageFraming[]{MessageFraming.VARINT_DELIMITED, MessageFraming.FIXED32_BIG_ENDIAN}) {
+            for (String engine : new String[]{ProtobufProcessor.DYNAMIC_ENGINE.getValue(), ProtobufProcessor.STREAMING_ENGINE.getValue()}) {
+                for (String parallelism : new String[]{"1", "4"}) {
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    framing.writeHeader(data, Integer.MAX_VALUE);
+                    data.write(message);
+
+                    TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+                    runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+                    runner.setProperty(ProtobufProcessor.FRAMING, framing.getValue());
+                    runner.setProperty(ProtobufProcessor.CODEC_ENGINE, engine);
+                    runner.setProperty(ProtobufDecoder.DECODING_PARALLELISM, parallelism);
+
+                    HashMap<String, String> personProperties = new HashMap<>();
+                    personProperties.put("protobuf.messageType", "Person");
+                    runner.enqueue(data.toByteArray(), personProperties);
+
+                    runner.run(1);
+                    runner.assertQueueEmpty();
+                    runner.assertAllFlowFilesTransferred(ProtobufDecoder.ERROR, 1);
+                    runner.getFlowFilesForRelationship(ProtobufDecoder.ERROR).get(0).assertContentEquals(data.toByteArray());
+                }
+            }
+        }
+
+        // A message fitting in the flowfile is still rejected when it is larger than the maximum message size
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+        data.write(message);
+
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+        runner.setProperty(ProtobufProcessor.MAX_MESSAGE_SIZE, (message.length - 1) + " B");
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(data.toByteArray(), personProperties);
+
+        runner.run(1);
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.ERROR, 1);
+    }
+
+    /**
+     * Test that decoding the messages of a flowfile on several threads gives the same JSON array as decoding them on a
+     * single thread
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeFramedMessagesInParallel() throws Exception {
+        byte[] message = IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+            data.write(message);
+        }
+
+        String[] results = new String[2];
+        for (int parallelism = 1; parallelism <= 2; parallelism++) {
+            TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+            runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+            runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+            runner.setProperty(ProtobufProcessor.JSON_LAYOUT, JsonLayout.ARRAY.getValue());
+            runner.setProperty(ProtobufDecoder.DECODING_PARALLELISM, String.valueOf(4 * (parallelism - 1) + 1));
+            runner.setProperty(ProtobufDecoder.MIN_CHUNK_SIZE, "200 B");
+
+            HashMap<String, String> addressBookProperties = new HashMap<>();
+            addressBookProperties.put("protobuf.messageType", "AddressBook");
+            runner.enqueue(data.toByteArray(), addressBookProperties);
+
+            runner.assertValid();
+            runner.run(1);
+            runner.assertQueueEmpty();
+            runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS, 1);
+            results[parallelism - 1] = new String(runner.getContentAsByteArray(runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS).get(0)), StandardCharsets.UTF_8);
+        }
+
+        Assert.assertEquals(100, new ObjectMapper().readTree(results[1]).size());
+        Assert.assertEquals("Decoding in parallel should not change the JSON", results[0], results[1]);
+    }
+
+    /**
+     * Test decoding to compact JSON, and check that the JSON size is reported in the counters
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeToCompactJson() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.JSON_COMPACT, "true");
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), personProperties);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS);
+
+        MockFlowFile result = runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS).get(0);
+        result.assertContentEquals("{\"name\":\"Me\",\"id\":666}");
+        Assert.assertEquals(Long.valueOf(result.getSize()), runner.getCounterValue(ProtobufDecoder.JSON_BYTES_COUNTER));
+        Assert.assertEquals(Long.valueOf(1), runner.getCounterValue(ProtobufDecoder.JSON_MESSAGES_COUNTER));
+    }
+
+    /**
+     * Test decoding only the fields of a field mask, with both engines, and routing to error the message types the
+     * mask does not apply to
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeWithFieldMask() throws Exception {
+        for (String engine : new String[]{ProtobufProcessor.DYNAMIC_ENGINE.getValue(), ProtobufProcessor.STREAMING_ENGINE.getValue()}) {
+            TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+            runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+            runner.setProperty(ProtobufProcessor.JSON_COMPACT, "true");
+            runner.setProperty(ProtobufProcessor.CODEC_ENGINE, engine);
+            runner.setProperty(ProtobufDecoder.FIELD_MASK, "people.name, people.email");
+
+            HashMap<String, String> addressBookProperties = new HashMap<>();
+            addressBookProperties.put("protobuf.messageType", "AddressBook");
+            runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/AddressBook_several.data"), addressBookProperties);
+
+            HashMap<String, String> personProperties = new HashMap<>();
+            personProperties.put("protobuf.messageType", "Person");
+            runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), personProperties);
+
+            runner.assertValid();
+            runner.run(2);
+            runner.assertQueueEmpty();
+
+            runner.assertTransferCount(ProtobufDecoder.SUCCESS, 1);
+            runner.assertTransferCount(ProtobufDecoder.ERROR, 1);
+            runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS).get(0).assertContentEquals(
+                    "{\"people\":[{\"name\":\"John Doe\",\"email\":\"john.doe@example.com\"},{\"name\":\"Jane Doe\"}]}");
+            runner.getFlowFilesForRelationship(ProtobufDecoder.ERROR).get(0).assertAttributeEquals("protobuf.messageType", "Person");
+        }
+
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufDecoder.FIELD_MASK, "people..name");
+        runner.assertNotValid();
+    }
+
+    /**
+     * Test decoding files whose schema is given by name and resolved through the schema registry
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeWithSchemaRegistry() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        StandardProtobufSchemaRegistry registry = new StandardProtobufSchemaRegistry();
+        runner.addControllerService("schema-registry", registry);
+        runner.setProperty(registry, "people:1", ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.enableControllerService(registry);
+        runner.setProperty(ProtobufProcessor.SCHEMA_REGISTRY, "schema-registry");
+        runner.setProperty(ProtobufProcessor.BATCH_SIZE, "10");
+
+        HashMap<String, String> namedProperties = new HashMap<>();
+        namedProperties.put("protobuf.schemaName", "people");
+        namedProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), namedProperties);
+
+        HashMap<String, String> unknownProperties = new HashMap<>(namedProperties);
+        unknownProperties.put("protobuf.schemaVersion", "2");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), unknownProperties);
+
+        HashMap<String, String> pathProperties = new HashMap<>();
+        pathProperties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        pathProperties.put("protobuf.messageType", "AddressBook");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/AddressBook_basic.data"), pathProperties);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+
+        runner.assertTransferCount(ProtobufDecoder.SUCCESS, 2);
+        runner.assertTransferCount(ProtobufDecoder.INVALID_SCHEMA, 1);
+        Assert.assertEquals("The schema given by path should be loaded by the registry", 2, registry.getSchemaCache().size());
+    }
+
+    /**
+     * Test that the processor-level schema is reloaded when its file is overwritten, without restarting the processor
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeWithReloadedSchema() throws Exception {
+        File schemaFile = File.createTempFile("schema", ".desc");
+        schemaFile.deleteOnExit();
+        Files.copy(new File(ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath()).toPath(),
+                schemaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        ProtobufDecoder processor = new ProtobufDecoder();
+        TestRunner runner = TestRunners.newTestRunner(processor);
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, schemaFile.getPath());
+        runner.setProperty(ProtobufProcessor.WATCH_SCHEMA, "true");
+
+        HashMap<String, String> addressBookProperties = new HashMap<>();
+        addressBookProperties.put("protobuf.messageType", "AddressBook");
+
+        // The AddressBook message is unknown to the initial schema
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/AddressBook_basic.data"), addressBookProperties);
+        runner.run(1, false, true);
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.ERROR, 1);
+        Assert.assertEquals(-1, processor.getLastSchemaReloadLatency(TimeUnit.MILLISECONDS));
+
+        Files.copy(new File(ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath()).toPath(),
+                schemaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (processor.getLastSchemaReloadLatency(TimeUnit.MILLISECONDS) < 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue("The schema should have been reloaded", processor.getLastSchemaReloadLatency(TimeUnit.MILLISECONDS) >= 0);
+
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/AddressBook_basic.data"), addressBookProperties);
+        runner.run(1, true, false);
+        runner.assertTransferCount(ProtobufDecoder.SUCCESS, 1);
+    }
+
+    /**
+     * Stress the decoder with many concurrent tasks decoding flowfiles with both processor-level and flowfile-level
+     * schemas, checking every result
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerConcurrentTasks() throws Exception {
+        final int flowfileCount = 4000;
+
+        for (int threadCount : new int[]{1, 2, 4, 8, 16}) {
+            decodeConcurrently(flowfileCount, threadCount);
+        }
+    }
+
+    /**
+     * Decode the given number of flowfiles with the given number of concurrent tasks, and check every result
+     */
+    private void decodeConcurrently(int flowfileCount, int threadCount) throws IOException {
+        final int batchSize = 20;
+
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setThreadCount(threadCount);
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty(ProtobufProcessor.BATCH_SIZE, String.valueOf(batchSize));
+
+        HashMap<String, byte[]> data = new HashMap<>();
+        for (String filename : new String[]{"AddressBook_basic", "AddressBook_several", "Person"}) {
+            data.put(filename, IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/" + filename + ".data")));
+        }
+
+        for (int i = 0; i < flowfileCount; i++) {
+            HashMap<String, String> properties = new HashMap<>();
+            if (i % 3 == 2) {
+                properties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+                properties.put("protobuf.messageType", "Person");
+                properties.put("testfile", "Person");
+            } else {
+                properties.put("protobuf.messageType", "AddressBook");
+                properties.put("testfile", i % 3 == 0 ? "AddressBook_basic" : "AddressBook_several");
+            }
+            runner.enqueue(data.get(properties.get("testfile")), properties);
+        }
+
+        runner.run((flowfileCount + batchSize - 1) / batchSize);
+
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS, flowfileCount);
+
+        ObjectMapper mapper = new ObjectMapper();
+        HashMap<String, JsonNode> expected = new HashMap<>();
+        for (MockFlowFile result : runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS)) {
+            String testfile = result.getAttribute("testfile");
+            if (!expected.containsKey(testfile)) {
+                expected.put(testfile, mapper.readTree(this.getClass().getResourceAsStream("/data/" + testfile + ".json")));
+            }
+            Assert.assertEquals("The parsing result of " + testfile + ".data is not as expected with " + threadCount
+                    + " concurrent tasks", expected.get(testfile), mapper.readTree(runner.getContentAsByteArray(result)));
+        }
+    }
+
+    /**
+     * Test decoding valid files with the streaming engine, which must give the same JSON as dynamic messages
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeWithStreamingEngine() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty(ProtobufProcessor.CODEC_ENGINE, ProtobufProcessor.STREAMING_ENGINE.getValue());
+
+        for (String filename : validTestFiles) {
+            HashMap<String, String> addressBookProperties = new HashMap<>();
+            addressBookProperties.put("protobuf.messageType", "AddressBook");
+            addressBookProperties.put("testfile", filename);
+            runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/" + filename + ".data"), addressBookProperties);
+        }
+
+        runner.assertValid();
+        runner.run(validTestFiles.length);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS, validTestFiles.length);
+
+        ObjectMapper mapper = new ObjectMapper();
+        for (MockFlowFile result : runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS)) {
+            JsonNode expected = mapper.readTree(this.getClass().getResourceAsStream("/data/" + result.getAttribute("testfile") + ".json"));
+            Assert.assertEquals(expected, mapper.readTree(runner.getContentAsByteArray(result)));
+        }
+    }
+
+    /**
+     * Test decoding valid files with generated codecs, which must give the same JSON as dynamic messages, or fall back
+     * to the streaming engine when the tests do not run on a JDK
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerDecodeWithGeneratedEngine() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufDecoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufDecoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty(ProtobufProcessor.CODEC_ENGINE, ProtobufProcessor.GENERATED_ENGINE.getValue());
+
+        for (String filename : validTestFiles) {
+            HashMap<String, String> addressBookProperties = new HashMap<>();
+            addressBookProperties.put("protobuf.messageType", "AddressBook");
+            addressBookProperties.put("testfile", filename);
+            runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/" + filename + ".data"), addressBookProperties);
+        }
+
+        runner.assertValid();
+        runner.run(validTestFiles.length);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufDecoder.SUCCESS, validTestFiles.length);
+
+        ObjectMapper mapper = new ObjectMapper();
+        for (MockFlowFile result : runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS)) {
+            JsonNode expected = mapper.readTree(this.getClass().getResourceAsStream("/data/" + result.getAttribute("testfile") + ".json"));
+            Assert.assertEquals(expected, mapper.readTree(runner.getContentAsByteArray(result)));
+        }
+    }
+
+    /**
+     * Test that the hot path metrics are published in the NiFi counters and in the metrics snapshot
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerPublishesMetrics() throws Exception {
+        ProtobufDecoder decoder = new ProtobufDecoder();
+        TestRunner runner = TestRunners.newTestRunner(decoder);
+        runner.setProperty(ProtobufProcessor.ALLOCATION_SAMPLING_INTERVAL, "1");
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.schemaPath", ProtobufDecoderTest.class.getResource("/schemas/Person.desc").getPath());
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), personProperties);
+        runner.enqueue(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data"), personProperties);
+        runner.enqueue(new byte[]{42}, personProperties);
+
+        runner.assertValid();
+        runner.run(3);
+        runner.assertQueueEmpty();
+        runner.assertTransferCount(ProtobufDecoder.SUCCESS, 2);
+        runner.assertTransferCount(ProtobufDecoder.ERROR, 1);
+
+        long inputSize = 2 * IOUtils.toByteArray(ProtobufDecoderTest.class.getResourceAsStream("/data/Person.data")).length + 1;
+        long outputSize = 0;
+        for (MockFlowFile result : runner.getFlowFilesForRelationship(ProtobufDecoder.SUCCESS)) {
+            outputSize += result.getSize();
+        }
+        Assert.assertEquals(Long.valueOf(inputSize), runner.getCounterValue(ProtobufProcessor.BYTES_IN_COUNTER));
+        Assert.assertEquals(Long.valueOf(outputSize), runner.getCounterValue(ProtobufProcessor.BYTES_OUT_COUNTER));
+        Assert.assertEquals(Long.valueOf(2), runner.getCounterValue(ProtobufProcessor.MESSAGES_COUNTER));
+        Assert.assertEquals(Long.valueOf(2), runner.getCounterValue(ProtobufProcessor.ROUTED_COUNTER_PREFIX + ProtobufDecoder.SUCCESS.getName()));
+        Assert.assertEquals(Long.valueOf(1), runner.getCounterValue(ProtobufProcessor.ROUTED_COUNTER_PREFIX + ProtobufDecoder.ERROR.getName()));
+
+        MetricsSnapshot metrics = decoder.getMetrics();
+        Assert.assertEquals(inputSize, metrics.getBytesIn());
+        Assert.assertEquals(outputSize, metrics.getBytesOut());
+        Assert.assertEquals(2, metrics.getMessages());
+        Assert.assertEquals(2, metrics.getRoutedFlowfiles(ProtobufDecoder.SUCCESS.getName()));
+        Assert.assertEquals(1, metrics.getRoutedFlowfiles(ProtobufDecoder.ERROR.getName()));
+        Assert.assertEquals(3, metrics.getSchemaResolution().getCount());
+        Assert.assertEquals(3, metrics.getConversion().getCount());
+        Assert.assertEquals(2, metrics.getMessagesPerFlowfile().getCount());
+
+        // The schema is loaded once, and then found in the cache
+        Assert.assertEquals(1, metrics.getCacheMisses());
+        Assert.assertEquals(2, metrics.getCacheHits());
+        if (AllocationSampler.isSupported()) {
+            Assert.assertEquals(3, metrics.getAllocatedBytes().get("tutorial.Person").getCount());
+        }
+
+        decoder.resetMetrics();
+        Assert.assertEquals(0, decoder.getMetrics().getBytesIn());
+    }
+}
@@ -26,14 +26,19 @@
 
 package com.github.whiver.nifi.processor;
 
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import org.apache.commons.io.IOUtils;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 
@@ -289,4 +294,69 @@ public class ProtobufEncoderTest {
         List<MockFlowFile> results = runner.getFlowFilesForRelationship(ProtobufEncoder.SUCCESS);
         Assert.assertEquals("The 2 flowfiles should be returned to success", 2, results.size());
     }
-}
\ No newline at end of file
+
+    /**
+     * Test encoding a JSON array of messages into a stream of gRPC frames
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerEncodeFramedMessages() throws Exception {
+        final int messageCount = 3;
+
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufEncoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufEncoderTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.GRPC.getValue());
+        runner.setProperty(ProtobufProcessor.JSON_LAYOUT, JsonLayout.ARRAY.getValue());
+
+        String person = new String(IOUtils.toByteArray(ProtobufEncoderTest.class.getResourceAsStream("/data/Person.json")), StandardCharsets.UTF_8);
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < messageCount; i++) {
+            json.append(i > 0 ? "," : "").append(person);
+        }
+        json.append("]");
+
+        HashMap<String, String> personProperties = new HashMap<>();
+        personProperties.put("protobuf.messageType", "Person");
+        runner.enqueue(json.toString().getBytes(StandardCharsets.UTF_8), personProperties);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufEncoder.SUCCESS);
+
+        byte[] message = IOUtils.toByteArray(ProtobufEncoderTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < messageCount; i++) {
+            MessageFraming.GRPC.writeHeader(expected, message.length);
+            expected.write(message);
+        }
+        runner.getFlowFilesForRelationship(ProtobufEncoder.SUCCESS).get(0).assertContentEquals(expected.toByteArray());
+    }
+
+    /**
+     * Test that the streaming engine produces the same binaries as dynamic messages
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerEncodeWithStreamingEngine() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new ProtobufEncoder());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, ProtobufEncoderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty(ProtobufProcessor.CODEC_ENGINE, ProtobufProcessor.STREAMING_ENGINE.getValue());
+
+        for (String filename : validTestFiles) {
+            HashMap<String, String> addressBookProperties = new HashMap<>();
+            addressBookProperties.put("protobuf.messageType", "AddressBook");
+            addressBookProperties.put("testfile", filename);
+            runner.enqueue(ProtobufEncoderTest.class.getResourceAsStream("/data/" + filename + ".json"), addressBookProperties);
+        }
+
+        runner.assertValid();
+        runner.run(validTestFiles.length);
+        runner.assertQueueEmpty();
+        runner.assertAllFlowFilesTransferred(ProtobufEncoder.SUCCESS, validTestFiles.length);
+
+        for (MockFlowFile result : runner.getFlowFilesForRelationship(ProtobufEncoder.SUCCESS)) {
+            result.assertContentEquals(ProtobufEncoderTest.class.getResourceAsStream("/data/" + result.getAttribute("testfile") + ".data"));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+
+public class RouteOnProtobufFieldTest {
+
+    private static Relationship relationship(String name) {
+        return new Relationship.Builder().name(name).build();
+    }
+
+    /**
+     * Test routing files to the relationships of the predicates they match, cloning those matching several of them
+     * and keeping their content as is
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerRouteOnFields() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new RouteOnProtobufField());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, RouteOnProtobufFieldTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty("jane", "people.name == 'Jane Doe'");
+        runner.setProperty("john", "people.id == 42 && has(people.email)");
+        runner.setProperty("vip", "people.id in (1, 2, 3)");
+
+        for (String filename : new String[]{"AddressBook_basic", "AddressBook_several"}) {
+            HashMap<String, String> attributes = new HashMap<>();
+            attributes.put("protobuf.messageType", "AddressBook");
+            attributes.put("testfile", filename);
+            runner.enqueue(RouteOnProtobufFieldTest.class.getResourceAsStream("/data/" + filename + ".data"), attributes);
+        }
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "AddressBook");
+        runner.enqueue(new byte[0], attributes);
+
+        runner.assertValid();
+        runner.run(3);
+        runner.assertQueueEmpty();
+
+        runner.assertTransferCount(relationship("john"), 2);
+        runner.assertTransferCount(relationship("jane"), 1);
+        runner.assertTransferCount(relationship("vip"), 0);
+        runner.assertTransferCount(RouteOnProtobufField.UNMATCHED, 1);
+
+        List<MockFlowFile> jane = runner.getFlowFilesForRelationship(relationship("jane"));
+        jane.get(0).assertAttributeEquals("testfile", "AddressBook_several");
+        jane.get(0).assertAttributeEquals(RouteOnProtobufField.ROUTE_ATTRIBUTE, "jane");
+        jane.get(0).assertContentEquals(IOUtils.toByteArray(RouteOnProtobufFieldTest.class.getResourceAsStream("/data/AddressBook_several.data")));
+        runner.getFlowFilesForRelationship(RouteOnProtobufField.UNMATCHED).get(0).assertContentEquals(new byte[0]);
+        Assert.assertEquals(Long.valueOf(3), runner.getCounterValue(ProtobufProcessor.MESSAGES_COUNTER));
+    }
+
+    /**
+     * Test routing framed messages, which match a predicate only if all of them match it
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerRouteFramedMessages() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new RouteOnProtobufField());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, RouteOnProtobufFieldTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+        runner.setProperty("me", "name == 'Me'");
+        runner.setProperty("old", "id > 600");
+
+        byte[] message = IOUtils.toByteArray(RouteOnProtobufFieldTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+            data.write(message);
+        }
+        byte[] other = IOUtils.toByteArray(RouteOnProtobufFieldTest.class.getResourceAsStream("/data/AddressBook_basic.data"));
+        MessageFraming.VARINT_DELIMITED.writeHeader(data, other.length);
+        data.write(other);
+
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "Person");
+        runner.enqueue(data.toByteArray(), attributes);
+
+        runner.assertValid();
+        runner.run(1);
+        runner.assertQueueEmpty();
+
+        // The address book read as a person has a name but no id
+        runner.assertTransferCount(relationship("me"), 0);
+        runner.assertTransferCount(relationship("old"), 0);
+        runner.assertAllFlowFilesTransferred(RouteOnProtobufField.UNMATCHED, 1);
+    }
+
+    /**
+     * Test that predicates are checked when they are set, and against the message types when the flowfiles are routed
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerInvalidPredicates() throws Exception {
+        TestRunner runner = TestRunners.newTestRunner(new RouteOnProtobufField());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, RouteOnProtobufFieldTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty("broken", "id = 42");
+        runner.assertNotValid();
+
+        runner.setProperty("broken", "people.id == 42");
+        runner.assertValid();
+
+        // The static relationships cannot be given a predicate, nor be removed with the property
+        runner.setProperty("unmatched", "id == 42");
+        runner.assertNotValid();
+        runner.removeProperty(runner.getProcessor().getPropertyDescriptor("unmatched"));
+        runner.assertValid();
+        Assert.assertTrue(runner.getProcessor().getRelationships().contains(RouteOnProtobufField.UNMATCHED));
+
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "Person");
+        runner.enqueue(RouteOnProtobufFieldTest.class.getResourceAsStream("/data/Person.data"), attributes);
+        runner.run(1);
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.ERROR, 1);
+    }
+}
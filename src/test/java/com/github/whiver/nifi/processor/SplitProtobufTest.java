@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.processor;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class SplitProtobufTest {
+
+    private static byte[] frame(MessageFraming framing, byte[] message, int count) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            framing.writeHeader(out, message.length);
+            out.write(message);
+        }
+        return out.toByteArray();
+    }
+
+    private static TestRunner createRunner(MessageFraming framing) {
+        TestRunner runner = TestRunners.newTestRunner(new SplitProtobuf());
+        runner.setProperty(ProtobufProcessor.PROTOBUF_SCHEMA, SplitProtobufTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(ProtobufProcessor.FRAMING, framing.getValue());
+        return runner;
+    }
+
+    private static HashMap<String, String> messageType() {
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.messageType", "Person");
+        attributes.put("filename", "people.bin");
+        return attributes;
+    }
+
+    /**
+     * Test splitting a stream of messages in groups of a given number of messages
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerSplitByMessageCount() throws Exception {
+        byte[] message = IOUtils.toByteArray(SplitProtobufTest.class.getResourceAsStream("/data/Person.data"));
+
+        for (MessageFraming framing : new MessageFraming[]{MessageFraming.VARINT_DELIMITED, MessageFraming.FIXED32_BIG_ENDIAN, MessageFraming.GRPC}) {
+            TestRunner runner = createRunner(framing);
+            runner.setProperty(SplitProtobuf.SPLIT_MESSAGE_COUNT, "2");
+
+            runner.enqueue(frame(framing, message, 5), messageType());
+            runner.assertValid();
+            runner.run(1);
+            runner.assertQueueEmpty();
+
+            runner.assertTransferCount(SplitProtobuf.ORIGINAL, 1);
+            runner.assertTransferCount(ProtobufProcessor.SUCCESS, 3);
+            MockFlowFile original = runner.getFlowFilesForRelationship(SplitProtobuf.ORIGINAL).get(0);
+            original.assertContentEquals(frame(framing, message, 5));
+            original.assertAttributeEquals(SplitProtobuf.FRAGMENT_COUNT_ATTRIBUTE, "3");
+
+            List<MockFlowFile> splits = runner.getFlowFilesForRelationship(ProtobufProcessor.SUCCESS);
+            int[] counts = {2, 2, 1};
+            for (int i = 0; i < splits.size(); i++) {
+                MockFlowFile split = splits.get(i);
+                split.assertContentEquals(frame(framing, message, counts[i]));
+                split.assertAttributeEquals(ProtobufProcessor.MESSAGE_TYPE_ATTRIBUTE, "Person");
+                split.assertAttributeEquals(SplitProtobuf.MESSAGE_INDEX_ATTRIBUTE, String.valueOf(2 * i));
+                split.assertAttributeEquals(ProtobufProcessor.MESSAGE_COUNT_ATTRIBUTE, String.valueOf(counts[i]));
+                split.assertAttributeEquals(SplitProtobuf.FRAGMENT_INDEX_ATTRIBUTE, String.valueOf(i));
+                split.assertAttributeEquals(SplitProtobuf.FRAGMENT_COUNT_ATTRIBUTE, "3");
+                split.assertAttributeEquals(SplitProtobuf.FRAGMENT_ID_ATTRIBUTE, original.getAttribute(SplitProtobuf.FRAGMENT_ID_ATTRIBUTE));
+                split.assertAttributeEquals(SplitProtobuf.SEGMENT_ORIGINAL_FILENAME_ATTRIBUTE, "people.bin");
+            }
+        }
+    }
+
+    /**
+     * Test that a split never exceeds the maximum size, unless it contains a single larger message
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerSplitBySize() throws Exception {
+        byte[] message = IOUtils.toByteArray(SplitProtobufTest.class.getResourceAsStream("/data/Person.data"));
+        byte[] large = new byte[300];
+        Arrays.fill(large, (byte) 0);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(frame(MessageFraming.VARINT_DELIMITED, message, 3));
+        content.write(frame(MessageFraming.VARINT_DELIMITED, large, 1));
+        content.write(frame(MessageFraming.VARINT_DELIMITED, message, 1));
+
+        TestRunner runner = createRunner(MessageFraming.VARINT_DELIMITED);
+        runner.setProperty(SplitProtobuf.SPLIT_MAX_SIZE, (2 * (message.length + 1) + 1) + " B");
+
+        runner.enqueue(content.toByteArray(), messageType());
+        runner.run(1);
+
+        List<MockFlowFile> splits = runner.getFlowFilesForRelationship(ProtobufProcessor.SUCCESS);
+        Assert.assertEquals(4, splits.size());
+        splits.get(0).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, message, 2));
+        splits.get(1).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, message, 1));
+        splits.get(2).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, large, 1));
+        splits.get(2).assertAttributeEquals(SplitProtobuf.MESSAGE_INDEX_ATTRIBUTE, "3");
+        splits.get(3).assertContentEquals(frame(MessageFraming.VARINT_DELIMITED, message, 1));
+    }
+
+    /**
+     * Test that truncated streams are routed to error without any split, and that unframed messages cannot be split
+     * @throws Exception
+     */
+    @Test
+    public void onTriggerInvalidStreams() throws Exception {
+        byte[] message = IOUtils.toByteArray(SplitProtobufTest.class.getResourceAsStream("/data/Person.data"));
+        byte[] content = frame(MessageFraming.VARINT_DELIMITED, message, 2);
+
+        TestRunner runner = createRunner(MessageFraming.VARINT_DELIMITED);
+        runner.enqueue(Arrays.copyOf(content, content.length - 1), messageType());
+        runner.run(1);
+        runner.assertAllFlowFilesTransferred(ProtobufProcessor.ERROR, 1);
+
+        runner.setProperty(ProtobufProcessor.FRAMING, MessageFraming.NONE.getValue());
+        runner.assertNotValid();
+    }
+}
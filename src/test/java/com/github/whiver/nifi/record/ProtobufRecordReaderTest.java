@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.processor.ProtobufDecoder;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProtobufRecordReaderTest {
+    private TestRunner runner;
+    private ProtobufRecordReader service;
+
+    @Before
+    public void setUp() throws Exception {
+        runner = TestRunners.newTestRunner(ProtobufDecoder.class);
+        service = new ProtobufRecordReader();
+        runner.addControllerService("protobuf-reader", service);
+    }
+
+    /**
+     * Test reading a single message containing nested messages
+     * @throws Exception
+     */
+    @Test
+    public void readSingleMessage() throws Exception {
+        runner.setProperty(service, ProtobufRecordReader.SCHEMA_PATH, ProtobufRecordReaderTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty(service, ProtobufRecordReader.MESSAGE_TYPE, "AddressBook");
+        runner.enableControllerService(service);
+
+        InputStream data = ProtobufRecordReaderTest.class.getResourceAsStream("/data/AddressBook_several.data");
+        try (RecordReader reader = service.createRecordReader(new MockFlowFile(1L), data, runner.getLogger())) {
+            Record addressBook = reader.nextRecord();
+            Assert.assertNotNull(addressBook);
+
+            Object[] people = (Object[]) addressBook.getValue("people");
+            Assert.assertEquals(2, people.length);
+            Assert.assertEquals("John Doe", ((Record) people[0]).getValue("name"));
+            Assert.assertEquals(42, ((Record) people[0]).getValue("id"));
+            Assert.assertEquals("john.doe@example.com", ((Record) people[0]).getValue("email"));
+            Assert.assertEquals("Jane Doe", ((Record) people[1]).getValue("name"));
+
+            Assert.assertNull("A single message should be read", reader.nextRecord());
+        }
+    }
+
+    /**
+     * Test reading a stream of varint-delimited messages, with the message type given in the flowfile attributes
+     * @throws Exception
+     */
+    @Test
+    public void readDelimitedMessages() throws Exception {
+        final int messageCount = 3;
+
+        runner.setProperty(service, ProtobufRecordReader.SCHEMA_PATH, "${protobuf.schemaPath}");
+        runner.setProperty(service, ProtobufRecordReader.FRAMING, MessageFraming.VARINT_DELIMITED.getValue());
+        runner.enableControllerService(service);
+
+        byte[] message = IOUtils.toByteArray(ProtobufRecordReaderTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < messageCount; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(data, message.length);
+            data.write(message);
+        }
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("protobuf.schemaPath", ProtobufRecordReaderTest.class.getResource("/schemas/Person.desc").getPath());
+        attributes.put("protobuf.messageType", "Person");
+        MockFlowFile flowFile = new MockFlowFile(1L);
+        flowFile.putAttributes(attributes);
+
+        try (RecordReader reader = service.createRecordReader(flowFile, new ByteArrayInputStream(data.toByteArray()), runner.getLogger())) {
+            Assert.assertEquals(4, reader.getSchema().getFieldCount());
+
+            for (int i = 0; i < messageCount; i++) {
+                Record person = reader.nextRecord();
+                Assert.assertNotNull("Message " + i + " should be read", person);
+                Assert.assertEquals("Me", person.getValue("name"));
+                Assert.assertEquals(666, person.getValue("id"));
+                Assert.assertArrayEquals(new Object[0], (Object[]) person.getValue("phones"));
+            }
+
+            Assert.assertNull("All the messages should have been read", reader.nextRecord());
+        }
+    }
+}
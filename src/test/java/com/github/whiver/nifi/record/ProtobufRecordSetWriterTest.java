@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.record;
+
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.processor.ProtobufEncoder;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProtobufRecordSetWriterTest {
+    private TestRunner runner;
+    private ProtobufRecordSetWriter service;
+
+    @Before
+    public void setUp() throws Exception {
+        runner = TestRunners.newTestRunner(ProtobufEncoder.class);
+        service = new ProtobufRecordSetWriter();
+        runner.addControllerService("protobuf-writer", service);
+    }
+
+    /**
+     * Test writing a record set as varint-delimited messages
+     * @throws Exception
+     */
+    @Test
+    public void writeDelimitedRecords() throws Exception {
+        final int recordCount = 3;
+
+        runner.setProperty(service, AbstractProtobufRecordService.SCHEMA_PATH, ProtobufRecordSetWriterTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(service, AbstractProtobufRecordService.MESSAGE_TYPE, "Person");
+        runner.enableControllerService(service);
+
+        RecordSchema schema = service.getSchema(Collections.<String, String>emptyMap(), null);
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "Me");
+        values.put("id", 666);
+        values.put("unknown", "ignored");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (RecordSetWriter writer = service.createWriter(runner.getLogger(), schema, out)) {
+            writer.beginRecordSet();
+            for (int i = 0; i < recordCount; i++) {
+                writer.write(new MapRecord(schema, values));
+            }
+            Assert.assertEquals(recordCount, writer.finishRecordSet().getRecordCount());
+        }
+
+        byte[] message = IOUtils.toByteArray(ProtobufRecordSetWriterTest.class.getResourceAsStream("/data/Person.data"));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < recordCount; i++) {
+            MessageFraming.VARINT_DELIMITED.writeHeader(expected, message.length);
+            expected.write(message);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    /**
+     * Test that records read by the ProtobufRecordReader are written back to the same message
+     * @throws Exception
+     */
+    @Test
+    public void writeRecordsFromReader() throws Exception {
+        String schemaPath = ProtobufRecordSetWriterTest.class.getResource("/schemas/AddressBook.desc").getPath();
+        byte[] message = IOUtils.toByteArray(ProtobufRecordSetWriterTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+
+        ProtobufRecordReader reader = new ProtobufRecordReader();
+        runner.addControllerService("protobuf-reader", reader);
+        runner.setProperty(reader, AbstractProtobufRecordService.SCHEMA_PATH, schemaPath);
+        runner.setProperty(reader, AbstractProtobufRecordService.MESSAGE_TYPE, "AddressBook");
+        runner.enableControllerService(reader);
+
+        runner.setProperty(service, AbstractProtobufRecordService.SCHEMA_PATH, schemaPath);
+        runner.setProperty(service, AbstractProtobufRecordService.MESSAGE_TYPE, "AddressBook");
+        runner.enableControllerService(service);
+
+        Record addressBook;
+        try (RecordReader recordReader = reader.createRecordReader(new MockFlowFile(1L), new ByteArrayInputStream(message), runner.getLogger())) {
+            addressBook = recordReader.nextRecord();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordSchema schema = service.getSchema(Collections.<String, String>emptyMap(), addressBook.getSchema());
+        try (RecordSetWriter writer = service.createWriter(runner.getLogger(), schema, out)) {
+            writer.beginRecordSet();
+            writer.write(addressBook);
+            writer.finishRecordSet();
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MessageFraming.VARINT_DELIMITED.writeHeader(expected, message.length);
+        expected.write(message);
+        Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.registry;
+
+import com.github.whiver.nifi.exception.UnknownSchemaException;
+import com.github.whiver.nifi.parser.MessageTypeIndex;
+import com.github.whiver.nifi.processor.ProtobufDecoder;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class StandardProtobufSchemaRegistryTest {
+    private TestRunner runner;
+    private StandardProtobufSchemaRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        runner = TestRunners.newTestRunner(ProtobufDecoder.class);
+        registry = new StandardProtobufSchemaRegistry();
+        runner.addControllerService("schema-registry", registry);
+    }
+
+    /**
+     * Test that a schema loaded by path is only parsed once
+     * @throws Exception
+     */
+    @Test
+    public void getSchemaByPathIsCached() throws Exception {
+        runner.enableControllerService(registry);
+
+        String path = StandardProtobufSchemaRegistryTest.class.getResource("/schemas/Person.desc").getPath();
+        MessageTypeIndex first = registry.getSchemaByPath(path, false);
+        MessageTypeIndex second = registry.getSchemaByPath(path, false);
+
+        Assert.assertSame("The schema should be loaded only once", first, second);
+        Assert.assertNotNull(first.getDescriptor("Person"));
+        Assert.assertEquals(1, registry.getSchemaCache().getMissCount());
+    }
+
+    /**
+     * Test looking schemas up by name, with and without version
+     * @throws Exception
+     */
+    @Test
+    public void getSchemaByName() throws Exception {
+        runner.setProperty(registry, "contacts:1.2", StandardProtobufSchemaRegistryTest.class.getResource("/schemas/Person.desc").getPath());
+        runner.setProperty(registry, "contacts:1.10", StandardProtobufSchemaRegistryTest.class.getResource("/schemas/AddressBook.desc").getPath());
+        runner.setProperty(registry, "people", StandardProtobufSchemaRegistryTest.class.getResource("/schemas/Person.proto").getPath());
+        runner.enableControllerService(registry);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("contacts", "people")), registry.getSchemaNames());
+
+        Assert.assertNotNull("Version 1.2 only holds the Person message",
+                registry.getSchemaByName("contacts", "1.2").getDescriptor("Person"));
+        Assert.assertNotNull("Version 1.10 is the latest version",
+                registry.getSchemaByName("contacts", null).getDescriptor("AddressBook"));
+        Assert.assertNotNull("A .proto schema should be compiled",
+                registry.getSchemaByName("people", null).getDescriptor("Person"));
+
+        try {
+            registry.getSchemaByName("contacts", "2.0");
+            Assert.fail("No schema is registered in version 2.0");
+        } catch (UnknownSchemaException e) {
+            // Expected
+        }
+
+        try {
+            registry.getSchemaByName("unknown", null);
+            Assert.fail("No schema is registered under this name");
+        } catch (UnknownSchemaException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void versionOrder() {
+        Assert.assertTrue(StandardProtobufSchemaRegistry.VERSION_ORDER.compare("1.2", "1.10") < 0);
+        Assert.assertTrue(StandardProtobufSchemaRegistry.VERSION_ORDER.compare("2", "1.10") > 0);
+        Assert.assertTrue(StandardProtobufSchemaRegistry.VERSION_ORDER.compare("1.0", "1.0.1") < 0);
+        Assert.assertEquals(0, StandardProtobufSchemaRegistry.VERSION_ORDER.compare("1.0", "1.0"));
+    }
+}
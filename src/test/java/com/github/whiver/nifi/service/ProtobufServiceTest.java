@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * NiFi Protobuf Processor
+ * Copyright (c) 2017 William Hiver
+ * https://github.com/whiver/nifi-protobuf-processor
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.whiver.nifi.service;
+
+import com.github.os72.protobuf.dynamic.DynamicSchema;
+import com.github.whiver.nifi.exception.MessageDecodingException;
+import com.github.whiver.nifi.framing.JsonLayout;
+import com.github.whiver.nifi.framing.MessageFraming;
+import com.github.whiver.nifi.mapper.JSONMapper;
+import com.github.whiver.nifi.parser.SchemaParser;
+import com.google.protobuf.Descriptors;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class ProtobufServiceTest {
+
+    /**
+     * Test that the streaming decoder writes exactly the same JSON as the String-based one
+     * @throws Exception
+     */
+    @Test
+    public void decodeToStreamMatchesDecodeToString() throws Exception {
+        Descriptors.Descriptor descriptor = loadDescriptor();
+        byte[] data = IOUtils.toByteArray(ProtobufServiceTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+
+        String expected = ProtobufService.decodeProtobuf(descriptor, new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProtobufService.decodeProtobuf(descriptor, new ByteArrayInputStream(data), out);
+
+        Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that decoding framed messages in parallel writes the same JSON, in the same order, as decoding them on a
+     * single thread
+     * @throws Exception
+     */
+    @Test
+    public void decodeInParallelMatchesSequentialDecoding() throws Exception {
+        Descriptors.Descriptor descriptor = loadDescriptor();
+        byte[] basic = IOUtils.toByteArray(ProtobufServiceTest.class.getResourceAsStream("/data/AddressBook_basic.data"));
+        byte[] several = IOUtils.toByteArray(ProtobufServiceTest.class.getResourceAsStream("/data/AddressBook_several.data"));
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            byte[] message = i % 3 == 0 ? several : basic;
+            MessageFraming.VARINT_DELIMITED.writeHeader(framed, message.length);
+            framed.write(message);
+        }
+        byte[] data = framed.toByteArray();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (JsonLayout layout : JsonLayout.values()) {
+                for (int minChunkSize : new int[]{0, 100, 1000, data.length}) {
+                    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                    ProtobufService.decodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, layout,
+                            JSONMapper.getDefault(), new ByteArrayInputStream(data), expected);
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    long count = ProtobufService.decodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, layout,
+                            JSONMapper.getDefault(), null, null, pool, minChunkSize, new ByteArrayInputStream(data), out);
+
+                    Assert.assertEquals(500, count);
+                    Assert.assertEquals(new String(expected.toByteArray(), StandardCharsets.UTF_8),
+                            new String(out.toByteArray(), StandardCharsets.UTF_8));
+                }
+            }
+
+            try {
+                ProtobufService.decodeProtobuf(descriptor, MessageFraming.VARINT_DELIMITED, JsonLayout.NDJSON,
+                        JSONMapper.getDefault(), null, null, pool, 100,
+                        new ByteArrayInputStream(Arrays.copyOf(data, data.length - 1)), new ByteArrayOutputStream());
+                Assert.fail("A truncated stream should not be decoded");
+            } catch (MessageDecodingException e) {
+                // Expected
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Descriptors.Descriptor loadDescriptor() throws Exception {
+        DynamicSchema schema = SchemaParser.parseSchema(ProtobufServiceTest.class.getResource("/schemas/AddressBook.desc").getPath(), false);
+        return schema.getMessageDescriptor("AddressBook");
+    }
+}